@@ -0,0 +1,78 @@
+package org.multibit.hd.brit.core.corpus;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Value object to provide the following to benchmarks and load generators:</p>
+ * <ul>
+ * <li>One pre-generated wallet: seed phrase, seed and BRITWalletId</li>
+ * <li>The PayerRequest for the wallet and, optionally, its encrypted form ready to send to a Matcher</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class CorpusEntry {
+
+  private final List<String> seedPhrase;
+
+  private final byte[] seed;
+
+  private final PayerRequest payerRequest;
+
+  private final Optional<EncryptedPayerRequest> encryptedPayerRequest;
+
+  /**
+   * @param seedPhrase            The seed phrase
+   * @param seed                  The seed derived from the seed phrase
+   * @param payerRequest          The PayerRequest containing the BRITWalletId derived from the seed
+   * @param encryptedPayerRequest The PayerRequest encrypted to a Matcher public key (absent if no key was given)
+   */
+  public CorpusEntry(List<String> seedPhrase, byte[] seed, PayerRequest payerRequest, Optional<EncryptedPayerRequest> encryptedPayerRequest) {
+
+    Preconditions.checkNotNull(seedPhrase, "'seedPhrase' must be present");
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(payerRequest, "'payerRequest' must be present");
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    this.seedPhrase = ImmutableList.copyOf(seedPhrase);
+    this.seed = Arrays.copyOf(seed, seed.length);
+    this.payerRequest = payerRequest;
+    this.encryptedPayerRequest = encryptedPayerRequest;
+  }
+
+  public List<String> getSeedPhrase() {
+    return seedPhrase;
+  }
+
+  public byte[] getSeed() {
+    return Arrays.copyOf(seed, seed.length);
+  }
+
+  public BRITWalletId getBritWalletId() {
+    return payerRequest.getBritWalletId();
+  }
+
+  public PayerRequest getPayerRequest() {
+    return payerRequest;
+  }
+
+  public Optional<EncryptedPayerRequest> getEncryptedPayerRequest() {
+    return encryptedPayerRequest;
+  }
+
+  @Override
+  public String toString() {
+    return "CorpusEntry{" +
+      "britWalletId=" + payerRequest.getBritWalletId() +
+      ", encrypted=" + encryptedPayerRequest.isPresent() +
+      '}';
+  }
+}
@@ -0,0 +1,195 @@
+package org.multibit.hd.brit.core.corpus;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.payer.BasicPayer;
+import org.multibit.hd.brit.core.payer.PayerRequestEncryptor;
+import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
+import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * <p>Command line tool to provide the following to benchmarks, load generators and tests:</p>
+ * <ul>
+ * <li>Parallel generation of seed phrases, seeds, BRITWalletIds and (optionally) encrypted PayerRequests</li>
+ * <li>A compact binary corpus file (see CorpusWriter) that can be memory-mapped and replayed (see CorpusReader)</li>
+ * </ul>
+ * <p>Usage: <code>CorpusGenerator &lt;corpus file&gt; &lt;count&gt; [matcher public key (.asc)]</code></p>
+ * <p>The scrypt derivation of each BRITWalletId dominates the cost so entries are generated on all cores.</p>
+ *
+ * @since 0.0.1
+ */
+public class CorpusGenerator {
+
+  private static final Logger log = LoggerFactory.getLogger(CorpusGenerator.class);
+
+  /**
+   * The number of entries generated by each task
+   */
+  private static final int BATCH_SIZE = 32;
+
+  /**
+   * Spread first transaction dates over the last two years
+   */
+  private static final long FIRST_TRANSACTION_WINDOW_MILLIS = TimeUnit.DAYS.toMillis(730);
+
+  private final Optional<PGPPublicKey> matcherPublicKey;
+
+  private final int threads;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  /**
+   * @param matcherPublicKey The Matcher public key to encrypt PayerRequests to (absent to skip encryption)
+   * @param threads          The number of generator threads
+   */
+  public CorpusGenerator(Optional<PGPPublicKey> matcherPublicKey, int threads) {
+
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+    Preconditions.checkState(threads > 0, "'threads' must be greater than zero");
+
+    this.matcherPublicKey = matcherPublicKey;
+    this.threads = threads;
+  }
+
+  /**
+   * Entry point to the corpus generator
+   *
+   * @param args The command line arguments
+   *
+   * @throws Exception If something goes wrong
+   */
+  public static void main(String[] args) throws Exception {
+
+    if (args.length < 2 || args.length > 3) {
+      System.err.println("Usage: CorpusGenerator <corpus file> <count> [matcher public key (.asc)]");
+      System.exit(1);
+    }
+
+    File corpusFile = new File(args[0]);
+    int count = Integer.parseInt(args[1]);
+
+    Optional<PGPPublicKey> matcherPublicKey = Optional.absent();
+    if (args.length == 3) {
+      try (InputStream matcherPublicKeyInputStream = new FileInputStream(args[2])) {
+        matcherPublicKey = Optional.of(PGPUtils.readPublicKey(matcherPublicKeyInputStream));
+      }
+    }
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    Stopwatch stopwatch = Stopwatch.createStarted();
+
+    new CorpusGenerator(matcherPublicKey, threads).generate(corpusFile, count);
+
+    log.info("Generated {} entries in {} using {} threads", count, stopwatch, threads);
+  }
+
+  /**
+   * @param corpusFile The corpus file to create (overwritten if present)
+   * @param count      The number of entries to generate
+   *
+   * @throws IOException If the corpus file cannot be written or an entry cannot be generated
+   */
+  public void generate(File corpusFile, int count) throws IOException {
+
+    Preconditions.checkNotNull(corpusFile, "'corpusFile' must be present");
+    Preconditions.checkState(count >= 0, "'count' must not be negative");
+
+    ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    try (CorpusWriter corpusWriter = new CorpusWriter(corpusFile)) {
+
+      // Keep a bounded window of batches in flight and write them in order
+      Deque<Future<List<CorpusEntry>>> inFlight = new ArrayDeque<>();
+      int submitted = 0;
+      while (submitted < count || !inFlight.isEmpty()) {
+        while (submitted < count && inFlight.size() < threads * 2) {
+          final int batchSize = Math.min(BATCH_SIZE, count - submitted);
+          inFlight.add(executorService.submit(new Callable<List<CorpusEntry>>() {
+            @Override
+            public List<CorpusEntry> call() throws Exception {
+              return newBatch(batchSize);
+            }
+          }));
+          submitted += batchSize;
+        }
+        for (CorpusEntry corpusEntry : inFlight.remove().get()) {
+          corpusWriter.append(corpusEntry);
+        }
+        log.debug("Written {} of {} entries", corpusWriter.getEntryCount(), count);
+      }
+      corpusWriter.finish();
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while generating the corpus", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not generate a corpus entry", e.getCause());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * @param batchSize The number of entries to generate
+   *
+   * @return The entries
+   *
+   * @throws Exception If an entry cannot be generated
+   */
+  private List<CorpusEntry> newBatch(int batchSize) throws Exception {
+
+    // The seed phrase generator is not thread safe so each batch has its own
+    SeedPhraseGenerator seedPhraseGenerator = new Bip39SeedPhraseGenerator();
+
+    List<CorpusEntry> batch = Lists.newArrayListWithCapacity(batchSize);
+    for (int i = 0; i < batchSize; i++) {
+      batch.add(newEntry(seedPhraseGenerator));
+    }
+    return batch;
+  }
+
+  private CorpusEntry newEntry(SeedPhraseGenerator seedPhraseGenerator) throws Exception {
+
+    List<String> seedPhrase = seedPhraseGenerator.newSeedPhrase();
+    byte[] seed = seedPhraseGenerator.convertToSeed(seedPhrase);
+    BRITWalletId britWalletId = new BRITWalletId(seed);
+
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionKey);
+
+    // Most wallets have a first transaction
+    long firstTransactionMillis = PayerRequest.NOT_PRESENT_MILLIS;
+    if (secureRandom.nextInt(8) != 0) {
+      firstTransactionMillis = System.currentTimeMillis() - (long) (secureRandom.nextDouble() * FIRST_TRANSACTION_WINDOW_MILLIS);
+    }
+
+    PayerRequest payerRequest = new PayerRequest(BasicPayer.CURRENT_BRIT_VERSION, britWalletId, sessionKey, firstTransactionMillis);
+
+    Optional<EncryptedPayerRequest> encryptedPayerRequest = Optional.absent();
+    if (matcherPublicKey.isPresent()) {
+      byte[] payload = PayerRequestEncryptor.forKey(matcherPublicKey.get()).encrypt(payerRequest.serialise());
+      encryptedPayerRequest = Optional.of(new EncryptedPayerRequest(payload));
+    }
+
+    return new CorpusEntry(seedPhrase, seed, payerRequest, encryptedPayerRequest);
+  }
+}
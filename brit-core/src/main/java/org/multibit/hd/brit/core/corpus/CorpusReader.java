@@ -0,0 +1,226 @@
+package org.multibit.hd.brit.core.corpus;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import org.bitcoinj.core.Utils;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Reader to provide the following to benchmarks and load generators:</p>
+ * <ul>
+ * <li>Memory-mapped random access to a corpus file written by CorpusWriter</li>
+ * <li>Cheap access to the parts needed to replay traffic (BRITWalletId, PayerRequest, encrypted PayerRequest)</li>
+ * </ul>
+ * <p>The reader is safe to share across threads since each access works on its own view of the mapping.</p>
+ *
+ * @since 0.0.1
+ */
+public class CorpusReader implements Closeable {
+
+  private final RandomAccessFile randomAccessFile;
+
+  private final MappedByteBuffer mappedByteBuffer;
+
+  /**
+   * The smallest possible entry (version, first transaction millis, BRITWalletId and four empty length prefixed fields)
+   */
+  private static final int MINIMUM_ENTRY_LENGTH = 1 + 8 + CorpusWriter.BRIT_WALLET_ID_LENGTH + 4 * 4;
+
+  /**
+   * The offset of each entry (after its length field)
+   */
+  private final int[] offsets;
+
+  /**
+   * The offset just past each entry
+   */
+  private final int[] ends;
+
+  /**
+   * @param corpusFile The corpus file to map
+   *
+   * @throws IOException If the file cannot be mapped or is not a corpus file
+   */
+  public CorpusReader(File corpusFile) throws IOException {
+
+    Preconditions.checkNotNull(corpusFile, "'corpusFile' must be present");
+
+    randomAccessFile = new RandomAccessFile(corpusFile, "r");
+    try {
+      FileChannel fileChannel = randomAccessFile.getChannel();
+      Preconditions.checkState(fileChannel.size() <= Integer.MAX_VALUE, "'corpusFile' must be smaller than 2GB");
+      mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+
+      if (mappedByteBuffer.limit() < CorpusWriter.HEADER_LENGTH
+        || mappedByteBuffer.getInt(0) != CorpusWriter.MAGIC
+        || mappedByteBuffer.getInt(4) != CorpusWriter.FORMAT_VERSION) {
+        throw new IOException("Not a corpus file: " + corpusFile.getAbsolutePath());
+      }
+
+      // Index the entries (each must fit in what remains so the count cannot exceed the file either)
+      int entryCount = mappedByteBuffer.getInt(8);
+      if (entryCount < 0 || entryCount > (mappedByteBuffer.limit() - CorpusWriter.HEADER_LENGTH) / (4 + MINIMUM_ENTRY_LENGTH)) {
+        throw new IOException("Corrupt corpus file (entry count " + entryCount + "): " + corpusFile.getAbsolutePath());
+      }
+      offsets = new int[entryCount];
+      ends = new int[entryCount];
+      int position = CorpusWriter.HEADER_LENGTH;
+      for (int i = 0; i < offsets.length; i++) {
+        if (position + 4 > mappedByteBuffer.limit()) {
+          throw new IOException("Truncated corpus file: " + corpusFile.getAbsolutePath());
+        }
+        int entryLength = mappedByteBuffer.getInt(position);
+        offsets[i] = position + 4;
+        if (entryLength < MINIMUM_ENTRY_LENGTH || entryLength > mappedByteBuffer.limit() - offsets[i]) {
+          throw new IOException("Corrupt corpus file (entry " + i + " length " + entryLength + "): " + corpusFile.getAbsolutePath());
+        }
+        ends[i] = offsets[i] + entryLength;
+        position = ends[i];
+      }
+    } catch (IOException | RuntimeException e) {
+      randomAccessFile.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The number of entries in the corpus
+   */
+  public int size() {
+    return offsets.length;
+  }
+
+  /**
+   * @param index The entry index
+   *
+   * @return The BRITWalletId of the entry
+   */
+  public BRITWalletId getBRITWalletId(int index) {
+
+    ByteBuffer entry = entry(index);
+    entry.position(entry.position() + 1 + 8);
+
+    return readBRITWalletId(entry);
+  }
+
+  /**
+   * @param index The entry index
+   *
+   * @return The PayerRequest of the entry
+   */
+  public PayerRequest getPayerRequest(int index) {
+    return readPayerRequest(entry(index));
+  }
+
+  /**
+   * @param index The entry index
+   *
+   * @return The encrypted PayerRequest of the entry (absent if the corpus was generated without a Matcher key)
+   */
+  public Optional<EncryptedPayerRequest> getEncryptedPayerRequest(int index) {
+
+    ByteBuffer entry = entry(index);
+    entry.position(entry.position() + 1 + 8 + CorpusWriter.BRIT_WALLET_ID_LENGTH);
+    skipBytes(entry);
+    skipBytes(entry);
+    skipBytes(entry);
+
+    return readEncryptedPayerRequest(entry);
+  }
+
+  /**
+   * @param index The entry index
+   *
+   * @return The full entry including the seed phrase and seed
+   */
+  public CorpusEntry getEntry(int index) {
+
+    ByteBuffer entry = entry(index);
+    PayerRequest payerRequest = readPayerRequest(entry);
+    byte[] seed = readBytes(entry);
+    String seedPhrase = new String(readBytes(entry), Charsets.UTF_8);
+
+    return new CorpusEntry(
+      Splitter.on(' ').splitToList(seedPhrase),
+      seed,
+      payerRequest,
+      readEncryptedPayerRequest(entry)
+    );
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The mapping itself is released when it is garbage collected
+    randomAccessFile.close();
+  }
+
+  /**
+   * @return A private view positioned at the start of the entry and limited to its end
+   */
+  private ByteBuffer entry(int index) {
+
+    Preconditions.checkElementIndex(index, offsets.length, "index");
+
+    ByteBuffer entry = mappedByteBuffer.duplicate();
+    entry.limit(ends[index]);
+    entry.position(offsets[index]);
+    return entry;
+  }
+
+  private PayerRequest readPayerRequest(ByteBuffer entry) {
+
+    int version = entry.get();
+    long firstTransactionMillis = entry.getLong();
+    BRITWalletId britWalletId = readBRITWalletId(entry);
+    byte[] sessionKey = readBytes(entry);
+
+    return new PayerRequest(version, britWalletId, sessionKey, firstTransactionMillis);
+  }
+
+  private BRITWalletId readBRITWalletId(ByteBuffer entry) {
+
+    byte[] britWalletId = new byte[CorpusWriter.BRIT_WALLET_ID_LENGTH];
+    entry.get(britWalletId);
+    return new BRITWalletId(Utils.HEX.encode(britWalletId));
+  }
+
+  private Optional<EncryptedPayerRequest> readEncryptedPayerRequest(ByteBuffer entry) {
+
+    byte[] payload = readBytes(entry);
+    return payload.length == 0 ? Optional.<EncryptedPayerRequest>absent() : Optional.of(new EncryptedPayerRequest(payload));
+  }
+
+  private byte[] readBytes(ByteBuffer entry) {
+
+    byte[] bytes = new byte[readLength(entry)];
+    entry.get(bytes);
+    return bytes;
+  }
+
+  private void skipBytes(ByteBuffer entry) {
+    int length = readLength(entry);
+    entry.position(entry.position() + length);
+  }
+
+  /**
+   * @return The length of the following field which must lie within the entry
+   */
+  private int readLength(ByteBuffer entry) {
+
+    int length = entry.getInt();
+    Preconditions.checkState(length >= 0 && length <= entry.remaining(), "'length' must lie within the entry but was %s", length);
+    return length;
+  }
+}
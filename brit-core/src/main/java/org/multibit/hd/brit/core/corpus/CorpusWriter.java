@@ -0,0 +1,157 @@
+package org.multibit.hd.brit.core.corpus;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+
+import java.io.*;
+
+/**
+ * <p>Writer to provide the following to CorpusGenerator:</p>
+ * <ul>
+ * <li>Streaming of CorpusEntries into a compact binary corpus file</li>
+ * </ul>
+ * <p>The file is a 12 byte header (magic, format version, entry count) followed by length prefixed entries:</p>
+ * <pre>
+ * int    entry length (excluding this field)
+ * byte   PayerRequest version
+ * long   first transaction millis (PayerRequest.NOT_PRESENT_MILLIS if absent)
+ * byte[] BRITWalletId (20 bytes)
+ * int+[] session key
+ * int+[] seed
+ * int+[] seed phrase (UTF-8, space separated)
+ * int+[] encrypted PayerRequest (zero length if absent)
+ * </pre>
+ * <p>All values are big endian so the file can be memory-mapped and read with a ByteBuffer (see CorpusReader).</p>
+ * <p>The entry count is only written by <code>finish()</code>. Closing without finishing (e.g. after a failure)
+ * deletes the file so a partial corpus is never mistaken for a complete one.</p>
+ *
+ * @since 0.0.1
+ */
+public class CorpusWriter implements Closeable {
+
+  /**
+   * "BRIT" in ASCII
+   */
+  static final int MAGIC = 0x42524954;
+
+  static final int FORMAT_VERSION = 1;
+
+  static final int HEADER_LENGTH = 12;
+
+  static final int BRIT_WALLET_ID_LENGTH = 20;
+
+  private final File corpusFile;
+
+  private final DataOutputStream outputStream;
+
+  private int entryCount = 0;
+
+  private boolean finished = false;
+
+  /**
+   * @param corpusFile The corpus file to create (overwritten if present)
+   *
+   * @throws IOException If the file cannot be created
+   */
+  public CorpusWriter(File corpusFile) throws IOException {
+
+    Preconditions.checkNotNull(corpusFile, "'corpusFile' must be present");
+
+    this.corpusFile = corpusFile;
+    this.outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(corpusFile), 1 << 16));
+
+    // The entry count is filled in by finish() (closing without finish() deletes the incomplete file)
+    outputStream.writeInt(MAGIC);
+    outputStream.writeInt(FORMAT_VERSION);
+    outputStream.writeInt(0);
+  }
+
+  /**
+   * @param corpusEntry The entry to append
+   *
+   * @throws IOException If the entry cannot be written
+   */
+  public void append(CorpusEntry corpusEntry) throws IOException {
+
+    Preconditions.checkNotNull(corpusEntry, "'corpusEntry' must be present");
+
+    PayerRequest payerRequest = corpusEntry.getPayerRequest();
+    byte[] britWalletId = payerRequest.getBritWalletId().getBytes();
+    Preconditions.checkState(britWalletId.length == BRIT_WALLET_ID_LENGTH, "'britWalletId' must be 20 bytes");
+
+    byte[] sessionKey = payerRequest.getSessionKey();
+    byte[] seed = corpusEntry.getSeed();
+    byte[] seedPhrase = Joiner.on(' ').join(corpusEntry.getSeedPhrase()).getBytes(Charsets.UTF_8);
+    byte[] encryptedPayerRequest = corpusEntry.getEncryptedPayerRequest().isPresent()
+      ? corpusEntry.getEncryptedPayerRequest().get().getPayload()
+      : new byte[0];
+
+    int entryLength = 1 + 8 + BRIT_WALLET_ID_LENGTH
+      + 4 + sessionKey.length
+      + 4 + seed.length
+      + 4 + seedPhrase.length
+      + 4 + encryptedPayerRequest.length;
+
+    outputStream.writeInt(entryLength);
+    outputStream.writeByte(payerRequest.getVersion());
+    outputStream.writeLong(payerRequest.getFirstTransactionMillis());
+    outputStream.write(britWalletId);
+    writeBytes(sessionKey);
+    writeBytes(seed);
+    writeBytes(seedPhrase);
+    writeBytes(encryptedPayerRequest);
+
+    entryCount++;
+  }
+
+  /**
+   * @return The number of entries written so far
+   */
+  public int getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * Complete the corpus by filling in the entry count
+   *
+   * @throws IOException If the corpus cannot be completed
+   */
+  public void finish() throws IOException {
+
+    Preconditions.checkState(!finished, "'corpusWriter' must not be finished");
+
+    outputStream.close();
+
+    // Fill in the entry count
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(corpusFile, "rw")) {
+      randomAccessFile.seek(8);
+      randomAccessFile.writeInt(entryCount);
+    }
+
+    finished = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    if (finished) {
+      return;
+    }
+
+    // Not finished so the corpus is incomplete
+    try {
+      outputStream.close();
+    } finally {
+      if (!corpusFile.delete()) {
+        throw new IOException("Could not delete the incomplete corpus file: " + corpusFile.getAbsolutePath());
+      }
+    }
+  }
+
+  private void writeBytes(byte[] bytes) throws IOException {
+    outputStream.writeInt(bytes.length);
+    outputStream.write(bytes);
+  }
+}
@@ -0,0 +1,91 @@
+package org.multibit.hd.brit.core.dto;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>DTO to provide the following to fee reconciliation:</p>
+ * <ul>
+ * <li>The fee position of each audited wallet (in the order the wallets were given)</li>
+ * <li>Aggregate totals across all the wallets, including per fee address</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class FeeAuditResult {
+
+  private final ImmutableList<WalletFeeAudit> walletFeeAudits;
+
+  private final ImmutableMap<Address, Coin> feePaidByAddress;
+
+  private final int totalNumberOfSends;
+
+  private final Coin totalFeePaid;
+
+  private final Coin totalFeeOwed;
+
+  /**
+   * @param walletFeeAudits  The individual wallet audits
+   * @param feePaidByAddress The total paid to each fee address across all wallets
+   */
+  public FeeAuditResult(List<WalletFeeAudit> walletFeeAudits, Map<Address, Coin> feePaidByAddress) {
+
+    Preconditions.checkNotNull(walletFeeAudits, "'walletFeeAudits' must be present");
+    Preconditions.checkNotNull(feePaidByAddress, "'feePaidByAddress' must be present");
+
+    this.walletFeeAudits = ImmutableList.copyOf(walletFeeAudits);
+    this.feePaidByAddress = ImmutableMap.copyOf(feePaidByAddress);
+
+    int sends = 0;
+    Coin paid = Coin.ZERO;
+    Coin owed = Coin.ZERO;
+    for (WalletFeeAudit walletFeeAudit : walletFeeAudits) {
+      sends += walletFeeAudit.getCurrentNumberOfSends();
+      paid = paid.add(walletFeeAudit.getFeePaid());
+      owed = owed.add(walletFeeAudit.getFeeOwed());
+    }
+    this.totalNumberOfSends = sends;
+    this.totalFeePaid = paid;
+    this.totalFeeOwed = owed;
+  }
+
+  public ImmutableList<WalletFeeAudit> getWalletFeeAudits() {
+    return walletFeeAudits;
+  }
+
+  public ImmutableMap<Address, Coin> getFeePaidByAddress() {
+    return feePaidByAddress;
+  }
+
+  public int getTotalNumberOfSends() {
+    return totalNumberOfSends;
+  }
+
+  public Coin getTotalFeePaid() {
+    return totalFeePaid;
+  }
+
+  /**
+   * @return The sum of the net fee owed by each wallet (overpayments offset underpayments)
+   */
+  public Coin getTotalFeeOwed() {
+    return totalFeeOwed;
+  }
+
+  @Override
+  public String toString() {
+    return "FeeAuditResult{" +
+      "wallets=" + walletFeeAudits.size() +
+      ", totalNumberOfSends=" + totalNumberOfSends +
+      ", totalFeePaid=" + totalFeePaid +
+      ", totalFeeOwed=" + totalFeeOwed +
+      ", feeAddresses=" + feePaidByAddress.size() +
+      '}';
+  }
+}
@@ -0,0 +1,242 @@
+package org.multibit.hd.brit.core.dto;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>DTO to provide the following to FeeService:</p>
+ * <ul>
+ * <li>The high-water mark and running totals of an incremental fee state calculation</li>
+ * </ul>
+ * <p>Transactions are processed in update time order. Everything up to and including
+ * lastUpdateTimeMillis has been processed, with boundaryTransactionHashes recording which
+ * transactions at exactly that time are already included. The transactionFingerprint covers the
+ * hash and update time of every processed transaction so that a transaction moving earlier (e.g.
+ * when it is confirmed in a block) is detected.</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeTrackerDto {
+
+  /**
+   * The format version (bump to force a full rescan after a change in the calculation)
+   */
+  public static final int CURRENT_VERSION = 2;
+
+  private final int version;
+
+  private final int transactionCount;
+
+  private final long lastUpdateTimeMillis;
+
+  private final Set<Sha256Hash> boundaryTransactionHashes;
+
+  private final long transactionFingerprint;
+
+  private final int lastBlockSeenHeight;
+
+  private final String feeAddressUniverseHash;
+
+  private final String sentBySelfProviderId;
+
+  private final int sendCount;
+
+  private final Coin feePaid;
+
+  private final Optional<Integer> lastFeePayingSendCount;
+
+  private final Optional<Address> lastFeePayingSendAddress;
+
+  /**
+   * @param version                   The format version
+   * @param transactionCount          The number of wallet transactions processed (sends and receives)
+   * @param lastUpdateTimeMillis      The update time of the latest transaction processed
+   * @param boundaryTransactionHashes The hashes of the processed transactions with exactly lastUpdateTimeMillis
+   * @param transactionFingerprint    The sum of fingerprintTransaction over the processed transactions
+   * @param lastBlockSeenHeight       The wallet last block seen height at the time of processing
+   * @param feeAddressUniverseHash    A digest of the fee addresses the totals were calculated against
+   * @param sentBySelfProviderId      The TransactionSentBySelfProvider the sends were counted with
+   * @param sendCount                 The number of sends by self
+   * @param feePaid                   The total paid to fee addresses
+   * @param lastFeePayingSendCount    The send count of the most recent send paying a fee (if any)
+   * @param lastFeePayingSendAddress  The fee address of the most recent send paying a fee (if any)
+   */
+  public FeeTrackerDto(
+    int version,
+    int transactionCount,
+    long lastUpdateTimeMillis,
+    Set<Sha256Hash> boundaryTransactionHashes,
+    long transactionFingerprint,
+    int lastBlockSeenHeight,
+    String feeAddressUniverseHash,
+    String sentBySelfProviderId,
+    int sendCount,
+    Coin feePaid,
+    Optional<Integer> lastFeePayingSendCount,
+    Optional<Address> lastFeePayingSendAddress) {
+
+    Preconditions.checkNotNull(boundaryTransactionHashes, "'boundaryTransactionHashes' must be present");
+    Preconditions.checkNotNull(feeAddressUniverseHash, "'feeAddressUniverseHash' must be present");
+    Preconditions.checkNotNull(sentBySelfProviderId, "'sentBySelfProviderId' must be present");
+    Preconditions.checkNotNull(feePaid, "'feePaid' must be present");
+
+    this.version = version;
+    this.transactionCount = transactionCount;
+    this.lastUpdateTimeMillis = lastUpdateTimeMillis;
+    this.boundaryTransactionHashes = ImmutableSet.copyOf(boundaryTransactionHashes);
+    this.transactionFingerprint = transactionFingerprint;
+    this.lastBlockSeenHeight = lastBlockSeenHeight;
+    this.feeAddressUniverseHash = feeAddressUniverseHash;
+    this.sentBySelfProviderId = sentBySelfProviderId;
+    this.sendCount = sendCount;
+    this.feePaid = feePaid;
+    this.lastFeePayingSendCount = lastFeePayingSendCount;
+    this.lastFeePayingSendAddress = lastFeePayingSendAddress;
+  }
+
+  /**
+   * @param feeAddresses The fee addresses
+   *
+   * @return A digest of the fee addresses that is independent of their order
+   */
+  public static String hashFeeAddresses(Set<Address> feeAddresses) {
+
+    List<String> sorted = Lists.newArrayListWithCapacity(feeAddresses.size());
+    for (Address feeAddress : feeAddresses) {
+      sorted.add(feeAddress.toString());
+    }
+    Collections.sort(sorted);
+
+    StringBuilder builder = new StringBuilder();
+    for (String feeAddress : sorted) {
+      builder.append(feeAddress).append('\n');
+    }
+    return Sha256Hash.of(builder.toString().getBytes(Charsets.UTF_8)).toString();
+  }
+
+  /**
+   * @param transactionHash  The transaction hash
+   * @param updateTimeMillis The transaction update time
+   *
+   * @return A fingerprint of the transaction at that update time (summed so that the order does not matter)
+   */
+  public static long fingerprintTransaction(Sha256Hash transactionHash, long updateTimeMillis) {
+
+    // The leading bytes of a transaction hash are already well distributed
+    long mixed = (ByteBuffer.wrap(transactionHash.getBytes()).getLong() ^ updateTimeMillis) * 0x9E3779B97F4A7C15L;
+    return mixed ^ (mixed >>> 32);
+  }
+
+  public int getVersion() {
+    return version;
+  }
+
+  public int getTransactionCount() {
+    return transactionCount;
+  }
+
+  public long getLastUpdateTimeMillis() {
+    return lastUpdateTimeMillis;
+  }
+
+  public Set<Sha256Hash> getBoundaryTransactionHashes() {
+    return boundaryTransactionHashes;
+  }
+
+  public long getTransactionFingerprint() {
+    return transactionFingerprint;
+  }
+
+  public int getLastBlockSeenHeight() {
+    return lastBlockSeenHeight;
+  }
+
+  public String getFeeAddressUniverseHash() {
+    return feeAddressUniverseHash;
+  }
+
+  public String getSentBySelfProviderId() {
+    return sentBySelfProviderId;
+  }
+
+  public int getSendCount() {
+    return sendCount;
+  }
+
+  public Coin getFeePaid() {
+    return feePaid;
+  }
+
+  public Optional<Integer> getLastFeePayingSendCount() {
+    return lastFeePayingSendCount;
+  }
+
+  public Optional<Address> getLastFeePayingSendAddress() {
+    return lastFeePayingSendAddress;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    FeeTrackerDto that = (FeeTrackerDto) o;
+
+    return version == that.version
+      && transactionCount == that.transactionCount
+      && lastUpdateTimeMillis == that.lastUpdateTimeMillis
+      && transactionFingerprint == that.transactionFingerprint
+      && lastBlockSeenHeight == that.lastBlockSeenHeight
+      && sendCount == that.sendCount
+      && boundaryTransactionHashes.equals(that.boundaryTransactionHashes)
+      && feeAddressUniverseHash.equals(that.feeAddressUniverseHash)
+      && sentBySelfProviderId.equals(that.sentBySelfProviderId)
+      && feePaid.equals(that.feePaid)
+      && lastFeePayingSendCount.equals(that.lastFeePayingSendCount)
+      && lastFeePayingSendAddress.equals(that.lastFeePayingSendAddress);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = version;
+    result = 31 * result + transactionCount;
+    result = 31 * result + (int) (lastUpdateTimeMillis ^ (lastUpdateTimeMillis >>> 32));
+    result = 31 * result + boundaryTransactionHashes.hashCode();
+    result = 31 * result + (int) (transactionFingerprint ^ (transactionFingerprint >>> 32));
+    result = 31 * result + lastBlockSeenHeight;
+    result = 31 * result + feeAddressUniverseHash.hashCode();
+    result = 31 * result + sentBySelfProviderId.hashCode();
+    result = 31 * result + sendCount;
+    result = 31 * result + feePaid.hashCode();
+    result = 31 * result + lastFeePayingSendCount.hashCode();
+    result = 31 * result + lastFeePayingSendAddress.hashCode();
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "FeeTrackerDto{" +
+      "version=" + version +
+      ", transactionCount=" + transactionCount +
+      ", lastUpdateTimeMillis=" + lastUpdateTimeMillis +
+      ", boundaryTransactionHashes=" + boundaryTransactionHashes.size() +
+      ", lastBlockSeenHeight=" + lastBlockSeenHeight +
+      ", sentBySelfProviderId=" + sentBySelfProviderId +
+      ", sendCount=" + sendCount +
+      ", feePaid=" + feePaid +
+      ", lastFeePayingSendCount=" + lastFeePayingSendCount +
+      ", lastFeePayingSendAddress=" + lastFeePayingSendAddress +
+      '}';
+  }
+}
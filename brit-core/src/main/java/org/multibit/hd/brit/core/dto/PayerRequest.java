@@ -27,16 +27,28 @@ public class PayerRequest {
   public static final char SEPARATOR = '\n';
   public static final String OPTIONAL_NOT_PRESENT_TEXT = "not-present";
 
+  /**
+   * The epoch millis value used internally to represent an absent date
+   */
+  public static final long NOT_PRESENT_MILLIS = Long.MIN_VALUE;
+
   private final int version;
   private final BRITWalletId britWalletId;
   private final byte[] sessionKey;
-  private final Optional<Date> firstTransactionDate;
+  private final long firstTransactionMillis;
 
   public PayerRequest(int version, BRITWalletId britWalletId, byte[] sessionKey, Optional<Date> firstTransactionDate) {
+    this(version, britWalletId, sessionKey, firstTransactionDate.isPresent() ? firstTransactionDate.get().getTime() : NOT_PRESENT_MILLIS);
+  }
+
+  /**
+   * @param firstTransactionMillis The first transaction date in epoch millis (NOT_PRESENT_MILLIS if absent)
+   */
+  public PayerRequest(int version, BRITWalletId britWalletId, byte[] sessionKey, long firstTransactionMillis) {
     this.version = version;
     this.britWalletId = britWalletId;
     this.sessionKey = Arrays.copyOf(sessionKey, sessionKey.length);
-    this.firstTransactionDate = firstTransactionDate;
+    this.firstTransactionMillis = firstTransactionMillis;
   }
 
   /**
@@ -64,7 +76,14 @@ public class PayerRequest {
    * @return The first transaction date (if present)
    */
   public Optional<Date> getFirstTransactionDate() {
-    return firstTransactionDate;
+    return firstTransactionMillis == NOT_PRESENT_MILLIS ? Optional.<Date>absent() : Optional.of(new Date(firstTransactionMillis));
+  }
+
+  /**
+   * @return The first transaction date in epoch millis (NOT_PRESENT_MILLIS if absent)
+   */
+  public long getFirstTransactionMillis() {
+    return firstTransactionMillis;
   }
 
   /**
@@ -83,8 +102,8 @@ public class PayerRequest {
       .append(Utils.HEX.encode(sessionKey))
       .append(SEPARATOR);
 
-    if (firstTransactionDate.isPresent()) {
-      builder.append(firstTransactionDate.get().getTime());
+    if (firstTransactionMillis != NOT_PRESENT_MILLIS) {
+      builder.append(firstTransactionMillis);
     } else {
       builder.append(OPTIONAL_NOT_PRESENT_TEXT);
     }
@@ -119,16 +138,16 @@ public class PayerRequest {
 
       final BRITWalletId britWalletId = new BRITWalletId(rows[1]);
       final byte[] sessionKey = Utils.parseAsHexOrBase58(rows[2]);
-      final Optional<Date> firstTransactionDateOptional;
+      final long firstTransactionMillis;
 
       if (OPTIONAL_NOT_PRESENT_TEXT.equals(rows[3])) {
-        firstTransactionDateOptional = Optional.absent();
+        firstTransactionMillis = NOT_PRESENT_MILLIS;
       } else {
-        firstTransactionDateOptional = Optional.of(new Date(Long.parseLong(rows[3])));
+        firstTransactionMillis = Long.parseLong(rows[3]);
       }
 
       log.debug("Parsed OK");
-      return new PayerRequest(version, britWalletId, sessionKey, firstTransactionDateOptional);
+      return new PayerRequest(version, britWalletId, sessionKey, firstTransactionMillis);
 
     } else {
       throw new PayerRequestException("Expected 4 rows of data. Found " + rows.length);
@@ -145,7 +164,7 @@ public class PayerRequest {
     if (version != that.version) return false;
     if (!britWalletId.equals(that.britWalletId)) return false;
     if (!Arrays.equals(sessionKey, that.sessionKey)) return false;
-    return firstTransactionDate.equals(that.firstTransactionDate);
+    return firstTransactionMillis == that.firstTransactionMillis;
 
   }
 
@@ -154,7 +173,7 @@ public class PayerRequest {
     int result = version;
     result = 31 * result + britWalletId.hashCode();
     result = 31 * result + Arrays.hashCode(sessionKey);
-    result = 31 * result + firstTransactionDate.hashCode();
+    result = 31 * result + (int) (firstTransactionMillis ^ (firstTransactionMillis >>> 32));
     return result;
   }
 
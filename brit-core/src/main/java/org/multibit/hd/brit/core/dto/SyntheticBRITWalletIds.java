@@ -0,0 +1,205 @@
+package org.multibit.hd.brit.core.dto;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Utils;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>Key holder to provide the following to health probes, load tests and Matcher:</p>
+ * <ul>
+ * <li>A reserved range of BRITWalletIds for synthetic (probe and benchmark) traffic</li>
+ * <li>Recognition of synthetic BRITWalletIds so their encounters are not persisted</li>
+ * </ul>
+ * <p>A synthetic BRITWalletId starts with the ASCII bytes "PROBE-", then a 32 bit index, then an 80 bit
+ * HMAC-SHA256 tag of both under a secret key. Only a holder of the key can mint an id that is recognised as
+ * synthetic, so a Payer cannot choose the prefix to avoid being recorded. The Matcher and any load generator in
+ * another process share the key through a key file (see readOrCreateKeyFile).</p>
+ *
+ * @since 0.0.1
+ */
+public final class SyntheticBRITWalletIds {
+
+  /**
+   * The name of the key file in the Matcher directory
+   */
+  public static final String KEY_FILE_NAME = "synthetic-traffic.key";
+
+  /**
+   * The length of the tag key in bytes
+   */
+  public static final int KEY_LENGTH = 32;
+
+  /**
+   * The prefix marking a synthetic BRITWalletId
+   */
+  private static final byte[] PREFIX = "PROBE-".getBytes(Charsets.US_ASCII);
+
+  /**
+   * The length of a BRITWalletId (a hash160)
+   */
+  private static final int BRIT_WALLET_ID_LENGTH = 20;
+
+  /**
+   * The length of the prefix and index covered by the tag
+   */
+  private static final int TAGGED_LENGTH = PREFIX.length + 4;
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  /**
+   * The key for the tag
+   */
+  private final SecretKeySpec tagKey;
+
+  /**
+   * A Mac is not thread safe so each thread keeps its own
+   */
+  private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+    @Override
+    protected Mac initialValue() {
+      try {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(tagKey);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("'" + HMAC_ALGORITHM + "' must be available", e);
+      }
+    }
+  };
+
+  /**
+   * @param key The tag key shared by everything minting or recognising synthetic BRITWalletIds
+   */
+  public SyntheticBRITWalletIds(byte[] key) {
+
+    Preconditions.checkNotNull(key, "'key' must be present");
+    Preconditions.checkArgument(key.length == KEY_LENGTH, "'key' must be " + KEY_LENGTH + " bytes");
+
+    this.tagKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+  }
+
+  /**
+   * @return Synthetic BRITWalletIds under a new random key (only recognised through this instance)
+   */
+  public static SyntheticBRITWalletIds withRandomKey() {
+    return new SyntheticBRITWalletIds(newKey());
+  }
+
+  /**
+   * @param keyFile The key file (hex encoded) written by the Matcher
+   *
+   * @return Synthetic BRITWalletIds recognised by the Matcher
+   *
+   * @throws IOException If the key file is missing or cannot be read
+   */
+  public static SyntheticBRITWalletIds readKeyFile(File keyFile) throws IOException {
+
+    Preconditions.checkNotNull(keyFile, "'keyFile' must be present");
+
+    String hexKey = new String(Files.readAllBytes(keyFile.toPath()), Charsets.US_ASCII).trim();
+    try {
+      return new SyntheticBRITWalletIds(Utils.HEX.decode(hexKey));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Malformed synthetic traffic key in '" + keyFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * @param keyFile The key file (hex encoded), created with a new random key if absent
+   *
+   * @return Synthetic BRITWalletIds under the key in the file
+   *
+   * @throws IOException If the key file cannot be created or read
+   */
+  public static SyntheticBRITWalletIds readOrCreateKeyFile(File keyFile) throws IOException {
+
+    Preconditions.checkNotNull(keyFile, "'keyFile' must be present");
+
+    Path keyPath = keyFile.toPath();
+    try {
+      try {
+        Files.createFile(keyPath, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+      } catch (UnsupportedOperationException e) {
+        // Not a POSIX file system
+        Files.createFile(keyPath);
+      }
+      Files.write(keyPath, Utils.HEX.encode(newKey()).getBytes(Charsets.US_ASCII));
+    } catch (FileAlreadyExistsException e) {
+      // Keep the existing key so that running load generators stay recognised
+    }
+
+    return readKeyFile(keyFile);
+  }
+
+  /**
+   * @param index The index within the synthetic range (e.g. a position in a probe pool)
+   *
+   * @return The synthetic BRITWalletId (no scrypt derivation required)
+   */
+  public BRITWalletId newSyntheticBRITWalletId(int index) {
+
+    byte[] britWalletId = Arrays.copyOf(PREFIX, BRIT_WALLET_ID_LENGTH);
+    Utils.uint32ToByteArrayBE(index & 0xffffffffL, britWalletId, PREFIX.length);
+    byte[] tag = tag(britWalletId);
+    System.arraycopy(tag, 0, britWalletId, TAGGED_LENGTH, BRIT_WALLET_ID_LENGTH - TAGGED_LENGTH);
+
+    return new BRITWalletId(Utils.HEX.encode(britWalletId));
+  }
+
+  /**
+   * @param britWalletId The BRITWalletId to check
+   *
+   * @return True if the BRITWalletId was minted as synthetic under this key
+   */
+  public boolean isSynthetic(BRITWalletId britWalletId) {
+
+    Preconditions.checkNotNull(britWalletId, "'britWalletId' must be present");
+
+    byte[] bytes = britWalletId.getBytes();
+    if (bytes.length != BRIT_WALLET_ID_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < PREFIX.length; i++) {
+      if (bytes[i] != PREFIX[i]) {
+        return false;
+      }
+    }
+
+    // The prefix alone can be forged so check the tag
+    byte[] expectedTag = Arrays.copyOf(tag(bytes), BRIT_WALLET_ID_LENGTH - TAGGED_LENGTH);
+    byte[] actualTag = Arrays.copyOfRange(bytes, TAGGED_LENGTH, BRIT_WALLET_ID_LENGTH);
+
+    return MessageDigest.isEqual(expectedTag, actualTag);
+  }
+
+  /**
+   * @param britWalletId The BRITWalletId bytes starting with the prefix and index
+   *
+   * @return The full HMAC over the prefix and index
+   */
+  private byte[] tag(byte[] britWalletId) {
+
+    Mac mac = this.mac.get();
+    mac.update(britWalletId, 0, TAGGED_LENGTH);
+    return mac.doFinal();
+  }
+
+  private static byte[] newKey() {
+    byte[] key = new byte[KEY_LENGTH];
+    new SecureRandom().nextBytes(key);
+    return key;
+  }
+}
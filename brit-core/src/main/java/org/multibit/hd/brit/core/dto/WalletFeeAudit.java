@@ -0,0 +1,134 @@
+package org.multibit.hd.brit.core.dto;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+
+import java.util.Map;
+
+/**
+ * <p>DTO to provide the following to FeeAuditService:</p>
+ * <ul>
+ * <li>The immutable fee position of a single wallet</li>
+ * <li>The fees paid by the wallet broken down by fee address</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class WalletFeeAudit {
+
+  private final boolean usingHardwiredBRITAddresses;
+
+  private final int currentNumberOfSends;
+
+  private final Coin feePerSend;
+
+  private final Coin feePaid;
+
+  private final Coin feeOwed;
+
+  private final Optional<Integer> nextFeeSendCount;
+
+  private final Optional<Address> nextFeeAddress;
+
+  private final ImmutableMap<Address, Coin> feePaidByAddress;
+
+  /**
+   * @param usingHardwiredBRITAddresses True if the wallet holds no Matcher addresses
+   * @param currentNumberOfSends        The count of sends by self in the wallet
+   * @param feePerSend                  The fee per send
+   * @param feePaid                     The total paid to fee addresses
+   * @param feeOwed                     The gross fee less the fee paid (negative if overpaid)
+   * @param nextFeeSendCount            The persisted send count for the next fee payment (if any)
+   * @param nextFeeAddress              The persisted address for the next fee payment (if any)
+   * @param feePaidByAddress            The amount paid to each fee address
+   */
+  public WalletFeeAudit(
+    boolean usingHardwiredBRITAddresses,
+    int currentNumberOfSends,
+    Coin feePerSend,
+    Coin feePaid,
+    Coin feeOwed,
+    Optional<Integer> nextFeeSendCount,
+    Optional<Address> nextFeeAddress,
+    Map<Address, Coin> feePaidByAddress) {
+
+    Preconditions.checkNotNull(feePerSend, "'feePerSend' must be present");
+    Preconditions.checkNotNull(feePaid, "'feePaid' must be present");
+    Preconditions.checkNotNull(feeOwed, "'feeOwed' must be present");
+    Preconditions.checkNotNull(nextFeeSendCount, "'nextFeeSendCount' must be present");
+    Preconditions.checkNotNull(nextFeeAddress, "'nextFeeAddress' must be present");
+    Preconditions.checkNotNull(feePaidByAddress, "'feePaidByAddress' must be present");
+
+    this.usingHardwiredBRITAddresses = usingHardwiredBRITAddresses;
+    this.currentNumberOfSends = currentNumberOfSends;
+    this.feePerSend = feePerSend;
+    this.feePaid = feePaid;
+    this.feeOwed = feeOwed;
+    this.nextFeeSendCount = nextFeeSendCount;
+    this.nextFeeAddress = nextFeeAddress;
+    this.feePaidByAddress = ImmutableMap.copyOf(feePaidByAddress);
+  }
+
+  public boolean isUsingHardwiredBRITAddresses() {
+    return usingHardwiredBRITAddresses;
+  }
+
+  public int getCurrentNumberOfSends() {
+    return currentNumberOfSends;
+  }
+
+  public Coin getFeePerSend() {
+    return feePerSend;
+  }
+
+  public Coin getFeePaid() {
+    return feePaid;
+  }
+
+  public Coin getFeeOwed() {
+    return feeOwed;
+  }
+
+  public Optional<Integer> getNextFeeSendCount() {
+    return nextFeeSendCount;
+  }
+
+  public Optional<Address> getNextFeeAddress() {
+    return nextFeeAddress;
+  }
+
+  public ImmutableMap<Address, Coin> getFeePaidByAddress() {
+    return feePaidByAddress;
+  }
+
+  /**
+   * @return A new FeeState matching this audit (a fresh copy each time since FeeState is mutable)
+   */
+  public FeeState toFeeState() {
+    return new FeeState(
+      usingHardwiredBRITAddresses,
+      nextFeeAddress.orNull(),
+      currentNumberOfSends,
+      nextFeeSendCount.or(currentNumberOfSends),
+      feePerSend,
+      feeOwed
+    );
+  }
+
+  @Override
+  public String toString() {
+    return "WalletFeeAudit{" +
+      "usingHardwiredBRITAddresses=" + usingHardwiredBRITAddresses +
+      ", currentNumberOfSends=" + currentNumberOfSends +
+      ", feePerSend=" + feePerSend +
+      ", feePaid=" + feePaid +
+      ", feeOwed=" + feeOwed +
+      ", nextFeeSendCount=" + nextFeeSendCount +
+      ", nextFeeAddress=" + nextFeeAddress +
+      ", feePaidByAddress=" + feePaidByAddress +
+      '}';
+  }
+}
@@ -23,8 +23,8 @@ public class WalletToEncounterDateLink {
   private static final Logger log = LoggerFactory.getLogger(PayerRequest.class);
 
   private final BRITWalletId britWalletId;
-  private final Optional<Date> encounterDateOptional;
-  private final Optional<Date> firstTransactionDate;
+  private final long encounterMillis;
+  private final long firstTransactionMillis;
 
   private static final char SEPARATOR = ' ';
 
@@ -32,11 +32,24 @@ public class WalletToEncounterDateLink {
 
     Preconditions.checkNotNull(britWalletId, "britWalletId must be supplied");
     Preconditions.checkNotNull(encounterDateOptional, "encounterDateOptional must be supplied");
-    Preconditions.checkNotNull(firstTransactionDate, "britWalletId must be supplied");
+    Preconditions.checkNotNull(firstTransactionDate, "firstTransactionDate must be supplied");
 
     this.britWalletId = britWalletId;
-    this.encounterDateOptional = encounterDateOptional;
-    this.firstTransactionDate = firstTransactionDate;
+    this.encounterMillis = encounterDateOptional.isPresent() ? encounterDateOptional.get().getTime() : PayerRequest.NOT_PRESENT_MILLIS;
+    this.firstTransactionMillis = firstTransactionDate.isPresent() ? firstTransactionDate.get().getTime() : PayerRequest.NOT_PRESENT_MILLIS;
+  }
+
+  /**
+   * @param encounterMillis        The encounter date in epoch millis (PayerRequest.NOT_PRESENT_MILLIS if absent)
+   * @param firstTransactionMillis The first transaction date in epoch millis (PayerRequest.NOT_PRESENT_MILLIS if absent)
+   */
+  public WalletToEncounterDateLink(BRITWalletId britWalletId, long encounterMillis, long firstTransactionMillis) {
+
+    Preconditions.checkNotNull(britWalletId, "britWalletId must be supplied");
+
+    this.britWalletId = britWalletId;
+    this.encounterMillis = encounterMillis;
+    this.firstTransactionMillis = firstTransactionMillis;
   }
 
   public BRITWalletId getBritWalletId() {
@@ -44,11 +57,41 @@ public class WalletToEncounterDateLink {
   }
 
   public Optional<Date> getEncounterDateOptional() {
-    return encounterDateOptional;
+    return toDateOptional(encounterMillis);
   }
 
   public Optional<Date> getFirstTransactionDate() {
-    return firstTransactionDate;
+    return toDateOptional(firstTransactionMillis);
+  }
+
+  /**
+   * @return The encounter date in epoch millis (PayerRequest.NOT_PRESENT_MILLIS if absent)
+   */
+  public long getEncounterMillis() {
+    return encounterMillis;
+  }
+
+  /**
+   * @return The first transaction date in epoch millis (PayerRequest.NOT_PRESENT_MILLIS if absent)
+   */
+  public long getFirstTransactionMillis() {
+    return firstTransactionMillis;
+  }
+
+  private static Optional<Date> toDateOptional(long millis) {
+    return millis == PayerRequest.NOT_PRESENT_MILLIS ? Optional.<Date>absent() : Optional.of(new Date(millis));
+  }
+
+  private static long parseMillis(String row) {
+    return PayerRequest.OPTIONAL_NOT_PRESENT_TEXT.equals(row) ? PayerRequest.NOT_PRESENT_MILLIS : Long.parseLong(row);
+  }
+
+  private static void appendMillis(StringBuilder builder, long millis) {
+    if (millis == PayerRequest.NOT_PRESENT_MILLIS) {
+      builder.append(PayerRequest.OPTIONAL_NOT_PRESENT_TEXT);
+    } else {
+      builder.append(millis);
+    }
   }
 
   /**
@@ -61,17 +104,9 @@ public class WalletToEncounterDateLink {
     StringBuilder builder = new StringBuilder();
     builder.append(Utils.HEX.encode(britWalletId.getBytes())).append(SEPARATOR);
 
-    if (encounterDateOptional.isPresent()) {
-      builder.append(encounterDateOptional.get().getTime()).append(SEPARATOR);
-    } else {
-      builder.append(PayerRequest.OPTIONAL_NOT_PRESENT_TEXT).append(SEPARATOR);
-    }
-
-    if (firstTransactionDate.isPresent()) {
-      builder.append(firstTransactionDate.get().getTime());
-    } else {
-      builder.append(PayerRequest.OPTIONAL_NOT_PRESENT_TEXT);
-    }
+    appendMillis(builder, encounterMillis);
+    builder.append(SEPARATOR);
+    appendMillis(builder, firstTransactionMillis);
 
     return builder.toString();
 
@@ -91,22 +126,8 @@ public class WalletToEncounterDateLink {
     if (rows.length == 3) {
 
       final BRITWalletId britWalletId = new BRITWalletId(rows[0]);
-      final Optional<Date> encounterDateOptional;
-      final Optional<Date> firstTransactionDateOptional;
-
-      if (PayerRequest.OPTIONAL_NOT_PRESENT_TEXT.equals(rows[1])) {
-        encounterDateOptional = Optional.absent();
-      } else {
-        encounterDateOptional = Optional.of(new Date(Long.parseLong(rows[1])));
-      }
-
-      if (PayerRequest.OPTIONAL_NOT_PRESENT_TEXT.equals(rows[2])) {
-        firstTransactionDateOptional = Optional.absent();
-      } else {
-        firstTransactionDateOptional = Optional.of(new Date(Long.parseLong(rows[2])));
-      }
-
-      return new WalletToEncounterDateLink(britWalletId, encounterDateOptional, firstTransactionDateOptional);
+
+      return new WalletToEncounterDateLink(britWalletId, parseMillis(rows[1]), parseMillis(rows[2]));
     } else {
       throw new MatcherStoreException("Cannot parse encounter date. Expect 3 rows.");
     }
@@ -120,24 +141,17 @@ public class WalletToEncounterDateLink {
 
     final WalletToEncounterDateLink that = (WalletToEncounterDateLink) o;
 
-    // While inefficient, keep this code as is for readability
-    if (!britWalletId.equals(that.britWalletId)) return false;
-    if (encounterDateOptional != null ? !encounterDateOptional.equals(that.encounterDateOptional) : that.encounterDateOptional != null) {
-      return false;
-    }
-    if (firstTransactionDate != null ? !firstTransactionDate.equals(that.firstTransactionDate) : that.firstTransactionDate != null) {
-      return false;
-    }
-
-    return true;
+    return britWalletId.equals(that.britWalletId)
+      && encounterMillis == that.encounterMillis
+      && firstTransactionMillis == that.firstTransactionMillis;
   }
 
   @Override
   public int hashCode() {
 
     int result = britWalletId.hashCode();
-    result = 31 * result + (encounterDateOptional != null ? encounterDateOptional.hashCode() : 0);
-    result = 31 * result + (firstTransactionDate != null ? firstTransactionDate.hashCode() : 0);
+    result = 31 * result + (int) (encounterMillis ^ (encounterMillis >>> 32));
+    result = 31 * result + (int) (firstTransactionMillis ^ (firstTransactionMillis >>> 32));
     return result;
 
   }
@@ -0,0 +1,169 @@
+package org.multibit.hd.brit.core.extensions;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.crypto.KeyCrypterException;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.util.Strings;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>Wallet Extension to provide the following to Wallet:</p>
+ * <ul>
+ * <li>Persistence of the BRITWalletId derived from the wallet seed, so the scrypt derivation is only done once</li>
+ * <li>Encryption of the BRITWalletId with a key derived from the seed (only the seed holder can read it)</li>
+ * </ul>
+ * <p>The serialised form is the hex of the IV, the AES cipher text and a SHA-256 check over the key, IV and cipher text.
+ * A check failure (e.g. the extension came from another seed) means the BRITWalletId is derived again.</p>
+ *
+ * @since 0.0.1
+ */
+public class BRITWalletIdWalletExtension implements WalletExtension {
+
+  private static final Logger log = LoggerFactory.getLogger(BRITWalletIdWalletExtension.class);
+
+  public static final String BRIT_WALLET_ID_WALLET_EXTENSION_ID = "org.multibit.hd.brit.BRITWalletId";
+
+  public static final char SEPARATOR = ' ';
+
+  private static final SecureRandom secureRandom = new SecureRandom();
+
+  private byte[] iv;
+
+  private byte[] cipherText;
+
+  private byte[] check;
+
+  public BRITWalletIdWalletExtension() {
+  }
+
+  private BRITWalletIdWalletExtension(byte[] iv, byte[] cipherText, byte[] check) {
+    this.iv = iv;
+    this.cipherText = cipherText;
+    this.check = check;
+  }
+
+  /**
+   * @param britWalletId The BRITWalletId derived from the seed
+   * @param seed         The wallet seed
+   *
+   * @return A wallet extension holding the encrypted BRITWalletId
+   */
+  public static BRITWalletIdWalletExtension encrypt(BRITWalletId britWalletId, byte[] seed) {
+
+    Preconditions.checkNotNull(britWalletId, "'britWalletId' must be present");
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+
+    byte[] key = deriveKey(seed);
+    byte[] iv = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(iv);
+
+    byte[] cipherText = AESUtils.encrypt(britWalletId.getBytes(), new KeyParameter(key), iv);
+
+    return new BRITWalletIdWalletExtension(iv, cipherText, calculateCheck(key, iv, cipherText));
+  }
+
+  /**
+   * @param seed The wallet seed
+   *
+   * @return The BRITWalletId if it was encrypted with this seed
+   */
+  public Optional<BRITWalletId> decrypt(byte[] seed) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+
+    if (iv == null) {
+      return Optional.absent();
+    }
+
+    byte[] key = deriveKey(seed);
+    if (!Arrays.equals(check, calculateCheck(key, iv, cipherText))) {
+      log.debug("Persisted BRITWalletId was not encrypted with this seed");
+      return Optional.absent();
+    }
+
+    try {
+      byte[] britWalletId = AESUtils.decrypt(cipherText, new KeyParameter(key), iv);
+      return Optional.of(new BRITWalletId(Utils.HEX.encode(britWalletId)));
+    } catch (KeyCrypterException e) {
+      log.warn("Could not decrypt persisted BRITWalletId", e);
+      return Optional.absent();
+    }
+  }
+
+  @Override
+  public String getWalletExtensionID() {
+    return BRIT_WALLET_ID_WALLET_EXTENSION_ID;
+  }
+
+  @Override
+  public boolean isWalletExtensionMandatory() {
+    return false;
+  }
+
+  @Override
+  public byte[] serializeWalletExtension() {
+    if (iv != null) {
+
+      String serialised = Utils.HEX.encode(iv) + SEPARATOR + Utils.HEX.encode(cipherText) + SEPARATOR + Utils.HEX.encode(check);
+      return serialised.getBytes(Charsets.UTF_8);
+
+    } else {
+      return new byte[0];
+    }
+  }
+
+  @Override
+  public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
+
+    String[] tokens = Strings.split(new String(data, Charsets.UTF_8), SEPARATOR);
+    if (tokens != null && tokens.length == 3) {
+      try {
+        iv = Utils.HEX.decode(tokens[0]);
+        cipherText = Utils.HEX.decode(tokens[1]);
+        check = Utils.HEX.decode(tokens[2]);
+      } catch (IllegalArgumentException e) {
+        log.error("Parse failed", e);
+        iv = null;
+      }
+    } else {
+      log.error("Parse failed");
+    }
+  }
+
+  /**
+   * A single SHA-256 is enough since the seed itself carries the entropy (no stretching required)
+   */
+  private static byte[] deriveKey(byte[] seed) {
+    byte[] prefix = BRIT_WALLET_ID_WALLET_EXTENSION_ID.getBytes(Charsets.UTF_8);
+    byte[] input = Arrays.copyOf(prefix, prefix.length + seed.length);
+    System.arraycopy(seed, 0, input, prefix.length, seed.length);
+    return Sha256Hash.hash(input);
+  }
+
+  private static byte[] calculateCheck(byte[] key, byte[] iv, byte[] cipherText) {
+    byte[] input = new byte[key.length + iv.length + cipherText.length];
+    System.arraycopy(key, 0, input, 0, key.length);
+    System.arraycopy(iv, 0, input, key.length, iv.length);
+    System.arraycopy(cipherText, 0, input, key.length + iv.length, cipherText.length);
+    return Sha256Hash.hash(input);
+  }
+
+  @Override
+  public String toString() {
+    return "BRITWalletIdWalletExtension{" +
+      "present=" + (iv != null) +
+      '}';
+  }
+}
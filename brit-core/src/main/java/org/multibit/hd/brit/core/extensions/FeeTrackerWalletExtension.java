@@ -0,0 +1,167 @@
+package org.multibit.hd.brit.core.extensions;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.core.dto.FeeTrackerDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.util.Strings;
+
+import java.util.Set;
+
+/**
+ * <p>Wallet Extension to provide the following to Wallet:</p>
+ * <ul>
+ * <li>Persistence of a FeeTrackerDto so that fee state calculations can be incremental</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class FeeTrackerWalletExtension implements WalletExtension {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeTrackerWalletExtension.class);
+
+  public static final String FEE_TRACKER_WALLET_EXTENSION_ID = "org.multibit.hd.brit.FeeTracker";
+
+  public static final String NOT_PRESENT_MARKER = "not-present";
+  public static final char SEPARATOR = ' ';
+  public static final char LIST_SEPARATOR = ',';
+
+  private static final int NUMBER_OF_TOKENS = 12;
+
+  private FeeTrackerDto feeTrackerDto;
+
+  public FeeTrackerWalletExtension() {
+    this.feeTrackerDto = null;
+  }
+
+  public FeeTrackerWalletExtension(FeeTrackerDto feeTrackerDto) {
+    this.feeTrackerDto = feeTrackerDto;
+  }
+
+  @Override
+  public String getWalletExtensionID() {
+    return FEE_TRACKER_WALLET_EXTENSION_ID;
+  }
+
+  @Override
+  public boolean isWalletExtensionMandatory() {
+    return false;
+  }
+
+  @Override
+  public byte[] serializeWalletExtension() {
+    if (feeTrackerDto != null) {
+
+      StringBuilder builder = new StringBuilder()
+        .append(feeTrackerDto.getVersion()).append(SEPARATOR)
+        .append(feeTrackerDto.getTransactionCount()).append(SEPARATOR)
+        .append(feeTrackerDto.getLastUpdateTimeMillis()).append(SEPARATOR);
+
+      if (feeTrackerDto.getBoundaryTransactionHashes().isEmpty()) {
+        builder.append(NOT_PRESENT_MARKER);
+      } else {
+        boolean first = true;
+        for (Sha256Hash hash : feeTrackerDto.getBoundaryTransactionHashes()) {
+          if (!first) {
+            builder.append(LIST_SEPARATOR);
+          }
+          builder.append(hash.toString());
+          first = false;
+        }
+      }
+      builder.append(SEPARATOR)
+        .append(feeTrackerDto.getLastBlockSeenHeight()).append(SEPARATOR)
+        .append(feeTrackerDto.getFeeAddressUniverseHash()).append(SEPARATOR)
+        .append(feeTrackerDto.getSendCount()).append(SEPARATOR)
+        .append(feeTrackerDto.getFeePaid().getValue()).append(SEPARATOR);
+
+      if (feeTrackerDto.getLastFeePayingSendCount().isPresent()) {
+        builder.append(feeTrackerDto.getLastFeePayingSendCount().get()).append(SEPARATOR);
+      } else {
+        builder.append(NOT_PRESENT_MARKER).append(SEPARATOR);
+      }
+
+      if (feeTrackerDto.getLastFeePayingSendAddress().isPresent()) {
+        builder.append(feeTrackerDto.getLastFeePayingSendAddress().get()).append(SEPARATOR);
+      } else {
+        builder.append(NOT_PRESENT_MARKER).append(SEPARATOR);
+      }
+
+      builder.append(feeTrackerDto.getTransactionFingerprint()).append(SEPARATOR)
+        .append(feeTrackerDto.getSentBySelfProviderId());
+
+      return builder.toString().getBytes(Charsets.UTF_8);
+
+    } else {
+      return new byte[0];
+    }
+  }
+
+  @Override
+  public void deserializeWalletExtension(Wallet containingWallet, byte[] data) throws Exception {
+
+    String serialisedString = new String(data, Charsets.UTF_8);
+    log.debug("Parsing string '{}'", serialisedString);
+
+    String[] tokens = Strings.split(serialisedString, SEPARATOR);
+    if (tokens == null || tokens.length < NUMBER_OF_TOKENS) {
+      // A missing tracker only costs a full rescan
+      log.warn("Parse failed. Fee state will be recalculated.");
+      return;
+    }
+
+    try {
+      Set<Sha256Hash> boundaryTransactionHashes = Sets.newHashSet();
+      if (!NOT_PRESENT_MARKER.equals(tokens[3])) {
+        for (String hash : Strings.split(tokens[3], LIST_SEPARATOR)) {
+          boundaryTransactionHashes.add(Sha256Hash.wrap(hash));
+        }
+      }
+
+      Optional<Integer> lastFeePayingSendCount = NOT_PRESENT_MARKER.equals(tokens[8])
+        ? Optional.<Integer>absent()
+        : Optional.of(Integer.parseInt(tokens[8]));
+
+      Optional<Address> lastFeePayingSendAddress = NOT_PRESENT_MARKER.equals(tokens[9])
+        ? Optional.<Address>absent()
+        : Optional.of(new Address(MainNetParams.get(), tokens[9]));
+
+      feeTrackerDto = new FeeTrackerDto(
+        Integer.parseInt(tokens[0]),
+        Integer.parseInt(tokens[1]),
+        Long.parseLong(tokens[2]),
+        boundaryTransactionHashes,
+        Long.parseLong(tokens[10]),
+        Integer.parseInt(tokens[4]),
+        tokens[5],
+        tokens[11],
+        Integer.parseInt(tokens[6]),
+        Coin.valueOf(Long.parseLong(tokens[7])),
+        lastFeePayingSendCount,
+        lastFeePayingSendAddress
+      );
+    } catch (RuntimeException e) {
+      log.warn("Parse failed. Fee state will be recalculated.", e);
+      feeTrackerDto = null;
+    }
+  }
+
+  public FeeTrackerDto getFeeTrackerDto() {
+    return feeTrackerDto;
+  }
+
+  @Override
+  public String toString() {
+    return "FeeTrackerWalletExtension{" +
+      "feeTrackerDto=" + feeTrackerDto +
+      '}';
+  }
+}
@@ -0,0 +1,138 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Address universe to provide the following to MatcherStores:</p>
+ * <ul>
+ * <li>An immutable snapshot of the Bitcoin addresses grouped by Redeemer</li>
+ * <li>A read only view of the union of the groups without a copy of every address</li>
+ * <li>Copy-on-write appends that only copy the group of the affected Redeemer</li>
+ * </ul>
+ * <p>Each address belongs to exactly one group so the size of the union is the sum of the group sizes. A lookup
+ * checks every group, which is cheap since there are only a handful of Redeemers.</p>
+ *
+ * @since 0.0.1
+ */
+final class AddressUniverse extends AbstractSet<Address> {
+
+  static final AddressUniverse EMPTY = new AddressUniverse(ImmutableMap.<String, Set<Address>>of(), 0);
+
+  private final ImmutableMap<String, Set<Address>> bitcoinAddressesByRedeemer;
+
+  private final int size;
+
+  private AddressUniverse(ImmutableMap<String, Set<Address>> bitcoinAddressesByRedeemer, int size) {
+    this.bitcoinAddressesByRedeemer = bitcoinAddressesByRedeemer;
+    this.size = size;
+  }
+
+  /**
+   * @param bitcoinAddressesByRedeemer The Bitcoin addresses grouped by Redeemer
+   *
+   * @return The universe keeping only the first occurrence of each address (as when reading all.txt)
+   */
+  static AddressUniverse of(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+
+    Preconditions.checkNotNull(bitcoinAddressesByRedeemer, "'bitcoinAddressesByRedeemer' must be present");
+
+    Set<Address> seen = Sets.newHashSet();
+    ImmutableMap.Builder<String, Set<Address>> copy = ImmutableMap.builder();
+    for (Map.Entry<String, Set<Address>> entry : bitcoinAddressesByRedeemer.entrySet()) {
+      ImmutableSet.Builder<Address> addresses = ImmutableSet.builder();
+      for (Address address : entry.getValue()) {
+        if (seen.add(address)) {
+          addresses.add(address);
+        }
+      }
+      copy.put(entry.getKey(), addresses.build());
+    }
+    return new AddressUniverse(copy.build(), seen.size());
+  }
+
+  /**
+   * @param candidateBitcoinAddresses The addresses to check
+   *
+   * @return The candidates not already in the universe, in their original order
+   */
+  ImmutableSet<Address> newBitcoinAddresses(Set<Address> candidateBitcoinAddresses) {
+
+    ImmutableSet.Builder<Address> newBitcoinAddresses = ImmutableSet.builder();
+    for (Address address : candidateBitcoinAddresses) {
+      if (!contains(address)) {
+        newBitcoinAddresses.add(address);
+      }
+    }
+    return newBitcoinAddresses.build();
+  }
+
+  /**
+   * @param redeemerId          The Redeemer receiving the addresses
+   * @param newBitcoinAddresses The addresses to add (none of which may already be in the universe)
+   *
+   * @return The enlarged universe sharing every other Redeemer group with this one
+   */
+  AddressUniverse append(String redeemerId, ImmutableSet<Address> newBitcoinAddresses) {
+
+    Preconditions.checkNotNull(redeemerId, "'redeemerId' must be present");
+    Preconditions.checkNotNull(newBitcoinAddresses, "'newBitcoinAddresses' must be present");
+
+    if (newBitcoinAddresses.isEmpty()) {
+      return this;
+    }
+
+    Set<Address> existingForRedeemer = bitcoinAddressesByRedeemer.get(redeemerId);
+    Set<Address> enlargedForRedeemer = existingForRedeemer == null
+      ? newBitcoinAddresses
+      : ImmutableSet.<Address>builder().addAll(existingForRedeemer).addAll(newBitcoinAddresses).build();
+
+    // Keep the Redeemer order so that the sampler and all.txt see the groups as before
+    ImmutableMap.Builder<String, Set<Address>> enlargedByRedeemer = ImmutableMap.builder();
+    for (Map.Entry<String, Set<Address>> entry : bitcoinAddressesByRedeemer.entrySet()) {
+      enlargedByRedeemer.put(entry.getKey(), entry.getKey().equals(redeemerId) ? enlargedForRedeemer : entry.getValue());
+    }
+    if (existingForRedeemer == null) {
+      enlargedByRedeemer.put(redeemerId, enlargedForRedeemer);
+    }
+
+    return new AddressUniverse(enlargedByRedeemer.build(), size + newBitcoinAddresses.size());
+  }
+
+  /**
+   * @return The Bitcoin addresses grouped by Redeemer
+   */
+  ImmutableMap<String, Set<Address>> getBitcoinAddressesByRedeemer() {
+    return bitcoinAddressesByRedeemer;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    for (Set<Address> group : bitcoinAddressesByRedeemer.values()) {
+      if (group.contains(o)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Iterator<Address> iterator() {
+    return Iterators.unmodifiableIterator(Iterables.concat(bitcoinAddressesByRedeemer.values()).iterator());
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+}
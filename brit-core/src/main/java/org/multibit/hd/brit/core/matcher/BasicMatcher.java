@@ -3,32 +3,44 @@ package org.multibit.hd.brit.core.matcher;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import org.bitcoinj.core.Address;
 import org.multibit.commons.crypto.AESUtils;
-import org.multibit.commons.crypto.PGPUtils;
 import org.multibit.hd.brit.core.dto.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.openpgp.PGPException;
+import org.spongycastle.openpgp.PGPPublicKeyEncryptedData;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.FileInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>Class to provide the following to BRIT API:</p>
  * <ul>
  * <li>Ability to match Redeemers and Payers</li>
+ * <li>Rotation of the Matcher key with the previous key still decrypting Payer requests for a grace period</li>
+ * <li>Selection of the decryption key from the key id in the PGP session key packet with per key request counts</li>
  * </ul>
+ * <p>The secret keys are unlocked once and held in memory so that a rotation can replace the files on disk without
+ * affecting requests in flight.</p>
  *
  * @since 0.0.1
  */
@@ -36,16 +48,32 @@ public class BasicMatcher implements Matcher {
 
   private static final Logger log = LoggerFactory.getLogger(BasicMatcher.class);
 
-  private final MatcherConfig matcherConfig;
+  /**
+   * The current Matcher key and configuration (replaced atomically on rotation)
+   */
+  private volatile MatcherKey currentKey;
 
-  private static final Object lockObject = new Object();
+  /**
+   * Previous Matcher keys that still decrypt Payer requests until they retire
+   */
+  private final List<MatcherKey> retiredKeys = new CopyOnWriteArrayList<>();
 
   /**
-   * The number of Bitcoin addresses to send back to the Payer per day
+   * The number of Payer requests decrypted by each key id
    */
-  private static final int NUMBER_OF_ADDRESSES_PER_DAY = 50;
+  private final ConcurrentMap<Long, AtomicLong> requestCountsByKeyId = Maps.newConcurrentMap();
+
+  /**
+   * Serialises key rotations
+   */
+  private final Object rotationLock = new Object();
+
+  private static final Object lockObject = new Object();
 
-  private SecureRandom secureRandom;
+  /**
+   * Selects the daily Bitcoin addresses across the Redeemers
+   */
+  private final WeightedAddressSampler addressSampler;
 
   /**
    * The matcher store containing all the bitcoin address information
@@ -58,34 +86,136 @@ public class BasicMatcher implements Matcher {
    */
   public BasicMatcher(MatcherConfig matcherConfig, MatcherStore matcherStore) {
 
-    this.matcherConfig = matcherConfig;
+    this.currentKey = new MatcherKey(matcherConfig);
     this.matcherStore = matcherStore;
 
-    secureRandom = new SecureRandom();
+    addressSampler = new WeightedAddressSampler(new SecureRandom());
   }
 
   @Override
   public MatcherConfig getConfig() {
-    return matcherConfig;
+    return currentKey.matcherConfig;
+  }
+
+  @Override
+  public void rotateConfig(MatcherConfig matcherConfig, long gracePeriodMillis) {
+
+    Preconditions.checkNotNull(matcherConfig, "'matcherConfig' must be present");
+    Preconditions.checkState(gracePeriodMillis >= 0, "'gracePeriodMillis' must not be negative");
+
+    // Unlock the new keyring before anything changes
+    MatcherKey newKey = new MatcherKey(matcherConfig);
+    newKey.getSecretKeys();
+
+    synchronized (rotationLock) {
+      MatcherKey previousKey = currentKey;
+      if (gracePeriodMillis > 0) {
+        previousKey.retireAtMillis = matcherConfig.getClock().currentTimeMillis() + gracePeriodMillis;
+        retiredKeys.add(0, previousKey);
+      }
+      currentKey = newKey;
+    }
+
+    log.info("Rotated the Matcher key to {}. The previous key retires in {} ms", newKey.getSecretKeys().getKeyIds(), gracePeriodMillis);
   }
 
   @Override
   public PayerRequest decryptPayerRequest(EncryptedPayerRequest encryptedPayerRequest) throws Exception {
     log.trace("Attempting to decrypt payload:\n{}\n", new String(encryptedPayerRequest.getPayload(), Charsets.UTF_8));
 
-    ByteArrayInputStream serialisedPayerRequestEncryptedInputStream = new ByteArrayInputStream(encryptedPayerRequest.getPayload());
+    // Select the key named in the session key packet rather than trying each key in turn
+    List<PGPPublicKeyEncryptedData> encryptedDataList = MatcherSecretKeys.readEncryptedData(encryptedPayerRequest.getPayload());
+    for (PGPPublicKeyEncryptedData encryptedData : encryptedDataList) {
+      long keyId = encryptedData.getKeyID();
+      Optional<MatcherSecretKeys> secretKeys = secretKeysFor(keyId);
+      if (secretKeys.isPresent()) {
+        countRequest(keyId);
+        return PayerRequest.parse(secretKeys.get().decrypt(encryptedData));
+      }
+    }
 
-    ByteArrayOutputStream serialisedPayerRequestOutputStream = new ByteArrayOutputStream(1024);
+    List<String> keyIds = Lists.newArrayList();
+    for (PGPPublicKeyEncryptedData encryptedData : encryptedDataList) {
+      keyIds.add(toKeyIdString(encryptedData.getKeyID()));
+    }
+    throw new IllegalArgumentException("No Matcher key for the Payer request (encrypted to " + keyIds + ")");
+  }
 
-    // PGP encrypt the file
-    PGPUtils.decryptFile(
-      serialisedPayerRequestEncryptedInputStream,
-      serialisedPayerRequestOutputStream,
-      new FileInputStream(matcherConfig.getMatcherSecretKeyringFile()),
-      matcherConfig.getPassword()
-    );
+  /**
+   * @return The number of Payer requests decrypted by each key since startup keyed by long key id (held keys are
+   * included with a zero count so the previous key can be seen to fall idle)
+   */
+  @Override
+  public Map<String, Long> getRequestCountsByKeyId() {
 
-    return PayerRequest.parse(serialisedPayerRequestOutputStream.toByteArray());
+    Map<String, Long> requestCounts = Maps.newTreeMap();
+    for (MatcherKey matcherKey : heldKeys()) {
+      if (matcherKey.isUnlocked()) {
+        for (Long keyId : matcherKey.getSecretKeys().getKeyIds()) {
+          requestCounts.put(toKeyIdString(keyId), 0L);
+        }
+      }
+    }
+    for (Map.Entry<Long, AtomicLong> requestCount : requestCountsByKeyId.entrySet()) {
+      requestCounts.put(toKeyIdString(requestCount.getKey()), requestCount.getValue().get());
+    }
+    return requestCounts;
+  }
+
+  /**
+   * @param keyId The key id from a session key packet
+   *
+   * @return The current or unexpired previous keys holding the key
+   */
+  private Optional<MatcherSecretKeys> secretKeysFor(long keyId) {
+
+    MatcherKey matcherKey = currentKey;
+    if (matcherKey.getSecretKeys().hasKey(keyId)) {
+      return Optional.of(matcherKey.getSecretKeys());
+    }
+
+    // The Payer may still be using a previous key
+    long nowMillis = matcherKey.matcherConfig.getClock().currentTimeMillis();
+    for (MatcherKey retiredKey : retiredKeys) {
+      if (retiredKey.retireAtMillis <= nowMillis) {
+        log.info("Retiring the previous Matcher key {}", retiredKey.getSecretKeys().getKeyIds());
+        retiredKeys.remove(retiredKey);
+        continue;
+      }
+      if (retiredKey.getSecretKeys().hasKey(keyId)) {
+        log.debug("Decrypting Payer request with the previous Matcher key {}", toKeyIdString(keyId));
+        return Optional.of(retiredKey.getSecretKeys());
+      }
+    }
+
+    return Optional.absent();
+  }
+
+  private List<MatcherKey> heldKeys() {
+
+    List<MatcherKey> heldKeys = Lists.newArrayList(currentKey);
+    heldKeys.addAll(retiredKeys);
+    return heldKeys;
+  }
+
+  private void countRequest(long keyId) {
+
+    AtomicLong requestCount = requestCountsByKeyId.get(keyId);
+    if (requestCount == null) {
+      AtomicLong newRequestCount = new AtomicLong();
+      requestCount = requestCountsByKeyId.putIfAbsent(keyId, newRequestCount);
+      if (requestCount == null) {
+        requestCount = newRequestCount;
+      }
+    }
+    requestCount.incrementAndGet();
+  }
+
+  /**
+   * @return The long key id as shown by "gpg --list-keys --keyid-format long"
+   */
+  private static String toKeyIdString(long keyId) {
+    return String.format("%016X", keyId);
   }
 
   @Override
@@ -93,32 +223,36 @@ public class BasicMatcher implements Matcher {
 
     WalletToEncounterDateLink previousEncounter = matcherStore.lookupWalletToEncounterDateLink(payerRequest.getBritWalletId());
 
+    // Work in epoch millis internally and only create a Date for the response
+    final MatcherConfig matcherConfig = getConfig();
+    final long nowMillis = matcherConfig.getClock().currentTimeMillis();
+
     // The replay date is the earliest of:
     // + the payerRequest.firstTreatmentDate in the PayerRequest (if available)
     // + the firstTransactionDate in the previousEncounter (which would have been supplied in the past for this wallet)
     // + the previousEncounterDate (the first time this wallet was seen by the Matcher
     // BRITWalletId
-    Date replayDate = new Date();   // If this is a brand new wallet, never used or seen before by the matcher you can replay from now.
-    if (previousEncounter != null && previousEncounter.getEncounterDateOptional().isPresent()) {
-      replayDate = previousEncounter.getEncounterDateOptional().get();
+    long replayMillis = nowMillis;   // If this is a brand new wallet, never used or seen before by the matcher you can replay from now.
+    if (previousEncounter != null && previousEncounter.getEncounterMillis() != PayerRequest.NOT_PRESENT_MILLIS) {
+      replayMillis = previousEncounter.getEncounterMillis();
     }
-    if (previousEncounter != null && previousEncounter.getFirstTransactionDate().isPresent()) {
-      replayDate = previousEncounter.getFirstTransactionDate().get().before(replayDate) ? previousEncounter.getFirstTransactionDate().get() : replayDate;
+    if (previousEncounter != null && previousEncounter.getFirstTransactionMillis() != PayerRequest.NOT_PRESENT_MILLIS) {
+      replayMillis = Math.min(previousEncounter.getFirstTransactionMillis(), replayMillis);
     }
-    if (payerRequest.getFirstTransactionDate().isPresent()) {
-      replayDate = payerRequest.getFirstTransactionDate().get().before(replayDate) ? payerRequest.getFirstTransactionDate().get() : replayDate;
+    if (payerRequest.getFirstTransactionMillis() != PayerRequest.NOT_PRESENT_MILLIS) {
+      replayMillis = Math.min(payerRequest.getFirstTransactionMillis(), replayMillis);
     }
 
     // TODO update record if replay date coming in is earlier than the one on the existing record (or if it is absent)
 
     // If the previousEncounter was null then store this encounter
     if (previousEncounter == null) {
-      WalletToEncounterDateLink thisEncounter = new WalletToEncounterDateLink(payerRequest.getBritWalletId(), Optional.of(new Date()), Optional.of(replayDate));
+      WalletToEncounterDateLink thisEncounter = new WalletToEncounterDateLink(payerRequest.getBritWalletId(), nowMillis, replayMillis);
       matcherStore.storeWalletToEncounterDateLink(thisEncounter);
     }
     // Lookup the current valid set of Bitcoin addresses to return to the payer
-    Date now = new Date();
-    Set<Address> currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
+    final long today = EpochDays.currentEpochDay(nowMillis);
+    Set<Address> currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForEpochDay(today);
 
     if (currentBitcoinAddressList == null || currentBitcoinAddressList.isEmpty()) {
 
@@ -127,29 +261,27 @@ public class BasicMatcher implements Matcher {
       Set<Address> allAddresses = matcherStore.getAllBitcoinAddresses();
 
       if (allAddresses != null && !allAddresses.isEmpty()) {
-        // Create a subset of all addresses for use today
-        Address[] randomAccessAllAddresses = allAddresses.toArray(new Address[allAddresses.size()]);
-        // Ensure we create a complete subset (no duplications, no missing entries)
-        while (currentBitcoinAddressList.size() < NUMBER_OF_ADDRESSES_PER_DAY) {
-          // Index should lie between 0 and size() so that array is safe
-          int index = secureRandom.nextInt(allAddresses.size());
-          currentBitcoinAddressList.add(randomAccessAllAddresses[index]);
-        }
+        // Create a distinct subset of all addresses for use today, split across the Redeemers by weight
+        currentBitcoinAddressList = addressSampler.sample(
+          matcherStore.getBitcoinAddressesByRedeemer(),
+          matcherConfig.getRedeemerWeights(),
+          matcherConfig.getNumberOfAddressesPerDay()
+        );
 
       } else {
         log.error("Could not produce a new set of Bitcoin addresses for '{}'. There are no Bitcoin addresses to pick from. Check " +
-          "'var/matcher/store/all.txt' is not missing/empty.", now.toString());
+          "'var/matcher/store/all.txt' is not missing/empty.", new Date(nowMillis));
       }
 
       // On a Matcher level lock, double check there is no data and write the list for today
       synchronized (lockObject) {
-        Set<Address> doubleCheckCurrentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
+        Set<Address> doubleCheckCurrentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForEpochDay(today);
         if (doubleCheckCurrentBitcoinAddressList == null || doubleCheckCurrentBitcoinAddressList.isEmpty()) {
           // We're certain that new addresses need to be stored
-          matcherStore.storeBitcoinAddressesForDate(currentBitcoinAddressList, now);
+          matcherStore.storeBitcoinAddressesForEpochDay(currentBitcoinAddressList, today);
         }
       }
-      currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForDate(now);
+      currentBitcoinAddressList = matcherStore.lookupBitcoinAddressListForEpochDay(today);
 
       Preconditions.checkNotNull(currentBitcoinAddressList, "'currentBitcoinAddressList' must be present after storage.");
       Preconditions.checkState(!currentBitcoinAddressList.isEmpty(), "'currentBitcoinAddressList' must not be empty after storage.");
@@ -157,7 +289,7 @@ public class BasicMatcher implements Matcher {
     }
 
     // Respond to the Payer with the same version as they offered
-    return new MatcherResponse(payerRequest.getVersion(), Optional.of(replayDate), currentBitcoinAddressList);
+    return new MatcherResponse(payerRequest.getVersion(), Optional.of(new Date(replayMillis)), currentBitcoinAddressList);
   }
 
   @Override
@@ -203,4 +335,55 @@ public class BasicMatcher implements Matcher {
   public MatcherStore getMatcherStore() {
     return matcherStore;
   }
+
+  /**
+   * A Matcher configuration with its secret keys unlocked in memory
+   */
+  private static class MatcherKey {
+
+    private final MatcherConfig matcherConfig;
+
+    private volatile MatcherSecretKeys secretKeys;
+
+    /**
+     * When this key stops decrypting Payer requests (only set once retired)
+     */
+    private volatile long retireAtMillis = Long.MAX_VALUE;
+
+    private MatcherKey(MatcherConfig matcherConfig) {
+
+      Preconditions.checkNotNull(matcherConfig, "'matcherConfig' must be present");
+
+      this.matcherConfig = matcherConfig;
+
+      // Unlock before a rotation can replace the file (a missing file only fails on first use)
+      if (matcherConfig.getMatcherSecretKeyringFile().isFile()) {
+        getSecretKeys();
+      }
+    }
+
+    private boolean isUnlocked() {
+      return secretKeys != null;
+    }
+
+    /**
+     * @return The unlocked secret keys
+     *
+     * @throws IllegalStateException If the secret keyring cannot be read or unlocked
+     */
+    private MatcherSecretKeys getSecretKeys() {
+
+      MatcherSecretKeys unlocked = secretKeys;
+      if (unlocked == null) {
+        File secretKeyringFile = matcherConfig.getMatcherSecretKeyringFile();
+        try {
+          unlocked = MatcherSecretKeys.unlock(Files.toByteArray(secretKeyringFile), matcherConfig.getPassword());
+        } catch (IOException | PGPException e) {
+          throw new IllegalStateException("Could not unlock the Matcher secret keyring '" + secretKeyringFile + "'", e);
+        }
+        secretKeys = unlocked;
+      }
+      return unlocked;
+    }
+  }
 }
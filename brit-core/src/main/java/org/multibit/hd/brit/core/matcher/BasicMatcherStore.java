@@ -3,6 +3,8 @@ package org.multibit.hd.brit.core.matcher;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
@@ -12,15 +14,16 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.AddressFormatException;
 import org.bitcoinj.params.MainNetParams;
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.multibit.hd.brit.core.dto.BRITWalletId;
 import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.core.exceptions.MatcherStoreException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -30,7 +33,11 @@ import java.util.Set;
  * <p>Store to provide the following to Matcher classes:</p>
  * <ul>
  * <li>File store and lookup of all Bitcoin addresses. These are stored in the backingStoreDirectory/all.txt</li>
- * <li>File store and lookup of wallet to encounter date links. These are stored in a file backingStore/Directory/links.txt</li>
+ * <li>Append-only import of further Redeemer Bitcoin addresses into backingStoreDirectory/all.txt while running</li>
+ * <li>Grouping of the Bitcoin addresses by Redeemer using the "# redeemer: " section headers in all.txt</li>
+ * <li>File store and lookup of wallet to encounter date links. These are stored in a file backingStore/Directory/links.txt
+ * or, once rebalanced into N shards, in backingStoreDirectory/links-i-of-N.txt</li>
+ * <li>Counters of encounter lookups for known and new wallets</li>
  * <li>File store and lookup of Bitcoin addresses by day. For each date these are stored in a file backingStoreDirectory/by-date/yyyy-mm-dd.txt</li>
  * </ul>
  *
@@ -55,30 +62,41 @@ public class BasicMatcherStore implements MatcherStore {
 
   public static final String COMMENT_PREFIX = "#";
 
+  /**
+   * Marks the start of a block of addresses appended to all.txt from a single Redeemer
+   */
+  public static final String REDEEMER_SECTION_PREFIX = COMMENT_PREFIX + " redeemer: ";
+
+  /**
+   * The Redeemer that owns any addresses appearing before the first Redeemer section header
+   */
+  public static final String DEFAULT_REDEEMER_ID = "default";
+
   /**
    * Produces "2000-04-01" for simplified short user date
    */
   private static final DateTimeFormatter utcShortDateWithHyphensFormatter = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
 
   /**
-   * A map containing the link from a BRITWalletId to the previous encounter of this wallet (if available)
+   * The links from a BRITWalletId to the previous encounter of this wallet, partitioned by BRITWalletId
    */
-  private Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newHashMap();
+  private EncounterLinkShards encounterLinkShards;
 
   /**
-   * The file to which the wallet to encounter dates are appended
+   * The set of all the Bitcoin addresses in the MatcherStore grouped by Redeemer.
+   * This is an immutable snapshot that is replaced as a whole so that readers never see a partial import.
    */
-  private File walletToEncounterDateFile;
+  private volatile AddressUniverse allBitcoinAddresses = AddressUniverse.EMPTY;
 
   /**
-   * The set of all the Bitcoin addresses in the MatcherStore
+   * Serialises writers of the Bitcoin address universe (in memory and on disk)
    */
-  private Set<Address> allBitcoinAddresses = Sets.newHashSet();
+  private final Object allBitcoinAddressesLock = new Object();
 
   /**
-   * A map from the date of encounter to the list of Bitcoins used that day
+   * A map from the UTC epoch day of encounter to the list of Bitcoins used that day
    */
-  private Map<Date, Set<Address>> encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+  private Map<Long, Set<Address>> encounterDayToBitcoinAddressesMap = Maps.newConcurrentMap();
 
   /**
    * @param backingStoreDirectory The Matcher backing store directory
@@ -117,43 +135,24 @@ public class BasicMatcherStore implements MatcherStore {
   private void initialiseAddresses() {
     // Load the file containing all the bitcoin addresses
     String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
-    allBitcoinAddresses = readBitcoinAddresses(allBitcoinAddressesFilename);
+    allBitcoinAddresses = AddressUniverse.of(readBitcoinAddressesByRedeemer(allBitcoinAddressesFilename));
   }
 
   /**
-   * Initialise the encounter file for persisting new wallet ID encounters
+   * Load the encounter link shards for persisting new wallet ID encounters
    *
    * @throws IOException If something goes wrong
    */
   private void buildEncounterFile() throws IOException {
 
-    // If the file does not exists, then create it as we only ever append to this file later
-    if (!walletToEncounterDateFile.exists()) {
-      if (!walletToEncounterDateFile.createNewFile()) {
-        throw new IOException("Could not create '" + walletToEncounterDateFile.getAbsolutePath() + "'");
-      }
-    }
-
-    byte[] walletToEncounterDatesAsBytes = Files.toByteArray(walletToEncounterDateFile);
-    String walletToEncounterDates = new String(walletToEncounterDatesAsBytes, Charsets.UTF_8);
-
-    // Split into lines - each line contains a serialised WalletToEncounterDateLink
-    String[] walletToEncounterDateArray = walletToEncounterDates.split("\n");
-    for (String line : walletToEncounterDateArray) {
-      if (!Strings.isNullOrEmpty(line)) {
-        WalletToEncounterDateLink link = WalletToEncounterDateLink.parse(line);
-        if (link != null) {
-          previousEncounterMap.put(link.getBritWalletId(), link);
-        }
-      }
-    }
+    encounterLinkShards = EncounterLinkShards.open(backingStoreDirectory);
 
   }
 
   @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
   private void buildEncounterMaps() {
 
-    encounterDateToBitcoinAddressesMap = Maps.newHashMap();
+    encounterDayToBitcoinAddressesMap = Maps.newConcurrentMap();
     // Go through all the files in the NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE directory
     // that have the filename yyyy-mm-dd.txt and add these bitcoin addresses as a list to the map, by the date yyyy-mm-dd
     String linksDirectory = backingStoreDirectory + File.separator + NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE;
@@ -171,33 +170,20 @@ public class BasicMatcherStore implements MatcherStore {
           if (parsedDate != null) {
             // This file contains the bitcoin addresses for this date
             Set<Address> bitcoinAddressesForDate = readBitcoinAddresses(linkFile.getAbsolutePath());
-            encounterDateToBitcoinAddressesMap.put(parsedDate.toDate(), bitcoinAddressesForDate);
+            encounterDayToBitcoinAddressesMap.put(EpochDays.toEpochDay(parsedDate.getMillis()), bitcoinAddressesForDate);
           }
         } catch (IllegalArgumentException e) {
           // File name is not a valid date (could be ".DS_Store" etc)
         }
       }
     }
-
-    // Read in all the existing britWalletId to encounter date links
-    previousEncounterMap = Maps.newHashMap();
-    walletToEncounterDateFile = new File(backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
   }
 
   @Override
   public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
 
-    // Update the in memory data representation
-    previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
-
-    // Require this awkward approach to ensure UTF-8 is used and streams are closed
-    try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(walletToEncounterDateFile, true), Charsets.UTF_8);
-         BufferedWriter bufferWriter = new BufferedWriter(fileWriter)) {
-
-      bufferWriter.write(walletToEncounterDateLink.serialise() + "\n");
-    } catch (IOException e) {
-      log.error(e.getMessage(), e);
-    }
+    // Each shard serialises its own appends so that concurrent requests cannot interleave lines
+    encounterLinkShards.store(walletToEncounterDateLink);
 
   }
 
@@ -208,20 +194,58 @@ public class BasicMatcherStore implements MatcherStore {
 
     // If this is present, return it.
     // If this is null, return a null.
-    return previousEncounterMap.get(britWalletId);
+    return encounterLinkShards.lookup(britWalletId);
+  }
+
+  @Override
+  public void close() {
+
+    encounterLinkShards.close();
+
+  }
+
+  /**
+   * @return The number of encounter link shards found in the backing store directory
+   */
+  public int getEncounterShardCount() {
+    return encounterLinkShards.getShardCount();
+  }
+
+  /**
+   * @return The number of encounter lookups that found a link (returning wallets)
+   */
+  public long getKnownWalletLookupCount() {
+    return encounterLinkShards.getKnownWalletLookupCount();
+  }
+
+  /**
+   * @return The number of encounter lookups that found no link (new wallets)
+   */
+  public long getNewWalletLookupCount() {
+    return encounterLinkShards.getNewWalletLookupCount();
   }
 
   @Override
   public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
-    return encounterDateToBitcoinAddressesMap.get(convertToMidnight(encounterDate));
+    return lookupBitcoinAddressListForEpochDay(EpochDays.toEpochDay(encounterDate.getTime()));
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForEpochDay(long epochDay) {
+    return encounterDayToBitcoinAddressesMap.get(epochDay);
   }
 
-  @SuppressFBWarnings({"PATH_TRAVERSAL_IN", "PATH_TRAVERSAL_IN"})
   @Override
   public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    storeBitcoinAddressesForEpochDay(bitcoinAddresses, EpochDays.toEpochDay(encounterDate.getTime()));
+  }
+
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN", "PATH_TRAVERSAL_IN"})
+  @Override
+  public void storeBitcoinAddressesForEpochDay(Set<Address> bitcoinAddresses, long epochDay) {
 
     // Update the in memory data representation
-    encounterDateToBitcoinAddressesMap.put(convertToMidnight(encounterDate), bitcoinAddresses);
+    encounterDayToBitcoinAddressesMap.put(epochDay, bitcoinAddresses);
 
     // Also write to a file in the by-date directory
     File linksDirectory = new File(backingStoreDirectory + File.separator + NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE);
@@ -231,12 +255,12 @@ public class BasicMatcherStore implements MatcherStore {
     Preconditions.checkState(linksDirectory.isDirectory(), "Incorrectly identified the directory of '" + linksDirectory + " as a file");
 
     String filename = linksDirectory + File.separator
-      + utcShortDateWithHyphensFormatter.print(new DateTime(encounterDate, DateTimeZone.UTC)) + LINKS_FILENAME_SUFFIX;
+      + utcShortDateWithHyphensFormatter.print(EpochDays.toEpochMillis(epochDay)) + LINKS_FILENAME_SUFFIX;
     File file = new File(filename);
 
     if (file.exists()) {
       // Cannot overwrite a per day list of bitcoin addresses - it may have been sent back to Payers
-      throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + encounterDate.toString() + "'. It already exists");
+      throw new IllegalArgumentException("Cannot write Bitcoin address list for date '" + filePart(filename) + "'. It already exists");
     }
 
     // Write the Bitcoin addresses to the file
@@ -250,15 +274,93 @@ public class BasicMatcherStore implements MatcherStore {
   @Override
   public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
 
-    // Update the in memory data representation
-    this.allBitcoinAddresses = allBitcoinAddresses;
+    synchronized (allBitcoinAddressesLock) {
 
-    // Also write out to the all bitcoin addresses file
-    String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
-    try {
-      storeBitcoinAddressesToFile(allBitcoinAddresses, allBitcoinAddressesFilename);
-    } catch (IOException e) {
-      log.error("Failed to store all Bitcoin addresses", e);
+      // Update the in memory data representation (a full rewrite loses any Redeemer sections)
+      this.allBitcoinAddresses = AddressUniverse.of(ImmutableMap.<String, Set<Address>>of(DEFAULT_REDEEMER_ID, allBitcoinAddresses));
+
+      // Also write out to the all bitcoin addresses file
+      String allBitcoinAddressesFilename = backingStoreDirectory + File.separator + NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES;
+      try {
+        storeBitcoinAddressesToFile(allBitcoinAddresses, allBitcoinAddressesFilename);
+      } catch (IOException e) {
+        log.error("Failed to store all Bitcoin addresses", e);
+      }
+    }
+  }
+
+  @Override
+  public void storeBitcoinAddressesByRedeemer(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+
+    Preconditions.checkNotNull(bitcoinAddressesByRedeemer, "'bitcoinAddressesByRedeemer' must be present");
+
+    synchronized (allBitcoinAddressesLock) {
+
+      // Publish the Redeemer groups
+      AddressUniverse snapshot = AddressUniverse.of(bitcoinAddressesByRedeemer);
+      this.allBitcoinAddresses = snapshot;
+
+      // Write every group under its own section header so that a restart reads the same groups
+      StringBuilder builder = new StringBuilder();
+      for (Map.Entry<String, Set<Address>> entry : snapshot.getBitcoinAddressesByRedeemer().entrySet()) {
+        builder.append(REDEEMER_SECTION_PREFIX).append(entry.getKey()).append("\n");
+        for (Address address : entry.getValue()) {
+          builder.append(address.toString()).append("\n");
+        }
+      }
+      File allBitcoinAddressesFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+      try {
+        Files.write(builder.toString(), allBitcoinAddressesFile, Charsets.UTF_8);
+      } catch (IOException e) {
+        log.error("Failed to store all Bitcoin addresses", e);
+      }
+    }
+  }
+
+  @SuppressFBWarnings({"PATH_TRAVERSAL_OUT"})
+  @Override
+  public Set<Address> appendBitcoinAddresses(String redeemerId, Set<Address> additionalBitcoinAddresses) {
+
+    Preconditions.checkState(!Strings.isNullOrEmpty(redeemerId), "'redeemerId' must be present");
+    Preconditions.checkNotNull(additionalBitcoinAddresses, "'additionalBitcoinAddresses' must be present");
+
+    synchronized (allBitcoinAddressesLock) {
+
+      // Only the new addresses are checked against the current universe
+      AddressUniverse currentBitcoinAddresses = allBitcoinAddresses;
+      ImmutableSet<Address> newBitcoinAddresses = currentBitcoinAddresses.newBitcoinAddresses(additionalBitcoinAddresses);
+
+      if (newBitcoinAddresses.isEmpty()) {
+        log.info("No new Bitcoin addresses to append for Redeemer '{}'", redeemerId);
+        return newBitcoinAddresses;
+      }
+
+      // Persist first so that a published address is always recoverable after a restart
+      File allBitcoinAddressesFile = new File(backingStoreDirectory, NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+      try {
+        boolean needsLeadingNewline = !endsWithNewline(allBitcoinAddressesFile);
+        try (Writer fileWriter = new OutputStreamWriter(new FileOutputStream(allBitcoinAddressesFile, true), Charsets.UTF_8);
+             BufferedWriter bufferedWriter = new BufferedWriter(fileWriter)) {
+
+          if (needsLeadingNewline) {
+            bufferedWriter.write("\n");
+          }
+          bufferedWriter.write(REDEEMER_SECTION_PREFIX + redeemerId + "\n");
+          for (Address address : newBitcoinAddresses) {
+            bufferedWriter.write(address.toString());
+            bufferedWriter.write("\n");
+          }
+        }
+      } catch (IOException e) {
+        throw new MatcherStoreException("Failed to append Bitcoin addresses for Redeemer '" + redeemerId + "'", e);
+      }
+
+      // Publish the enlarged universe (only the group of this Redeemer is copied)
+      allBitcoinAddresses = currentBitcoinAddresses.append(redeemerId, newBitcoinAddresses);
+
+      log.info("Appended {} new Bitcoin addresses for Redeemer '{}'. Universe now contains {}.", newBitcoinAddresses.size(), redeemerId, allBitcoinAddresses.size());
+
+      return newBitcoinAddresses;
     }
   }
 
@@ -267,11 +369,22 @@ public class BasicMatcherStore implements MatcherStore {
     return allBitcoinAddresses;
   }
 
+  @Override
+  public Map<String, Set<Address>> getBitcoinAddressesByRedeemer() {
+    return allBitcoinAddresses.getBitcoinAddressesByRedeemer();
+  }
+
   /**
-   * Convert a compete date into a Date at midnight
+   * @param groups The address groups
+   *
+   * @return The union of the groups
    */
-  private Date convertToMidnight(Date inputDate) {
-    return (new DateTime(inputDate, DateTimeZone.UTC)).toDateMidnight().toDate();
+  private static ImmutableSet<Address> flatten(Collection<Set<Address>> groups) {
+    ImmutableSet.Builder<Address> builder = ImmutableSet.builder();
+    for (Set<Address> group : groups) {
+      builder.addAll(group);
+    }
+    return builder.build();
   }
 
   @SuppressFBWarnings({"PATH_TRAVERSAL_OUT"})
@@ -286,41 +399,84 @@ public class BasicMatcherStore implements MatcherStore {
     }
     byte[] bitcoinAddressesAsBytes = builder.toString().getBytes(Charsets.UTF_8);
 
-    FileOutputStream bitcoinAddressesFileOutputStream = new FileOutputStream(filename);
-    ByteStreams.copy(new ByteArrayInputStream(bitcoinAddressesAsBytes), bitcoinAddressesFileOutputStream);
+    try (FileOutputStream bitcoinAddressesFileOutputStream = new FileOutputStream(filename)) {
+      ByteStreams.copy(new ByteArrayInputStream(bitcoinAddressesAsBytes), bitcoinAddressesFileOutputStream);
+    }
 
   }
 
-  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
+  /**
+   * @param file The file to check
+   *
+   * @return True if the file is missing, empty or already ends with a newline (so appending is safe)
+   *
+   * @throws IOException If the file cannot be read
+   */
+  private boolean endsWithNewline(File file) throws IOException {
+
+    if (!file.exists() || file.length() == 0) {
+      return true;
+    }
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      randomAccessFile.seek(randomAccessFile.length() - 1);
+      return randomAccessFile.read() == '\n';
+    }
+  }
+
   private Set<Address> readBitcoinAddresses(String filename) {
+    return Sets.newHashSet(flatten(readBitcoinAddressesByRedeemer(filename).values()));
+  }
 
-    Set<Address> addresses = Sets.newHashSet();
+  /**
+   * @param filename The file containing the Bitcoin addresses, optionally split by "# redeemer: " section headers
+   *
+   * @return The Bitcoin addresses grouped by Redeemer in file order (an address belongs to the first section it appears in)
+   */
+  @SuppressFBWarnings({"PATH_TRAVERSAL_IN"})
+  public static Map<String, Set<Address>> readBitcoinAddressesByRedeemer(String filename) {
+
+    Map<String, ImmutableSet.Builder<Address>> builders = Maps.newLinkedHashMap();
+    Set<Address> seen = Sets.newHashSet();
     File addressesFile = new File(filename);
     if (addressesFile.exists()) {
       try {
         List<String> rawAddresses = Files.readLines(addressesFile, Charsets.UTF_8);
         log.debug("Loaded {} raw addresses", rawAddresses.size());
 
+        String redeemerId = DEFAULT_REDEEMER_ID;
         int line = 0;
         for (String rawAddress : rawAddresses) {
           try {
-            if ("".equals(rawAddress) || rawAddress.startsWith(COMMENT_PREFIX)) {
+            if (rawAddress.startsWith(REDEEMER_SECTION_PREFIX)) {
+              redeemerId = rawAddress.substring(REDEEMER_SECTION_PREFIX.length()).trim();
+            } else if ("".equals(rawAddress) || rawAddress.startsWith(COMMENT_PREFIX)) {
               log.debug("Ignoring comment/empty line: {}", rawAddress);
             } else {
-              addresses.add(new Address(MainNetParams.get(), rawAddress));
+              Address address = new Address(MainNetParams.get(), rawAddress);
+              if (seen.add(address)) {
+                if (!builders.containsKey(redeemerId)) {
+                  builders.put(redeemerId, ImmutableSet.<Address>builder());
+                }
+                builders.get(redeemerId).add(address);
+              }
             }
             line++;
           } catch (AddressFormatException e) {
-            log.error("Malformed BRIT address in 'all.txt' line: " + line + ". Ignoring.", e);
+            log.error("Malformed BRIT address in '" + filePart(filename) + "' line: " + line + ". Ignoring.", e);
           }
         }
       } catch (IOException ioe) {
         log.error(ioe.getMessage(), ioe);
       }
     } else {
-      log.error("No 'all.txt' containing addresses to load.");
+      log.error("No '{}' containing addresses to load.", filePart(filename));
     }
 
-    return addresses;
+    ImmutableMap.Builder<String, Set<Address>> addressesByRedeemer = ImmutableMap.builder();
+    for (Map.Entry<String, ImmutableSet.Builder<Address>> entry : builders.entrySet()) {
+      addressesByRedeemer.put(entry.getKey(), entry.getValue().build());
+    }
+    return addressesByRedeemer.build();
   }
 }
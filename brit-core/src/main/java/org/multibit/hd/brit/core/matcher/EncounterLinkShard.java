@@ -0,0 +1,183 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Shard to provide the following to EncounterLinkShards:</p>
+ * <ul>
+ * <li>The wallet to encounter date links of one partition of the BRITWalletIds</li>
+ * <li>An append-only links file with its own lock so that shards never contend with each other</li>
+ * <li>An open append stream, flushed after each link and synced to disk on close</li>
+ * <li>Counters of lookups for known and new wallets</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+final class EncounterLinkShard {
+
+  private static final Logger log = LoggerFactory.getLogger(EncounterLinkShard.class);
+
+  /**
+   * The file to which the wallet to encounter dates of this shard are appended
+   */
+  private final File linksFile;
+
+  /**
+   * A map containing the link from a BRITWalletId to the previous encounter of this wallet (if available)
+   */
+  private final Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newConcurrentMap();
+
+  /**
+   * Serialises appends to the links file
+   */
+  private final Object linksFileLock = new Object();
+
+  /**
+   * The open append stream (guarded by the links file lock, reopened if a link arrives after close)
+   */
+  private FileOutputStream linksOutputStream;
+
+  private Writer linksWriter;
+
+  private final AtomicLong knownWalletLookupCount = new AtomicLong();
+
+  private final AtomicLong newWalletLookupCount = new AtomicLong();
+
+  /**
+   * @param linksFile The links file of this shard (created on load if absent)
+   */
+  EncounterLinkShard(File linksFile) {
+
+    Preconditions.checkNotNull(linksFile, "'linksFile' must be present");
+
+    this.linksFile = linksFile;
+  }
+
+  File getLinksFile() {
+    return linksFile;
+  }
+
+  /**
+   * Read the links file into memory a line at a time
+   *
+   * @return This shard
+   *
+   * @throws IOException If the links file cannot be created or read
+   */
+  EncounterLinkShard load() throws IOException {
+
+    // If the file does not exists, then create it as we only ever append to this file later
+    if (!linksFile.exists()) {
+      if (!linksFile.createNewFile()) {
+        throw new IOException("Could not create '" + linksFile.getAbsolutePath() + "'");
+      }
+    }
+
+    // Each line contains a serialised WalletToEncounterDateLink
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(linksFile), Charsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!Strings.isNullOrEmpty(line)) {
+          WalletToEncounterDateLink link = WalletToEncounterDateLink.parse(line);
+          if (link != null) {
+            previousEncounterMap.put(link.getBritWalletId(), link);
+          }
+        }
+      }
+    }
+
+    return this;
+  }
+
+  void store(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    // Update the in memory data representation
+    previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+
+    // Serialise appends so that concurrent requests cannot interleave lines
+    synchronized (linksFileLock) {
+      try {
+        if (linksWriter == null) {
+          // Require this awkward approach to ensure UTF-8 is used
+          linksOutputStream = new FileOutputStream(linksFile, true);
+          linksWriter = new BufferedWriter(new OutputStreamWriter(linksOutputStream, Charsets.UTF_8));
+        }
+        linksWriter.write(walletToEncounterDateLink.serialise() + "\n");
+        linksWriter.flush();
+      } catch (IOException e) {
+        log.error(e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Flush the links file, sync it to disk and close it
+   */
+  void close() {
+
+    synchronized (linksFileLock) {
+      if (linksWriter == null) {
+        return;
+      }
+      try {
+        linksWriter.flush();
+        linksOutputStream.getFD().sync();
+      } catch (IOException e) {
+        log.error("Could not sync '" + linksFile.getAbsolutePath() + "'", e);
+      } finally {
+        try {
+          linksWriter.close();
+        } catch (IOException e) {
+          log.warn("Could not close '{}': {}", linksFile.getAbsolutePath(), e.getMessage());
+        }
+        linksWriter = null;
+        linksOutputStream = null;
+      }
+    }
+  }
+
+  WalletToEncounterDateLink lookup(BRITWalletId britWalletId) {
+
+    WalletToEncounterDateLink link = previousEncounterMap.get(britWalletId);
+    if (link == null) {
+      newWalletLookupCount.incrementAndGet();
+    } else {
+      knownWalletLookupCount.incrementAndGet();
+    }
+    return link;
+  }
+
+  Collection<WalletToEncounterDateLink> getLinks() {
+    return previousEncounterMap.values();
+  }
+
+  int size() {
+    return previousEncounterMap.size();
+  }
+
+  /**
+   * @return The number of lookups that found a link
+   */
+  long getKnownWalletLookupCount() {
+    return knownWalletLookupCount.get();
+  }
+
+  /**
+   * @return The number of lookups that found no link
+   */
+  long getNewWalletLookupCount() {
+    return newWalletLookupCount.get();
+  }
+}
@@ -0,0 +1,442 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * <p>Partitioning to provide the following to BasicMatcherStore:</p>
+ * <ul>
+ * <li>Consistent hashing of each BRITWalletId to one of N shards, each with its own links file, map and lock</li>
+ * <li>Discovery of the shard count from the links files in the backing store directory</li>
+ * <li>Completion (or undo) of a rebalance that was interrupted</li>
+ * <li>Parallel loading of the shards at startup</li>
+ * <li>Totals of the lookup counters across the shards</li>
+ * </ul>
+ * <p>A single shard is the original backingStoreDirectory/links.txt. With N shards the links are in
+ * backingStoreDirectory/links-i-of-N.txt so the shard count is always recorded with the data. The shard count is
+ * changed offline with the EncounterShardRebalancer, which commits a new count by atomically writing it to
+ * backingStoreDirectory/links.manifest. On open, ".tmp" links files for the committed count are put in place and
+ * any other ".tmp" links files are discarded.</p>
+ *
+ * @since 0.0.1
+ */
+final class EncounterLinkShards {
+
+  private static final Logger log = LoggerFactory.getLogger(EncounterLinkShards.class);
+
+  /**
+   * Records the shard count committed by the last rebalance
+   */
+  static final String MANIFEST_FILE_NAME = "links.manifest";
+
+  /**
+   * Marks a links file written by a rebalance that is not yet in place
+   */
+  static final String TEMPORARY_SUFFIX = ".tmp";
+
+  /**
+   * Marks a links file replaced by a rebalance
+   */
+  static final String PREVIOUS_SUFFIX = ".previous";
+
+  /**
+   * Matches "links-3-of-8.txt" capturing the shard index and count
+   */
+  private static final Pattern SHARD_FILE_PATTERN = Pattern.compile("links-(\\d+)-of-(\\d+)\\.txt");
+
+  /**
+   * Spreads the BRITWalletId bytes (synthetic ids share a long prefix) before bucketing
+   */
+  private static final HashFunction SHARD_HASH = Hashing.murmur3_128();
+
+  private final List<EncounterLinkShard> shards;
+
+  private EncounterLinkShards(List<EncounterLinkShard> shards) {
+    this.shards = shards;
+  }
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @return The shards found in the directory (a single empty links.txt if there are none) fully loaded
+   *
+   * @throws IOException If the links files are inconsistent or cannot be read
+   */
+  static EncounterLinkShards open(File backingStoreDirectory) throws IOException {
+
+    recoverInterruptedRebalance(backingStoreDirectory);
+
+    int shardCount = discoverShardCount(backingStoreDirectory);
+
+    List<EncounterLinkShard> shards = Lists.newArrayListWithCapacity(shardCount);
+    for (int i = 0; i < shardCount; i++) {
+      shards.add(new EncounterLinkShard(linksFile(backingStoreDirectory, i, shardCount)));
+    }
+
+    long start = System.nanoTime();
+    loadInParallel(shards);
+    log.info("Loaded {} encounter link shard(s) in {} ms", shardCount, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+    return new EncounterLinkShards(Collections.unmodifiableList(shards));
+  }
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @return The number of shards recorded by the links file names (1 if there are no shard files)
+   *
+   * @throws IOException If the files record more than one shard count or disagree with the manifest
+   */
+  static int discoverShardCount(File backingStoreDirectory) throws IOException {
+
+    int shardCount = discoverShardCountFromFileNames(backingStoreDirectory);
+
+    Integer committedShardCount = readManifest(backingStoreDirectory);
+    if (committedShardCount != null) {
+      if (committedShardCount != shardCount) {
+        throw new IOException("The manifest records " + committedShardCount + " shards but the links files record " + shardCount + " in '" + backingStoreDirectory.getAbsolutePath() + "'");
+      }
+      // A missing shard would otherwise start empty and lose its wallets
+      for (int i = 0; i < shardCount; i++) {
+        File linksFile = linksFile(backingStoreDirectory, i, shardCount);
+        if (!linksFile.exists()) {
+          throw new IOException("'" + linksFile.getName() + "' is missing from '" + backingStoreDirectory.getAbsolutePath() + "'");
+        }
+      }
+    }
+
+    return shardCount;
+  }
+
+  private static int discoverShardCountFromFileNames(File backingStoreDirectory) throws IOException {
+
+    Integer shardCount = null;
+    File[] files = backingStoreDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        java.util.regex.Matcher matcher = SHARD_FILE_PATTERN.matcher(file.getName());
+        if (!matcher.matches()) {
+          continue;
+        }
+        int count = Integer.parseInt(matcher.group(2));
+        if (shardCount != null && shardCount != count) {
+          throw new IOException("Links files for " + shardCount + " and " + count + " shards are both present in '" + backingStoreDirectory.getAbsolutePath() + "'");
+        }
+        shardCount = count;
+      }
+    }
+
+    if (shardCount == null) {
+      return 1;
+    }
+
+    File legacyLinksFile = new File(backingStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    if (legacyLinksFile.length() > 0) {
+      throw new IOException("Both '" + legacyLinksFile.getName() + "' and links files for " + shardCount + " shards are present in '" + backingStoreDirectory.getAbsolutePath() + "'");
+    }
+
+    return shardCount;
+  }
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @return The shard count committed by the last rebalance, or null if the store has never been rebalanced
+   *
+   * @throws IOException If the manifest cannot be read
+   */
+  static Integer readManifest(File backingStoreDirectory) throws IOException {
+
+    File manifestFile = new File(backingStoreDirectory, MANIFEST_FILE_NAME);
+    if (!manifestFile.exists()) {
+      return null;
+    }
+
+    String manifest = new String(Files.readAllBytes(manifestFile.toPath()), Charsets.UTF_8).trim();
+    try {
+      return Integer.parseInt(manifest);
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed '" + manifestFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * <p>Atomically replace the manifest so a crash leaves either the old or the new shard count</p>
+   *
+   * @param backingStoreDirectory The Matcher backing store directory
+   * @param shardCount            The shard count to commit
+   *
+   * @throws IOException If the manifest cannot be written
+   */
+  static void writeManifest(File backingStoreDirectory, int shardCount) throws IOException {
+
+    File manifestFile = new File(backingStoreDirectory, MANIFEST_FILE_NAME);
+    File temporaryManifestFile = new File(manifestFile.getPath() + TEMPORARY_SUFFIX);
+
+    try (FileOutputStream outputStream = new FileOutputStream(temporaryManifestFile)) {
+      outputStream.write((shardCount + "\n").getBytes(Charsets.UTF_8));
+      outputStream.flush();
+      outputStream.getFD().sync();
+    }
+    Files.move(temporaryManifestFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * <p>Bring the links files back to a consistent state after a rebalance stopped part way:</p>
+   * <ul>
+   * <li>Before the manifest was written: the old files are intact so the ".tmp" files are discarded</li>
+   * <li>After the manifest was written: the remaining old files are moved aside and the ".tmp" files put in place</li>
+   * </ul>
+   *
+   * @param backingStoreDirectory The Matcher backing store directory
+   *
+   * @throws IOException If the store cannot be recovered automatically
+   */
+  private static void recoverInterruptedRebalance(File backingStoreDirectory) throws IOException {
+
+    File[] files = backingStoreDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    Integer committedShardCount = readManifest(backingStoreDirectory);
+
+    List<File> temporaryLinksFiles = Lists.newArrayList();
+    boolean liveLinksFilesPresent = false;
+    boolean previousLinksFilesPresent = false;
+    for (File file : files) {
+      String name = file.getName();
+      if (name.equals(MANIFEST_FILE_NAME + TEMPORARY_SUFFIX)) {
+        // Never committed
+        delete(file);
+      } else if (name.endsWith(TEMPORARY_SUFFIX) && linksFileShardCount(name.substring(0, name.length() - TEMPORARY_SUFFIX.length())) != null) {
+        temporaryLinksFiles.add(file);
+      } else if (name.endsWith(PREVIOUS_SUFFIX) && linksFileShardCount(name.substring(0, name.length() - PREVIOUS_SUFFIX.length())) != null) {
+        previousLinksFilesPresent = true;
+      } else if (linksFileShardCount(name) != null) {
+        liveLinksFilesPresent = true;
+      }
+    }
+
+    if (temporaryLinksFiles.isEmpty()) {
+      if (committedShardCount == null && previousLinksFilesPresent && !liveLinksFilesPresent) {
+        // Starting empty here would silently lose every wallet
+        throw new IOException("Only '" + PREVIOUS_SUFFIX + "' links files are present in '" + backingStoreDirectory.getAbsolutePath() + "' so an interrupted rebalance must be restored by hand");
+      }
+      return;
+    }
+
+    String firstName = temporaryLinksFiles.get(0).getName();
+    int temporaryShardCount = linksFileShardCount(firstName.substring(0, firstName.length() - TEMPORARY_SUFFIX.length()));
+
+    if (committedShardCount == null || committedShardCount != temporaryShardCount) {
+      for (File temporaryLinksFile : temporaryLinksFiles) {
+        delete(temporaryLinksFile);
+      }
+      log.warn("Discarded an uncommitted rebalance to {} shard(s) in '{}'", temporaryShardCount, backingStoreDirectory.getAbsolutePath());
+      return;
+    }
+
+    // Committed so every shard must be present either in place or waiting to be put there
+    for (int i = 0; i < committedShardCount; i++) {
+      File linksFile = linksFile(backingStoreDirectory, i, committedShardCount);
+      if (!linksFile.exists() && !new File(linksFile.getPath() + TEMPORARY_SUFFIX).exists()) {
+        throw new IOException("'" + linksFile.getName() + "' is missing from the rebalance committed in '" + backingStoreDirectory.getAbsolutePath() + "'");
+      }
+    }
+    for (File file : files) {
+      Integer shardCount = linksFileShardCount(file.getName());
+      if (shardCount != null && shardCount != temporaryShardCount && file.exists()) {
+        rename(file, new File(file.getPath() + PREVIOUS_SUFFIX));
+      }
+    }
+    for (File temporaryLinksFile : temporaryLinksFiles) {
+      String path = temporaryLinksFile.getPath();
+      rename(temporaryLinksFile, new File(path.substring(0, path.length() - TEMPORARY_SUFFIX.length())));
+    }
+    log.warn("Completed an interrupted rebalance to {} shard(s) in '{}'", committedShardCount, backingStoreDirectory.getAbsolutePath());
+  }
+
+  /**
+   * @param fileName The file name
+   *
+   * @return The shard count recorded by a links file name, or null if it is not a links file
+   */
+  private static Integer linksFileShardCount(String fileName) {
+
+    if (fileName.equals(BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS)) {
+      return 1;
+    }
+    java.util.regex.Matcher matcher = SHARD_FILE_PATTERN.matcher(fileName);
+    return matcher.matches() ? Integer.valueOf(matcher.group(2)) : null;
+  }
+
+  /**
+   * @param from The file to rename
+   * @param to   The new file (replaced if present)
+   *
+   * @throws IOException If the file cannot be renamed
+   */
+  static void rename(File from, File to) throws IOException {
+
+    if (to.exists() && !to.delete()) {
+      throw new IOException("Could not replace '" + to.getAbsolutePath() + "'");
+    }
+    if (!from.renameTo(to)) {
+      throw new IOException("Could not rename '" + from.getAbsolutePath() + "' to '" + to.getName() + "'");
+    }
+  }
+
+  private static void delete(File file) throws IOException {
+
+    if (!file.delete()) {
+      throw new IOException("Could not delete '" + file.getAbsolutePath() + "'");
+    }
+  }
+
+  /**
+   * @param backingStoreDirectory The Matcher backing store directory
+   * @param shardIndex            The shard index
+   * @param shardCount            The number of shards
+   *
+   * @return The links file of the shard
+   */
+  static File linksFile(File backingStoreDirectory, int shardIndex, int shardCount) {
+
+    Preconditions.checkState(shardCount > 0, "'shardCount' must be positive");
+    Preconditions.checkState(shardIndex >= 0 && shardIndex < shardCount, "'shardIndex' must be less than 'shardCount'");
+
+    if (shardCount == 1) {
+      return new File(backingStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    }
+    return new File(backingStoreDirectory, "links-" + shardIndex + "-of-" + shardCount + BasicMatcherStore.LINKS_FILENAME_SUFFIX);
+  }
+
+  /**
+   * @param britWalletId The BRITWalletId
+   * @param shardCount   The number of shards
+   *
+   * @return The shard index (consistent so that changing the count moves only about 1/N of the wallets)
+   */
+  static int shardIndex(BRITWalletId britWalletId, int shardCount) {
+    return Hashing.consistentHash(SHARD_HASH.hashBytes(britWalletId.getBytes()), shardCount);
+  }
+
+  int getShardCount() {
+    return shards.size();
+  }
+
+  List<EncounterLinkShard> getShards() {
+    return shards;
+  }
+
+  /**
+   * @return The number of links held by each shard
+   */
+  Map<Integer, Integer> getShardSizes() {
+
+    Map<Integer, Integer> shardSizes = Maps.newTreeMap();
+    for (int i = 0; i < shards.size(); i++) {
+      shardSizes.put(i, shards.get(i).size());
+    }
+    return shardSizes;
+  }
+
+  long getKnownWalletLookupCount() {
+
+    long count = 0;
+    for (EncounterLinkShard shard : shards) {
+      count += shard.getKnownWalletLookupCount();
+    }
+    return count;
+  }
+
+  long getNewWalletLookupCount() {
+
+    long count = 0;
+    for (EncounterLinkShard shard : shards) {
+      count += shard.getNewWalletLookupCount();
+    }
+    return count;
+  }
+
+  /**
+   * Flush, sync and close every shard links file
+   */
+  void close() {
+
+    for (EncounterLinkShard shard : shards) {
+      shard.close();
+    }
+  }
+
+  void store(WalletToEncounterDateLink walletToEncounterDateLink) {
+    shardFor(walletToEncounterDateLink.getBritWalletId()).store(walletToEncounterDateLink);
+  }
+
+  WalletToEncounterDateLink lookup(BRITWalletId britWalletId) {
+    return shardFor(britWalletId).lookup(britWalletId);
+  }
+
+  private EncounterLinkShard shardFor(BRITWalletId britWalletId) {
+    return shards.size() == 1 ? shards.get(0) : shards.get(shardIndex(britWalletId, shards.size()));
+  }
+
+  private static void loadInParallel(List<EncounterLinkShard> shards) throws IOException {
+
+    if (shards.size() == 1) {
+      shards.get(0).load();
+      return;
+    }
+
+    int threads = Math.min(shards.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executorService = Executors.newFixedThreadPool(
+      threads,
+      new ThreadFactoryBuilder().setNameFormat("brit-shard-load-%d").setDaemon(true).build()
+    );
+    try {
+      List<Callable<EncounterLinkShard>> loads = Lists.newArrayListWithCapacity(shards.size());
+      for (final EncounterLinkShard shard : shards) {
+        loads.add(new Callable<EncounterLinkShard>() {
+          @Override
+          public EncounterLinkShard call() throws Exception {
+            return shard.load();
+          }
+        });
+      }
+      for (Future<EncounterLinkShard> load : executorService.invokeAll(loads)) {
+        load.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading the encounter link shards", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Could not load the encounter link shards", e.getCause());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+}
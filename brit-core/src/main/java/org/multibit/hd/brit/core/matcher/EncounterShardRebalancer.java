@@ -0,0 +1,158 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * <p>Offline tool to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Rewriting of the wallet to encounter date links in a Matcher store for a new shard count</li>
+ * </ul>
+ * <p>The Matcher must be stopped while this runs. The new links files are written alongside the old ones with a
+ * ".tmp" suffix and synced, then the new shard count is committed by atomically writing the manifest. Only then are
+ * the old files renamed with a ".previous" suffix and the new ones put in place. If the run stops part way, opening the
+ * store discards the ".tmp" files (not committed) or finishes the renames (committed). The ".previous" files are
+ * kept.</p>
+ * <p>Usage: <code>EncounterShardRebalancer &lt;matcher store directory&gt; &lt;shard count&gt;</code></p>
+ *
+ * @since 0.0.1
+ */
+public final class EncounterShardRebalancer {
+
+  private static final Logger log = LoggerFactory.getLogger(EncounterShardRebalancer.class);
+
+  /**
+   * Private constructor for utility classes
+   */
+  private EncounterShardRebalancer() {
+  }
+
+  public static void main(String[] args) throws IOException {
+
+    if (args.length != 2) {
+      System.err.println("Usage: EncounterShardRebalancer <matcher store directory> <shard count>");
+      System.exit(-1);
+    }
+
+    File matcherStoreDirectory = new File(args[0]);
+    int shardCount = Integer.parseInt(args[1]);
+
+    int linkCount = rebalance(matcherStoreDirectory, shardCount);
+    System.out.printf("Rewrote %d links into %d shard(s) in '%s'.%n", linkCount, shardCount, matcherStoreDirectory.getAbsolutePath());
+  }
+
+  /**
+   * @param matcherStoreDirectory The directory of a stopped Matcher store
+   * @param shardCount            The new number of shards
+   *
+   * @return The number of links in the store
+   *
+   * @throws IOException If the store cannot be read or the new files cannot be written
+   */
+  public static int rebalance(File matcherStoreDirectory, int shardCount) throws IOException {
+
+    Preconditions.checkNotNull(matcherStoreDirectory, "'matcherStoreDirectory' must be present");
+    Preconditions.checkState(matcherStoreDirectory.isDirectory(), "'matcherStoreDirectory' must be a directory");
+    Preconditions.checkState(shardCount > 0, "'shardCount' must be positive");
+
+    EncounterLinkShards current = EncounterLinkShards.open(matcherStoreDirectory);
+    int linkCount = 0;
+    for (EncounterLinkShard shard : current.getShards()) {
+      linkCount += shard.size();
+    }
+
+    if (current.getShardCount() == shardCount) {
+      log.info("Matcher store already has {} shard(s)", shardCount);
+      return linkCount;
+    }
+
+    List<File> temporaryFiles = writeTemporaryShards(matcherStoreDirectory, current, shardCount);
+    current.close();
+
+    // Commit: from here on opening the store completes the rebalance
+    EncounterLinkShards.writeManifest(matcherStoreDirectory, shardCount);
+
+    moveAside(current);
+    putInPlace(temporaryFiles);
+
+    log.info("Rebalanced {} links from {} to {} shard(s)", linkCount, current.getShardCount(), shardCount);
+
+    return linkCount;
+  }
+
+  /**
+   * @param matcherStoreDirectory The directory of a stopped Matcher store
+   * @param current               The current shards
+   * @param shardCount            The new number of shards
+   *
+   * @return The synced ".tmp" links files of the new shards
+   *
+   * @throws IOException If the new files cannot be written
+   */
+  static List<File> writeTemporaryShards(File matcherStoreDirectory, EncounterLinkShards current, int shardCount) throws IOException {
+
+    List<File> temporaryFiles = Lists.newArrayListWithCapacity(shardCount);
+    List<FileOutputStream> outputStreams = Lists.newArrayListWithCapacity(shardCount);
+    List<Writer> writers = Lists.newArrayListWithCapacity(shardCount);
+    try {
+      for (int i = 0; i < shardCount; i++) {
+        File temporaryFile = new File(EncounterLinkShards.linksFile(matcherStoreDirectory, i, shardCount).getPath() + EncounterLinkShards.TEMPORARY_SUFFIX);
+        FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+        temporaryFiles.add(temporaryFile);
+        outputStreams.add(outputStream);
+        writers.add(new BufferedWriter(new OutputStreamWriter(outputStream, Charsets.UTF_8)));
+      }
+
+      // Only the latest link for each wallet is carried over
+      for (EncounterLinkShard shard : current.getShards()) {
+        for (WalletToEncounterDateLink link : shard.getLinks()) {
+          writers.get(EncounterLinkShards.shardIndex(link.getBritWalletId(), shardCount)).write(link.serialise() + "\n");
+        }
+      }
+
+      for (int i = 0; i < shardCount; i++) {
+        writers.get(i).flush();
+        outputStreams.get(i).getFD().sync();
+      }
+    } finally {
+      for (Writer writer : writers) {
+        writer.close();
+      }
+    }
+
+    return temporaryFiles;
+  }
+
+  /**
+   * @param current The closed current shards
+   *
+   * @throws IOException If a links file cannot be renamed
+   */
+  static void moveAside(EncounterLinkShards current) throws IOException {
+
+    for (EncounterLinkShard shard : current.getShards()) {
+      File linksFile = shard.getLinksFile();
+      EncounterLinkShards.rename(linksFile, new File(linksFile.getPath() + EncounterLinkShards.PREVIOUS_SUFFIX));
+    }
+  }
+
+  /**
+   * @param temporaryFiles The ".tmp" links files of the new shards
+   *
+   * @throws IOException If a links file cannot be renamed
+   */
+  static void putInPlace(List<File> temporaryFiles) throws IOException {
+
+    for (File temporaryFile : temporaryFiles) {
+      String path = temporaryFile.getPath();
+      EncounterLinkShards.rename(temporaryFile, new File(path.substring(0, path.length() - EncounterLinkShards.TEMPORARY_SUFFIX.length())));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * <p>Utility to provide the following to Matcher classes:</p>
+ * <ul>
+ * <li>Allocation free conversion between epoch millis and UTC epoch days</li>
+ * <li>A cached current epoch day that is only recomputed when the clock crosses a day boundary</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public final class EpochDays {
+
+  public static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+  /**
+   * The most recently computed day (immutable so it can be swapped atomically)
+   */
+  private static volatile CachedDay cachedDay = new CachedDay(0);
+
+  /**
+   * Private constructor for utility classes
+   */
+  private EpochDays() {
+  }
+
+  /**
+   * @param epochMillis Milliseconds since the epoch
+   *
+   * @return The UTC day number since the epoch (floor division so pre-epoch times are handled)
+   */
+  public static long toEpochDay(long epochMillis) {
+    long day = epochMillis / MILLIS_PER_DAY;
+    if (epochMillis % MILLIS_PER_DAY < 0) {
+      day--;
+    }
+    return day;
+  }
+
+  /**
+   * @param epochDay The UTC day number since the epoch
+   *
+   * @return The epoch millis at UTC midnight starting that day
+   */
+  public static long toEpochMillis(long epochDay) {
+    return epochDay * MILLIS_PER_DAY;
+  }
+
+  /**
+   * @param epochMillis The current time in epoch millis
+   *
+   * @return The UTC epoch day for the current time, reusing the cached value within the same day
+   */
+  public static long currentEpochDay(long epochMillis) {
+
+    CachedDay day = cachedDay;
+    if (epochMillis < day.startMillis || epochMillis >= day.endMillis) {
+      // Clock has ticked over a day boundary (or moved backwards) so refresh
+      day = new CachedDay(toEpochDay(epochMillis));
+      cachedDay = day;
+    }
+    return day.epochDay;
+  }
+
+  /**
+   * An epoch day together with its bounds
+   */
+  private static class CachedDay {
+
+    private final long epochDay;
+    private final long startMillis;
+    private final long endMillis;
+
+    private CachedDay(long epochDay) {
+      this.epochDay = epochDay;
+      this.startMillis = toEpochMillis(epochDay);
+      this.endMillis = startMillis + MILLIS_PER_DAY;
+    }
+  }
+}
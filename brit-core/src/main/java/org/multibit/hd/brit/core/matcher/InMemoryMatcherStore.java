@@ -0,0 +1,107 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Store to provide the following to Matcher classes:</p>
+ * <ul>
+ * <li>A throwaway MatcherStore held entirely in memory (e.g. for warm-up and testing)</li>
+ * </ul>
+ * <p>Nothing is persisted so this must never back a live Matcher.</p>
+ *
+ * @since 0.0.1
+ */
+public class InMemoryMatcherStore implements MatcherStore {
+
+  private final Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newConcurrentMap();
+
+  private final Map<Long, Set<Address>> encounterDayToBitcoinAddressesMap = Maps.newConcurrentMap();
+
+  private volatile AddressUniverse allBitcoinAddresses = AddressUniverse.EMPTY;
+
+  /**
+   * @param bitcoinAddressesByRedeemer The initial Bitcoin addresses grouped by Redeemer
+   */
+  public InMemoryMatcherStore(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+
+    Preconditions.checkNotNull(bitcoinAddressesByRedeemer, "'bitcoinAddressesByRedeemer' must be present");
+
+    this.allBitcoinAddresses = AddressUniverse.of(bitcoinAddressesByRedeemer);
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+    previousEncounterMap.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+    return previousEncounterMap.get(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return lookupBitcoinAddressListForEpochDay(EpochDays.toEpochDay(encounterDate.getTime()));
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    storeBitcoinAddressesForEpochDay(bitcoinAddresses, EpochDays.toEpochDay(encounterDate.getTime()));
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForEpochDay(long epochDay) {
+    return encounterDayToBitcoinAddressesMap.get(epochDay);
+  }
+
+  @Override
+  public void storeBitcoinAddressesForEpochDay(Set<Address> bitcoinAddresses, long epochDay) {
+    encounterDayToBitcoinAddressesMap.put(epochDay, bitcoinAddresses);
+  }
+
+  @Override
+  public synchronized void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+    this.allBitcoinAddresses = AddressUniverse.of(ImmutableMap.<String, Set<Address>>of(BasicMatcherStore.DEFAULT_REDEEMER_ID, allBitcoinAddresses));
+  }
+
+  @Override
+  public synchronized void storeBitcoinAddressesByRedeemer(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+    this.allBitcoinAddresses = AddressUniverse.of(bitcoinAddressesByRedeemer);
+  }
+
+  @Override
+  public synchronized Set<Address> appendBitcoinAddresses(String redeemerId, Set<Address> additionalBitcoinAddresses) {
+
+    ImmutableSet<Address> newBitcoinAddresses = allBitcoinAddresses.newBitcoinAddresses(additionalBitcoinAddresses);
+    this.allBitcoinAddresses = allBitcoinAddresses.append(redeemerId, newBitcoinAddresses);
+
+    return newBitcoinAddresses;
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    return allBitcoinAddresses;
+  }
+
+  @Override
+  public void close() {
+
+    // Nothing is persisted
+
+  }
+
+  @Override
+  public Map<String, Set<Address>> getBitcoinAddressesByRedeemer() {
+    return allBitcoinAddresses.getBitcoinAddressesByRedeemer();
+  }
+}
@@ -7,6 +7,7 @@ import org.multibit.hd.brit.core.dto.PayerRequest;
 
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Map;
 
 /**
  * <p>Interface to provide the following to BRIT:</p>
@@ -26,6 +27,16 @@ public interface Matcher {
    */
   MatcherConfig getConfig();
 
+  /**
+   * <p>Replace the Matcher key and configuration without interrupting Payer requests.</p>
+   * <p>The previous key continues to decrypt Payer requests for the grace period so that Payers still holding the
+   * previous public key are served.</p>
+   *
+   * @param matcherConfig     The new configuration (its secret keyring must already have passed the self-test)
+   * @param gracePeriodMillis How long the previous key remains in use (zero to retire it immediately)
+   */
+  void rotateConfig(MatcherConfig matcherConfig, long gracePeriodMillis);
+
   /**
    * Decrypt a PGP encrypted PayerRequest using the PGP private key in the Matcher's MatcherConfig
    *
@@ -37,6 +48,13 @@ public interface Matcher {
    */
   PayerRequest decryptPayerRequest(EncryptedPayerRequest encryptedPayerRequest) throws Exception;
 
+  /**
+   * Get the number of Payer requests decrypted by each Matcher key so that a previous key can be retired once idle
+   *
+   * @return The request counts keyed by long key id in hex
+   */
+  Map<String, Long> getRequestCountsByKeyId();
+
   /**
    * Process the PayerRequest information and produce a MatcherResponse.
    * This contains the Bitcoin addresses to send payments to and a replay date
@@ -0,0 +1,18 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * <p>Interface to provide the following to Matcher:</p>
+ * <ul>
+ * <li>The current time, so that day rollover can be controlled in tests and benchmarks</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public interface MatcherClock {
+
+  /**
+   * @return The current time in milliseconds since the epoch
+   */
+  long currentTimeMillis();
+
+}
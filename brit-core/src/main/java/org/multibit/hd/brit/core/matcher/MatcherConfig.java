@@ -1,7 +1,11 @@
 package org.multibit.hd.brit.core.matcher;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
 import java.io.File;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * <p>Value object to provide the following to BRIT API:</p>
@@ -23,11 +27,42 @@ public class MatcherConfig {
    */
   private char[] password;
 
+  /**
+   * The number of Bitcoin addresses to send back to the Payer per day
+   */
+  private int numberOfAddressesPerDay = 50;
+
+  /**
+   * The relative weight of each Redeemer when selecting the daily Bitcoin addresses (empty for uniform over all addresses)
+   */
+  private Map<String, Double> redeemerWeights = ImmutableMap.of();
+
+  /**
+   * The source of the current time (replaceable to simulate day rollover)
+   */
+  private MatcherClock clock = SystemMatcherClock.INSTANCE;
+
   public MatcherConfig(File matcherSecretKeyringFile, char[] password) {
     this.matcherSecretKeyringFile = matcherSecretKeyringFile;
     this.password = Arrays.copyOf(password, password.length);
   }
 
+  /**
+   * @param matcherSecretKeyringFile The replacement secret keyring (e.g. after a key rotation)
+   * @param password                 The password for the replacement secret keyring
+   *
+   * @return A copy of this configuration using the replacement secret keyring
+   */
+  public MatcherConfig withSecretKeyring(File matcherSecretKeyringFile, char[] password) {
+
+    MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyringFile, password);
+    matcherConfig.numberOfAddressesPerDay = numberOfAddressesPerDay;
+    matcherConfig.redeemerWeights = redeemerWeights;
+    matcherConfig.clock = clock;
+
+    return matcherConfig;
+  }
+
   public File getMatcherSecretKeyringFile() {
     return matcherSecretKeyringFile;
   }
@@ -36,4 +71,44 @@ public class MatcherConfig {
     return Arrays.copyOf(password, password.length);
   }
 
+  public int getNumberOfAddressesPerDay() {
+    return numberOfAddressesPerDay;
+  }
+
+  /**
+   * @param numberOfAddressesPerDay The number of Bitcoin addresses to send back to the Payer per day
+   */
+  public void setNumberOfAddressesPerDay(int numberOfAddressesPerDay) {
+    Preconditions.checkState(numberOfAddressesPerDay > 0, "'numberOfAddressesPerDay' must be greater than zero");
+    this.numberOfAddressesPerDay = numberOfAddressesPerDay;
+  }
+
+  public Map<String, Double> getRedeemerWeights() {
+    return redeemerWeights;
+  }
+
+  /**
+   * @param redeemerWeights The relative weight of each Redeemer (keyed by the redeemer identifier in all.txt).
+   *                        Redeemers not present are never picked. Use an empty map to pick uniformly over all addresses.
+   */
+  public void setRedeemerWeights(Map<String, Double> redeemerWeights) {
+    Preconditions.checkNotNull(redeemerWeights, "'redeemerWeights' must be present");
+    for (Map.Entry<String, Double> entry : redeemerWeights.entrySet()) {
+      Preconditions.checkState(entry.getValue() != null && entry.getValue() >= 0, "Weight for '" + entry.getKey() + "' must not be negative");
+    }
+    this.redeemerWeights = ImmutableMap.copyOf(redeemerWeights);
+  }
+
+  public MatcherClock getClock() {
+    return clock;
+  }
+
+  /**
+   * @param clock The source of the current time for the Matcher
+   */
+  public void setClock(MatcherClock clock) {
+    Preconditions.checkNotNull(clock, "'clock' must be present");
+    this.clock = clock;
+  }
+
 }
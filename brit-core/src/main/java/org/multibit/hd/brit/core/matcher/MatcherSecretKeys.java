@@ -0,0 +1,173 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+import org.spongycastle.openpgp.*;
+import org.spongycastle.openpgp.operator.jcajce.JcaKeyFingerprintCalculator;
+import org.spongycastle.openpgp.operator.jcajce.JcePBESecretKeyDecryptorBuilder;
+import org.spongycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.Security;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Key material to provide the following to BasicMatcher:</p>
+ * <ul>
+ * <li>The encryption keys of a Matcher secret keyring unlocked once with the password</li>
+ * <li>Decryption of a Payer request with the key named by the key id in its PGP packet</li>
+ * </ul>
+ * <p>Unlocking runs the keyring S2K derivation so it is done when the key is loaded rather than per request.</p>
+ *
+ * @since 0.0.1
+ */
+final class MatcherSecretKeys {
+
+  static {
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  private final Map<Long, PGPPrivateKey> privateKeys;
+
+  private MatcherSecretKeys(Map<Long, PGPPrivateKey> privateKeys) {
+    this.privateKeys = privateKeys;
+  }
+
+  /**
+   * @param secretKeyring The secret keyring (binary or armored)
+   * @param password      The password for the secret keyring
+   *
+   * @return The unlocked encryption keys
+   *
+   * @throws PGPException If a key cannot be unlocked (a checksum failure means the password is incorrect)
+   * @throws IOException  If the keyring cannot be read
+   */
+  static MatcherSecretKeys unlock(byte[] secretKeyring, char[] password) throws PGPException, IOException {
+
+    Preconditions.checkNotNull(secretKeyring, "'secretKeyring' must be present");
+    Preconditions.checkNotNull(password, "'password' must be present");
+
+    PGPSecretKeyRingCollection secretKeyRings = new PGPSecretKeyRingCollection(
+      PGPUtil.getDecoderStream(new ByteArrayInputStream(secretKeyring)),
+      new JcaKeyFingerprintCalculator()
+    );
+
+    ImmutableMap.Builder<Long, PGPPrivateKey> privateKeys = ImmutableMap.builder();
+    Iterator<?> keyRings = secretKeyRings.getKeyRings();
+    while (keyRings.hasNext()) {
+      Iterator<?> secretKeys = ((PGPSecretKeyRing) keyRings.next()).getSecretKeys();
+      while (secretKeys.hasNext()) {
+        PGPSecretKey secretKey = (PGPSecretKey) secretKeys.next();
+        if (!secretKey.getPublicKey().isEncryptionKey() || secretKey.isPrivateKeyEmpty()) {
+          continue;
+        }
+        PGPPrivateKey privateKey = secretKey.extractPrivateKey(
+          new JcePBESecretKeyDecryptorBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(password)
+        );
+        privateKeys.put(secretKey.getKeyID(), privateKey);
+      }
+    }
+
+    ImmutableMap<Long, PGPPrivateKey> unlocked = privateKeys.build();
+    if (unlocked.isEmpty()) {
+      throw new PGPException("No encryption key in the secret keyring");
+    }
+
+    return new MatcherSecretKeys(unlocked);
+  }
+
+  /**
+   * @param payload The PGP encrypted Payer request
+   *
+   * @return The public key encrypted session key packets in the order they appear
+   *
+   * @throws IOException If the payload is not a PGP encrypted message
+   */
+  static List<PGPPublicKeyEncryptedData> readEncryptedData(byte[] payload) throws IOException {
+
+    PGPObjectFactory objectFactory = new PGPObjectFactory(
+      PGPUtil.getDecoderStream(new ByteArrayInputStream(payload)),
+      new JcaKeyFingerprintCalculator()
+    );
+
+    // The first object may be a PGP marker packet
+    Object object = objectFactory.nextObject();
+    if (!(object instanceof PGPEncryptedDataList)) {
+      object = objectFactory.nextObject();
+    }
+    if (!(object instanceof PGPEncryptedDataList)) {
+      throw new IOException("Payload is not a PGP encrypted message");
+    }
+
+    List<PGPPublicKeyEncryptedData> encryptedData = Lists.newArrayList();
+    Iterator<?> encryptedDataObjects = ((PGPEncryptedDataList) object).getEncryptedDataObjects();
+    while (encryptedDataObjects.hasNext()) {
+      Object encryptedDataObject = encryptedDataObjects.next();
+      if (encryptedDataObject instanceof PGPPublicKeyEncryptedData) {
+        encryptedData.add((PGPPublicKeyEncryptedData) encryptedDataObject);
+      }
+    }
+    return encryptedData;
+  }
+
+  /**
+   * @return The ids of the unlocked keys
+   */
+  Set<Long> getKeyIds() {
+    return privateKeys.keySet();
+  }
+
+  /**
+   * @param keyId The key id from a session key packet
+   *
+   * @return True if this keyring holds the key
+   */
+  boolean hasKey(long keyId) {
+    return privateKeys.containsKey(keyId);
+  }
+
+  /**
+   * @param encryptedData The session key packet for a key held by this keyring
+   *
+   * @return The decrypted literal data
+   *
+   * @throws PGPException If the message cannot be decrypted
+   * @throws IOException  If the message is malformed
+   */
+  byte[] decrypt(PGPPublicKeyEncryptedData encryptedData) throws PGPException, IOException {
+
+    PGPPrivateKey privateKey = privateKeys.get(encryptedData.getKeyID());
+    Preconditions.checkState(privateKey != null, "'privateKey' must be present");
+
+    InputStream clear = encryptedData.getDataStream(
+      new JcePublicKeyDataDecryptorFactoryBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build(privateKey)
+    );
+
+    PGPObjectFactory plainFactory = new PGPObjectFactory(clear, new JcaKeyFingerprintCalculator());
+    Object message = plainFactory.nextObject();
+    if (message instanceof PGPCompressedData) {
+      message = new PGPObjectFactory(((PGPCompressedData) message).getDataStream(), new JcaKeyFingerprintCalculator()).nextObject();
+    }
+    if (!(message instanceof PGPLiteralData)) {
+      throw new PGPException("Payload does not contain literal data");
+    }
+
+    byte[] literalData = ByteStreams.toByteArray(((PGPLiteralData) message).getInputStream());
+
+    if (encryptedData.isIntegrityProtected() && !encryptedData.verify()) {
+      throw new PGPException("Payload failed the integrity check");
+    }
+
+    return literalData;
+  }
+}
@@ -5,6 +5,7 @@ import org.multibit.hd.brit.core.dto.BRITWalletId;
 import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
 
 import java.util.Date;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -52,6 +53,23 @@ public interface MatcherStore {
    */
   void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate);
 
+  /**
+   * Get the Bitcoin address set being sent back to the Payers for the UTC epoch day specified.
+   *
+   * @param epochDay The UTC day number since the epoch (see EpochDays)
+   *
+   * @return The Bitcoin address set for this day (null or empty if none selected yet)
+   */
+  Set<Address> lookupBitcoinAddressListForEpochDay(long epochDay);
+
+  /**
+   * Store the Bitcoin address set as the Bitcoin addresses to send back to the payer for the UTC epoch day
+   *
+   * @param bitcoinAddresses The Bitcoin addresses to store
+   * @param epochDay         The UTC day number since the epoch (see EpochDays)
+   */
+  void storeBitcoinAddressesForEpochDay(Set<Address> bitcoinAddresses, long epochDay);
+
   /**
    * Store the set of Bitcoin addresses as the 'universe' of all possible Bitcoin addresses
    *
@@ -59,10 +77,43 @@ public interface MatcherStore {
    */
   void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses);
 
+  /**
+   * Store the Bitcoin addresses grouped by Redeemer as the 'universe' of all possible Bitcoin addresses (keeping the
+   * groups so that the Redeemer weights still apply)
+   *
+   * @param bitcoinAddressesByRedeemer The Bitcoin addresses grouped by Redeemer (e.g. as read from a sectioned all.txt)
+   */
+  void storeBitcoinAddressesByRedeemer(Map<String, Set<Address>> bitcoinAddressesByRedeemer);
+
+  /**
+   * <p>Add further Bitcoin addresses to the 'universe' without rewriting it.</p>
+   * <p>Addresses already present are ignored. The enlarged universe must be visible to readers atomically
+   * and persisted in an append-only manner.</p>
+   *
+   * @param redeemerId                 An identifier for the Redeemer supplying the addresses (e.g. "redeemer-1-1")
+   * @param additionalBitcoinAddresses The Bitcoin addresses to add
+   *
+   * @return The Bitcoin addresses that were actually added (never null)
+   */
+  Set<Address> appendBitcoinAddresses(String redeemerId, Set<Address> additionalBitcoinAddresses);
+
   /**
    * Get the set of all possible Bitcoin addresses in this MatcherStore
    *
    * @return The set of all Bitcoin addresses in the store
    */
   Set<Address> getAllBitcoinAddresses();
+
+  /**
+   * Get the Bitcoin addresses in this MatcherStore grouped by the Redeemer that supplied them
+   *
+   * @return An immutable map of Redeemer identifier to its Bitcoin addresses (each address appears once)
+   */
+  Map<String, Set<Address>> getBitcoinAddressesByRedeemer();
+
+  /**
+   * <p>Write out anything buffered, sync it to disk and release any open files.</p>
+   * <p>Called once on shutdown. The store must not be used afterwards.</p>
+   */
+  void close();
 }
@@ -1,7 +1,12 @@
 package org.multibit.hd.brit.core.matcher;
 
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * <p>Factory to provide the following to BRIT:</p>
@@ -27,4 +32,43 @@ public class MatcherStores {
   public static MatcherStore newBasicMatcherStore(File matcherStoreDirectory) throws IOException {
     return new BasicMatcherStore(matcherStoreDirectory);
   }
+
+  /**
+   * @param bitcoinAddressesByRedeemer The Bitcoin addresses grouped by Redeemer
+   *
+   * @return A throwaway Matcher store that is never persisted
+   */
+  public static MatcherStore newInMemoryMatcherStore(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+    return new InMemoryMatcherStore(bitcoinAddressesByRedeemer);
+  }
+
+  /**
+   * @param persistentStore        The store for real traffic
+   * @param syntheticBRITWalletIds The synthetic BRITWalletIds (sharing the key of the probes and load tests)
+   *
+   * @return A Matcher store that keeps synthetic (probe and benchmark) encounters in a bounded in-memory side store
+   */
+  public static SyntheticTrafficMatcherStore newSyntheticTrafficMatcherStore(MatcherStore persistentStore, SyntheticBRITWalletIds syntheticBRITWalletIds) {
+    return new SyntheticTrafficMatcherStore(persistentStore, syntheticBRITWalletIds, SyntheticTrafficMatcherStore.DEFAULT_MAXIMUM_SYNTHETIC_ENCOUNTERS);
+  }
+
+  /**
+   * @param persistentStore The store the encounters are written to
+   *
+   * @return A Matcher store that acknowledges new encounters immediately and writes them on a dedicated thread
+   */
+  public static WriteBehindMatcherStore newWriteBehindMatcherStore(MatcherStore persistentStore) {
+    return new WriteBehindMatcherStore(persistentStore, WriteBehindMatcherStore.DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @param sharedLogFile The operation log shared by all Matcher nodes (created if absent)
+   *
+   * @return A Matcher store that agrees daily addresses and encounters with every other node using the same log
+   *
+   * @throws IOException If the log cannot be opened or replayed
+   */
+  public static MatcherStore newReplicatedLogMatcherStore(File sharedLogFile) throws IOException {
+    return new ReplicatedLogMatcherStore(sharedLogFile);
+  }
 }
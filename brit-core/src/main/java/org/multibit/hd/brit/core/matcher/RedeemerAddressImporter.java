@@ -0,0 +1,173 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.core.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * <p>Importer to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Streaming import of a Redeemer address export file (e.g. "redeemer-1-1.txt") into a running MatcherStore</li>
+ * <li>Parallel validation of the raw addresses in batches</li>
+ * </ul>
+ * <p>The MatcherStore is responsible for removing addresses it already holds and for publishing the
+ * enlarged universe, so the running Matcher picks up the new addresses on its next daily selection.</p>
+ *
+ * @since 0.0.1
+ */
+public class RedeemerAddressImporter {
+
+  private static final Logger log = LoggerFactory.getLogger(RedeemerAddressImporter.class);
+
+  /**
+   * The suffix of a Redeemer address export file, removed to give the Redeemer identifier
+   */
+  public static final String REDEEMER_ADDRESS_FILENAME_SUFFIX = ".txt";
+
+  /**
+   * The number of raw lines handed to each validation task
+   */
+  private static final int BATCH_SIZE = 1_000;
+
+  /**
+   * Always use MainNet in BRIT
+   */
+  private static final NetworkParameters networkParameters = MainNetParams.get();
+
+  private final MatcherStore matcherStore;
+
+  private final int numberOfThreads;
+
+  /**
+   * @param matcherStore The Matcher store to receive the imported addresses
+   */
+  public RedeemerAddressImporter(MatcherStore matcherStore) {
+    this(matcherStore, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param matcherStore    The Matcher store to receive the imported addresses
+   * @param numberOfThreads The number of threads to use for address validation
+   */
+  public RedeemerAddressImporter(MatcherStore matcherStore, int numberOfThreads) {
+
+    Preconditions.checkNotNull(matcherStore, "'matcherStore' must be present");
+    Preconditions.checkState(numberOfThreads > 0, "'numberOfThreads' must be greater than zero");
+
+    this.matcherStore = matcherStore;
+    this.numberOfThreads = numberOfThreads;
+  }
+
+  /**
+   * @param redeemerAddressFile The Redeemer export file (one address per line, "#" comments allowed)
+   *
+   * @return The addresses that were new to the Matcher store
+   *
+   * @throws IOException If the file cannot be read
+   */
+  public Set<Address> importAddresses(File redeemerAddressFile) throws IOException {
+
+    Preconditions.checkNotNull(redeemerAddressFile, "'redeemerAddressFile' must be present");
+
+    String redeemerId = BasicMatcherStore.filePart(redeemerAddressFile.getAbsolutePath());
+    if (redeemerId.endsWith(REDEEMER_ADDRESS_FILENAME_SUFFIX)) {
+      redeemerId = redeemerId.substring(0, redeemerId.length() - REDEEMER_ADDRESS_FILENAME_SUFFIX.length());
+    }
+
+    try (InputStream inputStream = new FileInputStream(redeemerAddressFile)) {
+      return importAddresses(redeemerId, inputStream);
+    }
+  }
+
+  /**
+   * @param redeemerId  The Redeemer identifier to record against the addresses
+   * @param inputStream The stream providing the Redeemer addresses (one address per line, "#" comments allowed)
+   *
+   * @return The addresses that were new to the Matcher store
+   *
+   * @throws IOException If the stream cannot be read
+   */
+  public Set<Address> importAddresses(String redeemerId, InputStream inputStream) throws IOException {
+
+    ExecutorService executorService = Executors.newFixedThreadPool(numberOfThreads);
+    try {
+
+      // Stream the file in batches so that validation can start before the file is fully read
+      List<Future<List<Address>>> validatedBatches = Lists.newArrayList();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charsets.UTF_8));
+
+      List<String> batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String rawAddress = line.trim();
+        if (rawAddress.isEmpty() || rawAddress.startsWith(BasicMatcherStore.COMMENT_PREFIX)) {
+          continue;
+        }
+        batch.add(rawAddress);
+        if (batch.size() == BATCH_SIZE) {
+          validatedBatches.add(executorService.submit(new AddressValidator(batch)));
+          batch = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        }
+      }
+      if (!batch.isEmpty()) {
+        validatedBatches.add(executorService.submit(new AddressValidator(batch)));
+      }
+
+      // Gather the results in file order, removing any duplicates within the file
+      Set<Address> importedAddresses = Sets.newLinkedHashSet();
+      for (Future<List<Address>> validatedBatch : validatedBatches) {
+        importedAddresses.addAll(validatedBatch.get());
+      }
+      log.debug("Validated {} distinct addresses from Redeemer '{}'", importedAddresses.size(), redeemerId);
+
+      return matcherStore.appendBitcoinAddresses(redeemerId, importedAddresses);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MatcherStoreException("Interrupted while importing addresses for Redeemer '" + redeemerId + "'", e);
+    } catch (ExecutionException e) {
+      throw new MatcherStoreException("Failed to validate addresses for Redeemer '" + redeemerId + "'", e.getCause());
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Validates a batch of raw addresses, dropping (and logging) any that are malformed
+   */
+  private static class AddressValidator implements Callable<List<Address>> {
+
+    private final List<String> rawAddresses;
+
+    private AddressValidator(List<String> rawAddresses) {
+      this.rawAddresses = rawAddresses;
+    }
+
+    @Override
+    public List<Address> call() throws Exception {
+
+      List<Address> addresses = Lists.newArrayListWithCapacity(rawAddresses.size());
+      for (String rawAddress : rawAddresses) {
+        try {
+          addresses.add(new Address(networkParameters, rawAddress));
+        } catch (AddressFormatException e) {
+          log.error("Malformed Redeemer address '{}'. Ignoring.", rawAddress);
+        }
+      }
+      return addresses;
+    }
+  }
+}
@@ -0,0 +1,458 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.AddressFormatException;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.core.exceptions.MatcherStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Store to provide the following to Matchers running on several nodes:</p>
+ * <ul>
+ * <li>One canonical Bitcoin address set per day and one encounter record per wallet across all nodes</li>
+ * <li>Replication through a shared append-only operation log</li>
+ * </ul>
+ * <p>Every node appends its writes to the same log file (e.g. on a shared volume) while holding an exclusive lock, and
+ * replays the entries of other nodes into its own in-memory state. Daily address sets and encounter records are
+ * write-once: a node catches up with the log before appending one and the first entry in the log wins, so every node
+ * converges on the same value. Because those values never change a local hit is always current, and only a miss has
+ * to check the log for entries from other nodes.</p>
+ * <p>The log is line based text:</p>
+ * <pre>
+ * link &lt;BRITWalletId&gt; &lt;encounter millis&gt; &lt;first transaction millis&gt;
+ * day &lt;epoch day&gt; &lt;address&gt;...
+ * all [&lt;redeemer id&gt;:] &lt;address&gt;... [&lt;redeemer id&gt;: &lt;address&gt;...]...
+ * append &lt;redeemer id&gt; &lt;address&gt;...
+ * </pre>
+ * <p>Addresses in an "all" entry belong to the default Redeemer until the first "&lt;redeemer id&gt;:" marker (a
+ * Bitcoin address never contains a colon).</p>
+ * <p>A node that crashes part way through an append leaves an incomplete last line. The next writer (holding the lock,
+ * so no other write can be in progress) truncates it before appending. A malformed or unknown entry is logged and
+ * skipped so that one bad line cannot stop every node from replaying the log.</p>
+ *
+ * @since 0.0.1
+ */
+public class ReplicatedLogMatcherStore implements MatcherStore {
+
+  private static final Logger log = LoggerFactory.getLogger(ReplicatedLogMatcherStore.class);
+
+  private static final NetworkParameters networkParameters = MainNetParams.get();
+
+  private static final String LINK = "link";
+  private static final String DAY = "day";
+  private static final String ALL = "all";
+  private static final String APPEND = "append";
+
+  private static final char SEPARATOR = ' ';
+
+  private static final String REDEEMER_MARKER_SUFFIX = ":";
+
+  /**
+   * File locks are held by the JVM so nodes in the same process also need to exclude each other
+   */
+  private static final ConcurrentMap<String, ReentrantLock> inProcessLogLocks = Maps.newConcurrentMap();
+
+  private final RandomAccessFile logFile;
+
+  private final FileChannel logChannel;
+
+  private final ReentrantLock inProcessLogLock;
+
+  /**
+   * The lock on the log file (guarded by the in-process lock)
+   */
+  private FileLock fileLock;
+
+  /**
+   * The log position up to which entries have been applied (guarded by this)
+   */
+  private long appliedPosition = 0;
+
+  private final Map<BRITWalletId, WalletToEncounterDateLink> previousEncounterMap = Maps.newConcurrentMap();
+
+  private final Map<Long, Set<Address>> encounterDayToBitcoinAddressesMap = Maps.newConcurrentMap();
+
+  private volatile AddressUniverse allBitcoinAddresses = AddressUniverse.EMPTY;
+
+  /**
+   * @param sharedLogFile The operation log shared by all nodes (created if absent)
+   *
+   * @throws IOException If the log cannot be opened or replayed
+   */
+  public ReplicatedLogMatcherStore(File sharedLogFile) throws IOException {
+
+    Preconditions.checkNotNull(sharedLogFile, "'sharedLogFile' must be present");
+
+    String canonicalPath = sharedLogFile.getCanonicalPath();
+    inProcessLogLocks.putIfAbsent(canonicalPath, new ReentrantLock());
+    this.inProcessLogLock = inProcessLogLocks.get(canonicalPath);
+
+    this.logFile = new RandomAccessFile(sharedLogFile, "rw");
+    this.logChannel = logFile.getChannel();
+
+    catchUp();
+    log.info("Replayed {} bytes of the Matcher log at '{}'", appliedPosition, canonicalPath);
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkNotNull(walletToEncounterDateLink, "'walletToEncounterDateLink' must be present");
+
+    if (previousEncounterMap.containsKey(walletToEncounterDateLink.getBritWalletId())) {
+      return;
+    }
+    appendIfAbsent(LINK + SEPARATOR + walletToEncounterDateLink.serialise(), walletToEncounterDateLink.getBritWalletId(), previousEncounterMap);
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+
+    WalletToEncounterDateLink walletToEncounterDateLink = previousEncounterMap.get(britWalletId);
+    if (walletToEncounterDateLink == null) {
+      // Another node may have seen the wallet
+      catchUpUnchecked();
+      walletToEncounterDateLink = previousEncounterMap.get(britWalletId);
+    }
+    return walletToEncounterDateLink;
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return lookupBitcoinAddressListForEpochDay(EpochDays.toEpochDay(encounterDate.getTime()));
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    storeBitcoinAddressesForEpochDay(bitcoinAddresses, EpochDays.toEpochDay(encounterDate.getTime()));
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForEpochDay(long epochDay) {
+
+    Set<Address> bitcoinAddresses = encounterDayToBitcoinAddressesMap.get(epochDay);
+    if (bitcoinAddresses == null) {
+      // Another node may have selected the addresses for the day
+      catchUpUnchecked();
+      bitcoinAddresses = encounterDayToBitcoinAddressesMap.get(epochDay);
+    }
+    return bitcoinAddresses;
+  }
+
+  @Override
+  public void storeBitcoinAddressesForEpochDay(Set<Address> bitcoinAddresses, long epochDay) {
+
+    Preconditions.checkNotNull(bitcoinAddresses, "'bitcoinAddresses' must be present");
+
+    // An empty selection is not worth fixing for the day
+    if (bitcoinAddresses.isEmpty() || encounterDayToBitcoinAddressesMap.containsKey(epochDay)) {
+      return;
+    }
+    appendIfAbsent(DAY + SEPARATOR + epochDay + SEPARATOR + joinAddresses(bitcoinAddresses), epochDay, encounterDayToBitcoinAddressesMap);
+  }
+
+  @Override
+  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+
+    Preconditions.checkNotNull(allBitcoinAddresses, "'allBitcoinAddresses' must be present");
+
+    append(ALL + SEPARATOR + joinAddresses(allBitcoinAddresses));
+  }
+
+  @Override
+  public void storeBitcoinAddressesByRedeemer(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+
+    Preconditions.checkNotNull(bitcoinAddressesByRedeemer, "'bitcoinAddressesByRedeemer' must be present");
+
+    // One entry so that other nodes never see part of the new universe
+    StringBuilder entry = new StringBuilder(ALL);
+    for (Map.Entry<String, Set<Address>> group : bitcoinAddressesByRedeemer.entrySet()) {
+      Preconditions.checkArgument(!group.getKey().isEmpty() && group.getKey().indexOf(SEPARATOR) < 0, "'redeemerId' must be a single word");
+      entry.append(SEPARATOR).append(group.getKey()).append(REDEEMER_MARKER_SUFFIX);
+      if (!group.getValue().isEmpty()) {
+        entry.append(SEPARATOR).append(joinAddresses(group.getValue()));
+      }
+    }
+    append(entry.toString());
+  }
+
+  @Override
+  public Set<Address> appendBitcoinAddresses(String redeemerId, Set<Address> additionalBitcoinAddresses) {
+
+    Preconditions.checkNotNull(redeemerId, "'redeemerId' must be present");
+    Preconditions.checkArgument(!redeemerId.isEmpty() && redeemerId.indexOf(SEPARATOR) < 0, "'redeemerId' must be a single word");
+    Preconditions.checkNotNull(additionalBitcoinAddresses, "'additionalBitcoinAddresses' must be present");
+
+    lockLog();
+    try {
+      catchUp();
+
+      ImmutableSet<Address> newBitcoinAddresses = allBitcoinAddresses.newBitcoinAddresses(additionalBitcoinAddresses);
+      if (!newBitcoinAddresses.isEmpty()) {
+        writeAndApply(APPEND + SEPARATOR + redeemerId + SEPARATOR + joinAddresses(newBitcoinAddresses));
+      }
+      return newBitcoinAddresses;
+
+    } catch (IOException e) {
+      throw new MatcherStoreException("Failed to append Bitcoin addresses for Redeemer '" + redeemerId + "'", e);
+    } finally {
+      unlockLog();
+    }
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    catchUpUnchecked();
+    return allBitcoinAddresses;
+  }
+
+  @Override
+  public Map<String, Set<Address>> getBitcoinAddressesByRedeemer() {
+    catchUpUnchecked();
+    return allBitcoinAddresses.getBitcoinAddressesByRedeemer();
+  }
+
+  @Override
+  public void close() {
+
+    lockLog();
+    try {
+      logChannel.force(true);
+      logFile.close();
+    } catch (IOException e) {
+      throw new MatcherStoreException("Failed to close the Matcher log", e);
+    } finally {
+      unlockLog();
+    }
+  }
+
+  /**
+   * Append a write-once entry unless the log already has one for the key
+   */
+  private <K> void appendIfAbsent(String entry, K key, Map<K, ?> appliedEntries) {
+
+    lockLog();
+    try {
+      catchUp();
+      if (appliedEntries.containsKey(key)) {
+        log.debug("Another node has already written '{}'", key);
+        return;
+      }
+      writeAndApply(entry);
+    } catch (IOException e) {
+      throw new MatcherStoreException("Failed to append to the Matcher log", e);
+    } finally {
+      unlockLog();
+    }
+  }
+
+  private void append(String entry) {
+
+    lockLog();
+    try {
+      catchUp();
+      writeAndApply(entry);
+    } catch (IOException e) {
+      throw new MatcherStoreException("Failed to append to the Matcher log", e);
+    } finally {
+      unlockLog();
+    }
+  }
+
+  /**
+   * Must hold the log lock and have caught up
+   */
+  private synchronized void writeAndApply(String entry) throws IOException {
+
+    // Having caught up under the lock anything after the applied position is the torn tail of a crashed writer
+    long size = logChannel.size();
+    if (size > appliedPosition) {
+      log.warn("Truncating {} bytes of an incomplete entry at the end of the Matcher log", size - appliedPosition);
+      logChannel.truncate(appliedPosition);
+    }
+
+    ByteBuffer bytes = ByteBuffer.wrap((entry + "\n").getBytes(Charsets.UTF_8));
+    long position = appliedPosition;
+    while (bytes.hasRemaining()) {
+      position += logChannel.write(bytes, position);
+    }
+    logChannel.force(false);
+
+    // Nothing else can have been written so this applies just our entry
+    catchUp();
+  }
+
+  private void catchUpUnchecked() {
+    try {
+      catchUp();
+    } catch (IOException e) {
+      throw new MatcherStoreException("Failed to read the Matcher log", e);
+    }
+  }
+
+  /**
+   * Apply any complete entries written since the last catch up (cheap when there are none)
+   */
+  private synchronized void catchUp() throws IOException {
+
+    long size = logChannel.size();
+    if (size <= appliedPosition) {
+      return;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - appliedPosition, Integer.MAX_VALUE));
+    long position = appliedPosition;
+    while (buffer.hasRemaining()) {
+      int read = logChannel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        break;
+      }
+    }
+    buffer.flip();
+
+    // Only apply complete lines (a writer on another node may be part way through)
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    while (buffer.hasRemaining()) {
+      byte b = buffer.get();
+      position++;
+      if (b == '\n') {
+        String entry = new String(line.toByteArray(), Charsets.UTF_8);
+        try {
+          apply(entry);
+        } catch (RuntimeException e) {
+          log.warn("Skipping malformed Matcher log entry ending at {}: {}", position, e.getMessage());
+        }
+        line.reset();
+        appliedPosition = position;
+      } else {
+        line.write(b);
+      }
+    }
+  }
+
+  private void apply(String entry) {
+
+    if (entry.isEmpty()) {
+      return;
+    }
+    List<String> fields = Splitter.on(SEPARATOR).omitEmptyStrings().splitToList(entry);
+    String operation = fields.get(0);
+
+    switch (operation) {
+      case LINK:
+        WalletToEncounterDateLink link = WalletToEncounterDateLink.parse(entry.substring(LINK.length() + 1));
+        if (!previousEncounterMap.containsKey(link.getBritWalletId())) {
+          previousEncounterMap.put(link.getBritWalletId(), link);
+        }
+        break;
+      case DAY:
+        long epochDay = Long.parseLong(fields.get(1));
+        if (!encounterDayToBitcoinAddressesMap.containsKey(epochDay)) {
+          encounterDayToBitcoinAddressesMap.put(epochDay, parseAddresses(fields.subList(2, fields.size())));
+        }
+        break;
+      case ALL:
+        allBitcoinAddresses = AddressUniverse.of(parseAddressesByRedeemer(fields.subList(1, fields.size())));
+        break;
+      case APPEND:
+        applyAppend(fields.get(1), parseAddresses(fields.subList(2, fields.size())));
+        break;
+      default:
+        // Possibly written by a newer node
+        log.warn("Skipping unknown Matcher log entry '{}'", operation);
+    }
+  }
+
+  private void applyAppend(String redeemerId, Set<Address> additionalBitcoinAddresses) {
+    allBitcoinAddresses = allBitcoinAddresses.append(redeemerId, allBitcoinAddresses.newBitcoinAddresses(additionalBitcoinAddresses));
+  }
+
+  /**
+   * Exclude writers in this process and then writers on other nodes
+   */
+  private void lockLog() {
+
+    inProcessLogLock.lock();
+    try {
+      fileLock = logChannel.lock();
+    } catch (IOException | RuntimeException e) {
+      inProcessLogLock.unlock();
+      throw new MatcherStoreException("Failed to lock the Matcher log", e);
+    }
+  }
+
+  private void unlockLog() {
+
+    try {
+      fileLock.release();
+    } catch (IOException e) {
+      log.warn("Failed to release the Matcher log lock", e);
+    } finally {
+      fileLock = null;
+      inProcessLogLock.unlock();
+    }
+  }
+
+  private static String joinAddresses(Set<Address> bitcoinAddresses) {
+    return Joiner.on(SEPARATOR).join(bitcoinAddresses);
+  }
+
+  /**
+   * @return The addresses grouped by the preceding Redeemer marker (the default Redeemer before the first marker)
+   */
+  private static Map<String, Set<Address>> parseAddressesByRedeemer(List<String> fields) {
+
+    Map<String, Set<Address>> byRedeemer = Maps.newLinkedHashMap();
+    String redeemerId = BasicMatcherStore.DEFAULT_REDEEMER_ID;
+    int start = 0;
+    for (int i = 0; i <= fields.size(); i++) {
+      if (i == fields.size() || fields.get(i).endsWith(REDEEMER_MARKER_SUFFIX)) {
+        if (i > start) {
+          byRedeemer.put(redeemerId, parseAddresses(fields.subList(start, i)));
+        }
+        if (i < fields.size()) {
+          redeemerId = fields.get(i).substring(0, fields.get(i).length() - REDEEMER_MARKER_SUFFIX.length());
+          start = i + 1;
+        }
+      }
+    }
+    return byRedeemer;
+  }
+
+  private static ImmutableSet<Address> parseAddresses(List<String> rawAddresses) {
+
+    ImmutableSet.Builder<Address> bitcoinAddresses = ImmutableSet.builder();
+    for (String rawAddress : rawAddresses) {
+      try {
+        bitcoinAddresses.add(new Address(networkParameters, rawAddress));
+      } catch (AddressFormatException e) {
+        throw new MatcherStoreException("Malformed Bitcoin address in the Matcher log", e);
+      }
+    }
+    return bitcoinAddresses.build();
+  }
+}
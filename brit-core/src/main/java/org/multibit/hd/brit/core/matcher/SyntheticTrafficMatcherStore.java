@@ -0,0 +1,165 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Store to provide the following to Matcher:</p>
+ * <ul>
+ * <li>Diversion of synthetic (probe and benchmark) encounters into a bounded in-memory side store</li>
+ * <li>Counters showing the volume of synthetic traffic</li>
+ * </ul>
+ * <p>Synthetic traffic is recognised by its BRITWalletId under the shared key (see SyntheticBRITWalletIds). Everything
+ * else, including the daily Bitcoin address selection, is passed straight through to the persistent store.</p>
+ *
+ * @since 0.0.1
+ */
+public class SyntheticTrafficMatcherStore implements MatcherStore {
+
+  /**
+   * The default bound on synthetic encounters held in memory
+   */
+  public static final int DEFAULT_MAXIMUM_SYNTHETIC_ENCOUNTERS = 10_000;
+
+  private final MatcherStore persistentStore;
+
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds;
+
+  private final Cache<BRITWalletId, WalletToEncounterDateLink> syntheticEncounters;
+
+  private final AtomicLong syntheticLookupCount = new AtomicLong();
+
+  private final AtomicLong syntheticStoreCount = new AtomicLong();
+
+  /**
+   * @param persistentStore              The store for real traffic
+   * @param syntheticBRITWalletIds       The synthetic BRITWalletIds (sharing the key of the probes and load tests)
+   * @param maximumSyntheticEncounters   The maximum number of synthetic encounters to hold (oldest evicted first)
+   */
+  public SyntheticTrafficMatcherStore(MatcherStore persistentStore, SyntheticBRITWalletIds syntheticBRITWalletIds, int maximumSyntheticEncounters) {
+
+    Preconditions.checkNotNull(persistentStore, "'persistentStore' must be present");
+    Preconditions.checkNotNull(syntheticBRITWalletIds, "'syntheticBRITWalletIds' must be present");
+    Preconditions.checkState(maximumSyntheticEncounters > 0, "'maximumSyntheticEncounters' must be greater than zero");
+
+    this.persistentStore = persistentStore;
+    this.syntheticBRITWalletIds = syntheticBRITWalletIds;
+    this.syntheticEncounters = CacheBuilder.newBuilder().maximumSize(maximumSyntheticEncounters).build();
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    if (syntheticBRITWalletIds.isSynthetic(walletToEncounterDateLink.getBritWalletId())) {
+      syntheticStoreCount.incrementAndGet();
+      syntheticEncounters.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+    } else {
+      persistentStore.storeWalletToEncounterDateLink(walletToEncounterDateLink);
+    }
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+
+    if (syntheticBRITWalletIds.isSynthetic(britWalletId)) {
+      syntheticLookupCount.incrementAndGet();
+      return syntheticEncounters.getIfPresent(britWalletId);
+    }
+    return persistentStore.lookupWalletToEncounterDateLink(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return persistentStore.lookupBitcoinAddressListForDate(encounterDate);
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    persistentStore.storeBitcoinAddressesForDate(bitcoinAddresses, encounterDate);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForEpochDay(long epochDay) {
+    return persistentStore.lookupBitcoinAddressListForEpochDay(epochDay);
+  }
+
+  @Override
+  public void storeBitcoinAddressesForEpochDay(Set<Address> bitcoinAddresses, long epochDay) {
+    persistentStore.storeBitcoinAddressesForEpochDay(bitcoinAddresses, epochDay);
+  }
+
+  @Override
+  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+    persistentStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+  }
+
+  @Override
+  public void storeBitcoinAddressesByRedeemer(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+    persistentStore.storeBitcoinAddressesByRedeemer(bitcoinAddressesByRedeemer);
+  }
+
+  @Override
+  public Set<Address> appendBitcoinAddresses(String redeemerId, Set<Address> additionalBitcoinAddresses) {
+    return persistentStore.appendBitcoinAddresses(redeemerId, additionalBitcoinAddresses);
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    return persistentStore.getAllBitcoinAddresses();
+  }
+
+  @Override
+  public Map<String, Set<Address>> getBitcoinAddressesByRedeemer() {
+    return persistentStore.getBitcoinAddressesByRedeemer();
+  }
+
+  @Override
+  public void close() {
+    persistentStore.close();
+  }
+
+  /**
+   * @return The store used for real traffic
+   */
+  public MatcherStore getPersistentStore() {
+    return persistentStore;
+  }
+
+  /**
+   * @return The synthetic BRITWalletIds recognised by this store
+   */
+  public SyntheticBRITWalletIds getSyntheticBRITWalletIds() {
+    return syntheticBRITWalletIds;
+  }
+
+  /**
+   * @return The number of synthetic encounter lookups since startup
+   */
+  public long getSyntheticLookupCount() {
+    return syntheticLookupCount.get();
+  }
+
+  /**
+   * @return The number of synthetic encounters stored since startup (including those since evicted)
+   */
+  public long getSyntheticStoreCount() {
+    return syntheticStoreCount.get();
+  }
+
+  /**
+   * @return The number of synthetic encounters currently held in memory
+   */
+  public long getSyntheticEncounterCount() {
+    return syntheticEncounters.size();
+  }
+}
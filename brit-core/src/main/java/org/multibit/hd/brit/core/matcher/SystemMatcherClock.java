@@ -0,0 +1,20 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * <p>Clock to provide the following to Matcher:</p>
+ * <ul>
+ * <li>The system wall clock (the default for production)</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public enum SystemMatcherClock implements MatcherClock {
+
+  INSTANCE;
+
+  @Override
+  public long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+}
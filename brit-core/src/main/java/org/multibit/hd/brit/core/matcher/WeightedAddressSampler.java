@@ -0,0 +1,259 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>Sampler to provide the following to Matcher:</p>
+ * <ul>
+ * <li>Selection of the daily Bitcoin address set with the fee flow split across Redeemers by weight</li>
+ * <li>Distinct picks in O(k) using the alias method over Redeemers and a partial Fisher-Yates shuffle within each Redeemer</li>
+ * </ul>
+ * <p>When no weights are configured every Redeemer is weighted by its number of addresses, which gives a uniform
+ * selection over the whole universe. When weights are configured, Redeemers without a positive weight are never picked.
+ * If the configured weights match no Redeemer with addresses the selection falls back to weighting by number of
+ * addresses (with a warning) rather than returning nothing.</p>
+ * <p>If the eligible universe holds no more than the requested number of addresses then all of them are returned.</p>
+ *
+ * @since 0.0.1
+ */
+public class WeightedAddressSampler {
+
+  private static final Logger log = LoggerFactory.getLogger(WeightedAddressSampler.class);
+
+  private final Random random;
+
+  /**
+   * @param random The source of randomness (a SecureRandom in production)
+   */
+  public WeightedAddressSampler(Random random) {
+
+    Preconditions.checkNotNull(random, "'random' must be present");
+
+    this.random = random;
+  }
+
+  /**
+   * @param addressesByRedeemer The Bitcoin addresses grouped by Redeemer
+   * @param redeemerWeights     The relative weight of each Redeemer (empty for weighting by number of addresses)
+   * @param count               The number of distinct addresses required
+   *
+   * @return The selected addresses (all eligible addresses if there are no more than count of them)
+   */
+  public Set<Address> sample(Map<String, Set<Address>> addressesByRedeemer, Map<String, Double> redeemerWeights, int count) {
+
+    Preconditions.checkNotNull(addressesByRedeemer, "'addressesByRedeemer' must be present");
+    Preconditions.checkNotNull(redeemerWeights, "'redeemerWeights' must be present");
+    Preconditions.checkState(count >= 0, "'count' must not be negative");
+
+    if (!redeemerWeights.isEmpty() && !hasWeightedRedeemer(addressesByRedeemer, redeemerWeights)) {
+      // A misconfigured weighting must not starve Payers of addresses
+      log.warn("Redeemer weights {} match no Redeemer in {}. Weighting by number of addresses instead.", redeemerWeights.keySet(), addressesByRedeemer.keySet());
+      return sample(addressesByRedeemer, ImmutableMap.<String, Double>of(), count);
+    }
+
+    // Work out the eligible Redeemers
+    List<RedeemerPool> pools = Lists.newArrayList();
+    int eligibleSize = 0;
+    for (Map.Entry<String, Set<Address>> entry : addressesByRedeemer.entrySet()) {
+
+      Set<Address> addresses = entry.getValue();
+      if (addresses.isEmpty()) {
+        continue;
+      }
+
+      double weight;
+      if (redeemerWeights.isEmpty()) {
+        weight = addresses.size();
+      } else {
+        Double configuredWeight = redeemerWeights.get(entry.getKey());
+        weight = configuredWeight == null ? 0 : configuredWeight;
+      }
+
+      if (weight > 0) {
+        pools.add(new RedeemerPool(entry.getKey(), addresses, weight));
+        eligibleSize += addresses.size();
+      } else {
+        log.debug("Redeemer '{}' has no weight so will not be picked", entry.getKey());
+      }
+    }
+
+    // Universe too small to choose from
+    if (eligibleSize <= count) {
+      if (eligibleSize < count) {
+        log.warn("Only {} eligible Bitcoin addresses available but {} requested. Using all of them.", eligibleSize, count);
+      }
+      Set<Address> all = Sets.newHashSetWithExpectedSize(eligibleSize);
+      for (RedeemerPool pool : pools) {
+        all.addAll(pool.addresses);
+      }
+      return all;
+    }
+
+    Set<Address> selected = Sets.newHashSetWithExpectedSize(count);
+    AliasTable aliasTable = new AliasTable(pools);
+    while (selected.size() < count) {
+
+      RedeemerPool pool = pools.get(aliasTable.next(random));
+      selected.add(pool.next(random));
+
+      if (pool.isExhausted()) {
+        // Rebuild without the exhausted Redeemer (happens at most once per Redeemer)
+        pools.remove(pool);
+        aliasTable = new AliasTable(pools);
+      }
+    }
+
+    return selected;
+  }
+
+  /**
+   * @param addressesByRedeemer The Bitcoin addresses grouped by Redeemer
+   * @param redeemerWeights     The relative weight of each Redeemer
+   *
+   * @return True if at least one Redeemer with addresses has a positive configured weight
+   */
+  public static boolean hasWeightedRedeemer(Map<String, Set<Address>> addressesByRedeemer, Map<String, Double> redeemerWeights) {
+
+    for (Map.Entry<String, Double> entry : redeemerWeights.entrySet()) {
+      Set<Address> addresses = addressesByRedeemer.get(entry.getKey());
+      if (entry.getValue() != null && entry.getValue() > 0 && addresses != null && !addresses.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * <p>The addresses of a single Redeemer being drawn without replacement</p>
+   * <p>Uses a sparse partial Fisher-Yates shuffle so only the swapped positions are recorded</p>
+   */
+  private static class RedeemerPool {
+
+    private final String redeemerId;
+
+    private final List<Address> addresses;
+
+    private final double weight;
+
+    private final Map<Integer, Integer> swapped = Maps.newHashMap();
+
+    private int remaining;
+
+    private RedeemerPool(String redeemerId, Set<Address> addresses, double weight) {
+      this.redeemerId = redeemerId;
+      // An ImmutableSet provides constant time indexed access through its list view
+      this.addresses = ImmutableSet.copyOf(addresses).asList();
+      this.weight = weight;
+      this.remaining = addresses.size();
+    }
+
+    private Address next(Random random) {
+
+      int pick = random.nextInt(remaining);
+      int last = remaining - 1;
+
+      int pickIndex = indexAt(pick);
+      swapped.put(pick, indexAt(last));
+      swapped.remove(last);
+      remaining--;
+
+      return addresses.get(pickIndex);
+    }
+
+    private int indexAt(int position) {
+      Integer index = swapped.get(position);
+      return index == null ? position : index;
+    }
+
+    private boolean isExhausted() {
+      return remaining == 0;
+    }
+
+    @Override
+    public String toString() {
+      return "RedeemerPool{" +
+        "redeemerId='" + redeemerId + '\'' +
+        ", weight=" + weight +
+        ", remaining=" + remaining +
+        '}';
+    }
+  }
+
+  /**
+   * <p>Vose's alias method giving O(1) weighted selection of a Redeemer</p>
+   */
+  private static class AliasTable {
+
+    private final double[] probability;
+
+    private final int[] alias;
+
+    private AliasTable(List<RedeemerPool> pools) {
+
+      int n = pools.size();
+      probability = new double[n];
+      alias = new int[n];
+
+      double totalWeight = 0;
+      for (RedeemerPool pool : pools) {
+        totalWeight += pool.weight;
+      }
+
+      // Scale so that the average probability is 1
+      double[] scaled = new double[n];
+      int[] small = new int[n];
+      int[] large = new int[n];
+      int smallCount = 0;
+      int largeCount = 0;
+      for (int i = 0; i < n; i++) {
+        scaled[i] = pools.get(i).weight * n / totalWeight;
+        if (scaled[i] < 1.0) {
+          small[smallCount++] = i;
+        } else {
+          large[largeCount++] = i;
+        }
+      }
+
+      while (smallCount > 0 && largeCount > 0) {
+        int less = small[--smallCount];
+        int more = large[--largeCount];
+
+        probability[less] = scaled[less];
+        alias[less] = more;
+
+        scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+        if (scaled[more] < 1.0) {
+          small[smallCount++] = more;
+        } else {
+          large[largeCount++] = more;
+        }
+      }
+
+      // Anything left over is (within rounding) exactly 1
+      while (largeCount > 0) {
+        probability[large[--largeCount]] = 1.0;
+      }
+      while (smallCount > 0) {
+        probability[small[--smallCount]] = 1.0;
+      }
+    }
+
+    private int next(Random random) {
+      int column = random.nextInt(probability.length);
+      return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+  }
+}
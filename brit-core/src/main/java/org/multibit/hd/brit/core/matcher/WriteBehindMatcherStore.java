@@ -0,0 +1,352 @@
+package org.multibit.hd.brit.core.matcher;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Store to provide the following to Matcher:</p>
+ * <ul>
+ * <li>Immediate acknowledgement of new wallet encounters with persistence on a dedicated writer thread</li>
+ * <li>Backpressure through a bounded queue so that a slow disk cannot grow the backlog without limit</li>
+ * <li>A drain of the queued encounters on close (the persistent store is only closed once the writer has stopped)</li>
+ * <li>Queue depth and lag for monitoring</li>
+ * </ul>
+ * <p>Queued encounters are visible to lookups until they have been written. Everything else, including the daily
+ * Bitcoin address selection, is passed straight through to the persistent store.</p>
+ *
+ * @since 0.0.1
+ */
+public class WriteBehindMatcherStore implements MatcherStore {
+
+  private static final Logger log = LoggerFactory.getLogger(WriteBehindMatcherStore.class);
+
+  /**
+   * The default number of encounters that can wait to be written before callers are held back
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 4_096;
+
+  /**
+   * The longest close waits for the queued encounters to be written
+   */
+  public static final long DEFAULT_DRAIN_TIMEOUT_SECONDS = 30;
+
+  /**
+   * How often the writer checks for close while the queue is empty
+   */
+  private static final long WRITER_POLL_MILLIS = 100;
+
+  private final MatcherStore persistentStore;
+
+  private final BlockingQueue<QueuedEncounter> queue;
+
+  /**
+   * The encounters accepted but not yet written
+   */
+  private final ConcurrentMap<BRITWalletId, WalletToEncounterDateLink> pendingEncounters = Maps.newConcurrentMap();
+
+  private final Thread writerThread;
+
+  private final AtomicLong writtenCount = new AtomicLong();
+
+  private final AtomicLong backpressureCount = new AtomicLong();
+
+  private volatile long lastWriteLagNanos;
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param persistentStore The store the encounters are written to
+   * @param queueCapacity   The number of encounters that can wait to be written
+   */
+  public WriteBehindMatcherStore(MatcherStore persistentStore, int queueCapacity) {
+
+    Preconditions.checkNotNull(persistentStore, "'persistentStore' must be present");
+    Preconditions.checkState(queueCapacity > 0, "'queueCapacity' must be greater than zero");
+
+    this.persistentStore = persistentStore;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+    writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeUntilClosed();
+      }
+    }, "brit-encounter-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  @Override
+  public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+    Preconditions.checkNotNull(walletToEncounterDateLink, "'walletToEncounterDateLink' must be present");
+
+    if (closed) {
+      persistentStore.storeWalletToEncounterDateLink(walletToEncounterDateLink);
+      return;
+    }
+
+    pendingEncounters.put(walletToEncounterDateLink.getBritWalletId(), walletToEncounterDateLink);
+
+    QueuedEncounter queuedEncounter = new QueuedEncounter(walletToEncounterDateLink);
+    if (!queue.offer(queuedEncounter)) {
+      // The writer is behind so hold this caller back until there is room
+      backpressureCount.incrementAndGet();
+      try {
+        queue.put(queuedEncounter);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        write(queuedEncounter);
+        return;
+      }
+    }
+
+    // Anything queued after the writer finished is written by the caller
+    if (closed) {
+      drainQueue();
+    }
+  }
+
+  @Override
+  public WalletToEncounterDateLink lookupWalletToEncounterDateLink(BRITWalletId britWalletId) {
+
+    WalletToEncounterDateLink pendingEncounter = pendingEncounters.get(britWalletId);
+    if (pendingEncounter != null) {
+      return pendingEncounter;
+    }
+    return persistentStore.lookupWalletToEncounterDateLink(britWalletId);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForDate(Date encounterDate) {
+    return persistentStore.lookupBitcoinAddressListForDate(encounterDate);
+  }
+
+  @Override
+  public void storeBitcoinAddressesForDate(Set<Address> bitcoinAddresses, Date encounterDate) {
+    persistentStore.storeBitcoinAddressesForDate(bitcoinAddresses, encounterDate);
+  }
+
+  @Override
+  public Set<Address> lookupBitcoinAddressListForEpochDay(long epochDay) {
+    return persistentStore.lookupBitcoinAddressListForEpochDay(epochDay);
+  }
+
+  @Override
+  public void storeBitcoinAddressesForEpochDay(Set<Address> bitcoinAddresses, long epochDay) {
+    persistentStore.storeBitcoinAddressesForEpochDay(bitcoinAddresses, epochDay);
+  }
+
+  @Override
+  public void storeAllBitcoinAddresses(Set<Address> allBitcoinAddresses) {
+    persistentStore.storeAllBitcoinAddresses(allBitcoinAddresses);
+  }
+
+  @Override
+  public void storeBitcoinAddressesByRedeemer(Map<String, Set<Address>> bitcoinAddressesByRedeemer) {
+    persistentStore.storeBitcoinAddressesByRedeemer(bitcoinAddressesByRedeemer);
+  }
+
+  @Override
+  public Set<Address> appendBitcoinAddresses(String redeemerId, Set<Address> additionalBitcoinAddresses) {
+    return persistentStore.appendBitcoinAddresses(redeemerId, additionalBitcoinAddresses);
+  }
+
+  @Override
+  public Set<Address> getAllBitcoinAddresses() {
+    return persistentStore.getAllBitcoinAddresses();
+  }
+
+  @Override
+  public Map<String, Set<Address>> getBitcoinAddressesByRedeemer() {
+    return persistentStore.getBitcoinAddressesByRedeemer();
+  }
+
+  @Override
+  public void close() {
+
+    close(DEFAULT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+  }
+
+  /**
+   * <p>Drain the queue then close the persistent store</p>
+   * <p>If the writer does not finish in time it is interrupted, given the same time again to stop and the unwritten
+   * encounters are logged as lost. The persistent store is left open if the writer is still running so that it is never
+   * closed underneath a write.</p>
+   *
+   * @param timeout The longest to wait for the writer (each time)
+   * @param unit    The unit of the timeout
+   *
+   * @return True if every queued encounter was written and the persistent store closed
+   */
+  public boolean close(long timeout, TimeUnit unit) {
+
+    if (drain(timeout, unit)) {
+      persistentStore.close();
+      return true;
+    }
+
+    // Stop the writer rather than let it carry on into a closed store
+    writerThread.interrupt();
+    try {
+      writerThread.join(unit.toMillis(timeout));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    log.error("Closing with {} encounter(s) not written to the persistent store", pendingEncounters.size());
+
+    if (writerThread.isAlive()) {
+      log.error("Encounter writer is still running so the persistent store has been left open");
+      return false;
+    }
+
+    persistentStore.close();
+    return false;
+  }
+
+  /**
+   * <p>Stop accepting encounters into the queue and write out those already queued</p>
+   * <p>Later encounters are written straight to the persistent store.</p>
+   *
+   * @param timeout The longest to wait for the writer
+   * @param unit    The unit of the timeout
+   *
+   * @return True if every queued encounter has been written
+   */
+  public boolean drain(long timeout, TimeUnit unit) {
+
+    closed = true;
+    try {
+      writerThread.join(unit.toMillis(timeout));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (writerThread.isAlive()) {
+      log.warn("Encounter writer did not finish within {} ms with {} encounter(s) queued", unit.toMillis(timeout), queue.size());
+      return false;
+    }
+
+    // Pick up anything that raced with the writer finishing
+    drainQueue();
+    log.info("Encounter writer drained after {} write(s)", writtenCount.get());
+
+    return true;
+  }
+
+  /**
+   * @return The store the encounters are written to
+   */
+  public MatcherStore getPersistentStore() {
+    return persistentStore;
+  }
+
+  /**
+   * @return The number of encounters waiting to be written
+   */
+  public int getQueueDepth() {
+    return queue.size();
+  }
+
+  /**
+   * @return How long the oldest queued encounter has been waiting in millis (zero if none)
+   */
+  public long getQueueLagMillis() {
+
+    QueuedEncounter oldest = queue.peek();
+    return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.queuedNanos);
+  }
+
+  /**
+   * @return How long the most recently written encounter waited in the queue in millis
+   */
+  public long getLastWriteLagMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastWriteLagNanos);
+  }
+
+  /**
+   * @return The number of encounters written since startup
+   */
+  public long getWrittenCount() {
+    return writtenCount.get();
+  }
+
+  /**
+   * @return The number of callers held back by a full queue since startup
+   */
+  public long getBackpressureCount() {
+    return backpressureCount.get();
+  }
+
+  private void writeUntilClosed() {
+
+    while (true) {
+      QueuedEncounter queuedEncounter;
+      try {
+        queuedEncounter = queue.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        log.warn("Encounter writer interrupted with {} encounter(s) queued", queue.size());
+        return;
+      }
+
+      if (queuedEncounter != null) {
+        write(queuedEncounter);
+      } else if (closed) {
+        return;
+      }
+    }
+  }
+
+  private void drainQueue() {
+
+    QueuedEncounter queuedEncounter;
+    while ((queuedEncounter = queue.poll()) != null) {
+      write(queuedEncounter);
+    }
+  }
+
+  private void write(QueuedEncounter queuedEncounter) {
+
+    WalletToEncounterDateLink link = queuedEncounter.walletToEncounterDateLink;
+    try {
+      persistentStore.storeWalletToEncounterDateLink(link);
+      writtenCount.incrementAndGet();
+      lastWriteLagNanos = System.nanoTime() - queuedEncounter.queuedNanos;
+    } catch (RuntimeException e) {
+      log.error("Could not write encounter for '{}'", link.getBritWalletId(), e);
+    } finally {
+      // A later encounter for the same wallet stays pending until it is written too
+      pendingEncounters.remove(link.getBritWalletId(), link);
+    }
+  }
+
+  /**
+   * An encounter with the time it was queued
+   */
+  private static class QueuedEncounter {
+
+    private final WalletToEncounterDateLink walletToEncounterDateLink;
+
+    private final long queuedNanos = System.nanoTime();
+
+    private QueuedEncounter(WalletToEncounterDateLink walletToEncounterDateLink) {
+      this.walletToEncounterDateLink = walletToEncounterDateLink;
+    }
+  }
+}
@@ -1,11 +1,9 @@
 package org.multibit.hd.brit.core.payer;
 
 import com.google.common.base.Optional;
-import com.google.common.io.ByteStreams;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.crypto.KeyCrypterException;
 import org.multibit.commons.crypto.AESUtils;
-import org.multibit.commons.crypto.PGPUtils;
 import org.multibit.hd.brit.core.dto.*;
 import org.multibit.hd.brit.core.exceptions.MatcherResponseException;
 import org.multibit.hd.brit.core.exceptions.PayerRequestException;
@@ -16,12 +14,10 @@ import org.spongycastle.openpgp.PGPException;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.*;
+import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -42,8 +38,6 @@ public class BasicPayer implements Payer {
   public static final int CURRENT_BRIT_VERSION = 2;
 
   private PayerConfig payerConfig;
-  private BRITWalletId britWalletId;
-  private byte[] sessionKey;
 
   public BasicPayer(PayerConfig payerConfig) {
     this.payerConfig = payerConfig;
@@ -67,16 +61,12 @@ public class BasicPayer implements Payer {
    */
   public PayerRequest newLegacyPayerRequest(int version, BRITWalletId britWalletId, byte[] sessionKey, Optional<Date> firstTransactionDate) {
 
-    this.britWalletId = britWalletId;
-    this.sessionKey = Arrays.copyOf(sessionKey, sessionKey.length);
     return new PayerRequest(version, britWalletId, sessionKey, firstTransactionDate);
 
   }
 
   public PayerRequest newPayerRequest(BRITWalletId britWalletId, byte[] sessionKey, Optional<Date> firstTransactionDate) {
 
-    this.britWalletId = britWalletId;
-    this.sessionKey = Arrays.copyOf(sessionKey, sessionKey.length);
     return new PayerRequest(CURRENT_BRIT_VERSION, britWalletId, sessionKey, firstTransactionDate);
 
   }
@@ -86,31 +76,11 @@ public class BasicPayer implements Payer {
       // Serialise the contents of the payerRequest
       byte[] serialisedPayerRequest = payerRequest.serialise();
 
-      ByteArrayOutputStream encryptedBytesOutputStream = new ByteArrayOutputStream(1024);
+      // PGP encrypt in memory (nothing touches the filesystem)
+      byte[] encryptedBytes = PayerRequestEncryptor.forKey(payerConfig.getMatcherPublicKey()).encrypt(serialisedPayerRequest);
 
-      // TODO Can we change PGPUtils to accept a stream rather than a file to reduce IO vulnerability?
-      // Make a temporary file containing the serialised payer request
-      File tempFile = File.createTempFile("req", "tmp");
-
-      // Write serialised payerRequest to the temporary file
-      try (OutputStream tempStream = new FileOutputStream(tempFile)) {
-        // Copy the original to the temporary location
-        ByteStreams.copy(new ByteArrayInputStream(serialisedPayerRequest), tempStream);
-        // Attempt to force the bits to hit the disk. In reality the OS or hard disk itself may still decide
-        // to not write through to physical media for at least a few seconds, but this is the best we can do.
-        tempStream.flush();
-      }
-
-      // PGP encrypt the file
-      PGPUtils.encryptFile(encryptedBytesOutputStream, tempFile, payerConfig.getMatcherPublicKey());
-
-      // TODO Secure file delete (or avoid File altogether) - consider recommendations from #295 (MultiBit Common)
-      if (!tempFile.delete()) {
-        throw new IOException("Could not delete file + '" + tempFile.getAbsolutePath() + "'");
-      }
-
-      return new EncryptedPayerRequest(encryptedBytesOutputStream.toByteArray());
-    } catch (IOException | NoSuchProviderException | PGPException e) {
+      return new EncryptedPayerRequest(encryptedBytes);
+    } catch (IOException | PGPException e) {
       throw new PayerRequestException("Could not encrypt PayerRequest", e);
     }
   }
@@ -126,8 +96,11 @@ public class BasicPayer implements Payer {
         throw new MatcherResponseException("Malformed encrypted matcher response.");
       }
 
+      // The request carries the BRITWalletId and session key (so any Payer can decrypt the response to it)
+      byte[] sessionKey = payerRequest.getSessionKey();
+
       // Stretch the 20 byte britWalletId to 32 bytes (256 bits)
-      byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(britWalletId.getBytes());
+      byte[] stretchedBritWalletId = MessageDigest.getInstance("SHA-256").digest(payerRequest.getBritWalletId().getBytes());
 
       // Create an AES key from the stretchedBritWalletId and the sessionKey
       KeyParameter aesKey = new KeyParameter(stretchedBritWalletId);
@@ -0,0 +1,119 @@
+package org.multibit.hd.brit.core.payer;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.spongycastle.bcpg.ArmoredOutputStream;
+import org.spongycastle.bcpg.CompressionAlgorithmTags;
+import org.spongycastle.openpgp.*;
+import org.spongycastle.openpgp.operator.bc.BcPGPDataEncryptorBuilder;
+import org.spongycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+
+/**
+ * <p>Encryptor to provide the following to Payer:</p>
+ * <ul>
+ * <li>In-memory PGP encryption of a serialised PayerRequest (no temporary files)</li>
+ * <li>One encryptor per Matcher public key, reused across requests</li>
+ * </ul>
+ * <p>The output has the same form as PGPUtils.encryptFile (armoured, ZIP compressed binary literal data,
+ * CAST5 with an integrity packet) so the Matcher decrypts it unchanged.</p>
+ *
+ * @since 0.0.1
+ */
+public class PayerRequestEncryptor {
+
+  /**
+   * The literal data file name (there is no file so this is a fixed marker)
+   */
+  private static final String LITERAL_DATA_NAME = "req";
+
+  /**
+   * Encryptors by Matcher public key (weak keys compare by identity and release unused keys)
+   */
+  private static final LoadingCache<PGPPublicKey, PayerRequestEncryptor> encryptors = CacheBuilder.newBuilder()
+    .weakKeys()
+    .build(new CacheLoader<PGPPublicKey, PayerRequestEncryptor>() {
+      @Override
+      public PayerRequestEncryptor load(PGPPublicKey matcherPublicKey) {
+        return new PayerRequestEncryptor(matcherPublicKey);
+      }
+    });
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private final BcPublicKeyKeyEncryptionMethodGenerator keyEncryptionMethodGenerator;
+
+  /**
+   * @param matcherPublicKey The Matcher PGP public key
+   */
+  PayerRequestEncryptor(PGPPublicKey matcherPublicKey) {
+
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+
+    keyEncryptionMethodGenerator = new BcPublicKeyKeyEncryptionMethodGenerator(matcherPublicKey);
+    keyEncryptionMethodGenerator.setSecureRandom(secureRandom);
+  }
+
+  /**
+   * @param matcherPublicKey The Matcher PGP public key
+   *
+   * @return The shared encryptor for the key
+   */
+  public static PayerRequestEncryptor forKey(PGPPublicKey matcherPublicKey) {
+
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+
+    return encryptors.getUnchecked(matcherPublicKey);
+  }
+
+  /**
+   * @param plainBytes The bytes to encrypt (e.g. a serialised PayerRequest)
+   *
+   * @return The ASCII armoured PGP message
+   *
+   * @throws IOException  If the streams fail
+   * @throws PGPException If the encryption fails
+   */
+  public byte[] encrypt(byte[] plainBytes) throws IOException, PGPException {
+
+    Preconditions.checkNotNull(plainBytes, "'plainBytes' must be present");
+
+    // Compressed literal data
+    ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(plainBytes.length + 64);
+    PGPCompressedDataGenerator compressedDataGenerator = new PGPCompressedDataGenerator(CompressionAlgorithmTags.ZIP);
+    PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator();
+    OutputStream literalStream = literalDataGenerator.open(
+      compressedDataGenerator.open(compressedBytes),
+      PGPLiteralData.BINARY,
+      LITERAL_DATA_NAME,
+      plainBytes.length,
+      PGPLiteralData.NOW
+    );
+    literalStream.write(plainBytes);
+    literalDataGenerator.close();
+    compressedDataGenerator.close();
+    byte[] bytes = compressedBytes.toByteArray();
+
+    // Encrypt to the Matcher key
+    ByteArrayOutputStream encryptedBytes = new ByteArrayOutputStream(bytes.length * 2 + 512);
+    try (OutputStream armoredStream = new ArmoredOutputStream(encryptedBytes)) {
+      PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
+        new BcPGPDataEncryptorBuilder(PGPEncryptedData.CAST5)
+          .setWithIntegrityPacket(true)
+          .setSecureRandom(secureRandom)
+      );
+      encryptedDataGenerator.addMethod(keyEncryptionMethodGenerator);
+      try (OutputStream encryptedStream = encryptedDataGenerator.open(armoredStream, bytes.length)) {
+        encryptedStream.write(bytes);
+      }
+    }
+
+    return encryptedBytes.toByteArray();
+  }
+}
@@ -9,6 +9,7 @@ import org.spongycastle.openpgp.PGPPublicKey;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.List;
 
 /**
  * <p>Factory to provide the following to application API:
@@ -49,6 +50,16 @@ public class BRITServices {
 
   }
 
+  /**
+   * @param matcherEndpoints The Matcher endpoints in order of preference (e.g. the live Matcher then its mirrors)
+   *
+   * @return A new FeeService that fails over between the Matchers and prefers the fastest
+   */
+  public static FeeService newFeeService(List<MatcherEndpoint> matcherEndpoints) {
+    log.debug("Creating new fee service with {} Matcher endpoints", matcherEndpoints.size());
+    return new FeeService(matcherEndpoints);
+  }
+
   /**
    * @return The Matcher public key
    *
@@ -0,0 +1,124 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.core.WalletExtension;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.extensions.BRITWalletIdWalletExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * <p>Cache to provide the following to FeeService and health checks:</p>
+ * <ul>
+ * <li>An in-process cache of BRITWalletIds so the scrypt derivation is done once per seed</li>
+ * <li>Reuse of a BRITWalletId persisted in the wallet (see BRITWalletIdWalletExtension)</li>
+ * </ul>
+ * <p>Entries are keyed by a hash of the seed mixed with a random per-process salt, so the keys held in memory
+ * cannot be matched against anything outside this process.</p>
+ *
+ * @since 0.0.1
+ */
+public enum BRITWalletIdCache {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(BRITWalletIdCache.class);
+
+  /**
+   * Plenty for a client with a few wallets or a server health check
+   */
+  private static final int MAXIMUM_SIZE = 100;
+
+  private final byte[] salt = new byte[32];
+
+  private final Cache<Sha256Hash, BRITWalletId> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE).build();
+
+  BRITWalletIdCache() {
+    new SecureRandom().nextBytes(salt);
+  }
+
+  /**
+   * @param seed The wallet seed
+   *
+   * @return The BRITWalletId for the seed (only derived if it is not cached)
+   */
+  public BRITWalletId getBRITWalletId(byte[] seed) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+
+    Sha256Hash key = cacheKey(seed);
+    BRITWalletId britWalletId = cache.getIfPresent(key);
+    if (britWalletId == null) {
+      britWalletId = new BRITWalletId(seed);
+      cache.put(key, britWalletId);
+    }
+    return britWalletId;
+  }
+
+  /**
+   * <p>Get the BRITWalletId for the wallet, trying the cache then the wallet extension before deriving it</p>
+   * <p>The wallet extension is added if it is missing. The caller needs to save the wallet to persist it.</p>
+   *
+   * @param seed   The wallet seed
+   * @param wallet The wallet created from the seed
+   *
+   * @return The BRITWalletId for the seed
+   */
+  public BRITWalletId getBRITWalletId(byte[] seed, Wallet wallet) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    Sha256Hash key = cacheKey(seed);
+    BRITWalletId britWalletId = cache.getIfPresent(key);
+    WalletExtension walletExtension = wallet.getExtensions().get(BRITWalletIdWalletExtension.BRIT_WALLET_ID_WALLET_EXTENSION_ID);
+
+    if (britWalletId != null && walletExtension != null) {
+      // Already persisted (checked when it was first read)
+      return britWalletId;
+    }
+
+    Optional<BRITWalletId> persisted = Optional.absent();
+    if (walletExtension instanceof BRITWalletIdWalletExtension) {
+      persisted = ((BRITWalletIdWalletExtension) walletExtension).decrypt(seed);
+    }
+
+    if (britWalletId == null) {
+      if (persisted.isPresent()) {
+        log.debug("Using persisted BRITWalletId");
+        britWalletId = persisted.get();
+      } else {
+        log.debug("Deriving BRITWalletId");
+        britWalletId = new BRITWalletId(seed);
+      }
+      cache.put(key, britWalletId);
+    }
+
+    if (!persisted.isPresent()) {
+      wallet.addOrUpdateExtension(BRITWalletIdWalletExtension.encrypt(britWalletId, seed));
+    }
+
+    return britWalletId;
+  }
+
+  /**
+   * Remove all cached BRITWalletIds
+   */
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  private Sha256Hash cacheKey(byte[] seed) {
+    byte[] input = Arrays.copyOf(salt, salt.length + seed.length);
+    System.arraycopy(seed, 0, input, salt.length, seed.length);
+    return Sha256Hash.of(input);
+  }
+}
@@ -0,0 +1,153 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.core.dto.FeeTrackerDto;
+
+import java.util.Set;
+
+/**
+ * <p>Index to provide the following to FeeService:</p>
+ * <ul>
+ * <li>An immutable, precomputed view of the fee address universe</li>
+ * <li>Allocation free membership checks by hash160 (including directly against a slice of raw script bytes)</li>
+ * <li>The digest of the universe used to validate a persisted fee tracker</li>
+ * </ul>
+ * <p>The 20 byte hashes are packed into parallel primitive arrays forming an open addressing hash table. Since
+ * hash160 values are uniformly distributed their leading bytes are used directly as the hash code.</p>
+ * <p>Entries are keyed by hash160 alone so a P2PKH and a P2SH address with the same hash are not distinguished.</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeAddressIndex {
+
+  /**
+   * The length of a RIPEMD160(SHA256) hash
+   */
+  public static final int HASH160_LENGTH = 20;
+
+  private final ImmutableSet<Address> addresses;
+
+  private final String digest;
+
+  private final int mask;
+
+  private final boolean[] occupied;
+
+  private final long[] first;
+
+  private final long[] second;
+
+  private final int[] third;
+
+  /**
+   * @param addresses The fee addresses to index
+   */
+  public FeeAddressIndex(Set<Address> addresses) {
+
+    Preconditions.checkNotNull(addresses, "'addresses' must be present");
+
+    this.addresses = ImmutableSet.copyOf(addresses);
+    this.digest = FeeTrackerDto.hashFeeAddresses(this.addresses);
+
+    // Keep the load factor at or below 0.5 so probe sequences stay short
+    int capacity = Integer.highestOneBit(Math.max(this.addresses.size(), 1) * 4 - 1);
+    mask = capacity - 1;
+    occupied = new boolean[capacity];
+    first = new long[capacity];
+    second = new long[capacity];
+    third = new int[capacity];
+
+    for (Address address : this.addresses) {
+      byte[] hash160 = address.getHash160();
+      long a = readLong(hash160, 0);
+      long b = readLong(hash160, 8);
+      int c = readInt(hash160, 16);
+
+      int slot = (int) a & mask;
+      while (occupied[slot] && !(first[slot] == a && second[slot] == b && third[slot] == c)) {
+        slot = (slot + 1) & mask;
+      }
+      occupied[slot] = true;
+      first[slot] = a;
+      second[slot] = b;
+      third[slot] = c;
+    }
+  }
+
+  /**
+   * @param address The address to check
+   *
+   * @return True if the address is a fee address
+   */
+  public boolean contains(Address address) {
+    return address != null && contains(address.getHash160(), 0);
+  }
+
+  /**
+   * @param bytes  The bytes holding the hash160 (e.g. raw script bytes)
+   * @param offset The offset of the 20 byte hash160 within the bytes
+   *
+   * @return True if the hash160 belongs to a fee address
+   */
+  public boolean contains(byte[] bytes, int offset) {
+
+    if (bytes == null || offset < 0 || offset + HASH160_LENGTH > bytes.length) {
+      return false;
+    }
+
+    long a = readLong(bytes, offset);
+    long b = readLong(bytes, offset + 8);
+    int c = readInt(bytes, offset + 16);
+
+    int slot = (int) a & mask;
+    while (occupied[slot]) {
+      if (first[slot] == a && second[slot] == b && third[slot] == c) {
+        return true;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * @return The indexed fee addresses
+   */
+  public ImmutableSet<Address> getAddresses() {
+    return addresses;
+  }
+
+  /**
+   * @return The digest of the indexed fee addresses (see FeeTrackerDto.hashFeeAddresses)
+   */
+  public String getDigest() {
+    return digest;
+  }
+
+  /**
+   * @return The number of indexed fee addresses
+   */
+  public int size() {
+    return addresses.size();
+  }
+
+  private static long readLong(byte[] bytes, int offset) {
+    return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xffffffffL);
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xff) << 24)
+      | ((bytes[offset + 1] & 0xff) << 16)
+      | ((bytes[offset + 2] & 0xff) << 8)
+      | (bytes[offset + 3] & 0xff);
+  }
+
+  @Override
+  public String toString() {
+    return "FeeAddressIndex{" +
+      "size=" + addresses.size() +
+      ", digest='" + digest + '\'' +
+      '}';
+  }
+}
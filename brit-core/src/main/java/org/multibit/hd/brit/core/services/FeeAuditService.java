@@ -0,0 +1,227 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.*;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.hd.brit.core.dto.FeeAuditResult;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.SendFeeDto;
+import org.multibit.hd.brit.core.dto.WalletFeeAudit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>Service to provide the following to back office fee reconciliation:</p>
+ * <ul>
+ * <li>Read only fee audit of a batch of wallets in parallel on a fork join pool</li>
+ * <li>Aggregate fee totals per fee address across the batch</li>
+ * </ul>
+ * <p>Unlike FeeService.calculateFeeState no wallet extensions are added or updated and no random choices
+ * are made, so the same wallets always give the same result. The next fee send count and address are only
+ * reported if the wallet already holds them.</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeAuditService {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeAuditService.class);
+
+  /**
+   * Always work with MainNet in BRIT
+   */
+  private static final NetworkParameters networkParameters = MainNetParams.get();
+
+  /**
+   * The number of wallets below which a task audits them directly rather than splitting
+   * (auditing a wallet is cheap so smaller tasks cost more to schedule than they save)
+   */
+  static final int SEQUENTIAL_THRESHOLD = 256;
+
+  /**
+   * The pool shared by services that are not given one (its worker threads are daemons so it never holds up a shutdown)
+   */
+  private static final ForkJoinPool SHARED_FORK_JOIN_POOL = new ForkJoinPool();
+
+  private final FeeOutputMatcher feeOutputMatcher;
+
+  private final ForkJoinPool forkJoinPool;
+
+  private final int sequentialThreshold;
+
+  private TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
+
+  /**
+   * @param feeAddresses The fee addresses to reconcile against (e.g. all the Redeemer addresses)
+   */
+  public FeeAuditService(Set<Address> feeAddresses) {
+    this(feeAddresses, SHARED_FORK_JOIN_POOL);
+  }
+
+  /**
+   * @param feeAddresses The fee addresses to reconcile against (e.g. all the Redeemer addresses)
+   * @param forkJoinPool The pool to audit the wallets on (owned by the caller)
+   */
+  public FeeAuditService(Set<Address> feeAddresses, ForkJoinPool forkJoinPool) {
+    this(feeAddresses, forkJoinPool, SEQUENTIAL_THRESHOLD);
+  }
+
+  /**
+   * @param feeAddresses        The fee addresses to reconcile against (e.g. all the Redeemer addresses)
+   * @param forkJoinPool        The pool to audit the wallets on (owned by the caller)
+   * @param sequentialThreshold The number of wallets below which a task audits them directly
+   */
+  FeeAuditService(Set<Address> feeAddresses, ForkJoinPool forkJoinPool, int sequentialThreshold) {
+
+    Preconditions.checkNotNull(feeAddresses, "'feeAddresses' must be present");
+    Preconditions.checkNotNull(forkJoinPool, "'forkJoinPool' must be present");
+    Preconditions.checkState(sequentialThreshold > 0, "'sequentialThreshold' must be positive");
+
+    this.feeOutputMatcher = new FeeOutputMatcher(new FeeAddressIndex(feeAddresses), networkParameters);
+    this.forkJoinPool = forkJoinPool;
+    this.sequentialThreshold = sequentialThreshold;
+  }
+
+  public void setTransactionSentBySelfProvider(TransactionSentBySelfProvider transactionSentBySelfProvider) {
+    this.transactionSentBySelfProvider = transactionSentBySelfProvider;
+  }
+
+  /**
+   * @param wallets The wallets to audit (they are not modified)
+   *
+   * @return The audit of each wallet together with the aggregate totals
+   */
+  public FeeAuditResult audit(List<Wallet> wallets) {
+
+    Preconditions.checkNotNull(wallets, "'wallets' must be present");
+
+    log.debug("Auditing {} wallets", wallets.size());
+
+    PartialAudit partialAudit = forkJoinPool.invoke(new AuditTask(wallets, 0, wallets.size()));
+
+    return new FeeAuditResult(partialAudit.walletFeeAudits, partialAudit.feePaidByAddress);
+  }
+
+  /**
+   * @param wallet The wallet to audit (it is not modified)
+   *
+   * @return The fee position of the wallet
+   */
+  public WalletFeeAudit audit(Wallet wallet) {
+
+    int sendCount = 0;
+    Coin feePaid = Coin.ZERO;
+    Map<Address, Coin> feePaidByAddress = Maps.newHashMap();
+
+    for (Transaction transaction : wallet.getTransactions(false)) {
+      if (!transactionSentBySelfProvider.isSentBySelf(wallet, transaction)) {
+        continue;
+      }
+      sendCount++;
+      for (TransactionOutput transactionOutput : transaction.getOutputs()) {
+        Address feeAddress = feeOutputMatcher.matchFeeAddress(transactionOutput);
+        if (feeAddress != null) {
+          feePaid = feePaid.add(transactionOutput.getValue());
+          addTo(feePaidByAddress, feeAddress, transactionOutput.getValue());
+        }
+      }
+    }
+
+    MatcherResponse matcherResponse = FeeService.getMatcherResponseFromWallet(wallet);
+    boolean usingHardwiredBRITAddresses = matcherResponse == null
+      || matcherResponse.getBitcoinAddresses() == null
+      || matcherResponse.getBitcoinAddresses().isEmpty();
+
+    SendFeeDto sendFeeDto = FeeService.getSendFeeDtoFromWallet(wallet);
+    Optional<Integer> nextFeeSendCount = sendFeeDto == null || sendFeeDto.getSendFeeCount() == null ? Optional.<Integer>absent() : sendFeeDto.getSendFeeCount();
+    Optional<Address> nextFeeAddress = sendFeeDto == null || sendFeeDto.getSendFeeAddress() == null ? Optional.<Address>absent() : sendFeeDto.getSendFeeAddress();
+
+    return new WalletFeeAudit(
+      usingHardwiredBRITAddresses,
+      sendCount,
+      FeeService.FEE_PER_SEND,
+      feePaid,
+      FeeService.FEE_PER_SEND.multiply(sendCount).subtract(feePaid),
+      nextFeeSendCount,
+      nextFeeAddress,
+      feePaidByAddress
+    );
+  }
+
+  private static void addTo(Map<Address, Coin> totals, Address address, Coin amount) {
+    Coin total = totals.get(address);
+    totals.put(address, total == null ? amount : total.add(amount));
+  }
+
+  /**
+   * The audits of a contiguous range of wallets
+   */
+  private static class PartialAudit {
+
+    private final List<WalletFeeAudit> walletFeeAudits = Lists.newArrayList();
+
+    private final Map<Address, Coin> feePaidByAddress = Maps.newHashMap();
+
+    private void add(WalletFeeAudit walletFeeAudit) {
+      walletFeeAudits.add(walletFeeAudit);
+      for (Map.Entry<Address, Coin> entry : walletFeeAudit.getFeePaidByAddress().entrySet()) {
+        addTo(feePaidByAddress, entry.getKey(), entry.getValue());
+      }
+    }
+
+    private PartialAudit append(PartialAudit following) {
+      walletFeeAudits.addAll(following.walletFeeAudits);
+      for (Map.Entry<Address, Coin> entry : following.feePaidByAddress.entrySet()) {
+        addTo(feePaidByAddress, entry.getKey(), entry.getValue());
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Splits the wallet range in half until it is small enough to audit directly
+   */
+  private class AuditTask extends RecursiveTask<PartialAudit> {
+
+    private static final long serialVersionUID = -2871047327713283941L;
+
+    private final List<Wallet> wallets;
+
+    private final int from;
+
+    private final int to;
+
+    private AuditTask(List<Wallet> wallets, int from, int to) {
+      this.wallets = wallets;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected PartialAudit compute() {
+
+      if (to - from <= sequentialThreshold) {
+        PartialAudit partialAudit = new PartialAudit();
+        for (int i = from; i < to; i++) {
+          partialAudit.add(audit(wallets.get(i)));
+        }
+        return partialAudit;
+      }
+
+      int middle = (from + to) >>> 1;
+      AuditTask left = new AuditTask(wallets, from, middle);
+      AuditTask right = new AuditTask(wallets, middle, to);
+      left.fork();
+      PartialAudit rightAudit = right.compute();
+      return left.join().append(rightAudit);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Preconditions;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.ScriptException;
+import org.bitcoinj.core.TransactionOutput;
+import org.bitcoinj.script.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.bitcoinj.script.ScriptOpCodes.*;
+
+/**
+ * <p>Matcher to provide the following to FeeService:</p>
+ * <ul>
+ * <li>Identification of transaction outputs that pay a fee address</li>
+ * <li>Direct inspection of the raw script bytes for the P2PKH and P2SH templates (no Script or Address is built unless a fee is paid)</li>
+ * <li>Fall back to full script parsing for anything else (e.g. pay to raw public key)</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class FeeOutputMatcher {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeOutputMatcher.class);
+
+  /**
+   * OP_DUP OP_HASH160 [20 bytes] OP_EQUALVERIFY OP_CHECKSIG
+   */
+  private static final int P2PKH_LENGTH = 25;
+
+  /**
+   * OP_HASH160 [20 bytes] OP_EQUAL
+   */
+  private static final int P2SH_LENGTH = 23;
+
+  private final FeeAddressIndex feeAddressIndex;
+
+  private final NetworkParameters networkParameters;
+
+  /**
+   * @param feeAddressIndex   The fee addresses to match against
+   * @param networkParameters The network parameters to use when building a matched address
+   */
+  public FeeOutputMatcher(FeeAddressIndex feeAddressIndex, NetworkParameters networkParameters) {
+
+    Preconditions.checkNotNull(feeAddressIndex, "'feeAddressIndex' must be present");
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+
+    this.feeAddressIndex = feeAddressIndex;
+    this.networkParameters = networkParameters;
+  }
+
+  /**
+   * @param transactionOutput The transaction output to inspect
+   *
+   * @return The fee address paid by the output, or null if it does not pay a fee
+   */
+  public Address matchFeeAddress(TransactionOutput transactionOutput) {
+
+    byte[] scriptBytes = transactionOutput.getScriptBytes();
+
+    if (isPayToPubKeyHash(scriptBytes)) {
+      return feeAddressIndex.contains(scriptBytes, 3) ? new Address(networkParameters, copyHash160(scriptBytes, 3)) : null;
+    }
+
+    if (isPayToScriptHash(scriptBytes)) {
+      return feeAddressIndex.contains(scriptBytes, 2) ? Address.fromP2SHHash(networkParameters, copyHash160(scriptBytes, 2)) : null;
+    }
+
+    // Unusual script so parse it fully
+    try {
+      Script script = transactionOutput.getScriptPubKey();
+      if (script.isSentToAddress() || script.isPayToScriptHash() || script.isSentToRawPubKey()) {
+        // Force the raw public key case to hash to its address
+        Address toAddress = script.getToAddress(networkParameters, true);
+        return feeAddressIndex.contains(toAddress) ? toAddress : null;
+      }
+      log.debug("Cannot generate a To address (because it is not defined) for  sendTransactionOutput {}", transactionOutput);
+    } catch (ScriptException se) {
+      log.debug("Cannot cast script to Address for sendTransactionOutput: {}", transactionOutput);
+    }
+
+    return null;
+  }
+
+  private static boolean isPayToPubKeyHash(byte[] scriptBytes) {
+    return scriptBytes.length == P2PKH_LENGTH
+      && (scriptBytes[0] & 0xff) == OP_DUP
+      && (scriptBytes[1] & 0xff) == OP_HASH160
+      && scriptBytes[2] == FeeAddressIndex.HASH160_LENGTH
+      && (scriptBytes[23] & 0xff) == OP_EQUALVERIFY
+      && (scriptBytes[24] & 0xff) == OP_CHECKSIG;
+  }
+
+  private static boolean isPayToScriptHash(byte[] scriptBytes) {
+    return scriptBytes.length == P2SH_LENGTH
+      && (scriptBytes[0] & 0xff) == OP_HASH160
+      && scriptBytes[1] == FeeAddressIndex.HASH160_LENGTH
+      && (scriptBytes[22] & 0xff) == OP_EQUAL;
+  }
+
+  private static byte[] copyHash160(byte[] scriptBytes, int offset) {
+    byte[] hash160 = new byte[FeeAddressIndex.HASH160_LENGTH];
+    System.arraycopy(scriptBytes, offset, hash160, 0, FeeAddressIndex.HASH160_LENGTH);
+    return hash160;
+  }
+}
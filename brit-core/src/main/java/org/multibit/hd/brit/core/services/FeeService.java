@@ -3,21 +3,26 @@ package org.multibit.hd.brit.core.services;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.bitcoinj.core.*;
 import org.bitcoinj.params.MainNetParams;
-import org.bitcoinj.script.Script;
 import org.multibit.commons.crypto.AESUtils;
-import org.multibit.commons.utils.HttpsUtils;
 import org.multibit.hd.brit.core.dto.*;
 import org.multibit.hd.brit.core.exceptions.MatcherResponseException;
 import org.multibit.hd.brit.core.exceptions.PayerRequestException;
+import org.multibit.hd.brit.core.extensions.FeeTrackerWalletExtension;
 import org.multibit.hd.brit.core.extensions.MatcherResponseWalletExtension;
 import org.multibit.hd.brit.core.extensions.SendFeeDtoWalletExtension;
-import org.multibit.hd.brit.core.payer.Payer;
-import org.multibit.hd.brit.core.payer.PayerConfig;
-import org.multibit.hd.brit.core.payer.Payers;
+import org.multibit.hd.brit.core.payer.BasicPayer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.openpgp.PGPPublicKey;
@@ -27,6 +32,7 @@ import java.io.Serializable;
 import java.net.URL;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * <p>Service to provide the following to Payers:</p>
@@ -54,8 +60,7 @@ public class FeeService {
    */
   private static final NetworkParameters networkParameters = MainNetParams.get();
 
-  private final PGPPublicKey matcherPublicKey;
-  private final URL matcherURL;
+  private final MatcherEndpointRouter matcherEndpointRouter;
 
   /**
    * BRIT fee charged per send.
@@ -73,37 +78,100 @@ public class FeeService {
    */
   public final static int NEXT_SEND_DELTA_UPPER_LIMIT = 25;
 
+  /**
+   * The number of threads running asynchronous exchanges
+   */
+  private static final int EXCHANGE_THREADS = 2;
+
+  /**
+   * The number of asynchronous exchanges that can wait for a thread before new ones are rejected
+   */
+  private static final int EXCHANGE_QUEUE_SIZE = 16;
+
+  /**
+   * The hardwired fee addresses (parsed once)
+   */
+  private static final ImmutableSet<Address> HARDWIRED_FEE_ADDRESSES = parseHardwiredFeeAddresses();
+
+  /**
+   * The index of the hardwired fee addresses alone (used when there is no MatcherResponse)
+   */
+  private static final FeeAddressIndex HARDWIRED_FEE_ADDRESS_INDEX = new FeeAddressIndex(HARDWIRED_FEE_ADDRESSES);
+
   private TransactionSentBySelfProvider transactionSentBySelfProvider;
 
+  /**
+   * The most recent fee address index together with the Matcher addresses it was built from
+   */
+  private volatile CachedFeeAddressIndex cachedFeeAddressIndex;
 
   private SecureRandom secureRandom;
 
   /**
-   * Construct a fee service
+   * Runs asynchronous exchanges (bounded so a flood of requests cannot create unbounded threads or work)
+   */
+  private final ExecutorService exchangeExecutorService = newExchangeExecutorService();
+
+  /**
+   * Exchanges not yet complete by wallet (wallets compare by identity)
+   */
+  private final ConcurrentMap<Wallet, ListenableFuture<MatcherResponse>> inFlightExchanges = Maps.newConcurrentMap();
+
+  /**
+   * Construct a fee service using pooled HTTP(S) connections with the default timeouts and retries
    *
    * @param matcherPublicKey The PGP public key of the matcher service to perform exchanges with
    * @param matcherURL       the HTTP URL to send PayerRequests to
    */
   public FeeService(PGPPublicKey matcherPublicKey, URL matcherURL) {
+    this(matcherPublicKey, new HttpMatcherTransport(matcherURL));
+  }
+
+  /**
+   * Construct a fee service
+   *
+   * @param matcherPublicKey The PGP public key of the matcher service to perform exchanges with
+   * @param matcherTransport The transport to send PayerRequests with
+   */
+  public FeeService(PGPPublicKey matcherPublicKey, MatcherTransport matcherTransport) {
+    this(ImmutableList.of(new MatcherEndpoint("matcher", matcherPublicKey, matcherTransport)));
+  }
+
+  /**
+   * Construct a fee service that routes each exchange to the fastest healthy Matcher (see MatcherEndpointRouter)
+   *
+   * @param matcherEndpoints The Matcher endpoints in order of preference
+   */
+  public FeeService(List<MatcherEndpoint> matcherEndpoints) {
 
-    Preconditions.checkNotNull(matcherPublicKey);
-    Preconditions.checkNotNull(matcherURL);
+    Preconditions.checkNotNull(matcherEndpoints);
 
-    this.matcherPublicKey = matcherPublicKey;
-    this.matcherURL = matcherURL;
+    this.matcherEndpointRouter = new MatcherEndpointRouter(matcherEndpoints);
     this.secureRandom = new SecureRandom();
 
     // Use a default provider which uses the transaction confidence.
     // This works ok but the user can do a repair wallet and all transaction become not sent by self.
     transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
 
-    log.debug("Creating FeeService with matcherURL: {}", matcherURL);
+    log.debug("Creating FeeService with {} Matcher endpoint(s)", matcherEndpoints.size());
   }
 
+  /**
+   * @param transactionSentBySelfProvider The provider deciding which transactions are sends (a fee tracker built with
+   *                                      a different provider class is discarded on the next calculation)
+   */
   public void setTransactionSentBySelfProvider(TransactionSentBySelfProvider transactionSentBySelfProvider) {
+    Preconditions.checkNotNull(transactionSentBySelfProvider, "'transactionSentBySelfProvider' must be present");
     this.transactionSentBySelfProvider = transactionSentBySelfProvider;
   }
 
+  /**
+   * @param hedgeDelayMillis How long to wait for a Matcher before also trying the next one
+   */
+  public void setHedgeDelayMillis(long hedgeDelayMillis) {
+    matcherEndpointRouter.setHedgeDelayMillis(hedgeDelayMillis);
+  }
+
   /**
    * Perform a BRIT exchange with the Matcher to work out what addresses the Payer should pay to.
    *
@@ -111,11 +179,68 @@ public class FeeService {
    * @param wallet the wallet to perform the BRIT exchange against
    */
   public void performExchangeWithMatcher(byte[] seed, Wallet wallet) {
+    exchangeWithMatcher(seed, wallet);
+  }
+
+  /**
+   * <p>Perform a BRIT exchange with the Matcher on the FeeService executor (see performExchangeWithMatcher)</p>
+   * <p>Concurrent requests for the same wallet share a single in-flight exchange.</p>
+   *
+   * @param seed   the seed of the Wallet (copied, so the caller may wipe it once this returns)
+   * @param wallet the wallet to perform the BRIT exchange against
+   *
+   * @return The MatcherResponse added to the wallet (hardwired addresses if the exchange failed)
+   */
+  public ListenableFuture<MatcherResponse> performExchangeWithMatcherAsync(byte[] seed, final Wallet wallet) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    final byte[] seedCopy = Arrays.copyOf(seed, seed.length);
+    final ListenableFutureTask<MatcherResponse> exchange = ListenableFutureTask.create(new Callable<MatcherResponse>() {
+      @Override
+      public MatcherResponse call() throws Exception {
+        try {
+          return exchangeWithMatcher(seedCopy, wallet);
+        } finally {
+          Arrays.fill(seedCopy, (byte) 0);
+        }
+      }
+    });
+
+    ListenableFuture<MatcherResponse> inFlightExchange;
+    while ((inFlightExchange = inFlightExchanges.putIfAbsent(wallet, exchange)) != null) {
+      if (!inFlightExchange.isDone()) {
+        log.debug("Joining in-flight exchange with matcher");
+        return inFlightExchange;
+      }
+      // Completed but its listener has not removed it yet
+      inFlightExchanges.remove(wallet, inFlightExchange);
+    }
+
+    exchange.addListener(new Runnable() {
+      @Override
+      public void run() {
+        inFlightExchanges.remove(wallet, exchange);
+      }
+    }, MoreExecutors.directExecutor());
+
+    try {
+      exchangeExecutorService.execute(exchange);
+    } catch (RejectedExecutionException e) {
+      inFlightExchanges.remove(wallet, exchange);
+      return Futures.immediateFailedFuture(e);
+    }
+
+    return exchange;
+  }
+
+  private MatcherResponse exchangeWithMatcher(byte[] seed, Wallet wallet) {
 
     log.debug("Performing exchange with matcher ...");
 
-    // Work out the BRITWalletId for this seed
-    BRITWalletId britWalletId = new BRITWalletId(seed);
+    // Work out the BRITWalletId for this seed (scrypt is only run for the first exchange of a wallet)
+    BRITWalletId britWalletId = BRITWalletIdCache.INSTANCE.getBRITWalletId(seed, wallet);
 
     // Create a random session id
     byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
@@ -124,30 +249,16 @@ public class FeeService {
     // Create a first transaction date
     Optional<Date> firstTransactionDateOptional = calculateFirstTransactionDate(wallet);
 
-    // Create a BRIT Payer
-    Payer payer = Payers.newBasicPayer(new PayerConfig(matcherPublicKey));
-
-    // Ask the payer to create an EncryptedPayerRequest containing a BRITWalletId, a session id and a firstTransactionDate
-    PayerRequest payerRequest = payer.newPayerRequest(britWalletId, sessionId, firstTransactionDateOptional);
+    // Create a PayerRequest containing a BRITWalletId, a session id and a firstTransactionDate
+    PayerRequest payerRequest = new PayerRequest(BasicPayer.CURRENT_BRIT_VERSION, britWalletId, sessionId, firstTransactionDateOptional);
 
     // Avoid leaking information into the logs
     log.trace("Payer request:\n{}\n", new String(payerRequest.serialise(), Charsets.UTF_8));
 
     MatcherResponse matcherResponse;
     try {
-      // Encrypt the PayerRequest with the Matcher PGP public key.
-      EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
-
-      log.debug("Sending encrypted Payer request to Matcher");
-
-      // Do the HTTP(S) POST which, if successful, returns an EncryptedMatcherResponse as a byte array
-      byte[] response = HttpsUtils.doPost(matcherURL, encryptedPayerRequest.getPayload(), "application/octet-stream");
-      EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(response);
-
-      log.debug("Matcher response (encrypted):{} bytes", encryptedMatcherResponse.getPayload().length);
-
-      // Decrypt the MatcherResponse - the payer does this as it knows how it was AES encrypted (by construction)
-      matcherResponse = payer.decryptMatcherResponse(encryptedMatcherResponse, payerRequest);
+      // Encrypt, send and decrypt using the best available Matcher
+      matcherResponse = matcherEndpointRouter.exchange(payerRequest);
 
       log.debug("Matcher response decrypted OK");
 
@@ -165,6 +276,8 @@ public class FeeService {
 
     // Add the MatcherResponse as a wallet extension so that on the next wallet write it will be persisted
     wallet.addOrUpdateExtension(new MatcherResponseWalletExtension(matcherResponse));
+
+    return matcherResponse;
   }
 
   /**
@@ -180,55 +293,25 @@ public class FeeService {
 
     //log.debug("Wallet at beginning of calculateFeeState = {}", wallet.toString(false, true, true, null));
 
-    // Get all the send transactions sent by me, ordered by date
-    List<Transaction> sendTransactions = getSentBySelfTransactionList(wallet);
-    int currentNumberOfSends = sendTransactions.size();
+    // Get the previous persisted MatcherResponse from the wallet, if available
+    MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
+
+    // Get all the possible fee addresses (only rebuilt when the MatcherResponse changes)
+    FeeAddressIndex feeAddressIndex = getFeeAddressIndex(matcherResponseFromWallet);
+
+    // Bring the running totals up to date, only examining transactions added since the last calculation
+    FeeTrackerDto feeTracker = updateFeeTracker(wallet, feeAddressIndex);
+
+    int currentNumberOfSends = feeTracker.getSendCount();
     log.debug("The wallet send count is {}", currentNumberOfSends);
 
     // Work out the total amount that should be paid by the Payer for this wallet
     Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
 
-    // Get the previous persisted MatcherResponse from the wallet, if available
-    MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
-
-    // Calculate all the possible fee addresses
-    Set<Address> feeAddressesUniverse = Sets.newHashSet(getHardwiredFeeAddresses());
-    if (matcherResponseFromWallet != null && matcherResponseFromWallet.getBitcoinAddresses() != null) {
-      feeAddressesUniverse.addAll(matcherResponseFromWallet.getBitcoinAddresses());
-    }
-
-    // Work out which of the sends actually send money to a fee address.
     // Keep track of the amount sent as fees and the count of the last send to fees made
-    int lastFeePayingSendCount = 0;
-    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
-    Optional<Integer> lastFeePayingSendingCountOptional = Optional.absent();
-    Coin feePaid = Coin.ZERO;
-
-    for (Transaction sendTransaction : sendTransactions) {
-      List<TransactionOutput> sendTransactionOutputList = sendTransaction.getOutputs();
-      if (sendTransactionOutputList != null) {
-        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
-          try {
-            Script script = sendTransactionOutput.getScriptPubKey();
-            // Calculate a TO address if possible
-            if (script.isSentToAddress() || script.isPayToScriptHash() || script.isSentToRawPubKey()) {
-              Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
-              if (feeAddressesUniverse.contains(toAddress)) {
-                // It pays some fee
-                feePaid = feePaid.add(sendTransactionOutput.getValue());
-                lastFeePayingSendAddressOptional = Optional.of(toAddress.toString());
-                lastFeePayingSendingCountOptional = Optional.of(lastFeePayingSendCount);
-              }
-            } else {
-              log.debug("Cannot generate a To address (because it is not defined) for  sendTransactionOutput {}", sendTransactionOutput);
-            }
-          } catch (ScriptException se) {
-            log.debug("Cannot cast script to Address for sendTransactionOutput: {}", sendTransactionOutput.getHash().toString());
-          }
-        }
-      }
-      lastFeePayingSendCount++;
-    }
+    int lastFeePayingSendCount = currentNumberOfSends;
+    Optional<Integer> lastFeePayingSendingCountOptional = feeTracker.getLastFeePayingSendCount();
+    Coin feePaid = feeTracker.getFeePaid();
 
     // The net amount fee still to be paid is the gross amount minus the amount paid so far
     // This could be negative if the user has overpaid
@@ -334,8 +417,8 @@ public class FeeService {
     log.debug("The wallet had paid a total of {} satoshi in fees", feePaid);
     log.debug("The wallet owes a NET total of {} satoshi in fees", netFeeToBePaid);
 
-    if (lastFeePayingSendAddressOptional.isPresent()) {
-      log.debug("The last fee address sent any fee was = '{}'. The sendCount then was {}.", lastFeePayingSendAddressOptional.get(), lastFeePayingSendingCountOptional.toString());
+    if (feeTracker.getLastFeePayingSendAddress().isPresent()) {
+      log.debug("The last fee address sent any fee was = '{}'. The sendCount then was {}.", feeTracker.getLastFeePayingSendAddress().get(), lastFeePayingSendingCountOptional.toString());
     } else {
       log.debug("No transaction in this wallet has paid any fee.");
     }
@@ -368,31 +451,109 @@ public class FeeService {
   }
 
   /**
-   * Get all the send transactions in the wallet that are sent by self
-   * (Sends that originate from another copy of this HD have no client fee attached)
+   * <p>Bring the fee tracker held in the wallet up to date</p>
+   * <p>Only transactions added since the last calculation are examined. A full rescan is performed if there is no
+   * tracker, the fee address universe or the TransactionSentBySelfProvider has changed, or the wallet shows signs of a
+   * reorg or repair (fewer transactions, a lower last block seen height, a new transaction that is older than the
+   * high-water mark or a counted transaction whose update time has changed, as happens when it is confirmed).</p>
+   * <p>The caller needs to save the wallet after this call to persist the updated extension.</p>
+   *
+   * @param wallet               The wallet
+   * @param feeAddressIndex All the addresses that count as fee payments
    *
-   * @param wallet the wallet to look for sends for
-   * @return List of the transactions in this wallet sent by self
+   * @return The up to date fee tracker (also stored in the wallet)
    */
-  private List<Transaction> getSentBySelfTransactionList(Wallet wallet) {
+  FeeTrackerDto updateFeeTracker(Wallet wallet, FeeAddressIndex feeAddressIndex) {
+
+    String feeAddressUniverseHash = feeAddressIndex.getDigest();
+    TransactionSentBySelfProvider sentBySelfProvider = transactionSentBySelfProvider;
+    String sentBySelfProviderId = sentBySelfProvider.getClass().getName();
+    int lastBlockSeenHeight = wallet.getLastBlockSeenHeight();
+    Set<Transaction> transactions = wallet.getTransactions(false);
+
+    FeeTrackerDto previous = getFeeTrackerFromWallet(wallet);
+    List<Transaction> newTransactions = null;
+    if (previous != null
+      && previous.getVersion() == FeeTrackerDto.CURRENT_VERSION
+      && previous.getFeeAddressUniverseHash().equals(feeAddressUniverseHash)
+      && previous.getSentBySelfProviderId().equals(sentBySelfProviderId)
+      && previous.getLastBlockSeenHeight() <= lastBlockSeenHeight
+      && previous.getTransactionCount() <= transactions.size()) {
+
+      // Everything after the high-water mark is new
+      newTransactions = Lists.newArrayList();
+      long highWaterMark = previous.getLastUpdateTimeMillis();
+      long countedFingerprint = 0;
+      for (Transaction transaction : transactions) {
+        long updateTime = transaction.getUpdateTime().getTime();
+        if (updateTime > highWaterMark
+          || (updateTime == highWaterMark && !previous.getBoundaryTransactionHashes().contains(transaction.getHash()))) {
+          newTransactions.add(transaction);
+        } else {
+          countedFingerprint += FeeTrackerDto.fingerprintTransaction(transaction.getHash(), updateTime);
+        }
+      }
 
-    // Get all the wallets transactions and sort by date
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    Collections.sort(transactions, new TransactionUpdateTimeComparator());
+      // Any other difference means an older transaction appeared or one was replaced
+      if (previous.getTransactionCount() + newTransactions.size() != transactions.size()) {
+        log.debug("Transactions have appeared before the fee tracker high-water mark");
+        newTransactions = null;
+      } else if (countedFingerprint != previous.getTransactionFingerprint()) {
+        // A counted transaction has moved (e.g. confirmed with an earlier time) so the send order may have changed
+        log.debug("Counted transactions have changed their update time");
+        newTransactions = null;
+      }
+    }
 
-    // Iterate over all transactions sorted by date, looking for transaction outputs that are sends
-    List<Transaction> sendTransactions = Lists.newArrayList();
+    final FeeTally tally;
+    if (newTransactions == null) {
+      log.debug("Performing a full fee rescan of {} transactions", transactions.size());
+      tally = new FeeTally();
+      newTransactions = Lists.newArrayList(transactions);
+    } else {
+      log.debug("Performing an incremental fee scan of {} transactions", newTransactions.size());
+      tally = new FeeTally(previous);
+    }
 
-    for (Transaction transaction : transactions) {
-      boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+    // Process the new transactions in date order
+    FeeOutputMatcher feeOutputMatcher = new FeeOutputMatcher(feeAddressIndex, networkParameters);
+    Collections.sort(newTransactions, new TransactionUpdateTimeComparator());
+    for (Transaction transaction : newTransactions) {
+      tally.add(transaction, sentBySelfProvider.isSentBySelf(wallet, transaction), feeOutputMatcher);
+    }
 
-      if (sentBySelf) {
-        // This transaction sends from self - this will exclude unconfirmed tx
-        sendTransactions.add(transaction);
-      }
+    FeeTrackerDto updated = tally.toFeeTrackerDto(lastBlockSeenHeight, feeAddressUniverseHash, sentBySelfProviderId);
+    if (!updated.equals(previous)) {
+      wallet.addOrUpdateExtension(new FeeTrackerWalletExtension(updated));
     }
 
-    return sendTransactions;
+    return updated;
+  }
+
+  /**
+   * @param matcherResponse The MatcherResponse held in the wallet (may be null)
+   *
+   * @return The index of the hardwired and Matcher fee addresses, reusing the previous index if the addresses are unchanged
+   */
+  FeeAddressIndex getFeeAddressIndex(MatcherResponse matcherResponse) {
+
+    Set<Address> matcherAddresses = matcherResponse == null ? null : matcherResponse.getBitcoinAddresses();
+    if (matcherAddresses == null || matcherAddresses.isEmpty()) {
+      return HARDWIRED_FEE_ADDRESS_INDEX;
+    }
+
+    CachedFeeAddressIndex cached = cachedFeeAddressIndex;
+    if (cached != null && cached.matcherAddresses.equals(matcherAddresses)) {
+      return cached.feeAddressIndex;
+    }
+
+    log.debug("Building fee address index for {} Matcher addresses", matcherAddresses.size());
+    Set<Address> feeAddressesUniverse = Sets.newHashSet(HARDWIRED_FEE_ADDRESSES);
+    feeAddressesUniverse.addAll(matcherAddresses);
+    cached = new CachedFeeAddressIndex(ImmutableSet.copyOf(matcherAddresses), new FeeAddressIndex(feeAddressesUniverse));
+    cachedFeeAddressIndex = cached;
+
+    return cached.feeAddressIndex;
   }
 
   public static MatcherResponse getMatcherResponseFromWallet(Wallet wallet) {
@@ -407,6 +568,18 @@ public class FeeService {
 
   }
 
+  public static FeeTrackerDto getFeeTrackerFromWallet(Wallet wallet) {
+
+    Map<String, WalletExtension> walletExtensionsMap = wallet.getExtensions();
+
+    if (walletExtensionsMap != null && walletExtensionsMap.get(FeeTrackerWalletExtension.FEE_TRACKER_WALLET_EXTENSION_ID) != null) {
+      return ((FeeTrackerWalletExtension) walletExtensionsMap.get(FeeTrackerWalletExtension.FEE_TRACKER_WALLET_EXTENSION_ID)).getFeeTrackerDto();
+    } else {
+      return null;
+    }
+
+  }
+
   public static SendFeeDto getSendFeeDtoFromWallet(Wallet wallet) {
 
     Map<String, WalletExtension> walletExtensionsMap = wallet.getExtensions();
@@ -425,6 +598,26 @@ public class FeeService {
    * @return Set of bitcoin addresses to use as hardwired fee addresses
    */
   public Set<Address> getHardwiredFeeAddresses() {
+    return HARDWIRED_FEE_ADDRESSES;
+  }
+
+  private static ExecutorService newExchangeExecutorService() {
+
+    ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+      EXCHANGE_THREADS,
+      EXCHANGE_THREADS,
+      60,
+      TimeUnit.SECONDS,
+      new ArrayBlockingQueue<Runnable>(EXCHANGE_QUEUE_SIZE),
+      new ThreadFactoryBuilder().setNameFormat("brit-exchange-%d").setDaemon(true).build()
+    );
+    // Idle threads are released so an unused FeeService holds none
+    threadPoolExecutor.allowCoreThreadTimeOut(true);
+
+    return threadPoolExecutor;
+  }
+
+  private static ImmutableSet<Address> parseHardwiredFeeAddresses() {
 
     // TODO (BS) add in some very well secured addresses owned by Bitcoin Solutions Ltd
 
@@ -439,7 +632,7 @@ public class FeeService {
 
     };
 
-    Set<Address> hardwiredFeeAddresses = Sets.newHashSet();
+    ImmutableSet.Builder<Address> hardwiredFeeAddresses = ImmutableSet.builder();
     try {
 
       for (String rawAddress : rawAddresses) {
@@ -450,7 +643,7 @@ public class FeeService {
       throw new IllegalArgumentException("Hardwired BRIT address is malformed.", e);
     }
 
-    return hardwiredFeeAddresses;
+    return hardwiredFeeAddresses.build();
   }
 
 
@@ -462,15 +655,107 @@ public class FeeService {
    */
   private Optional<Date> calculateFirstTransactionDate(Wallet wallet) {
 
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    if (transactions.size() == 0) {
-      return Optional.absent();
+    // A single pass is enough to find the earliest (no need to copy and sort)
+    Date firstTransactionDate = null;
+    for (Transaction transaction : wallet.getTransactions(false)) {
+      if (firstTransactionDate == null || transaction.getUpdateTime().before(firstTransactionDate)) {
+        firstTransactionDate = transaction.getUpdateTime();
+      }
+    }
+
+    return Optional.fromNullable(firstTransactionDate);
+  }
+
+  /**
+   * Running totals built up while walking the transactions in date order
+   */
+  private static class FeeTally {
+
+    private int transactionCount;
+    private long lastUpdateTimeMillis = Long.MIN_VALUE;
+    private Set<Sha256Hash> boundaryTransactionHashes = Sets.newHashSet();
+    private long transactionFingerprint;
+    private int sendCount;
+    private Coin feePaid = Coin.ZERO;
+    private Optional<Integer> lastFeePayingSendCount = Optional.absent();
+    private Optional<Address> lastFeePayingSendAddress = Optional.absent();
+
+    private FeeTally() {
+    }
+
+    private FeeTally(FeeTrackerDto previous) {
+      transactionCount = previous.getTransactionCount();
+      lastUpdateTimeMillis = previous.getLastUpdateTimeMillis();
+      boundaryTransactionHashes.addAll(previous.getBoundaryTransactionHashes());
+      transactionFingerprint = previous.getTransactionFingerprint();
+      sendCount = previous.getSendCount();
+      feePaid = previous.getFeePaid();
+      lastFeePayingSendCount = previous.getLastFeePayingSendCount();
+      lastFeePayingSendAddress = previous.getLastFeePayingSendAddress();
+    }
+
+    private void add(Transaction transaction, boolean sentBySelf, FeeOutputMatcher feeOutputMatcher) {
+
+      // Move the high-water mark
+      long updateTime = transaction.getUpdateTime().getTime();
+      if (updateTime != lastUpdateTimeMillis) {
+        boundaryTransactionHashes.clear();
+        lastUpdateTimeMillis = updateTime;
+      }
+      boundaryTransactionHashes.add(transaction.getHash());
+      transactionFingerprint += FeeTrackerDto.fingerprintTransaction(transaction.getHash(), updateTime);
+      transactionCount++;
+
+      if (!sentBySelf) {
+        return;
+      }
+
+      // Work out whether this send pays any fee
+      List<TransactionOutput> sendTransactionOutputList = transaction.getOutputs();
+      if (sendTransactionOutputList != null) {
+        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
+          Address feeAddress = feeOutputMatcher.matchFeeAddress(sendTransactionOutput);
+          if (feeAddress != null) {
+            // It pays some fee
+            feePaid = feePaid.add(sendTransactionOutput.getValue());
+            lastFeePayingSendAddress = Optional.of(feeAddress);
+            lastFeePayingSendCount = Optional.of(sendCount);
+          }
+        }
+      }
+      sendCount++;
+    }
+
+    private FeeTrackerDto toFeeTrackerDto(int lastBlockSeenHeight, String feeAddressUniverseHash, String sentBySelfProviderId) {
+      return new FeeTrackerDto(
+        FeeTrackerDto.CURRENT_VERSION,
+        transactionCount,
+        lastUpdateTimeMillis,
+        boundaryTransactionHashes,
+        transactionFingerprint,
+        lastBlockSeenHeight,
+        feeAddressUniverseHash,
+        sentBySelfProviderId,
+        sendCount,
+        feePaid,
+        lastFeePayingSendCount,
+        lastFeePayingSendAddress
+      );
     }
+  }
 
-    // Sort the transactions
-    Collections.sort(transactions, new TransactionUpdateTimeComparator());
+  /**
+   * A fee address index and the Matcher addresses it was built from (immutable so it can be swapped atomically)
+   */
+  private static class CachedFeeAddressIndex {
 
-    return Optional.of(transactions.get(0).getUpdateTime());
+    private final ImmutableSet<Address> matcherAddresses;
+    private final FeeAddressIndex feeAddressIndex;
+
+    private CachedFeeAddressIndex(ImmutableSet<Address> matcherAddresses, FeeAddressIndex feeAddressIndex) {
+      this.matcherAddresses = matcherAddresses;
+      this.feeAddressIndex = feeAddressIndex;
+    }
   }
 
   private static class TransactionUpdateTimeComparator implements Comparator<Transaction>, Serializable {
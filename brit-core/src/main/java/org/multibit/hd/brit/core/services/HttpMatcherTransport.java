@@ -0,0 +1,200 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+/**
+ * <p>Transport to provide the following to FeeService:</p>
+ * <ul>
+ * <li>HTTP(S) POST of encrypted PayerRequests over pooled keep-alive connections</li>
+ * <li>Configurable connect and read timeouts so a slow Matcher cannot hang the wallet</li>
+ * <li>A bounded number of retries with exponential backoff for transient failures</li>
+ * </ul>
+ * <p>Connections are pooled by the JDK keep-alive cache, which only returns a connection to the pool once its
+ * response (or error) stream has been fully read and closed. This transport always does that, so repeated exchanges
+ * with the same Matcher reuse the connection and avoid a fresh TLS handshake.</p>
+ * <p>A 4xx response is not retried since the Matcher has rejected the request itself. A read timeout is not retried
+ * either: the Matcher may still be working on the request, and retrying would stretch the wait to several read
+ * timeouts. Connect timeouts are retried since nothing was sent.</p>
+ *
+ * @since 0.0.1
+ */
+public class HttpMatcherTransport implements MatcherTransport {
+
+  private static final Logger log = LoggerFactory.getLogger(HttpMatcherTransport.class);
+
+  public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+
+  public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10_000;
+
+  public static final int DEFAULT_MAXIMUM_ATTEMPTS = 3;
+
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+
+  private static final String CONTENT_TYPE = "application/octet-stream";
+
+  private final URL matcherURL;
+
+  private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+  private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+  private int maximumAttempts = DEFAULT_MAXIMUM_ATTEMPTS;
+
+  private long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+
+  /**
+   * @param matcherURL The HTTP(S) URL to send PayerRequests to
+   */
+  public HttpMatcherTransport(URL matcherURL) {
+
+    Preconditions.checkNotNull(matcherURL, "'matcherURL' must be present");
+
+    this.matcherURL = matcherURL;
+  }
+
+  public URL getMatcherURL() {
+    return matcherURL;
+  }
+
+  /**
+   * @param connectTimeoutMillis The connect timeout for each attempt
+   */
+  public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+    Preconditions.checkState(connectTimeoutMillis > 0, "'connectTimeoutMillis' must be greater than zero");
+    this.connectTimeoutMillis = connectTimeoutMillis;
+  }
+
+  /**
+   * @param readTimeoutMillis The read timeout for each attempt
+   */
+  public void setReadTimeoutMillis(int readTimeoutMillis) {
+    Preconditions.checkState(readTimeoutMillis > 0, "'readTimeoutMillis' must be greater than zero");
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  /**
+   * @param maximumAttempts The maximum number of attempts per exchange (1 for no retries)
+   */
+  public void setMaximumAttempts(int maximumAttempts) {
+    Preconditions.checkState(maximumAttempts > 0, "'maximumAttempts' must be greater than zero");
+    this.maximumAttempts = maximumAttempts;
+  }
+
+  /**
+   * @param initialBackoffMillis The delay before the first retry (doubled for each subsequent retry)
+   */
+  public void setInitialBackoffMillis(long initialBackoffMillis) {
+    Preconditions.checkState(initialBackoffMillis >= 0, "'initialBackoffMillis' must not be negative");
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  @Override
+  public byte[] exchange(byte[] encryptedPayerRequest) throws IOException {
+
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    long backoffMillis = initialBackoffMillis;
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return post(encryptedPayerRequest);
+      } catch (RejectedRequestException | ReadTimeoutException e) {
+        // Retrying will not help
+        throw e;
+      } catch (IOException e) {
+        if (attempt >= maximumAttempts) {
+          throw e;
+        }
+        log.debug("Matcher exchange attempt {} of {} failed ({}). Retrying in {}ms", attempt, maximumAttempts, e.getMessage(), backoffMillis);
+        try {
+          Thread.sleep(backoffMillis);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to retry the Matcher exchange");
+        }
+        backoffMillis *= 2;
+      }
+    }
+  }
+
+  private byte[] post(byte[] encryptedPayerRequest) throws IOException {
+
+    HttpURLConnection connection = (HttpURLConnection) matcherURL.openConnection();
+    connection.setConnectTimeout(connectTimeoutMillis);
+    connection.setReadTimeout(readTimeoutMillis);
+    connection.setUseCaches(false);
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+    connection.setRequestProperty("Accept", CONTENT_TYPE);
+    connection.setFixedLengthStreamingMode(encryptedPayerRequest.length);
+
+    // A connect timeout is retryable so connect before the request is sent
+    connection.connect();
+
+    try (OutputStream outputStream = connection.getOutputStream()) {
+      outputStream.write(encryptedPayerRequest);
+    }
+
+    int responseCode;
+    try {
+      responseCode = connection.getResponseCode();
+    } catch (SocketTimeoutException e) {
+      throw new ReadTimeoutException("Matcher did not respond within " + readTimeoutMillis + "ms", e);
+    }
+    if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+      // Drain the error stream so the connection can return to the pool
+      InputStream errorStream = connection.getErrorStream();
+      if (errorStream != null) {
+        try (InputStream inputStream = errorStream) {
+          ByteStreams.copy(inputStream, ByteStreams.nullOutputStream());
+        }
+      }
+      if (responseCode < HttpURLConnection.HTTP_INTERNAL_ERROR) {
+        throw new RejectedRequestException("Matcher rejected the request with HTTP " + responseCode);
+      }
+      throw new IOException("Matcher failed with HTTP " + responseCode);
+    }
+
+    try (InputStream inputStream = connection.getInputStream()) {
+      return ByteStreams.toByteArray(inputStream);
+    } catch (SocketTimeoutException e) {
+      throw new ReadTimeoutException("Matcher response stalled after " + readTimeoutMillis + "ms", e);
+    }
+  }
+
+  /**
+   * Signals a response that should not be retried
+   */
+  private static class RejectedRequestException extends IOException {
+
+    private static final long serialVersionUID = 6107512254916478831L;
+
+    private RejectedRequestException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Signals a read timeout after the request was sent (not retried)
+   */
+  private static class ReadTimeoutException extends SocketTimeoutException {
+
+    private static final long serialVersionUID = -3572208135092514671L;
+
+    private ReadTimeoutException(String message, SocketTimeoutException cause) {
+      super(message);
+      initCause(cause);
+    }
+  }
+}
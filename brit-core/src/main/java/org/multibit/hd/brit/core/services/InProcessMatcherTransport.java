@@ -0,0 +1,48 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Preconditions;
+import org.multibit.hd.brit.core.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.matcher.Matcher;
+
+import java.io.IOException;
+
+/**
+ * <p>Transport to provide the following to FeeService in tests:</p>
+ * <ul>
+ * <li>An exchange with a Matcher running in the same process (no network)</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class InProcessMatcherTransport implements MatcherTransport {
+
+  private final Matcher matcher;
+
+  /**
+   * @param matcher The Matcher to exchange with
+   */
+  public InProcessMatcherTransport(Matcher matcher) {
+
+    Preconditions.checkNotNull(matcher, "'matcher' must be present");
+
+    this.matcher = matcher;
+  }
+
+  @Override
+  public byte[] exchange(byte[] encryptedPayerRequest) throws IOException {
+
+    Preconditions.checkNotNull(encryptedPayerRequest, "'encryptedPayerRequest' must be present");
+
+    try {
+      PayerRequest payerRequest = matcher.decryptPayerRequest(new EncryptedPayerRequest(encryptedPayerRequest));
+      MatcherResponse matcherResponse = matcher.process(payerRequest);
+      return matcher.encryptMatcherResponse(matcherResponse, payerRequest).getPayload();
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("In-process Matcher exchange failed", e);
+    }
+  }
+}
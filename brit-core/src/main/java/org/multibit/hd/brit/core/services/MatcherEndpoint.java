@@ -0,0 +1,123 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Preconditions;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Endpoint to provide the following to MatcherEndpointRouter:</p>
+ * <ul>
+ * <li>One Matcher: its public key and the transport to reach it</li>
+ * <li>A moving average of its latency and error rate</li>
+ * </ul>
+ * <p>An endpoint whose error rate passes the threshold is unhealthy until it succeeds again or has been left alone
+ * long enough to be worth another try.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherEndpoint {
+
+  /**
+   * The weight given to the latest observation in the moving averages
+   */
+  private static final double SMOOTHING = 0.2;
+
+  /**
+   * The error rate above which the endpoint is unhealthy
+   */
+  private static final double UNHEALTHY_ERROR_RATE = 0.5;
+
+  /**
+   * How long an unhealthy endpoint is avoided after its last failure
+   */
+  private static final long RETRY_UNHEALTHY_AFTER_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+  private final String name;
+
+  private final PGPPublicKey matcherPublicKey;
+
+  private final MatcherTransport matcherTransport;
+
+  private double averageLatencyNanos = 0;
+
+  private double errorRate = 0;
+
+  private long lastFailureNanos;
+
+  /**
+   * @param name             A name for the logs (e.g. the host)
+   * @param matcherPublicKey The PGP public key of the Matcher
+   * @param matcherTransport The transport to reach the Matcher
+   */
+  public MatcherEndpoint(String name, PGPPublicKey matcherPublicKey, MatcherTransport matcherTransport) {
+
+    Preconditions.checkNotNull(name, "'name' must be present");
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+    Preconditions.checkNotNull(matcherTransport, "'matcherTransport' must be present");
+
+    this.name = name;
+    this.matcherPublicKey = matcherPublicKey;
+    this.matcherTransport = matcherTransport;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public PGPPublicKey getMatcherPublicKey() {
+    return matcherPublicKey;
+  }
+
+  public MatcherTransport getMatcherTransport() {
+    return matcherTransport;
+  }
+
+  /**
+   * @param latencyNanos The duration of a successful exchange
+   */
+  public synchronized void recordSuccess(long latencyNanos) {
+
+    averageLatencyNanos = averageLatencyNanos == 0 ? latencyNanos : SMOOTHING * latencyNanos + (1 - SMOOTHING) * averageLatencyNanos;
+    errorRate = (1 - SMOOTHING) * errorRate;
+  }
+
+  /**
+   * Record a failed exchange
+   */
+  public synchronized void recordFailure() {
+
+    errorRate = SMOOTHING + (1 - SMOOTHING) * errorRate;
+    lastFailureNanos = System.nanoTime();
+  }
+
+  /**
+   * @return The moving average latency of successful exchanges in nanos (zero if there have been none)
+   */
+  public synchronized long getAverageLatencyNanos() {
+    return (long) averageLatencyNanos;
+  }
+
+  /**
+   * @return The moving average error rate between 0 and 1
+   */
+  public synchronized double getErrorRate() {
+    return errorRate;
+  }
+
+  /**
+   * @return True if the endpoint should be preferred for new exchanges
+   */
+  public synchronized boolean isHealthy() {
+    return errorRate < UNHEALTHY_ERROR_RATE || System.nanoTime() - lastFailureNanos > RETRY_UNHEALTHY_AFTER_NANOS;
+  }
+
+  @Override
+  public String toString() {
+    return "MatcherEndpoint{" +
+      "name='" + name + '\'' +
+      ", averageLatencyMillis=" + TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNanos()) +
+      ", errorRate=" + String.format("%.2f", getErrorRate()) +
+      '}';
+  }
+}
@@ -0,0 +1,265 @@
+package org.multibit.hd.brit.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.multibit.hd.brit.core.dto.EncryptedMatcherResponse;
+import org.multibit.hd.brit.core.dto.EncryptedPayerRequest;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.payer.Payer;
+import org.multibit.hd.brit.core.payer.PayerConfig;
+import org.multibit.hd.brit.core.payer.Payers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Router to provide the following to FeeService:</p>
+ * <ul>
+ * <li>Selection of the fastest healthy Matcher endpoint for each exchange</li>
+ * <li>Failover to the next endpoint when an exchange fails</li>
+ * <li>A hedged request to the next endpoint when the current one is slower than the hedge delay</li>
+ * </ul>
+ * <p>The first successful response wins and any other attempt is cancelled. A cancelled attempt is not counted as a
+ * failure of its endpoint. With a single endpoint the exchange runs on the calling thread with no extra overhead.</p>
+ * <p>Attempts share a small bounded pool. When it is full no hedge is sent, and if even the first attempt cannot be
+ * scheduled the endpoints are tried one after another on the calling thread.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherEndpointRouter {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherEndpointRouter.class);
+
+  public static final long DEFAULT_HEDGE_DELAY_MILLIS = 1_500;
+
+  /**
+   * The maximum number of concurrent attempts across all exchanges (further hedges are skipped)
+   */
+  private static final int MAXIMUM_ATTEMPT_THREADS = 8;
+
+  private final ImmutableList<MatcherEndpoint> matcherEndpoints;
+
+  private final ExecutorService attemptExecutorService;
+
+  private volatile long hedgeDelayMillis = DEFAULT_HEDGE_DELAY_MILLIS;
+
+  /**
+   * @param matcherEndpoints The Matcher endpoints in order of preference until latencies are known
+   */
+  public MatcherEndpointRouter(List<MatcherEndpoint> matcherEndpoints) {
+
+    Preconditions.checkNotNull(matcherEndpoints, "'matcherEndpoints' must be present");
+    Preconditions.checkState(!matcherEndpoints.isEmpty(), "'matcherEndpoints' must not be empty");
+
+    this.matcherEndpoints = ImmutableList.copyOf(matcherEndpoints);
+    this.attemptExecutorService = new ThreadPoolExecutor(
+      0,
+      MAXIMUM_ATTEMPT_THREADS,
+      60,
+      TimeUnit.SECONDS,
+      new SynchronousQueue<Runnable>(),
+      new ThreadFactoryBuilder().setNameFormat("brit-matcher-attempt-%d").setDaemon(true).build(),
+      new ThreadPoolExecutor.AbortPolicy()
+    );
+  }
+
+  public List<MatcherEndpoint> getMatcherEndpoints() {
+    return matcherEndpoints;
+  }
+
+  /**
+   * @param hedgeDelayMillis How long to wait for an endpoint before also trying the next one
+   */
+  public void setHedgeDelayMillis(long hedgeDelayMillis) {
+    Preconditions.checkState(hedgeDelayMillis >= 0, "'hedgeDelayMillis' must not be negative");
+    this.hedgeDelayMillis = hedgeDelayMillis;
+  }
+
+  /**
+   * @param payerRequest The PayerRequest (encrypted separately for each endpoint tried)
+   *
+   * @return The decrypted MatcherResponse from the first endpoint to succeed
+   *
+   * @throws IOException If every endpoint failed
+   */
+  public MatcherResponse exchange(PayerRequest payerRequest) throws IOException {
+
+    Preconditions.checkNotNull(payerRequest, "'payerRequest' must be present");
+
+    if (matcherEndpoints.size() == 1) {
+      try {
+        return attempt(matcherEndpoints.get(0), payerRequest, new AtomicBoolean());
+      } catch (IOException | RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Matcher exchange failed", e);
+      }
+    }
+
+    List<MatcherEndpoint> orderedEndpoints = orderedEndpoints();
+    CompletionService<MatcherResponse> completionService = new ExecutorCompletionService<>(attemptExecutorService);
+    List<Future<MatcherResponse>> attempts = Lists.newArrayListWithCapacity(orderedEndpoints.size());
+
+    // Set before the remaining attempts are cancelled so that they are not counted as endpoint failures
+    AtomicBoolean settled = new AtomicBoolean();
+
+    int next = 0;
+    int pending = 0;
+    Throwable lastFailure = null;
+    try {
+      while (next < orderedEndpoints.size() || pending > 0) {
+
+        if (pending == 0) {
+          // Nothing in flight so start the next endpoint (on the calling thread if the pool is full)
+          MatcherEndpoint matcherEndpoint = orderedEndpoints.get(next++);
+          Future<MatcherResponse> attempt = submit(completionService, matcherEndpoint, payerRequest, settled);
+          if (attempt == null) {
+            try {
+              return attempt(matcherEndpoint, payerRequest, settled);
+            } catch (InterruptedIOException e) {
+              throw e;
+            } catch (Exception e) {
+              lastFailure = e;
+              continue;
+            }
+          }
+          attempts.add(attempt);
+          pending++;
+          continue;
+        }
+
+        // Only wait for the hedge delay while there is another endpoint to hedge with
+        Future<MatcherResponse> completed = next < orderedEndpoints.size()
+          ? completionService.poll(hedgeDelayMillis, TimeUnit.MILLISECONDS)
+          : completionService.take();
+
+        if (completed == null) {
+          Future<MatcherResponse> hedge = submit(completionService, orderedEndpoints.get(next), payerRequest, settled);
+          if (hedge == null) {
+            log.debug("Matcher exchange is slow but the attempt pool is full. Not hedging.");
+          } else {
+            log.debug("Matcher exchange is slow. Hedging with '{}'", orderedEndpoints.get(next).getName());
+            attempts.add(hedge);
+            next++;
+            pending++;
+          }
+          continue;
+        }
+
+        pending--;
+        try {
+          return completed.get();
+        } catch (ExecutionException e) {
+          lastFailure = e.getCause();
+          if (next < orderedEndpoints.size()) {
+            log.debug("Matcher exchange failed. Failing over to '{}'", orderedEndpoints.get(next).getName());
+            Future<MatcherResponse> failover = submit(completionService, orderedEndpoints.get(next), payerRequest, settled);
+            if (failover != null) {
+              attempts.add(failover);
+              next++;
+              pending++;
+            }
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during the Matcher exchange");
+    } finally {
+      settled.set(true);
+      for (Future<MatcherResponse> attempt : attempts) {
+        attempt.cancel(true);
+      }
+    }
+
+    throw new IOException("All " + orderedEndpoints.size() + " Matcher endpoints failed", lastFailure);
+  }
+
+  /**
+   * @return The healthy endpoints (fastest first, untried endpoints before them) followed by the unhealthy ones
+   */
+  List<MatcherEndpoint> orderedEndpoints() {
+
+    List<MatcherEndpoint> healthy = Lists.newArrayList();
+    List<MatcherEndpoint> unhealthy = Lists.newArrayList();
+    for (MatcherEndpoint matcherEndpoint : matcherEndpoints) {
+      if (matcherEndpoint.isHealthy()) {
+        healthy.add(matcherEndpoint);
+      } else {
+        unhealthy.add(matcherEndpoint);
+      }
+    }
+
+    // Stable so ties keep the configured order
+    Collections.sort(healthy, new Comparator<MatcherEndpoint>() {
+      @Override
+      public int compare(MatcherEndpoint o1, MatcherEndpoint o2) {
+        return Long.compare(o1.getAverageLatencyNanos(), o2.getAverageLatencyNanos());
+      }
+    });
+    healthy.addAll(unhealthy);
+
+    return healthy;
+  }
+
+  /**
+   * @return The scheduled attempt or null if the attempt pool is full
+   */
+  private Future<MatcherResponse> submit(CompletionService<MatcherResponse> completionService, final MatcherEndpoint matcherEndpoint, final PayerRequest payerRequest, final AtomicBoolean settled) {
+
+    try {
+      return completionService.submit(new Callable<MatcherResponse>() {
+        @Override
+        public MatcherResponse call() throws Exception {
+          return attempt(matcherEndpoint, payerRequest, settled);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param settled True once the exchange has been decided so that a failure of this attempt is due to its cancellation
+   */
+  private MatcherResponse attempt(MatcherEndpoint matcherEndpoint, PayerRequest payerRequest, AtomicBoolean settled) throws Exception {
+
+    long start = System.nanoTime();
+    try {
+      Payer payer = Payers.newBasicPayer(new PayerConfig(matcherEndpoint.getMatcherPublicKey()));
+
+      // Encrypt the PayerRequest with this Matcher's PGP public key
+      EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
+
+      log.debug("Sending encrypted Payer request to Matcher '{}'", matcherEndpoint.getName());
+      byte[] response = matcherEndpoint.getMatcherTransport().exchange(encryptedPayerRequest.getPayload());
+      EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(response);
+
+      log.debug("Matcher response (encrypted):{} bytes", encryptedMatcherResponse.getPayload().length);
+
+      // Decrypt the MatcherResponse - the payer does this as it knows how it was AES encrypted (by construction)
+      MatcherResponse matcherResponse = payer.decryptMatcherResponse(encryptedMatcherResponse, payerRequest);
+
+      matcherEndpoint.recordSuccess(System.nanoTime() - start);
+      return matcherResponse;
+
+    } catch (Exception e) {
+      // A cancelled hedge says nothing about the endpoint
+      if (!settled.get()) {
+        log.debug("Matcher '{}' failed: {}", matcherEndpoint.getName(), e.getMessage());
+        matcherEndpoint.recordFailure();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package org.multibit.hd.brit.core.services;
+
+import java.io.IOException;
+
+/**
+ * <p>Interface to provide the following to FeeService:</p>
+ * <ul>
+ * <li>Delivery of an encrypted PayerRequest to a Matcher and return of the encrypted MatcherResponse</li>
+ * </ul>
+ * <p>This is an interface so that the wallet can choose how to reach the Matcher (pooled HTTP, in-process for tests
+ * etc) without FeeService knowing about it.</p>
+ *
+ * @since 0.0.1
+ */
+public interface MatcherTransport {
+
+  /**
+   * @param encryptedPayerRequest The PGP encrypted PayerRequest payload
+   *
+   * @return The AES encrypted MatcherResponse payload
+   *
+   * @throws IOException If the exchange failed (including any retries)
+   */
+  byte[] exchange(byte[] encryptedPayerRequest) throws IOException;
+
+}
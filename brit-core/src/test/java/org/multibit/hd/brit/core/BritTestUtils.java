@@ -16,7 +16,21 @@ package org.multibit.hd.brit.core;
  * limitations under the License.
  */
 
+import org.spongycastle.bcpg.HashAlgorithmTags;
+import org.spongycastle.jce.provider.BouncyCastleProvider;
+import org.spongycastle.openpgp.*;
+import org.spongycastle.openpgp.operator.PGPDigestCalculator;
+import org.spongycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.spongycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.spongycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.spongycastle.openpgp.operator.jcajce.JcePBESecretKeyEncryptorBuilder;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Date;
 
 public class BritTestUtils {
 
@@ -51,4 +65,43 @@ public class BritTestUtils {
     }
     return file;
   }
+
+  /**
+   * Generate a new Matcher key pair (e.g. to rotate to in tests)
+   *
+   * @param secretKeyringFile The file to write the secret keyring to
+   * @param password          The password protecting the secret key
+   *
+   * @return The public key for Payers to encrypt to
+   *
+   * @throws Exception If the key pair cannot be generated
+   */
+  public static PGPPublicKey newMatcherSecretKeyring(File secretKeyringFile, char[] password) throws Exception {
+
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+    keyPairGenerator.initialize(1024);
+    PGPKeyPair keyPair = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, keyPairGenerator.generateKeyPair(), new Date());
+
+    PGPDigestCalculator sha1 = new JcaPGPDigestCalculatorProviderBuilder().build().get(HashAlgorithmTags.SHA1);
+    PGPSecretKey secretKey = new PGPSecretKey(
+      PGPSignature.DEFAULT_CERTIFICATION,
+      keyPair,
+      "Test Matcher",
+      sha1,
+      null,
+      null,
+      new JcaPGPContentSignerBuilder(keyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA1),
+      new JcePBESecretKeyEncryptorBuilder(PGPEncryptedData.CAST5, sha1).setProvider(BouncyCastleProvider.PROVIDER_NAME).build(password)
+    );
+
+    try (OutputStream secretKeyringOutputStream = new FileOutputStream(secretKeyringFile)) {
+      secretKey.encode(secretKeyringOutputStream);
+    }
+
+    return secretKey.getPublicKey();
+  }
 }
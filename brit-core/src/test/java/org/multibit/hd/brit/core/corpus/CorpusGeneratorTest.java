@@ -0,0 +1,127 @@
+package org.multibit.hd.brit.core.corpus;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.junit.Test;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.BritTestUtils;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.matcher.Matcher;
+import org.multibit.hd.brit.core.matcher.MatcherConfig;
+import org.multibit.hd.brit.core.matcher.MatcherStores;
+import org.multibit.hd.brit.core.matcher.Matchers;
+import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class CorpusGeneratorTest {
+
+  @Test
+  public void testGenerateAndReplay() throws Exception {
+
+    PGPPublicKey matcherPublicKey;
+    try (InputStream matcherPublicKeyInputStream = new FileInputStream(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      matcherPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+    }
+
+    File corpusFile = new File(Files.createTempDir(), "corpus.bin");
+    new CorpusGenerator(Optional.of(matcherPublicKey), 2).generate(corpusFile, 3);
+
+    Matcher matcher = Matchers.newBasicMatcher(
+      new MatcherConfig(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_SECRET_KEYRING_FILE), BritTestUtils.TEST_DATA_PASSWORD),
+      MatcherStores.newInMemoryMatcherStore(new HashMap<String, Set<Address>>())
+    );
+
+    try (CorpusReader corpusReader = new CorpusReader(corpusFile)) {
+
+      assertThat(corpusReader.size()).isEqualTo(3);
+
+      for (int i = 0; i < corpusReader.size(); i++) {
+
+        CorpusEntry corpusEntry = corpusReader.getEntry(i);
+
+        // The seed phrase, seed and BRITWalletId are consistent
+        assertThat(new Bip39SeedPhraseGenerator().convertToSeed(corpusEntry.getSeedPhrase())).isEqualTo(corpusEntry.getSeed());
+        assertThat(corpusReader.getBRITWalletId(i)).isEqualTo(new BRITWalletId(corpusEntry.getSeed()));
+        assertThat(corpusReader.getPayerRequest(i)).isEqualTo(corpusEntry.getPayerRequest());
+
+        // The Matcher can decrypt the replayed request
+        assertThat(corpusReader.getEncryptedPayerRequest(i).isPresent()).isTrue();
+        PayerRequest payerRequest = matcher.decryptPayerRequest(corpusReader.getEncryptedPayerRequest(i).get());
+        assertThat(payerRequest).isEqualTo(corpusEntry.getPayerRequest());
+      }
+    }
+  }
+
+  @Test
+  public void testGenerateWithoutMatcherKey() throws Exception {
+
+    File corpusFile = new File(Files.createTempDir(), "corpus.bin");
+    new CorpusGenerator(Optional.<PGPPublicKey>absent(), 1).generate(corpusFile, 1);
+
+    try (CorpusReader corpusReader = new CorpusReader(corpusFile)) {
+      assertThat(corpusReader.size()).isEqualTo(1);
+      assertThat(corpusReader.getEncryptedPayerRequest(0).isPresent()).isFalse();
+    }
+  }
+
+  @Test
+  public void testUnfinishedCorpusIsDeleted() throws Exception {
+
+    File corpusFile = new File(Files.createTempDir(), "corpus.bin");
+    try (CorpusWriter corpusWriter = new CorpusWriter(corpusFile)) {
+      assertThat(corpusWriter.getEntryCount()).isEqualTo(0);
+      // Fail before finishing
+    }
+
+    assertThat(corpusFile.exists()).isFalse();
+  }
+
+  @Test
+  public void testCorruptEntryLengthIsRejected() throws Exception {
+
+    File corpusFile = new File(Files.createTempDir(), "corpus.bin");
+    new CorpusGenerator(Optional.<PGPPublicKey>absent(), 1).generate(corpusFile, 1);
+
+    for (int entryLength : new int[]{-1, Integer.MAX_VALUE}) {
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(corpusFile, "rw")) {
+        randomAccessFile.seek(CorpusWriter.HEADER_LENGTH);
+        randomAccessFile.writeInt(entryLength);
+      }
+      try {
+        new CorpusReader(corpusFile).close();
+        fail("Expected a corrupt corpus file for entry length " + entryLength);
+      } catch (IOException e) {
+        assertThat(e.getMessage()).startsWith("Corrupt corpus file");
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package org.multibit.hd.brit.core.dto;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Utils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStreamReader;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class SyntheticBRITWalletIdsTest {
+
+  private File keyFile;
+
+  @Before
+  public void setUp() throws Exception {
+
+    keyFile = new File(Files.createTempDir(), SyntheticBRITWalletIds.KEY_FILE_NAME);
+
+  }
+
+  @Test
+  public void testReadOrCreateKeepsExistingKey() throws Exception {
+
+    SyntheticBRITWalletIds created = SyntheticBRITWalletIds.readOrCreateKeyFile(keyFile);
+    String key = Files.toString(keyFile, Charsets.US_ASCII);
+
+    // A restart must not invalidate the ids of a running load generator
+    SyntheticBRITWalletIds reopened = SyntheticBRITWalletIds.readOrCreateKeyFile(keyFile);
+
+    assertThat(Files.toString(keyFile, Charsets.US_ASCII)).isEqualTo(key);
+    assertThat(reopened.isSynthetic(created.newSyntheticBRITWalletId(3))).isTrue();
+
+  }
+
+  @Test
+  public void testIdMintedInAnotherProcessIsRecognised() throws Exception {
+
+    // The Matcher creates the key file
+    SyntheticBRITWalletIds matcherIds = SyntheticBRITWalletIds.readOrCreateKeyFile(keyFile);
+
+    // A load generator in another JVM reads it and mints an id
+    Process process = new ProcessBuilder(
+      new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+      "-cp",
+      System.getProperty("java.class.path"),
+      Minter.class.getName(),
+      keyFile.getAbsolutePath(),
+      "42"
+    ).redirectErrorStream(true).start();
+    String output;
+    try (InputStreamReader reader = new InputStreamReader(process.getInputStream(), Charsets.US_ASCII)) {
+      output = CharStreams.toString(reader).trim();
+    }
+    assertThat(process.waitFor()).describedAs(output).isEqualTo(0);
+
+    BRITWalletId mintedElsewhere = new BRITWalletId(output);
+
+    assertThat(matcherIds.isSynthetic(mintedElsewhere)).isTrue();
+    assertThat(mintedElsewhere).isEqualTo(matcherIds.newSyntheticBRITWalletId(42));
+
+    // A different key (e.g. a load generator pointed at the wrong Matcher) is treated as a real Payer
+    assertThat(SyntheticBRITWalletIds.withRandomKey().isSynthetic(mintedElsewhere)).isFalse();
+
+  }
+
+  @Test
+  public void testForgedTagIsNotSynthetic() throws Exception {
+
+    SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
+    // A Payer cannot opt out of being recorded by copying the prefix and index of a synthetic id
+    byte[] forgedBritWalletId = syntheticBRITWalletIds.newSyntheticBRITWalletId(7).getBytes();
+    forgedBritWalletId[forgedBritWalletId.length - 1] ^= 1;
+
+    assertThat(syntheticBRITWalletIds.isSynthetic(new BRITWalletId(Utils.HEX.encode(forgedBritWalletId)))).isFalse();
+    assertThat(syntheticBRITWalletIds.isSynthetic(new BRITWalletId("4bbd8a749179d65a5f1b0859684f53ba5b761714"))).isFalse();
+
+  }
+
+  /**
+   * Stands in for a load generator running in its own JVM
+   */
+  public static class Minter {
+
+    /**
+     * @param args The key file and the index to mint
+     *
+     * @throws Exception If the key file cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+
+      SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.readKeyFile(new File(args[0]));
+
+      System.out.println(Utils.HEX.encode(syntheticBRITWalletIds.newSyntheticBRITWalletId(Integer.parseInt(args[1])).getBytes()));
+
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * <p>Fast-forwards the Matcher through several simulated days under concurrent load</p>
+ */
+public class BasicMatcherDayBoundaryTest {
+
+  private static final Logger log = LoggerFactory.getLogger(BasicMatcherDayBoundaryTest.class);
+
+  private static final int THREADS = 8;
+
+  private static final int REQUESTS_PER_THREAD = 2_500;
+
+  /**
+   * Each clock read advances the simulated time so 20,000 requests span about 4.6 days
+   */
+  private static final long MILLIS_PER_CLOCK_READ = 20_000;
+
+  /**
+   * Requests within this many simulated millis of midnight count as "at the boundary"
+   */
+  private static final long BOUNDARY_WINDOW_MILLIS = 30 * MILLIS_PER_CLOCK_READ * THREADS;
+
+  private File matcherStoreDirectory;
+
+  private MatcherStore matcherStore;
+
+  private SteppingMatcherClock clock;
+
+  private Matcher testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    matcherStoreDirectory = Files.createTempDir();
+    matcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+
+    Set<Address> allAddresses = Sets.newHashSet();
+    for (int i = 0; i < 200; i++) {
+      byte[] hash160 = new byte[20];
+      ByteBuffer.wrap(hash160).putInt(16, i);
+      allAddresses.add(new Address(MainNetParams.get(), hash160));
+    }
+    matcherStore.storeAllBitcoinAddresses(allAddresses);
+
+    // Start shortly before a UTC midnight
+    long start = new DateTime(2014, 7, 1, 23, 0, DateTimeZone.UTC).getMillis();
+    clock = new SteppingMatcherClock(start, MILLIS_PER_CLOCK_READ);
+
+    MatcherConfig matcherConfig = new MatcherConfig(new File("unused"), "unused".toCharArray());
+    matcherConfig.setClock(clock);
+
+    testObject = Matchers.newBasicMatcher(matcherConfig, matcherStore);
+  }
+
+  @Test
+  public void testOneDailySetPerDayUnderConcurrentLoad() throws Exception {
+
+    final long firstDay = EpochDays.toEpochDay(clock.peek());
+
+    ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+    List<Future<long[][]>> futures = Lists.newArrayList();
+    for (int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      futures.add(executorService.submit(new Callable<long[][]>() {
+        @Override
+        public long[][] call() throws Exception {
+
+          // A handful of wallets per thread so most requests are repeat visits
+          long[] latencies = new long[REQUESTS_PER_THREAD];
+          long[] requestTimes = new long[REQUESTS_PER_THREAD];
+          for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+            PayerRequest payerRequest = newPayerRequest(thread * 10 + i % 10);
+
+            long startNanos = System.nanoTime();
+            requestTimes[i] = clock.peek();
+            MatcherResponse matcherResponse = testObject.process(payerRequest);
+            latencies[i] = System.nanoTime() - startNanos;
+
+            assertThat(matcherResponse.getBitcoinAddresses()).hasSize(50);
+          }
+          return new long[][]{latencies, requestTimes};
+        }
+      }));
+    }
+
+    List<Long> allLatencies = Lists.newArrayList();
+    List<Long> boundaryLatencies = Lists.newArrayList();
+    for (Future<long[][]> future : futures) {
+      long[][] result = future.get();
+      for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+        allLatencies.add(result[0][i]);
+        long millisIntoDay = result[1][i] - EpochDays.toEpochMillis(EpochDays.toEpochDay(result[1][i]));
+        if (millisIntoDay < BOUNDARY_WINDOW_MILLIS) {
+          boundaryLatencies.add(result[0][i]);
+        }
+      }
+    }
+    executorService.shutdown();
+
+    final long lastDay = EpochDays.toEpochDay(clock.peek() - MILLIS_PER_CLOCK_READ);
+    assertThat(lastDay - firstDay).isGreaterThanOrEqualTo(4);
+
+    // Exactly one daily set written for every simulated day
+    File[] dailySets = new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE).listFiles();
+    assertThat(dailySets).isNotNull();
+    assertThat(dailySets.length).isEqualTo((int) (lastDay - firstDay + 1));
+
+    // Each day has a distinct selection that survives a restart
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    for (long day = firstDay; day <= lastDay; day++) {
+      assertThat(rebornMatcherStore.lookupBitcoinAddressListForEpochDay(day)).isEqualTo(matcherStore.lookupBitcoinAddressListForEpochDay(day));
+      assertThat(matcherStore.lookupBitcoinAddressListForEpochDay(day)).hasSize(50);
+    }
+
+    log.info("Latency p50={}us p99={}us overall, p99={}us within {} requests of midnight",
+      percentile(allLatencies, 50) / 1000,
+      percentile(allLatencies, 99) / 1000,
+      percentile(boundaryLatencies, 99) / 1000,
+      BOUNDARY_WINDOW_MILLIS / MILLIS_PER_CLOCK_READ
+    );
+  }
+
+  private static PayerRequest newPayerRequest(int wallet) {
+    byte[] walletId = new byte[20];
+    ByteBuffer.wrap(walletId).putInt(16, wallet);
+    return new PayerRequest(2, new BRITWalletId(Utils.HEX.encode(walletId)), new byte[16], PayerRequest.NOT_PRESENT_MILLIS);
+  }
+
+  private static long percentile(List<Long> values, int percentile) {
+    if (values.isEmpty()) {
+      return 0;
+    }
+    long[] sorted = new long[values.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = values.get(i);
+    }
+    Arrays.sort(sorted);
+    return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1)];
+  }
+
+  /**
+   * A clock that moves forward a fixed step every time it is read
+   */
+  private static class SteppingMatcherClock implements MatcherClock {
+
+    private final AtomicLong now;
+
+    private final long step;
+
+    private SteppingMatcherClock(long start, long step) {
+      this.now = new AtomicLong(start);
+      this.step = step;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return now.getAndAdd(step);
+    }
+
+    private long peek() {
+      return now.get();
+    }
+  }
+}
@@ -16,17 +16,23 @@ package org.multibit.hd.brit.core.matcher;
  * limitations under the License.
  */
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.params.MainNetParams;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.multibit.hd.brit.core.BritTestUtils;
 import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
 import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
 import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
@@ -34,15 +40,19 @@ import org.multibit.hd.brit.core.dto.BRITWalletIdTest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
 public class BasicMatcherStoreTest {
 
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
   private static final Logger log = LoggerFactory.getLogger(BasicMatcherStoreTest.class);
 
   private MatcherStore matcherStore;
@@ -138,6 +148,32 @@ public class BasicMatcherStoreTest {
 
   }
 
+  @Test
+  public void testEpochDayMatchesUtcDate() throws Exception {
+
+    DateTime midnight = new DateTime(2014, 7, 1, 0, 0, DateTimeZone.UTC);
+    long epochDay = EpochDays.toEpochDay(midnight.getMillis());
+
+    // Both sides of the UTC day boundary
+    assertThat(EpochDays.toEpochMillis(epochDay)).isEqualTo(midnight.getMillis());
+    assertThat(EpochDays.toEpochDay(midnight.getMillis() - 1)).isEqualTo(epochDay - 1);
+    assertThat(EpochDays.toEpochDay(midnight.plusDays(1).getMillis() - 1)).isEqualTo(epochDay);
+    assertThat(EpochDays.currentEpochDay(midnight.getMillis() - 1)).isEqualTo(epochDay - 1);
+    assertThat(EpochDays.currentEpochDay(midnight.getMillis())).isEqualTo(epochDay);
+
+    // Pre-epoch times use floor division
+    assertThat(EpochDays.toEpochDay(-1)).isEqualTo(-1);
+
+    // Date and epoch day lookups are interchangeable
+    Set<Address> bitcoinAddresses = Sets.newHashSet(testAddresses.get(0), testAddresses.get(1));
+    matcherStore.storeBitcoinAddressesForDate(bitcoinAddresses, midnight.plusHours(23).toDate());
+
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(rebornMatcherStore.lookupBitcoinAddressListForEpochDay(epochDay)).isEqualTo(bitcoinAddresses);
+    assertThat(rebornMatcherStore.lookupBitcoinAddressListForDate(midnight.toDate())).isEqualTo(bitcoinAddresses);
+
+  }
+
   @Test
   public void testStoreAndLookupWalletToEncounterDateLinks() throws Exception {
 
@@ -171,4 +207,107 @@ public class BasicMatcherStoreTest {
     assertThat(rebornMatcherStore.lookupWalletToEncounterDateLink(britWalletId2)).isEqualTo(walletToEncounterLink2);
 
   }
+
+  @Test
+  public void testEncounterLookupCounts() throws Exception {
+
+    BasicMatcherStore basicMatcherStore = (BasicMatcherStore) matcherStore;
+
+    int knownWallets = 100;
+    for (int i = 0; i < knownWallets; i++) {
+      matcherStore.storeWalletToEncounterDateLink(new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(i), 1_000L, PayerRequest.NOT_PRESENT_MILLIS));
+    }
+
+    // Known wallets are always found
+    for (int i = 0; i < knownWallets; i++) {
+      assertThat(matcherStore.lookupWalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(i))).isNotNull();
+    }
+
+    int newWallets = 250;
+    for (int i = knownWallets; i < knownWallets + newWallets; i++) {
+      assertThat(matcherStore.lookupWalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(i))).isNull();
+    }
+
+    assertThat(basicMatcherStore.getKnownWalletLookupCount()).isEqualTo(knownWallets);
+    assertThat(basicMatcherStore.getNewWalletLookupCount()).isEqualTo(newWallets);
+
+  }
+
+  @Test
+  public void testAppendBitcoinAddresses() throws Exception {
+
+    // Start with a small universe
+    matcherStore.storeAllBitcoinAddresses(Sets.newHashSet(testAddresses.get(0), testAddresses.get(1)));
+
+    // Append a mixture of known and new addresses
+    Set<Address> added = matcherStore.appendBitcoinAddresses("redeemer-3-1", Sets.newHashSet(testAddresses.get(1), testAddresses.get(2), testAddresses.get(3)));
+
+    // Only the new addresses are added
+    assertThat(added).isEqualTo(Sets.newHashSet(testAddresses.get(2), testAddresses.get(3)));
+    assertThat(matcherStore.getAllBitcoinAddresses()).hasSize(4);
+
+    // Appending the same addresses again has no effect
+    assertThat(matcherStore.appendBitcoinAddresses("redeemer-3-1", added)).isEmpty();
+
+    // Appending for another Redeemer leaves the existing groups as they were
+    Set<Address> redeemer3Addresses = matcherStore.getBitcoinAddressesByRedeemer().get("redeemer-3-1");
+    matcherStore.appendBitcoinAddresses("redeemer-4-1", Sets.newHashSet(testAddresses.get(4)));
+    assertThat(matcherStore.getBitcoinAddressesByRedeemer().get("redeemer-3-1")).isSameAs(redeemer3Addresses);
+    assertThat(matcherStore.getAllBitcoinAddresses()).hasSize(5);
+    assertThat(matcherStore.getAllBitcoinAddresses().contains(testAddresses.get(4))).isTrue();
+
+    // Bounce the MatcherStore to check everything is being persisted
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(rebornMatcherStore.getAllBitcoinAddresses()).isEqualTo(Sets.newHashSet(testAddresses.subList(0, 5)));
+
+  }
+
+  @Test
+  public void testStoreBitcoinAddressesByRedeemer() throws Exception {
+
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.<String, Set<Address>>of(
+      "redeemer-1-1", Sets.newHashSet(testAddresses.get(0), testAddresses.get(1)),
+      "redeemer-2-1", Sets.newHashSet(testAddresses.get(2))
+    );
+
+    matcherStore.storeBitcoinAddressesByRedeemer(addressesByRedeemer);
+    assertThat(matcherStore.getBitcoinAddressesByRedeemer()).isEqualTo(addressesByRedeemer);
+    assertThat(matcherStore.getAllBitcoinAddresses()).hasSize(3);
+
+    // Bounce the MatcherStore to check the groups are persisted as sections
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(rebornMatcherStore.getBitcoinAddressesByRedeemer()).isEqualTo(addressesByRedeemer);
+
+  }
+
+  @Test
+  public void testImportRedeemerAddresses() throws Exception {
+
+    RedeemerAddressImporter importer = new RedeemerAddressImporter(matcherStore, 2);
+
+    // Import both Redeemer export files
+    File redeemer1File = BritTestUtils.makeFile("src/test/resources/matcher/import-from-redeemer/redeemer-1-1.txt");
+    File redeemer2File = BritTestUtils.makeFile("src/test/resources/matcher/import-from-redeemer/redeemer-2-1.txt");
+    assertThat(importer.importAddresses(redeemer1File)).hasSize(102);
+    assertThat(importer.importAddresses(redeemer2File)).hasSize(102);
+
+    // A repeat import adds nothing
+    assertThat(importer.importAddresses(redeemer1File)).isEmpty();
+    assertThat(matcherStore.getAllBitcoinAddresses()).hasSize(204);
+
+    // Malformed addresses are skipped
+    String raw = "# Comment\n" + testAddresses.get(4) + "\nnot-an-address\n\n" + testAddresses.get(5) + "\n";
+    assertThat(importer.importAddresses("redeemer-3-1", new ByteArrayInputStream(raw.getBytes(Charsets.UTF_8)))).hasSize(2);
+
+    // Bounce the MatcherStore to check everything is being persisted
+    MatcherStore rebornMatcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(rebornMatcherStore.getAllBitcoinAddresses()).hasSize(206);
+
+    // Addresses are grouped by the Redeemer that supplied them
+    Map<String, Set<Address>> addressesByRedeemer = rebornMatcherStore.getBitcoinAddressesByRedeemer();
+    assertThat(addressesByRedeemer.keySet()).containsOnly("redeemer-1-1", "redeemer-2-1", "redeemer-3-1");
+    assertThat(addressesByRedeemer.get("redeemer-1-1")).hasSize(102);
+    assertThat(addressesByRedeemer.get("redeemer-3-1")).hasSize(2);
+
+  }
 }
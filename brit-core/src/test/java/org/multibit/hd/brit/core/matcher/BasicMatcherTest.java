@@ -46,13 +46,17 @@ import java.io.FileInputStream;
 import java.security.SecureRandom;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 
 public class BasicMatcherTest {
 
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
   private static final Logger log = LoggerFactory.getLogger(BasicMatcherTest.class);
 
   private SecureRandom secureRandom;
@@ -343,6 +347,105 @@ public class BasicMatcherTest {
 
   }
 
+  /**
+   * Verifies that synthetic (probe) traffic is answered but not persisted
+   * @throws Exception If something goes wrong
+   */
+  @Test
+  public void testSyntheticBRITWalletIdIsNotPersisted() throws Exception {
+
+    // Divert synthetic traffic away from the persistent store
+    MatcherStore persistentStore = createTestMatcher_All_Good().getMatcherStore();
+    SyntheticTrafficMatcherStore matcherStore = MatcherStores.newSyntheticTrafficMatcherStore(persistentStore, syntheticBRITWalletIds);
+    File matcherSecretKeyFile = BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_SECRET_KEYRING_FILE);
+    Matcher matcher = Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, BritTestUtils.TEST_DATA_PASSWORD), matcherStore);
+
+    BRITWalletId syntheticBritWalletId = syntheticBRITWalletIds.newSyntheticBRITWalletId(7);
+    assertThat(syntheticBRITWalletIds.isSynthetic(syntheticBritWalletId)).isTrue();
+    assertThat(syntheticBRITWalletIds.isSynthetic(syntheticBRITWalletIds.newSyntheticBRITWalletId(8))).isTrue();
+    assertThat(syntheticBritWalletId).isNotEqualTo(syntheticBRITWalletIds.newSyntheticBRITWalletId(8));
+    assertThat(syntheticBRITWalletIds.isSynthetic(new BRITWalletId("4bbd8a749179d65a5f1b0859684f53ba5b761714"))).isFalse();
+
+    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionId);
+    MatcherResponse matcherResponse = matcher.process(new PayerRequest(2, syntheticBritWalletId, sessionId, Optional.of(new Date())));
+
+    assertThat(matcherResponse.getBitcoinAddresses()).hasSize(6);
+
+    // Held in memory only
+    assertThat(persistentStore.lookupWalletToEncounterDateLink(syntheticBritWalletId)).isNull();
+    assertThat(matcherStore.lookupWalletToEncounterDateLink(syntheticBritWalletId)).isNotNull();
+    assertThat(matcherStore.getSyntheticStoreCount()).isEqualTo(1);
+    assertThat(matcherStore.getSyntheticLookupCount()).isEqualTo(2);
+    assertThat(matcherStore.getSyntheticEncounterCount()).isEqualTo(1);
+
+    // A repeat probe is recognised from the side store
+    secureRandom.nextBytes(sessionId);
+    matcher.process(new PayerRequest(2, syntheticBritWalletId, sessionId, Optional.of(new Date())));
+    assertThat(matcherStore.getSyntheticStoreCount()).isEqualTo(1);
+  }
+
+  /**
+   * Verifies that the key named in the PGP packet is used and that the previous key keeps decrypting for the grace
+   * period after a rotation
+   * @throws Exception If something goes wrong
+   */
+  @Test
+  public void testRotateConfig() throws Exception {
+
+    final long[] nowMillis = {System.currentTimeMillis()};
+    Matcher matcher = createTestMatcher_All_Good();
+    matcher.getConfig().setClock(new MatcherClock() {
+      @Override
+      public long currentTimeMillis() {
+        return nowMillis[0];
+      }
+    });
+    MatcherConfig previousConfig = matcher.getConfig();
+
+    // A Payer holding the previous public key
+    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionId);
+    Payer previousPayer = createTestPayer();
+    PayerRequest previousPayerRequest = previousPayer.newPayerRequest(syntheticBRITWalletIds.newSyntheticBRITWalletId(1), sessionId, Optional.of(new Date()));
+    EncryptedPayerRequest previousEncryptedPayerRequest = previousPayer.encryptPayerRequest(previousPayerRequest);
+
+    // A wrong password is refused and the current key stays in place
+    try {
+      matcher.rotateConfig(previousConfig.withSecretKeyring(previousConfig.getMatcherSecretKeyringFile(), "wrong".toCharArray()), 60_000);
+      fail("Expected the wrong password to be refused");
+    } catch (IllegalStateException e) {
+      assertThat(matcher.getConfig()).isSameAs(previousConfig);
+    }
+
+    // Rotate to a new key pair
+    File newSecretKeyringFile = File.createTempFile("secring", ".gpg");
+    PGPPublicKey newPublicKey = BritTestUtils.newMatcherSecretKeyring(newSecretKeyringFile, BritTestUtils.TEST_DATA_PASSWORD);
+    matcher.rotateConfig(previousConfig.withSecretKeyring(newSecretKeyringFile, BritTestUtils.TEST_DATA_PASSWORD), 60_000);
+    assertThat(matcher.getConfig().getClock()).isSameAs(previousConfig.getClock());
+
+    // Both keys decrypt during the grace period
+    Payer newPayer = Payers.newBasicPayer(new PayerConfig(newPublicKey));
+    PayerRequest newPayerRequest = newPayer.newPayerRequest(syntheticBRITWalletIds.newSyntheticBRITWalletId(2), sessionId, Optional.of(new Date()));
+    assertThat(matcher.decryptPayerRequest(newPayer.encryptPayerRequest(newPayerRequest))).isEqualTo(newPayerRequest);
+    assertThat(matcher.decryptPayerRequest(previousEncryptedPayerRequest)).isEqualTo(previousPayerRequest);
+    assertThat(matcher.decryptPayerRequest(previousEncryptedPayerRequest)).isEqualTo(previousPayerRequest);
+
+    Map<String, Long> requestCounts = matcher.getRequestCountsByKeyId();
+    assertThat(requestCounts.get(String.format("%016X", newPublicKey.getKeyID()))).isEqualTo(1L);
+    assertThat(requestCounts.get(String.format("%016X", previousPayer.getConfig().getMatcherPublicKey().getKeyID()))).isEqualTo(2L);
+
+    // After the grace period the previous key is retired
+    nowMillis[0] += 60_000;
+    try {
+      matcher.decryptPayerRequest(previousEncryptedPayerRequest);
+      fail("Expected the retired key to be refused");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    assertThat(matcher.decryptPayerRequest(newPayer.encryptPayerRequest(newPayerRequest))).isEqualTo(newPayerRequest);
+  }
+
   private Matcher createTestMatcher_All_Good() throws Exception {
 
     // Find the example Matcher PGP secret key ring file
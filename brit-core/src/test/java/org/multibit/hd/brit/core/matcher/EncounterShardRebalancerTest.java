@@ -0,0 +1,167 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class EncounterShardRebalancerTest {
+
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
+  private static final int LINK_COUNT = 200;
+
+  private File matcherStoreDirectory;
+
+  private final List<WalletToEncounterDateLink> links = Lists.newArrayList();
+
+  @Before
+  public void setUp() throws Exception {
+
+    matcherStoreDirectory = Files.createTempDir();
+
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    for (int i = 0; i < LINK_COUNT; i++) {
+      WalletToEncounterDateLink link = new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(i), 1_000L * i, PayerRequest.NOT_PRESENT_MILLIS);
+      matcherStore.storeWalletToEncounterDateLink(link);
+      links.add(link);
+    }
+  }
+
+  @Test
+  public void testRebalanceToShardsAndBack() throws Exception {
+
+    assertThat(EncounterShardRebalancer.rebalance(matcherStoreDirectory, 4)).isEqualTo(LINK_COUNT);
+
+    BasicMatcherStore shardedStore = (BasicMatcherStore) MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(shardedStore.getEncounterShardCount()).isEqualTo(4);
+    assertLinksPresent(shardedStore);
+    assertThat(new File(matcherStoreDirectory, "links-3-of-4.txt").exists()).isTrue();
+    assertThat(new File(matcherStoreDirectory, "links.txt.previous").exists()).isTrue();
+
+    // Every shard takes a share of the wallets
+    for (int size : EncounterLinkShards.open(matcherStoreDirectory).getShardSizes().values()) {
+      assertThat(size).isGreaterThan(0);
+    }
+
+    // New encounters land in their shard and survive a restart
+    WalletToEncounterDateLink newLink = new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(LINK_COUNT), 1L, PayerRequest.NOT_PRESENT_MILLIS);
+    shardedStore.storeWalletToEncounterDateLink(newLink);
+    links.add(newLink);
+    assertLinksPresent(MatcherStores.newBasicMatcherStore(matcherStoreDirectory));
+
+    assertThat(EncounterShardRebalancer.rebalance(matcherStoreDirectory, 1)).isEqualTo(LINK_COUNT + 1);
+
+    BasicMatcherStore singleStore = (BasicMatcherStore) MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(singleStore.getEncounterShardCount()).isEqualTo(1);
+    assertLinksPresent(singleStore);
+    assertThat(new File(matcherStoreDirectory, "links-0-of-4.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void testShardIndexIsConsistent() throws Exception {
+
+    // Growing from 4 to 5 shards only moves wallets into the new shard
+    for (WalletToEncounterDateLink link : links) {
+      int before = EncounterLinkShards.shardIndex(link.getBritWalletId(), 4);
+      int after = EncounterLinkShards.shardIndex(link.getBritWalletId(), 5);
+      if (before != after) {
+        assertThat(after).isEqualTo(4);
+      }
+    }
+  }
+
+  @Test
+  public void testMixedShardCountsAreRejected() throws Exception {
+
+    EncounterShardRebalancer.rebalance(matcherStoreDirectory, 2);
+    assertThat(new File(matcherStoreDirectory, "links-0-of-3.txt").createNewFile()).isTrue();
+
+    try {
+      MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("shards");
+    }
+  }
+
+  @Test
+  public void testCrashBetweenRenamesIsRolledForward() throws Exception {
+
+    // Stop after the old files are moved aside but before the new ones are put in place
+    EncounterLinkShards current = EncounterLinkShards.open(matcherStoreDirectory);
+    EncounterShardRebalancer.writeTemporaryShards(matcherStoreDirectory, current, 4);
+    current.close();
+    EncounterLinkShards.writeManifest(matcherStoreDirectory, 4);
+    EncounterShardRebalancer.moveAside(current);
+
+    assertThat(new File(matcherStoreDirectory, "links.txt").exists()).isFalse();
+    assertThat(new File(matcherStoreDirectory, "links-0-of-4.txt").exists()).isFalse();
+
+    BasicMatcherStore recoveredStore = (BasicMatcherStore) MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(recoveredStore.getEncounterShardCount()).isEqualTo(4);
+    assertLinksPresent(recoveredStore);
+    assertThat(new File(matcherStoreDirectory, "links-0-of-4.txt.tmp").exists()).isFalse();
+  }
+
+  @Test
+  public void testCrashBeforeCommitIsRolledBack() throws Exception {
+
+    // Stop after the new files are written but before the manifest
+    EncounterLinkShards current = EncounterLinkShards.open(matcherStoreDirectory);
+    EncounterShardRebalancer.writeTemporaryShards(matcherStoreDirectory, current, 4);
+    current.close();
+
+    BasicMatcherStore recoveredStore = (BasicMatcherStore) MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(recoveredStore.getEncounterShardCount()).isEqualTo(1);
+    assertLinksPresent(recoveredStore);
+    assertThat(new File(matcherStoreDirectory, "links-0-of-4.txt.tmp").exists()).isFalse();
+  }
+
+  @Test
+  public void testMissingCommittedShardIsRejected() throws Exception {
+
+    EncounterShardRebalancer.rebalance(matcherStoreDirectory, 4);
+    assertThat(new File(matcherStoreDirectory, "links-2-of-4.txt").delete()).isTrue();
+
+    try {
+      MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("links-2-of-4.txt");
+    }
+  }
+
+  private void assertLinksPresent(MatcherStore matcherStore) {
+
+    for (WalletToEncounterDateLink link : links) {
+      assertThat(matcherStore.lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+    }
+  }
+}
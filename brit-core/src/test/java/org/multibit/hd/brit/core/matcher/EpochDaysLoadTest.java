@@ -0,0 +1,144 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.params.MainNetParams;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Ignore;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * <p>Micro benchmark comparing the EpochDays day key against the previous Joda start of day approach</p>
+ * <p>Run the main method with a warmed up JVM (e.g. -server -Xmx256m). Reports ns/op and bytes allocated/op.</p>
+ * <p>The cost of a full BasicMatcher.process is reported for reference only. There is no previous implementation
+ * to run alongside it so it is not a comparison.</p>
+ */
+@Ignore
+public class EpochDaysLoadTest {
+
+  private static final Logger log = LoggerFactory.getLogger(EpochDaysLoadTest.class);
+
+  private static final int WARM_UP_ITERATIONS = 200_000;
+
+  private static final int MEASURED_ITERATIONS = 2_000_000;
+
+  /**
+   * Prevents the JIT from discarding the benchmarked work
+   */
+  private static long sink;
+
+  /**
+   * Entry point to the load tester
+   *
+   * @param args The command line arguments
+   *
+   * @throws Exception If something goes wrong
+   */
+  public static void main(String[] args) throws Exception {
+
+    new EpochDaysLoadTest().start();
+
+  }
+
+  private void start() throws Exception {
+
+    // Day key only
+    measure("Joda start of day key", new Runnable() {
+      @Override
+      public void run() {
+        sink += new DateTime(new Date(), DateTimeZone.UTC).withTimeAtStartOfDay().toDate().getTime();
+      }
+    }, MEASURED_ITERATIONS);
+
+    measure("Epoch day key", new Runnable() {
+      @Override
+      public void run() {
+        sink += EpochDays.currentEpochDay(System.currentTimeMillis());
+      }
+    }, MEASURED_ITERATIONS);
+
+    // Full process() for a previously seen wallet (no writes) for reference
+    File matcherStoreDirectory = Files.createTempDir();
+    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    matcherStore.storeAllBitcoinAddresses(newAddresses(1_000));
+
+    final Matcher matcher = Matchers.newBasicMatcher(new MatcherConfig(new File("unused"), "unused".toCharArray()), matcherStore);
+    final PayerRequest payerRequest = new PayerRequest(2, new BRITWalletId("0123456789abcdef0123456789abcdef01234567"), new byte[16], Optional.of(new Date()));
+    matcher.process(payerRequest);
+
+    measure("BasicMatcher.process (repeat wallet, reference only)", new Runnable() {
+      @Override
+      public void run() {
+        sink += matcher.process(payerRequest).getBitcoinAddresses().size();
+      }
+    }, MEASURED_ITERATIONS / 10);
+
+    log.info("Sink {}", sink);
+  }
+
+  private void measure(String name, Runnable runnable, int iterations) {
+
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      runnable.run();
+    }
+
+    long startBytes = allocatedBytes();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      runnable.run();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long allocated = allocatedBytes() - startBytes;
+
+    log.info("{}: {} ns/op, {} bytes/op", name, elapsedNanos / iterations, allocated / iterations);
+  }
+
+  /**
+   * @return The bytes allocated by this thread so far (-1 if the JVM cannot report it)
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static Set<Address> newAddresses(int count) {
+    Set<Address> addresses = Sets.newHashSet();
+    for (int i = 0; i < count; i++) {
+      byte[] hash160 = new byte[20];
+      ByteBuffer.wrap(hash160).putInt(16, i);
+      addresses.add(new Address(MainNetParams.get(), hash160));
+    }
+    return addresses;
+  }
+}
@@ -0,0 +1,187 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.hd.brit.core.BritTestUtils;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+/**
+ * <p>Runs several Matcher nodes in one process against a single shared log</p>
+ */
+public class ReplicatedLogMatcherStoreTest {
+
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
+  private static final int NODES = 3;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private File sharedLogFile;
+
+  private Set<Address> allBitcoinAddresses;
+
+  @Before
+  public void setUp() throws Exception {
+
+    sharedLogFile = new File(Files.createTempDir(), "matcher.log");
+
+    allBitcoinAddresses = Sets.newHashSet();
+    for (int i = 0; i < 40; i++) {
+      allBitcoinAddresses.add(new ECKey().toAddress(MainNetParams.get()));
+    }
+  }
+
+  @Test
+  public void testWritesAreVisibleToOtherNodes() throws Exception {
+
+    MatcherStore first = MatcherStores.newReplicatedLogMatcherStore(sharedLogFile);
+    MatcherStore second = MatcherStores.newReplicatedLogMatcherStore(sharedLogFile);
+
+    first.storeAllBitcoinAddresses(allBitcoinAddresses);
+    assertThat(second.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+
+    Address extra = new ECKey().toAddress(MainNetParams.get());
+    assertThat(second.appendBitcoinAddresses("redeemer-2", ImmutableSet.of(extra))).containsOnly(extra);
+    assertThat(first.getAllBitcoinAddresses()).contains(extra);
+    assertThat(first.getBitcoinAddressesByRedeemer().get("redeemer-2")).containsOnly(extra);
+
+    // A reload keeps the Redeemer groups on every node
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.<String, Set<Address>>of("redeemer-1", ImmutableSet.of(extra), "redeemer-2", allBitcoinAddresses);
+    first.storeBitcoinAddressesByRedeemer(addressesByRedeemer);
+    assertThat(second.getBitcoinAddressesByRedeemer()).isEqualTo(addressesByRedeemer);
+
+    // First writer wins for an encounter
+    WalletToEncounterDateLink firstLink = new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(1), 1_000L, PayerRequest.NOT_PRESENT_MILLIS);
+    WalletToEncounterDateLink secondLink = new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(1), 2_000L, PayerRequest.NOT_PRESENT_MILLIS);
+    first.storeWalletToEncounterDateLink(firstLink);
+    second.storeWalletToEncounterDateLink(secondLink);
+    assertThat(second.lookupWalletToEncounterDateLink(firstLink.getBritWalletId())).isEqualTo(firstLink);
+
+    // A restarted node replays the same state
+    MatcherStore restarted = MatcherStores.newReplicatedLogMatcherStore(sharedLogFile);
+    assertThat(restarted.getAllBitcoinAddresses()).isEqualTo(first.getAllBitcoinAddresses());
+    assertThat(restarted.lookupWalletToEncounterDateLink(firstLink.getBritWalletId())).isEqualTo(firstLink);
+  }
+
+  @Test
+  public void testIncompleteAndMalformedEntriesAreSkipped() throws Exception {
+
+    MatcherStores.newReplicatedLogMatcherStore(sharedLogFile).storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    // An unknown entry, a malformed entry and a writer that crashed part way through a line
+    Files.append("future-operation 1 2 3\nday 17000 not-an-address\nlink 4bbd8a749179", sharedLogFile, Charsets.UTF_8);
+
+    MatcherStore restarted = MatcherStores.newReplicatedLogMatcherStore(sharedLogFile);
+    assertThat(restarted.getAllBitcoinAddresses()).isEqualTo(allBitcoinAddresses);
+    assertThat(restarted.lookupBitcoinAddressListForEpochDay(17000)).isNull();
+
+    // The next append replaces the incomplete line rather than running on from it
+    WalletToEncounterDateLink link = new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(1), 1_000L, PayerRequest.NOT_PRESENT_MILLIS);
+    restarted.storeWalletToEncounterDateLink(link);
+    assertThat(Files.toString(sharedLogFile, Charsets.UTF_8)).doesNotContain("link 4bbd8a749179").endsWith("\n");
+
+    assertThat(MatcherStores.newReplicatedLogMatcherStore(sharedLogFile).lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+  }
+
+  @Test
+  public void testConcurrentNodesAgreeOnDailyAddresses() throws Exception {
+
+    MatcherStores.newReplicatedLogMatcherStore(sharedLogFile).storeAllBitcoinAddresses(allBitcoinAddresses);
+
+    List<Matcher> matchers = Lists.newArrayList();
+    for (int i = 0; i < NODES; i++) {
+      MatcherConfig matcherConfig = new MatcherConfig(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_SECRET_KEYRING_FILE), BritTestUtils.TEST_DATA_PASSWORD);
+      matchers.add(Matchers.newBasicMatcher(matcherConfig, MatcherStores.newReplicatedLogMatcherStore(sharedLogFile)));
+    }
+
+    // Every node selects the day's addresses at the same moment
+    ExecutorService executorService = Executors.newFixedThreadPool(NODES);
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Future<MatcherResponse>> responses = Lists.newArrayList();
+    for (int i = 0; i < NODES * 4; i++) {
+      final Matcher matcher = matchers.get(i % NODES);
+      final PayerRequest payerRequest = newPayerRequest(i % 5);
+      responses.add(executorService.submit(new Callable<MatcherResponse>() {
+        @Override
+        public MatcherResponse call() throws Exception {
+          start.await();
+          return matcher.process(payerRequest);
+        }
+      }));
+    }
+    start.countDown();
+
+    Set<Address> canonical = responses.get(0).get(10, TimeUnit.SECONDS).getBitcoinAddresses();
+    assertThat(canonical).isNotEmpty();
+    for (Future<MatcherResponse> response : responses) {
+      assertThat(response.get(10, TimeUnit.SECONDS).getBitcoinAddresses()).isEqualTo(canonical);
+    }
+    executorService.shutdown();
+
+    // One encounter record per wallet whichever node saw it
+    for (int i = 0; i < 5; i++) {
+      WalletToEncounterDateLink link = matchers.get(0).getMatcherStore().lookupWalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(i));
+      assertThat(link).isNotNull();
+      for (Matcher matcher : matchers) {
+        assertThat(matcher.getMatcherStore().lookupWalletToEncounterDateLink(link.getBritWalletId())).isEqualTo(link);
+      }
+    }
+
+    // The log holds a single daily address entry
+    int dayEntries = 0;
+    for (String line : Files.readLines(sharedLogFile, Charsets.UTF_8)) {
+      if (line.startsWith("day ")) {
+        dayEntries++;
+      }
+    }
+    assertThat(dayEntries).isEqualTo(1);
+  }
+
+  private PayerRequest newPayerRequest(int index) {
+
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionKey);
+
+    return new PayerRequest(2, syntheticBRITWalletIds.newSyntheticBRITWalletId(index), sessionKey, Optional.of(new Date()));
+  }
+}
@@ -0,0 +1,196 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class WeightedAddressSamplerTest {
+
+  private static final int TRIALS = 4_000;
+
+  private static final int ADDRESSES_PER_DAY = 50;
+
+  private WeightedAddressSampler testObject;
+
+  @Before
+  public void setUp() throws Exception {
+    // Fixed seed so the statistical checks are repeatable
+    testObject = new WeightedAddressSampler(new Random(42));
+  }
+
+  @Test
+  public void testUniverseSmallerThanCount() throws Exception {
+
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of(
+      "redeemer-1", newAddresses(0, 20),
+      "redeemer-2", newAddresses(1_000, 10)
+    );
+
+    Set<Address> selected = testObject.sample(addressesByRedeemer, ImmutableMap.<String, Double>of(), ADDRESSES_PER_DAY);
+
+    assertThat(selected).hasSize(30);
+  }
+
+  @Test
+  public void testUniverseOnlyJustLargerThanCount() throws Exception {
+
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of(
+      "redeemer-1", newAddresses(0, 51)
+    );
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(testObject.sample(addressesByRedeemer, ImmutableMap.<String, Double>of(), ADDRESSES_PER_DAY)).hasSize(ADDRESSES_PER_DAY);
+    }
+  }
+
+  @Test
+  public void testExhaustedRedeemerFallsThroughToOthers() throws Exception {
+
+    // Redeemer 1 carries most of the weight but cannot supply the whole daily set
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of(
+      "redeemer-1", newAddresses(0, 10),
+      "redeemer-2", newAddresses(1_000, 100)
+    );
+
+    Set<Address> selected = testObject.sample(addressesByRedeemer, ImmutableMap.of("redeemer-1", 100.0, "redeemer-2", 1.0), ADDRESSES_PER_DAY);
+
+    assertThat(selected).hasSize(ADDRESSES_PER_DAY);
+    assertThat(selected.containsAll(addressesByRedeemer.get("redeemer-1"))).isTrue();
+  }
+
+  @Test
+  public void testUnweightedRedeemerIsNeverPicked() throws Exception {
+
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of(
+      "redeemer-1", newAddresses(0, 100),
+      "redeemer-2", newAddresses(1_000, 100)
+    );
+
+    for (int i = 0; i < 100; i++) {
+      Set<Address> selected = testObject.sample(addressesByRedeemer, ImmutableMap.of("redeemer-1", 1.0), ADDRESSES_PER_DAY);
+      assertThat(addressesByRedeemer.get("redeemer-1").containsAll(selected)).isTrue();
+    }
+  }
+
+  @Test
+  public void testWeightsMatchingNoRedeemerFallBackToSize() throws Exception {
+
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of(
+      "redeemer-1", newAddresses(0, 100),
+      "redeemer-2", newAddresses(1_000, 100)
+    );
+
+    // A typo in the configuration must not leave the Payers without addresses
+    Set<Address> selected = testObject.sample(addressesByRedeemer, ImmutableMap.of("redeemer-x", 1.0), ADDRESSES_PER_DAY);
+
+    assertThat(selected).hasSize(ADDRESSES_PER_DAY);
+  }
+
+  @Test
+  public void testWeightedDistribution() throws Exception {
+
+    // Large pools so that sampling without replacement has little effect on the split
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of(
+      "redeemer-1", newAddresses(0, 2_000),
+      "redeemer-2", newAddresses(10_000, 2_000),
+      "redeemer-3", newAddresses(20_000, 2_000)
+    );
+    Map<String, Double> weights = ImmutableMap.of("redeemer-1", 5.0, "redeemer-2", 3.0, "redeemer-3", 2.0);
+
+    Map<String, Integer> observed = Maps.newHashMap();
+    for (int i = 0; i < TRIALS; i++) {
+      Set<Address> selected = testObject.sample(addressesByRedeemer, weights, ADDRESSES_PER_DAY);
+      assertThat(selected).hasSize(ADDRESSES_PER_DAY);
+      for (Map.Entry<String, Set<Address>> entry : addressesByRedeemer.entrySet()) {
+        int count = 0;
+        for (Address address : selected) {
+          if (entry.getValue().contains(address)) {
+            count++;
+          }
+        }
+        observed.put(entry.getKey(), (observed.containsKey(entry.getKey()) ? observed.get(entry.getKey()) : 0) + count);
+      }
+    }
+
+    // Chi-squared goodness of fit with 2 degrees of freedom (critical value 13.82 at p = 0.001)
+    double total = TRIALS * ADDRESSES_PER_DAY;
+    double chiSquared = 0;
+    for (Map.Entry<String, Double> entry : weights.entrySet()) {
+      double expected = total * entry.getValue() / 10.0;
+      double difference = observed.get(entry.getKey()) - expected;
+      chiSquared += difference * difference / expected;
+    }
+    assertThat(chiSquared).isLessThan(13.82);
+  }
+
+  @Test
+  public void testUniformWithinUniverse() throws Exception {
+
+    // With no weights every address should be equally likely regardless of its Redeemer
+    Set<Address> small = newAddresses(0, 40);
+    Set<Address> large = newAddresses(1_000, 160);
+    Map<String, Set<Address>> addressesByRedeemer = ImmutableMap.of("redeemer-1", small, "redeemer-2", large);
+
+    Map<Address, Integer> observed = Maps.newHashMap();
+    for (int i = 0; i < TRIALS; i++) {
+      for (Address address : testObject.sample(addressesByRedeemer, ImmutableMap.<String, Double>of(), ADDRESSES_PER_DAY)) {
+        observed.put(address, (observed.containsKey(address) ? observed.get(address) : 0) + 1);
+      }
+    }
+
+    // Chi-squared goodness of fit with 199 degrees of freedom (critical value 267.0 at p = 0.001)
+    double expected = (double) TRIALS * ADDRESSES_PER_DAY / 200;
+    double chiSquared = 0;
+    for (Set<Address> group : addressesByRedeemer.values()) {
+      for (Address address : group) {
+        double difference = (observed.containsKey(address) ? observed.get(address) : 0) - expected;
+        chiSquared += difference * difference / expected;
+      }
+    }
+    assertThat(chiSquared).isLessThan(267.0);
+  }
+
+  /**
+   * @param first The first synthetic address number
+   * @param count The number of addresses
+   *
+   * @return Distinct synthetic addresses (not backed by keys)
+   */
+  private static Set<Address> newAddresses(int first, int count) {
+
+    ImmutableSet.Builder<Address> builder = ImmutableSet.builder();
+    for (int i = first; i < first + count; i++) {
+      byte[] hash160 = new byte[20];
+      ByteBuffer.wrap(hash160).putInt(16, i);
+      builder.add(new Address(MainNetParams.get(), hash160));
+    }
+    return builder.build();
+  }
+}
@@ -0,0 +1,227 @@
+package org.multibit.hd.brit.core.matcher;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.bitcoinj.core.Address;
+import org.junit.Test;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class WriteBehindMatcherStoreTest {
+
+  private static final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
+  @Test
+  public void testEncountersAreVisibleBeforeTheyAreWritten() throws Exception {
+
+    BlockedMatcherStore persistentStore = new BlockedMatcherStore();
+    WriteBehindMatcherStore testObject = new WriteBehindMatcherStore(persistentStore, 100);
+
+    for (int i = 0; i < 10; i++) {
+      testObject.storeWalletToEncounterDateLink(newLink(i));
+    }
+
+    // Acknowledged and visible while the disk is stalled
+    for (int i = 0; i < 10; i++) {
+      assertThat(testObject.lookupWalletToEncounterDateLink(newLink(i).getBritWalletId())).isEqualTo(newLink(i));
+      assertThat(persistentStore.lookupWalletToEncounterDateLink(newLink(i).getBritWalletId())).isNull();
+    }
+    assertThat(testObject.getQueueDepth()).isGreaterThanOrEqualTo(9);
+    assertThat(testObject.getBackpressureCount()).isEqualTo(0);
+
+    // Draining writes everything to the persistent store
+    persistentStore.gate.countDown();
+    assertThat(testObject.drain(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(testObject.getQueueDepth()).isEqualTo(0);
+    assertThat(testObject.getWrittenCount()).isEqualTo(10);
+    for (int i = 0; i < 10; i++) {
+      assertThat(persistentStore.lookupWalletToEncounterDateLink(newLink(i).getBritWalletId())).isEqualTo(newLink(i));
+    }
+
+    // Later encounters go straight through
+    testObject.storeWalletToEncounterDateLink(newLink(10));
+    assertThat(persistentStore.lookupWalletToEncounterDateLink(newLink(10).getBritWalletId())).isEqualTo(newLink(10));
+  }
+
+  @Test
+  public void testFullQueueHoldsCallersBack() throws Exception {
+
+    final BlockedMatcherStore persistentStore = new BlockedMatcherStore();
+    final WriteBehindMatcherStore testObject = new WriteBehindMatcherStore(persistentStore, 2);
+
+    // One in the writer and two queued
+    for (int i = 0; i < 3; i++) {
+      testObject.storeWalletToEncounterDateLink(newLink(i));
+    }
+    while (testObject.getQueueDepth() > 2) {
+      Thread.sleep(10);
+    }
+
+    Thread caller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 3; i < 6; i++) {
+          testObject.storeWalletToEncounterDateLink(newLink(i));
+        }
+      }
+    });
+    caller.start();
+
+    // The caller is held back until the writer catches up
+    caller.join(300);
+    assertThat(caller.isAlive()).isTrue();
+    assertThat(testObject.getBackpressureCount()).isGreaterThan(0);
+
+    persistentStore.gate.countDown();
+    caller.join(5_000);
+    assertThat(caller.isAlive()).isFalse();
+
+    assertThat(testObject.drain(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(testObject.getWrittenCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void testCloseNeverClosesUnderneathTheWriter() throws Exception {
+
+    // A disk write that ignores interrupts
+    SlowMatcherStore persistentStore = new SlowMatcherStore(false);
+    WriteBehindMatcherStore testObject = new WriteBehindMatcherStore(persistentStore, 100);
+    for (int i = 0; i < 5; i++) {
+      testObject.storeWalletToEncounterDateLink(newLink(i));
+    }
+    assertThat(persistentStore.writing.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(testObject.close(100, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(persistentStore.closeCount.get()).isEqualTo(0);
+
+    // The writer stops after the write in progress and leaves the rest unwritten
+    persistentStore.gate.countDown();
+    Thread.sleep(500);
+    assertThat(testObject.getWrittenCount()).isEqualTo(1);
+    assertThat(persistentStore.writesAfterClose.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCloseStopsASlowWriterBeforeClosing() throws Exception {
+
+    // A disk write that gives up when interrupted
+    SlowMatcherStore persistentStore = new SlowMatcherStore(true);
+    WriteBehindMatcherStore testObject = new WriteBehindMatcherStore(persistentStore, 100);
+    for (int i = 0; i < 5; i++) {
+      testObject.storeWalletToEncounterDateLink(newLink(i));
+    }
+    assertThat(persistentStore.writing.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(testObject.close(100, TimeUnit.MILLISECONDS)).isFalse();
+    assertThat(persistentStore.closeCount.get()).isEqualTo(1);
+
+    persistentStore.gate.countDown();
+    Thread.sleep(300);
+    assertThat(persistentStore.writesAfterClose.get()).isEqualTo(0);
+  }
+
+  private static WalletToEncounterDateLink newLink(int index) {
+    return new WalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(index), 1_000L, PayerRequest.NOT_PRESENT_MILLIS);
+  }
+
+  /**
+   * An in-memory store that records encounter writes arriving after close
+   */
+  private static class SlowMatcherStore extends InMemoryMatcherStore {
+
+    private final boolean interruptible;
+
+    private final CountDownLatch writing = new CountDownLatch(1);
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private final AtomicInteger closeCount = new AtomicInteger();
+
+    private final AtomicInteger writesAfterClose = new AtomicInteger();
+
+    /**
+     * @param interruptible True if a write in progress gives up when the writer is interrupted
+     */
+    private SlowMatcherStore(boolean interruptible) {
+      super(new HashMap<String, Set<Address>>());
+      this.interruptible = interruptible;
+    }
+
+    @Override
+    public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+
+      writing.countDown();
+      boolean interrupted = false;
+      while (true) {
+        try {
+          gate.await();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+          if (interruptible) {
+            break;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+
+      if (closeCount.get() > 0) {
+        writesAfterClose.incrementAndGet();
+      }
+      super.storeWalletToEncounterDateLink(walletToEncounterDateLink);
+    }
+
+    @Override
+    public void close() {
+      closeCount.incrementAndGet();
+      super.close();
+    }
+  }
+
+  /**
+   * An in-memory store whose encounter writes wait for the gate to open
+   */
+  private static class BlockedMatcherStore extends InMemoryMatcherStore {
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    private BlockedMatcherStore() {
+      super(new HashMap<String, Set<Address>>());
+    }
+
+    @Override
+    public void storeWalletToEncounterDateLink(WalletToEncounterDateLink walletToEncounterDateLink) {
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.storeWalletToEncounterDateLink(walletToEncounterDateLink);
+    }
+  }
+}
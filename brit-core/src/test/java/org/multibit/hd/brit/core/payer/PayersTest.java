@@ -16,6 +16,7 @@ package org.multibit.hd.brit.core.payer;
  * limitations under the License.
  */
 
+import com.google.common.base.Charsets;
 import org.junit.Before;
 import org.junit.Test;
 import org.multibit.commons.crypto.PGPUtils;
@@ -24,8 +25,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.openpgp.PGPPublicKey;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.Arrays;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
@@ -54,4 +58,31 @@ public class PayersTest {
     // Check the Matcher PGP public key is stored properly
     assertThat(payer.getConfig().getMatcherPublicKey()).isEqualTo(matcherPGPPublicKey);
   }
+
+  @Test
+  public void testEncryptInMemory() throws Exception {
+
+    File matcherPublicKeyFile = BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_PUBLIC_KEY_FILE);
+    PGPPublicKey matcherPGPPublicKey = PGPUtils.readPublicKey(new FileInputStream(matcherPublicKeyFile));
+
+    // The encryptor is shared across Payers for the same key
+    PayerRequestEncryptor encryptor = PayerRequestEncryptor.forKey(matcherPGPPublicKey);
+    assertThat(PayerRequestEncryptor.forKey(matcherPGPPublicKey)).isSameAs(encryptor);
+
+    byte[] plainBytes = "1\n4bbd8a749179d65a5f1b0859684f53ba5b761714\n".getBytes(Charsets.UTF_8);
+    byte[] encryptedBytes = encryptor.encrypt(plainBytes);
+
+    // Each encryption uses a fresh session key
+    assertThat(Arrays.equals(encryptedBytes, encryptor.encrypt(plainBytes))).isFalse();
+
+    // The Matcher can decrypt it
+    ByteArrayOutputStream decryptedBytes = new ByteArrayOutputStream();
+    PGPUtils.decryptFile(
+      new ByteArrayInputStream(encryptedBytes),
+      decryptedBytes,
+      new FileInputStream(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_SECRET_KEYRING_FILE)),
+      BritTestUtils.TEST_DATA_PASSWORD
+    );
+    assertThat(decryptedBytes.toByteArray()).isEqualTo(plainBytes);
+  }
 }
@@ -0,0 +1,105 @@
+package org.multibit.hd.brit.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.bitcoinj.core.Wallet;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.core.extensions.BRITWalletIdWalletExtension;
+import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class BRITWalletIdCacheTest {
+
+  private static final Logger log = LoggerFactory.getLogger(BRITWalletIdCacheTest.class);
+
+  private static final int REPEATED_EXCHANGES = 20;
+
+  /**
+   * The BRITWalletId of BRITWalletIdTest.SEED_PHRASE_1
+   */
+  private static final String WALLET_ID_1 = "4bbd8a749179d65a5f1b0859684f53ba5b761714";
+
+  private byte[] seed1;
+
+  private byte[] seed2;
+
+  @Before
+  public void setUp() throws Exception {
+
+    Bip39SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    seed1 = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(BRITWalletIdTest.SEED_PHRASE_1));
+    seed2 = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(BRITWalletIdTest.SEED_PHRASE_2));
+
+    BRITWalletIdCache.INSTANCE.clear();
+  }
+
+  @Test
+  public void testRepeatedExchangesOnlyDeriveOnce() throws Exception {
+
+    Wallet wallet = new Wallet(MainNetParams.get());
+
+    long start = System.nanoTime();
+    BRITWalletId first = BRITWalletIdCache.INSTANCE.getBRITWalletId(seed1, wallet);
+    long derivationNanos = System.nanoTime() - start;
+
+    assertThat(first).isEqualTo(new BRITWalletId(WALLET_ID_1));
+    assertThat(wallet.getExtensions().get(BRITWalletIdWalletExtension.BRIT_WALLET_ID_WALLET_EXTENSION_ID)).isNotNull();
+
+    start = System.nanoTime();
+    for (int i = 0; i < REPEATED_EXCHANGES; i++) {
+      assertThat(BRITWalletIdCache.INSTANCE.getBRITWalletId(seed1, wallet)).isEqualTo(first);
+    }
+    long cachedNanos = (System.nanoTime() - start) / REPEATED_EXCHANGES;
+
+    // A restart empties the cache but the wallet extension avoids scrypt
+    BRITWalletIdCache.INSTANCE.clear();
+    start = System.nanoTime();
+    assertThat(BRITWalletIdCache.INSTANCE.getBRITWalletId(seed1, wallet)).isEqualTo(first);
+    long persistedNanos = System.nanoTime() - start;
+
+    log.info("BRITWalletId derivation {} us, cached {} us, from wallet extension {} us", derivationNanos / 1000, cachedNanos / 1000, persistedNanos / 1000);
+
+    assertThat(cachedNanos * 10).isLessThan(derivationNanos);
+    assertThat(persistedNanos * 10).isLessThan(derivationNanos);
+  }
+
+  @Test
+  public void testWalletExtensionRoundTrip() throws Exception {
+
+    BRITWalletId britWalletId = new BRITWalletId(WALLET_ID_1);
+
+    BRITWalletIdWalletExtension reloaded = new BRITWalletIdWalletExtension();
+    reloaded.deserializeWalletExtension(null, BRITWalletIdWalletExtension.encrypt(britWalletId, seed1).serializeWalletExtension());
+
+    assertThat(reloaded.decrypt(seed1).get()).isEqualTo(britWalletId);
+
+    // Another seed cannot read it
+    assertThat(reloaded.decrypt(seed2).isPresent()).isFalse();
+
+    // Nor can a corrupt extension
+    BRITWalletIdWalletExtension corrupt = new BRITWalletIdWalletExtension();
+    corrupt.deserializeWalletExtension(null, "not hex".getBytes());
+    assertThat(corrupt.decrypt(seed1).isPresent()).isFalse();
+  }
+}
@@ -0,0 +1,109 @@
+package org.multibit.hd.brit.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.BritTestUtils;
+import org.multibit.hd.brit.core.dto.FeeTrackerDto;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+
+import java.io.FileInputStream;
+import java.net.URL;
+import java.util.Date;
+import java.util.Random;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class FeeAddressIndexTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  @Test
+  public void testContains() throws Exception {
+
+    Random random = new Random(42);
+    Set<Address> feeAddresses = randomAddresses(random, 500);
+    Set<Address> otherAddresses = randomAddresses(random, 5000);
+
+    FeeAddressIndex feeAddressIndex = new FeeAddressIndex(feeAddresses);
+    assertThat(feeAddressIndex.size()).isEqualTo(500);
+    assertThat(feeAddressIndex.getDigest()).isEqualTo(FeeTrackerDto.hashFeeAddresses(feeAddresses));
+
+    for (Address feeAddress : feeAddresses) {
+      assertThat(feeAddressIndex.contains(feeAddress)).isTrue();
+
+      // Look up directly within a P2PKH style script
+      byte[] script = new byte[25];
+      System.arraycopy(feeAddress.getHash160(), 0, script, 3, FeeAddressIndex.HASH160_LENGTH);
+      assertThat(feeAddressIndex.contains(script, 3)).isTrue();
+      assertThat(feeAddressIndex.contains(script, 2)).isFalse();
+      assertThat(feeAddressIndex.contains(script, 6)).isFalse();
+    }
+
+    for (Address otherAddress : otherAddresses) {
+      assertThat(feeAddressIndex.contains(otherAddress)).isEqualTo(feeAddresses.contains(otherAddress));
+    }
+
+    assertThat(feeAddressIndex.contains(null)).isFalse();
+    assertThat(new FeeAddressIndex(Sets.<Address>newHashSet()).contains(otherAddresses.iterator().next())).isFalse();
+  }
+
+  @Test
+  public void testFeeAddressIndexIsReused() throws Exception {
+
+    FeeService feeService = new FeeService(
+      PGPUtils.readPublicKey(new FileInputStream(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_PUBLIC_KEYRING_FILE))),
+      new URL("http://example.org")
+    );
+
+    // Without Matcher addresses only the hardwired addresses are used
+    FeeAddressIndex hardwiredIndex = feeService.getFeeAddressIndex(null);
+    assertThat(hardwiredIndex.getAddresses()).isEqualTo(feeService.getHardwiredFeeAddresses());
+    assertThat(feeService.getFeeAddressIndex(null)).isSameAs(hardwiredIndex);
+
+    Set<Address> matcherAddresses = randomAddresses(new Random(1), 50);
+    FeeAddressIndex matcherIndex = feeService.getFeeAddressIndex(new MatcherResponse(2, Optional.<Date>absent(), matcherAddresses));
+    assertThat(matcherIndex.size()).isEqualTo(56);
+
+    // An equal MatcherResponse (e.g. reloaded from the wallet) reuses the index
+    assertThat(feeService.getFeeAddressIndex(new MatcherResponse(2, Optional.<Date>absent(), Sets.newHashSet(matcherAddresses)))).isSameAs(matcherIndex);
+
+    // A changed MatcherResponse rebuilds it
+    Set<Address> changedAddresses = randomAddresses(new Random(2), 50);
+    FeeAddressIndex changedIndex = feeService.getFeeAddressIndex(new MatcherResponse(2, Optional.<Date>absent(), changedAddresses));
+    assertThat(changedIndex).isNotSameAs(matcherIndex);
+    assertThat(changedIndex.getDigest()).isNotEqualTo(matcherIndex.getDigest());
+  }
+
+  private static Set<Address> randomAddresses(Random random, int count) {
+
+    Set<Address> addresses = Sets.newHashSet();
+    while (addresses.size() < count) {
+      byte[] hash160 = new byte[FeeAddressIndex.HASH160_LENGTH];
+      random.nextBytes(hash160);
+      addresses.add(new Address(NETWORK_PARAMETERS, hash160));
+    }
+    return addresses;
+  }
+}
@@ -0,0 +1,187 @@
+package org.multibit.hd.brit.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.*;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Ignore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <p>Benchmark comparing fee output matching by full script parsing against raw script template matching</p>
+ * <p>Uses a synthetic wallet of 50k sends (mostly P2PKH, some P2SH and pay to raw public key) with one in
+ * twenty paying a fee. Run the main method with a warmed up JVM (e.g. -server -Xmx512m). Reports ns/scan and
+ * bytes allocated/scan.</p>
+ */
+@Ignore
+public class FeeOutputMatcherLoadTest {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeOutputMatcherLoadTest.class);
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private static final int NUMBER_OF_TRANSACTIONS = 50_000;
+
+  private static final int WARM_UP_SCANS = 20;
+
+  private static final int MEASURED_SCANS = 50;
+
+  /**
+   * Prevents the JIT from discarding the benchmarked work
+   */
+  private static long sink;
+
+  /**
+   * Entry point to the load tester
+   *
+   * @param args The command line arguments
+   *
+   * @throws Exception If something goes wrong
+   */
+  public static void main(String[] args) throws Exception {
+
+    new FeeOutputMatcherLoadTest().start();
+
+  }
+
+  private void start() throws Exception {
+
+    Random random = new Random(42);
+
+    // A typical daily Matcher address set
+    Set<Address> feeAddresses = Sets.newHashSet();
+    for (int i = 0; i < 56; i++) {
+      feeAddresses.add(new ECKey().toAddress(NETWORK_PARAMETERS));
+    }
+    final List<Address> feeAddressList = Lists.newArrayList(feeAddresses);
+    final Set<Address> feeAddressSet = feeAddresses;
+    final FeeAddressIndex feeAddressIndex = new FeeAddressIndex(feeAddresses);
+    final FeeOutputMatcher feeOutputMatcher = new FeeOutputMatcher(feeAddressIndex, NETWORK_PARAMETERS);
+
+    final List<Transaction> transactions = newTransactions(random, feeAddressList);
+
+    measure("Full script parsing", new Runnable() {
+      @Override
+      public void run() {
+        for (Transaction transaction : transactions) {
+          for (TransactionOutput transactionOutput : transaction.getOutputs()) {
+            try {
+              Script script = transactionOutput.getScriptPubKey();
+              if (script.isSentToAddress() || script.isPayToScriptHash() || script.isSentToRawPubKey()) {
+                if (feeAddressSet.contains(script.getToAddress(NETWORK_PARAMETERS, true))) {
+                  sink += transactionOutput.getValue().getValue();
+                }
+              }
+            } catch (ScriptException e) {
+              sink--;
+            }
+          }
+        }
+      }
+    });
+
+    measure("Raw script template matching", new Runnable() {
+      @Override
+      public void run() {
+        for (Transaction transaction : transactions) {
+          for (TransactionOutput transactionOutput : transaction.getOutputs()) {
+            if (feeOutputMatcher.matchFeeAddress(transactionOutput) != null) {
+              sink += transactionOutput.getValue().getValue();
+            }
+          }
+        }
+      }
+    });
+
+    log.info("Sink {}", sink);
+  }
+
+  /**
+   * @return Sends as they would be after a wallet load (scripts not yet parsed)
+   */
+  private List<Transaction> newTransactions(Random random, List<Address> feeAddressList) {
+
+    ECKey rawPubKey = new ECKey();
+    List<Transaction> transactions = Lists.newArrayListWithCapacity(NUMBER_OF_TRANSACTIONS);
+    for (int i = 0; i < NUMBER_OF_TRANSACTIONS; i++) {
+
+      Transaction transaction = new Transaction(NETWORK_PARAMETERS);
+
+      // The payment
+      byte[] hash160 = new byte[FeeAddressIndex.HASH160_LENGTH];
+      random.nextBytes(hash160);
+      if (i % 10 == 0) {
+        transaction.addOutput(Coin.valueOf(10_000), Address.fromP2SHHash(NETWORK_PARAMETERS, hash160));
+      } else if (i % 101 == 0) {
+        transaction.addOutput(Coin.valueOf(10_000), ScriptBuilder.createOutputScript(rawPubKey));
+      } else {
+        transaction.addOutput(Coin.valueOf(10_000), new Address(NETWORK_PARAMETERS, hash160));
+      }
+
+      // The change
+      random.nextBytes(hash160);
+      transaction.addOutput(Coin.valueOf(50_000), new Address(NETWORK_PARAMETERS, hash160));
+
+      // The fee
+      if (i % 20 == 0) {
+        transaction.addOutput(FeeService.FEE_PER_SEND.multiply(20), feeAddressList.get(random.nextInt(feeAddressList.size())));
+      }
+
+      // Round trip so that each output only holds its script bytes
+      transactions.add(new Transaction(NETWORK_PARAMETERS, transaction.bitcoinSerialize()));
+    }
+    return transactions;
+  }
+
+  private void measure(String name, Runnable scan) {
+
+    for (int i = 0; i < WARM_UP_SCANS; i++) {
+      scan.run();
+    }
+
+    long startBytes = allocatedBytes();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < MEASURED_SCANS; i++) {
+      scan.run();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long allocated = allocatedBytes() - startBytes;
+
+    log.info("{}: {} us/scan, {} bytes/scan over {} transactions", name, elapsedNanos / MEASURED_SCANS / 1000, allocated / MEASURED_SCANS, NUMBER_OF_TRANSACTIONS);
+  }
+
+  /**
+   * @return The bytes allocated by this thread so far (-1 if the JVM cannot report it)
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+}
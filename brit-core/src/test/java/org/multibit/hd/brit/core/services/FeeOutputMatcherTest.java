@@ -0,0 +1,85 @@
+package org.multibit.hd.brit.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.*;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class FeeOutputMatcherTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private ECKey feeKey;
+
+  private Address feeAddress;
+
+  private Address feeP2SHAddress;
+
+  private Address otherAddress;
+
+  private FeeOutputMatcher feeOutputMatcher;
+
+  @Before
+  public void setUp() throws Exception {
+
+    feeKey = new ECKey();
+    feeAddress = feeKey.toAddress(NETWORK_PARAMETERS);
+    feeP2SHAddress = Address.fromP2SHScript(NETWORK_PARAMETERS, ScriptBuilder.createP2SHOutputScript(1, Arrays.asList(new ECKey(), new ECKey())));
+    otherAddress = new ECKey().toAddress(NETWORK_PARAMETERS);
+
+    feeOutputMatcher = new FeeOutputMatcher(new FeeAddressIndex(Sets.newHashSet(feeAddress, feeP2SHAddress)), NETWORK_PARAMETERS);
+  }
+
+  @Test
+  public void testPayToPubKeyHash() throws Exception {
+
+    assertThat(feeOutputMatcher.matchFeeAddress(newOutput(ScriptBuilder.createOutputScript(feeAddress)))).isEqualTo(feeAddress);
+    assertThat(feeOutputMatcher.matchFeeAddress(newOutput(ScriptBuilder.createOutputScript(otherAddress)))).isNull();
+  }
+
+  @Test
+  public void testPayToScriptHash() throws Exception {
+
+    Address matched = feeOutputMatcher.matchFeeAddress(newOutput(ScriptBuilder.createOutputScript(feeP2SHAddress)));
+    assertThat(matched).isEqualTo(feeP2SHAddress);
+    assertThat(matched.isP2SHAddress()).isTrue();
+  }
+
+  @Test
+  public void testFallBackToFullParsing() throws Exception {
+
+    // Pay to raw public key needs the hash160 computing
+    assertThat(feeOutputMatcher.matchFeeAddress(newOutput(ScriptBuilder.createOutputScript(feeKey)))).isEqualTo(feeAddress);
+
+    // No address at all
+    assertThat(feeOutputMatcher.matchFeeAddress(newOutput(ScriptBuilder.createOpReturnScript(new byte[]{1, 2, 3})))).isNull();
+  }
+
+  private TransactionOutput newOutput(Script script) {
+    Transaction transaction = new Transaction(NETWORK_PARAMETERS);
+    return transaction.addOutput(Coin.valueOf(1000), script);
+  }
+}
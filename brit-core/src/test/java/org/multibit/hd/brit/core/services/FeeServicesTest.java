@@ -16,8 +16,10 @@ package org.multibit.hd.brit.core.services;
  * limitations under the License.
  */
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.bitcoinj.core.*;
 import org.bitcoinj.params.MainNetParams;
@@ -32,8 +34,18 @@ import org.junit.Test;
 import org.multibit.commons.crypto.PGPUtils;
 import org.multibit.hd.brit.core.BritTestUtils;
 import org.multibit.hd.brit.core.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.core.dto.FeeAuditResult;
 import org.multibit.hd.brit.core.dto.FeeState;
+import org.multibit.hd.brit.core.dto.FeeTrackerDto;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.WalletFeeAudit;
+import org.multibit.hd.brit.core.extensions.FeeTrackerWalletExtension;
 import org.multibit.hd.brit.core.extensions.MatcherResponseWalletExtension;
+import org.multibit.hd.brit.core.matcher.Matcher;
+import org.multibit.hd.brit.core.matcher.MatcherConfig;
+import org.multibit.hd.brit.core.matcher.MatcherStore;
+import org.multibit.hd.brit.core.matcher.MatcherStores;
+import org.multibit.hd.brit.core.matcher.Matchers;
 import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
 import org.slf4j.Logger;
@@ -46,9 +58,15 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URL;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.bitcoinj.core.Coin.parseCoin;
 import static org.fest.assertions.api.Assertions.assertThat;
@@ -114,6 +132,69 @@ public class FeeServicesTest {
     nonFeeDestinationAddress = new Address(NETWORK_PARAMETERS, "1CQH7Hp9nNQVDcKtFVwbA8tqPMNWDBvqE3"); // Any old address that is not a fee address
   }
 
+  @Test
+  public void testPerformExchangeWithInProcessMatcher() throws Exception {
+
+    // A Matcher with its own fee addresses
+    Set<Address> matcherAddresses = Sets.newHashSet();
+    for (int i = 0; i < 10; i++) {
+      matcherAddresses.add(new ECKey().toAddress(NETWORK_PARAMETERS));
+    }
+
+    FeeService feeService = new FeeService(encryptionKey, newInProcessMatcherTransport(matcherAddresses));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+
+    // The addresses came from the Matcher rather than the hardwired fallback
+    MatcherResponse matcherResponse = FeeService.getMatcherResponseFromWallet(wallet1);
+    assertThat(matcherResponse).isNotNull();
+    assertThat(matcherResponse.getBitcoinAddresses()).isNotEmpty();
+    assertThat(matcherAddresses.containsAll(matcherResponse.getBitcoinAddresses())).isTrue();
+  }
+
+  @Test
+  public void testPerformExchangeWithMatcherAsyncSharesInFlightExchange() throws Exception {
+
+    Set<Address> matcherAddresses = Sets.newHashSet();
+    for (int i = 0; i < 10; i++) {
+      matcherAddresses.add(new ECKey().toAddress(NETWORK_PARAMETERS));
+    }
+    final MatcherTransport inProcessMatcherTransport = newInProcessMatcherTransport(matcherAddresses);
+
+    // Hold the exchange open until both requests have been made
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger exchangeCount = new AtomicInteger();
+    MatcherTransport slowMatcherTransport = new MatcherTransport() {
+      @Override
+      public byte[] exchange(byte[] encryptedPayerRequest) throws IOException {
+        exchangeCount.incrementAndGet();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return inProcessMatcherTransport.exchange(encryptedPayerRequest);
+      }
+    };
+
+    FeeService feeService = new FeeService(encryptionKey, slowMatcherTransport);
+
+    ListenableFuture<MatcherResponse> first = feeService.performExchangeWithMatcherAsync(seed, wallet1);
+    ListenableFuture<MatcherResponse> second = feeService.performExchangeWithMatcherAsync(seed, wallet1);
+    assertThat(second).isSameAs(first);
+
+    release.countDown();
+    MatcherResponse matcherResponse = first.get(10, TimeUnit.SECONDS);
+    assertThat(matcherAddresses.containsAll(matcherResponse.getBitcoinAddresses())).isTrue();
+    assertThat(exchangeCount.get()).isEqualTo(1);
+    assertThat(FeeService.getMatcherResponseFromWallet(wallet1)).isEqualTo(matcherResponse);
+
+    // Once complete a new request starts a new exchange
+    ListenableFuture<MatcherResponse> third = feeService.performExchangeWithMatcherAsync(seed, wallet1);
+    assertThat(third).isNotSameAs(first);
+    third.get(10, TimeUnit.SECONDS);
+    assertThat(exchangeCount.get()).isEqualTo(2);
+  }
+
   @Test
   public void testCalculateFeeStateWithDummyURL() throws Exception {
 
@@ -158,6 +239,178 @@ public class FeeServicesTest {
     checkFeeState(feeState, true, NUMBER_OF_NON_FEE_SENDS + 1, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
   }
 
+  @Test
+  public void testIncrementalFeeStateMatchesFullRescan() throws Exception {
+
+    FeeService feeService = new FeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+    Set<Address> possibleNextFeeAddresses = feeService.getHardwiredFeeAddresses();
+
+    receiveATransaction(wallet1, toAddress1);
+
+    final int NUMBER_OF_NON_FEE_SENDS = 5;
+    FeeState feeState = null;
+    for (int i = 0; i < NUMBER_OF_NON_FEE_SENDS; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+
+      // Each calculation only examines the new send
+      feeState = feeService.calculateFeeState(wallet1, false);
+      assertThat(FeeService.getFeeTrackerFromWallet(wallet1)).isNotNull();
+    }
+    sendBitcoin(feeState.getFeeOwed().add(FeeService.FEE_PER_SEND), feeState.getNextFeeAddress(), null);
+
+    FeeState incrementalFeeState = feeService.calculateFeeState(wallet1, false);
+    FeeTrackerDto incrementalTracker = FeeService.getFeeTrackerFromWallet(wallet1);
+    assertThat(incrementalTracker.getTransactionCount()).isEqualTo(wallet1.getTransactions(false).size());
+
+    // The tracker survives a wallet save and load
+    FeeTrackerWalletExtension reloaded = new FeeTrackerWalletExtension();
+    reloaded.deserializeWalletExtension(wallet1, new FeeTrackerWalletExtension(incrementalTracker).serializeWalletExtension());
+    assertThat(reloaded.getFeeTrackerDto()).isEqualTo(incrementalTracker);
+
+    // Remove the tracker to force a full rescan
+    wallet1.addOrUpdateExtension(new FeeTrackerWalletExtension());
+    FeeState fullFeeState = feeService.calculateFeeState(wallet1, false);
+
+    assertThat(FeeService.getFeeTrackerFromWallet(wallet1)).isEqualTo(incrementalTracker);
+    assertThat(fullFeeState.getCurrentNumberOfSends()).isEqualTo(incrementalFeeState.getCurrentNumberOfSends());
+    assertThat(fullFeeState.getFeeOwed()).isEqualTo(incrementalFeeState.getFeeOwed());
+    checkFeeState(fullFeeState, true, NUMBER_OF_NON_FEE_SENDS + 1, Coin.ZERO, FeeService.FEE_PER_SEND, possibleNextFeeAddresses);
+
+    // A tracker that no longer agrees with the wallet is discarded
+    wallet1.addOrUpdateExtension(new FeeTrackerWalletExtension(new FeeTrackerDto(
+      FeeTrackerDto.CURRENT_VERSION,
+      incrementalTracker.getTransactionCount() + 1,
+      incrementalTracker.getLastUpdateTimeMillis(),
+      incrementalTracker.getBoundaryTransactionHashes(),
+      incrementalTracker.getTransactionFingerprint(),
+      incrementalTracker.getLastBlockSeenHeight(),
+      incrementalTracker.getFeeAddressUniverseHash(),
+      incrementalTracker.getSentBySelfProviderId(),
+      0,
+      Coin.ZERO,
+      Optional.<Integer>absent(),
+      Optional.<Address>absent()
+    )));
+    feeService.calculateFeeState(wallet1, false);
+    assertThat(FeeService.getFeeTrackerFromWallet(wallet1)).isEqualTo(incrementalTracker);
+  }
+
+  @Test
+  public void testIncrementalFeeStateMatchesFullRescanAfterConfirmation() throws Exception {
+
+    FeeService feeService = new FeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+
+    receiveATransaction(wallet1, toAddress1);
+    for (int i = 0; i < 3; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    }
+    FeeState feeState = feeService.calculateFeeState(wallet1, false);
+    sendBitcoin(feeState.getFeeOwed().add(FeeService.FEE_PER_SEND), feeState.getNextFeeAddress(), null);
+    for (int i = 0; i < 2; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    }
+    feeService.calculateFeeState(wallet1, false);
+    assertThat(FeeService.getFeeTrackerFromWallet(wallet1).getLastFeePayingSendCount().get()).isEqualTo(3);
+
+    // Confirming the fee paying send in a block moves its update time before every other send
+    Transaction feePayingSend = null;
+    long earliestUpdateTime = Long.MAX_VALUE;
+    for (Transaction transaction : wallet1.getTransactions(false)) {
+      earliestUpdateTime = Math.min(earliestUpdateTime, transaction.getUpdateTime().getTime());
+      for (TransactionOutput output : transaction.getOutputs()) {
+        if (feeState.getNextFeeAddress().equals(output.getAddressFromP2PKHScript(NETWORK_PARAMETERS))) {
+          feePayingSend = transaction;
+        }
+      }
+    }
+    assertThat(feePayingSend).isNotNull();
+    feePayingSend.setUpdateTime(new Date(earliestUpdateTime - 1000));
+
+    FeeState incrementalFeeState = feeService.calculateFeeState(wallet1, false);
+    FeeTrackerDto incrementalTracker = FeeService.getFeeTrackerFromWallet(wallet1);
+
+    // Remove the tracker to force a full rescan
+    wallet1.addOrUpdateExtension(new FeeTrackerWalletExtension());
+    FeeState fullFeeState = feeService.calculateFeeState(wallet1, false);
+
+    assertThat(incrementalTracker).isEqualTo(FeeService.getFeeTrackerFromWallet(wallet1));
+    assertThat(incrementalTracker.getLastFeePayingSendCount().get()).isEqualTo(0);
+    assertThat(incrementalFeeState.getCurrentNumberOfSends()).isEqualTo(fullFeeState.getCurrentNumberOfSends());
+    assertThat(incrementalFeeState.getFeeOwed()).isEqualTo(fullFeeState.getFeeOwed());
+  }
+
+  @Test
+  public void testChangingSentBySelfProviderDiscardsFeeTracker() throws Exception {
+
+    FeeService feeService = new FeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+
+    receiveATransaction(wallet1, toAddress1);
+    for (int i = 0; i < 3; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    }
+    assertThat(feeService.calculateFeeState(wallet1, false).getCurrentNumberOfSends()).isEqualTo(3);
+
+    // A provider that counts nothing as a send
+    feeService.setTransactionSentBySelfProvider(new TransactionSentBySelfProvider() {
+      @Override
+      public boolean isSentBySelf(Wallet wallet, Transaction transaction) {
+        return false;
+      }
+    });
+
+    assertThat(feeService.calculateFeeState(wallet1, false).getCurrentNumberOfSends()).isEqualTo(0);
+  }
+
+  @Test
+  public void testFeeAuditMatchesCalculateFeeState() throws Exception {
+
+    FeeService feeService = new FeeService(encryptionKey, new URL(DUMMY_MATCHER_URL));
+    feeService.performExchangeWithMatcher(seed, wallet1);
+
+    receiveATransaction(wallet1, toAddress1);
+    for (int i = 0; i < 3; i++) {
+      sendBitcoin(parseCoin("0.01"), nonFeeDestinationAddress, null);
+    }
+    FeeState feeState = feeService.calculateFeeState(wallet1, false);
+
+    // Pay double the fee owed so far
+    Coin feeSent = feeState.getFeeOwed().multiply(2);
+    sendBitcoin(feeSent, feeState.getNextFeeAddress(), null);
+    feeState = feeService.calculateFeeState(wallet1, false);
+
+    Set<String> extensionIds = Sets.newHashSet(wallet1.getExtensions().keySet());
+
+    // A small threshold so that the batch is split across the pool
+    ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+    FeeAuditService feeAuditService = new FeeAuditService(feeService.getHardwiredFeeAddresses(), forkJoinPool, 2);
+    Wallet emptyWallet = new Wallet(NETWORK_PARAMETERS);
+    List<Wallet> wallets = Lists.newArrayList(wallet1, emptyWallet, wallet1, wallet1, emptyWallet);
+    FeeAuditResult feeAuditResult = feeAuditService.audit(wallets);
+    forkJoinPool.shutdown();
+
+    // Nothing is written to the wallet
+    assertThat(wallet1.getExtensions().keySet()).isEqualTo(extensionIds);
+
+    assertThat(feeAuditResult.getWalletFeeAudits()).hasSize(wallets.size());
+    WalletFeeAudit walletFeeAudit = feeAuditResult.getWalletFeeAudits().get(0);
+    assertThat(walletFeeAudit.getCurrentNumberOfSends()).isEqualTo(feeState.getCurrentNumberOfSends());
+    assertThat(walletFeeAudit.getFeeOwed()).isEqualTo(feeState.getFeeOwed());
+    assertThat(walletFeeAudit.getFeePaid()).isEqualTo(feeSent);
+    assertThat(walletFeeAudit.getNextFeeSendCount().get()).isEqualTo(feeState.getNextFeeSendCount());
+    assertThat(walletFeeAudit.toFeeState().getNextFeeAddress()).isEqualTo(feeState.getNextFeeAddress());
+    assertThat(feeAuditResult.getWalletFeeAudits().get(1).getCurrentNumberOfSends()).isEqualTo(0);
+
+    // Aggregates over the three copies of wallet1
+    assertThat(feeAuditResult.getTotalNumberOfSends()).isEqualTo(3 * feeState.getCurrentNumberOfSends());
+    assertThat(feeAuditResult.getTotalFeePaid()).isEqualTo(feeSent.multiply(3));
+    assertThat(feeAuditResult.getTotalFeeOwed()).isEqualTo(feeState.getFeeOwed().multiply(3));
+    assertThat(feeAuditResult.getFeePaidByAddress()).hasSize(1);
+    assertThat(feeAuditResult.getFeePaidByAddress().values().iterator().next()).isEqualTo(feeSent.multiply(3));
+  }
+
   @Test
   public void checkFeePerKB() {
 
@@ -290,5 +543,16 @@ public class FeeServicesTest {
     broadcastAndCommit(wallet1, req.tx);
 
   }
-}
 
+  private MatcherTransport newInProcessMatcherTransport(Set<Address> matcherAddresses) throws Exception {
+
+    MatcherStore matcherStore = MatcherStores.newInMemoryMatcherStore(new HashMap<String, Set<Address>>());
+    matcherStore.storeAllBitcoinAddresses(matcherAddresses);
+    Matcher matcher = Matchers.newBasicMatcher(
+      new MatcherConfig(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_SECRET_KEYRING_FILE), BritTestUtils.TEST_DATA_PASSWORD),
+      matcherStore
+    );
+
+    return new InProcessMatcherTransport(matcher);
+  }
+}
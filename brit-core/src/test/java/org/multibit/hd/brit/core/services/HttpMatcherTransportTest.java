@@ -0,0 +1,160 @@
+package org.multibit.hd.brit.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+public class HttpMatcherTransportTest {
+
+  private HttpServer httpServer;
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  /**
+   * Stand in status for a Matcher that stalls before replying
+   */
+  private static final int STALL = -1;
+
+  /**
+   * The status to reply with for each request (the last one repeats)
+   */
+  private volatile int[] statuses;
+
+  @Before
+  public void setUp() throws Exception {
+
+    httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    httpServer.createContext("/brit", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange httpExchange) throws IOException {
+
+        int request = requestCount.getAndIncrement();
+        int status = statuses[Math.min(request, statuses.length - 1)];
+        if (status == STALL) {
+          try {
+            Thread.sleep(1_000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          status = 200;
+        }
+
+        byte[] body;
+        try (InputStream inputStream = httpExchange.getRequestBody()) {
+          body = ByteStreams.toByteArray(inputStream);
+        }
+
+        // Echo the request on success
+        byte[] response = status == 200 ? body : new byte[]{1};
+        httpExchange.sendResponseHeaders(status, response.length);
+        try (OutputStream outputStream = httpExchange.getResponseBody()) {
+          outputStream.write(response);
+        }
+      }
+    });
+    httpServer.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    httpServer.stop(0);
+  }
+
+  @Test
+  public void testRetryAfterServerError() throws Exception {
+
+    statuses = new int[]{503, 200};
+
+    HttpMatcherTransport transport = newTransport();
+
+    assertThat(transport.exchange(new byte[]{1, 2, 3})).isEqualTo(new byte[]{1, 2, 3});
+    assertThat(requestCount.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testRetriesAreBounded() throws Exception {
+
+    statuses = new int[]{500};
+
+    HttpMatcherTransport transport = newTransport();
+    transport.setMaximumAttempts(3);
+
+    try {
+      transport.exchange(new byte[]{1, 2, 3});
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertThat(requestCount.get()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void testRejectedRequestIsNotRetried() throws Exception {
+
+    statuses = new int[]{400, 200};
+
+    HttpMatcherTransport transport = newTransport();
+
+    try {
+      transport.exchange(new byte[]{1, 2, 3});
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertThat(requestCount.get()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void testReadTimeoutIsNotRetried() throws Exception {
+
+    statuses = new int[]{STALL, 200};
+
+    HttpMatcherTransport transport = newTransport();
+    transport.setReadTimeoutMillis(200);
+
+    try {
+      transport.exchange(new byte[]{1, 2, 3});
+      fail("Expected SocketTimeoutException");
+    } catch (SocketTimeoutException e) {
+      assertThat(requestCount.get()).isEqualTo(1);
+    }
+  }
+
+  private HttpMatcherTransport newTransport() throws Exception {
+
+    HttpMatcherTransport transport = new HttpMatcherTransport(new URL("http://localhost:" + httpServer.getAddress().getPort() + "/brit"));
+    transport.setInitialBackoffMillis(1);
+    transport.setReadTimeoutMillis(2_000);
+
+    return transport;
+  }
+}
@@ -0,0 +1,218 @@
+package org.multibit.hd.brit.core.services;
+
+/**
+ * Copyright 2014 multibit.org
+ *
+ * Licensed under the MIT license (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://opensource.org/licenses/mit-license.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.BritTestUtils;
+import org.multibit.hd.brit.core.dto.MatcherResponse;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.matcher.MatcherConfig;
+import org.multibit.hd.brit.core.matcher.MatcherStore;
+import org.multibit.hd.brit.core.matcher.MatcherStores;
+import org.multibit.hd.brit.core.matcher.Matchers;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.fail;
+
+/**
+ * <p>Exercises the router against several in-process Matchers, each with its own fee addresses so the responding
+ * Matcher can be identified</p>
+ */
+public class MatcherEndpointRouterTest {
+
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private PGPPublicKey matcherPublicKey;
+
+  @Before
+  public void setUp() throws Exception {
+
+    try (InputStream inputStream = new FileInputStream(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_PUBLIC_KEY_FILE))) {
+      matcherPublicKey = PGPUtils.readPublicKey(inputStream);
+    }
+  }
+
+  @Test
+  public void testFailoverAndUnhealthyEndpointIsAvoided() throws Exception {
+
+    TestMatcher failing = new TestMatcher("failing");
+    failing.failing = true;
+    TestMatcher healthy = new TestMatcher("healthy");
+
+    MatcherEndpointRouter router = new MatcherEndpointRouter(ImmutableList.of(failing.endpoint, healthy.endpoint));
+    router.setHedgeDelayMillis(10_000);
+
+    for (int i = 0; i < 6; i++) {
+      assertThat(healthy.answered(router.exchange(newPayerRequest(i)))).isTrue();
+    }
+
+    // The failing Matcher is tried first until its error rate makes it unhealthy
+    assertThat(failing.endpoint.isHealthy()).isFalse();
+    assertThat(failing.requestCount.get()).isEqualTo(4);
+    assertThat(healthy.requestCount.get()).isEqualTo(6);
+    assertThat(router.orderedEndpoints().get(0)).isSameAs(healthy.endpoint);
+  }
+
+  @Test
+  public void testRoutesToFastestEndpoint() throws Exception {
+
+    TestMatcher slow = new TestMatcher("slow");
+    slow.delayMillis = 200;
+    TestMatcher fast = new TestMatcher("fast");
+
+    MatcherEndpointRouter router = new MatcherEndpointRouter(ImmutableList.of(slow.endpoint, fast.endpoint));
+    router.setHedgeDelayMillis(10_000);
+
+    // Untried endpoints are used in the configured order then the fastest wins
+    assertThat(slow.answered(router.exchange(newPayerRequest(0)))).isTrue();
+    assertThat(fast.answered(router.exchange(newPayerRequest(1)))).isTrue();
+    for (int i = 2; i < 5; i++) {
+      assertThat(fast.answered(router.exchange(newPayerRequest(i)))).isTrue();
+    }
+
+    assertThat(slow.requestCount.get()).isEqualTo(1);
+    assertThat(fast.requestCount.get()).isEqualTo(4);
+    assertThat(slow.endpoint.getAverageLatencyNanos()).isGreaterThan(fast.endpoint.getAverageLatencyNanos());
+  }
+
+  @Test
+  public void testHedgesSlowEndpoint() throws Exception {
+
+    TestMatcher stalled = new TestMatcher("stalled");
+    stalled.delayMillis = 5_000;
+    TestMatcher fast = new TestMatcher("fast");
+
+    MatcherEndpointRouter router = new MatcherEndpointRouter(ImmutableList.of(stalled.endpoint, fast.endpoint));
+    router.setHedgeDelayMillis(100);
+
+    long start = System.nanoTime();
+    MatcherResponse matcherResponse = router.exchange(newPayerRequest(0));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertThat(fast.answered(matcherResponse)).isTrue();
+    assertThat(elapsedMillis).isLessThan(2_500);
+    assertThat(stalled.requestCount.get()).isEqualTo(1);
+
+    // The cancelled attempt fails once interrupted but that is not the endpoint's fault
+    Thread.sleep(500);
+    assertThat(stalled.endpoint.getErrorRate()).isEqualTo(0.0);
+  }
+
+  @Test
+  public void testAllEndpointsFail() throws Exception {
+
+    TestMatcher first = new TestMatcher("first");
+    first.failing = true;
+    TestMatcher second = new TestMatcher("second");
+    second.failing = true;
+
+    MatcherEndpointRouter router = new MatcherEndpointRouter(ImmutableList.of(first.endpoint, second.endpoint));
+
+    try {
+      router.exchange(newPayerRequest(0));
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertThat(first.requestCount.get()).isEqualTo(1);
+      assertThat(second.requestCount.get()).isEqualTo(1);
+    }
+  }
+
+  private PayerRequest newPayerRequest(int index) {
+
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionKey);
+
+    return new PayerRequest(2, syntheticBRITWalletIds.newSyntheticBRITWalletId(index), sessionKey, Optional.of(new Date()));
+  }
+
+  /**
+   * An in-process Matcher instance with its own addresses and adjustable latency and failures
+   */
+  private class TestMatcher implements MatcherTransport {
+
+    private final Set<Address> bitcoinAddresses = Sets.newHashSet();
+
+    private final InProcessMatcherTransport delegate;
+
+    private final MatcherEndpoint endpoint;
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private volatile long delayMillis = 0;
+
+    private volatile boolean failing = false;
+
+    private TestMatcher(String name) throws Exception {
+
+      for (int i = 0; i < 10; i++) {
+        bitcoinAddresses.add(new ECKey().toAddress(MainNetParams.get()));
+      }
+      MatcherStore matcherStore = MatcherStores.newInMemoryMatcherStore(new HashMap<String, Set<Address>>());
+      matcherStore.storeAllBitcoinAddresses(bitcoinAddresses);
+
+      delegate = new InProcessMatcherTransport(Matchers.newBasicMatcher(
+        new MatcherConfig(BritTestUtils.makeFile(BritTestUtils.TEST_MATCHER_SECRET_KEYRING_FILE), BritTestUtils.TEST_DATA_PASSWORD),
+        matcherStore
+      ));
+      endpoint = new MatcherEndpoint(name, matcherPublicKey, this);
+    }
+
+    @Override
+    public byte[] exchange(byte[] encryptedPayerRequest) throws IOException {
+
+      requestCount.incrementAndGet();
+      if (delayMillis > 0) {
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted", e);
+        }
+      }
+      if (failing) {
+        throw new IOException("Matcher unavailable");
+      }
+      return delegate.exchange(encryptedPayerRequest);
+    }
+
+    private boolean answered(MatcherResponse matcherResponse) {
+      return bitcoinAddresses.containsAll(matcherResponse.getBitcoinAddresses());
+    }
+  }
+}
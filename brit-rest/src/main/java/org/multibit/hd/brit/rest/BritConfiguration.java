@@ -5,6 +5,7 @@ import com.yammer.dropwizard.config.Configuration;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.Valid;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 /**
@@ -27,6 +28,13 @@ public class BritConfiguration extends Configuration {
   @JsonProperty
   private boolean production = true;
 
+  /**
+   * The number of synthetic Payer requests to replay before reporting ready (0 to skip the warm-up)
+   */
+  @Min(0)
+  @JsonProperty
+  private int warmUpRequestCount = 200;
+
   public String getMatcherStoreDirectory() {
     return matcherStoreDirectory;
   }
@@ -34,4 +42,8 @@ public class BritConfiguration extends Configuration {
   public boolean isProduction() {
     return production;
   }
+
+  public int getWarmUpRequestCount() {
+    return warmUpRequestCount;
+  }
 }
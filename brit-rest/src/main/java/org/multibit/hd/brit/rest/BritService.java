@@ -3,26 +3,39 @@ package org.multibit.hd.brit.rest;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.io.Files;
+import com.sun.jersey.api.client.Client;
 import com.yammer.dropwizard.Service;
 import com.yammer.dropwizard.config.Bootstrap;
 import com.yammer.dropwizard.config.Environment;
 import com.yammer.dropwizard.config.LoggingFactory;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.eclipse.jetty.server.session.SessionHandler;
 import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
 import org.multibit.hd.brit.core.matcher.*;
 import org.multibit.hd.brit.rest.health.BritMatcherVersion1HealthCheck;
 import org.multibit.hd.brit.rest.health.BritMatcherVersion2HealthCheck;
 import org.multibit.hd.brit.rest.health.BritPublicKeyHealthCheck;
+import org.multibit.hd.brit.rest.health.MatcherProbe;
+import org.multibit.hd.brit.rest.health.MatcherWarmUpHealthCheck;
+import org.multibit.hd.brit.rest.lifecycle.MatcherLifecycle;
 import org.multibit.hd.brit.rest.resources.PublicBritResource;
+import org.multibit.hd.brit.rest.resources.ReadinessResource;
 import org.multibit.hd.brit.rest.resources.RuntimeExceptionMapper;
 import org.multibit.hd.brit.rest.servlets.SafeLocaleFilter;
+import org.multibit.hd.brit.rest.tasks.ImportRedeemerAddressesTask;
+import org.multibit.hd.brit.rest.tasks.ReloadMatcherKeyTask;
+import org.multibit.hd.brit.rest.utils.MatcherKeySelfTest;
+import org.multibit.hd.brit.rest.warmup.MatcherWarmUp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.openpgp.PGPException;
 import org.spongycastle.openpgp.PGPPublicKey;
 
 import java.io.*;
+import java.util.Map;
 
 /**
  * <p>Service to provide the following to application:</p>
@@ -53,6 +66,11 @@ public class BritService extends Service<BritConfiguration> {
    */
   private final String matcherPublicKey;
 
+  /**
+   * The synthetic BRITWalletIds shared with the Matcher store (for the health check probe)
+   */
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds;
+
   /**
    * Main entry point to the application
    *
@@ -78,21 +96,17 @@ public class BritService extends Service<BritConfiguration> {
 
     System.out.print("Crypto keys ");
     try {
-      // Attempt to encrypt the test file
-      ByteArrayOutputStream armoredOut = new ByteArrayOutputStream(1024);
-      PGPPublicKey matcherPublicKey = PGPUtils.readPublicKey(new FileInputStream(matcherPublicKeyFile));
-      PGPUtils.encryptFile(armoredOut, testCryptoFile, matcherPublicKey);
-
-      // Attempt to decrypt the test file
-      ByteArrayInputStream armoredIn = new ByteArrayInputStream(armoredOut.toByteArray());
-      ByteArrayOutputStream decryptedOut = new ByteArrayOutputStream(1024);
-      PGPUtils.decryptFile(armoredIn, decryptedOut, new FileInputStream(matcherSecretKeyringFile), password);
+      // Attempt to encrypt then decrypt the test file
+      PGPPublicKey matcherPublicKey;
+      try (InputStream matcherPublicKeyInputStream = new FileInputStream(matcherPublicKeyFile)) {
+        matcherPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
+      }
+      String testCrypto = MatcherKeySelfTest.run(matcherPublicKey, matcherSecretKeyringFile, password, testCryptoFile);
 
       // Verify that the decryption was successful
-      String testCrypto = decryptedOut.toString(Charsets.UTF_8.name());
       System.out.println(testCrypto);
 
-      if (!"OK".equals(testCrypto)) {
+      if (!MatcherKeySelfTest.EXPECTED_TEXT.equals(testCrypto)) {
         System.err.println("FAIL");
         System.exit(-1);
       }
@@ -102,9 +116,16 @@ public class BritService extends Service<BritConfiguration> {
       System.exit(-1);
     }
 
+    // Share the synthetic traffic key with probes and load tests through a file next to the gpg directory
+    System.out.print("Synthetic traffic key ");
+    final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.readOrCreateKeyFile(
+      new File(britMatcherDirectory, SyntheticBRITWalletIds.KEY_FILE_NAME)
+    );
+    System.out.println("OK");
+
     // Create the Matcher
     System.out.print("Matcher ");
-    Matcher matcher = newMatcher(password);
+    Matcher matcher = newMatcher(password, syntheticBRITWalletIds);
     Preconditions.checkNotNull(matcher, "'matcher' must be present");
     System.out.println("OK\nStarting server - refer to /var/log/brit for details\n");
 
@@ -112,7 +133,7 @@ public class BritService extends Service<BritConfiguration> {
     String matcherPublicKey = Files.toString(matcherPublicKeyFile, Charsets.UTF_8);
 
     // Must be OK to be here
-    new BritService(matcher, matcherPublicKey).run(args);
+    new BritService(matcher, matcherPublicKey, syntheticBRITWalletIds).run(args);
 
   }
 
@@ -139,12 +160,13 @@ public class BritService extends Service<BritConfiguration> {
   /**
    * <p>Initialise the Matcher</p>
    *
-   * @param password The password for the Matcher secret keyring
+   * @param password               The password for the Matcher secret keyring
+   * @param syntheticBRITWalletIds The synthetic BRITWalletIds to keep out of the persistent store
    *
    * @throws IOException If the Matcher fails to start
    */
   @SuppressFBWarnings(value = {"DMI_HARDCODED_ABSOLUTE_FILENAME"})
-  private static Matcher newMatcher(char[] password) throws IOException {
+  private static Matcher newMatcher(char[] password, SyntheticBRITWalletIds syntheticBRITWalletIds) throws IOException {
 
     final File britMatcherDirectory = getBritMatcherDirectory();
     final File matcherStoreDirectory = getMatcherStoreDirectory(britMatcherDirectory);
@@ -154,13 +176,32 @@ public class BritService extends Service<BritConfiguration> {
     MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyFile, password);
 
     // Reference the Matcher store
-    MatcherStore matcherStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    MatcherStore matcherStore = newMatcherStore(matcherStoreDirectory, syntheticBRITWalletIds);
 
     // Build the Matcher
     return Matchers.newBasicMatcher(matcherConfig, matcherStore);
 
   }
 
+  /**
+   * <p>Build the Matcher store chain used by the service</p>
+   *
+   * @param matcherStoreDirectory  The directory holding the persistent Matcher store
+   * @param syntheticBRITWalletIds The synthetic BRITWalletIds to keep out of the persistent store
+   *
+   * @return The Matcher store (synthetic probe and benchmark traffic is kept in memory, new encounters are written behind)
+   *
+   * @throws IOException If the persistent store cannot be opened
+   */
+  public static MatcherStore newMatcherStore(File matcherStoreDirectory, SyntheticBRITWalletIds syntheticBRITWalletIds) throws IOException {
+
+    return MatcherStores.newSyntheticTrafficMatcherStore(
+      MatcherStores.newWriteBehindMatcherStore(MatcherStores.newBasicMatcherStore(matcherStoreDirectory)),
+      syntheticBRITWalletIds
+    );
+
+  }
+
   @SuppressFBWarnings({"DMI_HARDCODED_ABSOLUTE_FILENAME"})
   private static File getBritMatcherDirectory() {
 
@@ -217,7 +258,7 @@ public class BritService extends Service<BritConfiguration> {
       }
       try (Writer writer = new FileWriter(testCryptoFile)) {
         // Populate it with a simple test
-        writer.write("OK");
+        writer.write(MatcherKeySelfTest.EXPECTED_TEXT);
         writer.flush();
       }
 
@@ -226,9 +267,10 @@ public class BritService extends Service<BritConfiguration> {
     return testCryptoFile;
   }
 
-  public BritService(Matcher matcher, String matcherPublicKey) {
+  public BritService(Matcher matcher, String matcherPublicKey, SyntheticBRITWalletIds syntheticBRITWalletIds) {
     this.matcher = matcher;
     this.matcherPublicKey = matcherPublicKey;
+    this.syntheticBRITWalletIds = syntheticBRITWalletIds;
   }
 
   @Override
@@ -244,12 +286,53 @@ public class BritService extends Service<BritConfiguration> {
     log.info("Scanning environment...");
 
     // Configure environment
-    environment.addResource(new PublicBritResource(matcher, matcherPublicKey));
+    PublicBritResource publicBritResource = new PublicBritResource(matcher, matcherPublicKey);
+    environment.addResource(publicBritResource);
+    environment.addResource(new ReadinessResource());
+
+    // Warm up before reporting ready
+    PGPPublicKey pgpPublicKey = PGPUtils.readPublicKey(new ByteArrayInputStream(matcherPublicKey.getBytes(Charsets.UTF_8)));
+    environment.manage(new MatcherWarmUp(matcher, pgpPublicKey, britConfiguration.getWarmUpRequestCount()));
+
+    // Drain requests and close the Matcher store on shutdown
+    environment.manage(new MatcherLifecycle(matcher));
+
+    // Health checks (sharing one client and the in-memory public key)
+    Client healthCheckClient = Client.create();
+    MatcherProbe matcherProbe = new MatcherProbe(healthCheckClient, "http://localhost:7070/brit", pgpPublicKey, syntheticBRITWalletIds);
+    environment.addHealthCheck(new BritMatcherVersion1HealthCheck(matcherProbe));
+    environment.addHealthCheck(new BritMatcherVersion2HealthCheck(matcherProbe));
+    environment.addHealthCheck(new BritPublicKeyHealthCheck(healthCheckClient));
+    environment.addHealthCheck(new MatcherWarmUpHealthCheck());
+
+    // Requests by Matcher key (to decide when a previous key can be retired)
+    addMatcherKeyGauges(matcher);
+
+    // Work through the Matcher store layers
+    MatcherStore matcherStore = matcher.getMatcherStore();
+
+    // Synthetic traffic volume
+    if (matcherStore instanceof SyntheticTrafficMatcherStore) {
+      SyntheticTrafficMatcherStore syntheticTrafficMatcherStore = (SyntheticTrafficMatcherStore) matcherStore;
+      addSyntheticTrafficGauges(syntheticTrafficMatcherStore);
+      matcherStore = syntheticTrafficMatcherStore.getPersistentStore();
+    }
 
-    // Health checks
-    environment.addHealthCheck(new BritMatcherVersion1HealthCheck());
-    environment.addHealthCheck(new BritMatcherVersion2HealthCheck());
-    environment.addHealthCheck(new BritPublicKeyHealthCheck());
+    // Encounter write queue
+    if (matcherStore instanceof WriteBehindMatcherStore) {
+      WriteBehindMatcherStore writeBehindMatcherStore = (WriteBehindMatcherStore) matcherStore;
+      addWriteBehindGauges(writeBehindMatcherStore);
+      matcherStore = writeBehindMatcherStore.getPersistentStore();
+    }
+
+    // Encounter lookups
+    if (matcherStore instanceof BasicMatcherStore) {
+      addEncounterLookupGauges((BasicMatcherStore) matcherStore);
+    }
+
+    // Admin tasks
+    environment.addTask(new ImportRedeemerAddressesTask(new File(BRIT_MATCHER_DIRECTORY, "import-from-redeemer"), matcher.getMatcherStore()));
+    environment.addTask(new ReloadMatcherKeyTask(matcher, publicBritResource, matcherProbe, new File(BRIT_MATCHER_DIRECTORY, "reload"), new File(BRIT_MATCHER_DIRECTORY, "gpg")));
 
     // Providers
     environment.addProvider(new RuntimeExceptionMapper());
@@ -261,4 +344,92 @@ public class BritService extends Service<BritConfiguration> {
     environment.setSessionHandler(new SessionHandler());
   }
 
+  /**
+   * @param matcher The Matcher holding the current and previous keys
+   */
+  private void addMatcherKeyGauges(final Matcher matcher) {
+
+    Metrics.newGauge(Matcher.class, "matcher-key-requests", new Gauge<Map<String, Long>>() {
+      @Override
+      public Map<String, Long> value() {
+        return matcher.getRequestCountsByKeyId();
+      }
+    });
+  }
+
+  /**
+   * @param syntheticTrafficMatcherStore The store diverting synthetic traffic
+   */
+  private void addSyntheticTrafficGauges(final SyntheticTrafficMatcherStore syntheticTrafficMatcherStore) {
+
+    Metrics.newGauge(SyntheticTrafficMatcherStore.class, "synthetic-stores", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return syntheticTrafficMatcherStore.getSyntheticStoreCount();
+      }
+    });
+    Metrics.newGauge(SyntheticTrafficMatcherStore.class, "synthetic-lookups", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return syntheticTrafficMatcherStore.getSyntheticLookupCount();
+      }
+    });
+    Metrics.newGauge(SyntheticTrafficMatcherStore.class, "synthetic-encounters", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return syntheticTrafficMatcherStore.getSyntheticEncounterCount();
+      }
+    });
+  }
+
+  /**
+   * @param writeBehindMatcherStore The store queueing the encounter writes
+   */
+  private void addWriteBehindGauges(final WriteBehindMatcherStore writeBehindMatcherStore) {
+
+    Metrics.newGauge(WriteBehindMatcherStore.class, "write-behind-queue-depth", new Gauge<Integer>() {
+      @Override
+      public Integer value() {
+        return writeBehindMatcherStore.getQueueDepth();
+      }
+    });
+    Metrics.newGauge(WriteBehindMatcherStore.class, "write-behind-queue-lag-millis", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return writeBehindMatcherStore.getQueueLagMillis();
+      }
+    });
+    Metrics.newGauge(WriteBehindMatcherStore.class, "write-behind-last-write-lag-millis", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return writeBehindMatcherStore.getLastWriteLagMillis();
+      }
+    });
+    Metrics.newGauge(WriteBehindMatcherStore.class, "write-behind-backpressure", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return writeBehindMatcherStore.getBackpressureCount();
+      }
+    });
+  }
+
+  /**
+   * @param basicMatcherStore The store holding the encounter links
+   */
+  private void addEncounterLookupGauges(final BasicMatcherStore basicMatcherStore) {
+
+    Metrics.newGauge(BasicMatcherStore.class, "known-wallet-lookups", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return basicMatcherStore.getKnownWalletLookupCount();
+      }
+    });
+    Metrics.newGauge(BasicMatcherStore.class, "new-wallet-lookups", new Gauge<Long>() {
+      @Override
+      public Long value() {
+        return basicMatcherStore.getNewWalletLookupCount();
+      }
+    });
+  }
+
 }
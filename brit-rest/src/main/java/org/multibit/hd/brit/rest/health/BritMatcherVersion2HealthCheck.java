@@ -10,155 +10,38 @@ package org.multibit.hd.brit.rest.health;
  *         
  */
 
-import com.google.common.base.Optional;
-import com.sun.jersey.api.client.Client;
+import com.google.common.base.Preconditions;
 import com.yammer.metrics.core.HealthCheck;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-import org.multibit.commons.crypto.AESUtils;
-import org.multibit.commons.crypto.PGPUtils;
-import org.multibit.hd.brit.core.dto.*;
-import org.multibit.hd.brit.core.payer.BasicPayer;
-import org.multibit.hd.brit.core.payer.Payer;
-import org.multibit.hd.brit.core.payer.PayerConfig;
-import org.multibit.hd.brit.core.payer.Payers;
-import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
-import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
-import org.spongycastle.openpgp.PGPPublicKey;
-
-import javax.ws.rs.core.MediaType;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.security.SecureRandom;
-import java.util.Date;
-import java.util.List;
 
 public class BritMatcherVersion2HealthCheck extends HealthCheck {
 
-  private SecureRandom secureRandom = new SecureRandom();
+  private final MatcherProbe matcherProbe;
 
-  public BritMatcherVersion2HealthCheck() {
+  /**
+   * @param matcherProbe The shared Matcher probe
+   */
+  public BritMatcherVersion2HealthCheck(MatcherProbe matcherProbe) {
     super("BRIT V2 matcher health check");
+
+    Preconditions.checkNotNull(matcherProbe, "'matcherProbe' must be present");
+
+    this.matcherProbe = matcherProbe;
   }
 
   @Override
   protected Result check() throws Exception {
 
-    MatcherResponse matcherResponse = createAndRegisterWalletId();
+    // Force a Version 2 request
+    MatcherProbe.ProbeResult probeResult = matcherProbe.probe(2);
 
-    int size = matcherResponse.getBitcoinAddresses().size();
+    int size = probeResult.getMatcherResponse().getBitcoinAddresses().size();
 
     if (size < 50) {
-      return Result.unhealthy("Matcher response contained only "+size+" addresses. Expected 50 or more.");
+      return Result.unhealthy("Matcher response contained only " + size + " addresses. Expected 50 or more. (" + probeResult.describeLatencies() + ")");
     }
 
     // Must be OK to be here
-    return Result.healthy("Matcher response contains %d addresses", size);
-  }
-
-  /**
-   * Create a new random WalletId and
-   *
-   * @return The Matcher response from the BRIT server
-   *
-   */
-  private MatcherResponse createAndRegisterWalletId() throws Exception {
-
-    // Create a payer and a wallet Id
-    BasicPayer payer = (BasicPayer) newTestPayer();
-    BRITWalletId britWalletId = newBritWalletId();
-
-    // Create a random session Id
-    byte[] sessionId = newSessionId();
-
-    // Create a first transaction date (in real life this would come from a wallet)
-    Optional<Date> firstTransactionDateOptional = Optional.of(new Date());
-
-    // Ask the payer to create an EncryptedPayerRequest containing a BRITWalletId, a session id and a firstTransactionDate
-    PayerRequest payerRequest = payer.newLegacyPayerRequest(
-      2, // Force a Version 2 request
-      britWalletId,
-      sessionId,
-      firstTransactionDateOptional
-    );
-    if (payerRequest == null) {
-      throw new Exception("Could not create PayerRequest");
-    }
-
-    // Encrypt the PayerRequest with the Matcher PGP public key
-    EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
-
-    byte[] payload = encryptedPayerRequest.getPayload();
-
-    // Send the encrypted request to the Matcher
-    Client client = new Client();
-    byte[] actualResponse = client
-      .resource("http://localhost:7070/brit")
-      .header("Content-Type", "application/octet-stream")
-      .accept(MediaType.APPLICATION_OCTET_STREAM_TYPE)
-      .entity(payload)
-      .post(byte[].class);
-    if (actualResponse.length <= 20) {
-      throw new Exception("POST response is 204 NO CONTENT");
-    }
-
-    // Build the encrypted Matcher response
-    EncryptedMatcherResponse encryptedMatcherResponse = new EncryptedMatcherResponse(actualResponse);
-
-    // Payer can decrypt the encryptedMatcherResponse because it knows the BRITWalletId and session id
-    MatcherResponse plainMatcherResponse = payer.decryptMatcherResponse(encryptedMatcherResponse, payerRequest);
-    if (plainMatcherResponse == null) {
-      throw new Exception("Could not decrypt matcher response (null)");
-    }
-    if (plainMatcherResponse.getBitcoinAddresses() == null) {
-      throw new Exception("Matcher response does not contain Bitcoin addresses (null)");
-    }
-    if (plainMatcherResponse.getBitcoinAddresses().isEmpty()) {
-      throw new Exception("Matcher response does not contain Bitcoin addresses (empty)");
-    }
-    if (plainMatcherResponse.getVersion() != 2) {
-      throw new Exception("Matcher response contained version: " + plainMatcherResponse.getVersion() + ". Expected 2.");
-    }
-
-    return plainMatcherResponse;
-
-  }
-
-  private byte[] newSessionId() {
-
-    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
-    secureRandom.nextBytes(sessionId);
-
-    return sessionId;
-  }
-
-  private BRITWalletId newBritWalletId() {
-
-    // Create a BRIT WalletId (in real life this would be using the Payer's wallet seed)
-    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
-    List<String> seedPhrase = seedGenerator.newSeedPhrase();
-    byte[] seed = seedGenerator.convertToSeed(seedPhrase);
-
-    return new BRITWalletId(seed);
-  }
-
-
-  /**
-   * @return A test Payer
-   *
-   * @throws Exception If something goes wrong
-   */
-  @SuppressFBWarnings({"DMI_HARDCODED_ABSOLUTE_FILENAME"})
-  private Payer newTestPayer() throws Exception {
-
-    // Load the live matcher public key
-    InputStream matcherPublicKeyInputStream = new FileInputStream("/var/brit/matcher/gpg/matcher-key.asc");
-    PGPPublicKey matcherPGPPublicKey = PGPUtils.readPublicKey(matcherPublicKeyInputStream);
-
-    PayerConfig payerConfig = new PayerConfig(matcherPGPPublicKey);
-
-    // Create the Payer
-    return Payers.newBasicPayer(payerConfig);
-
+    return Result.healthy("Matcher response contains %d addresses (%s)", size, probeResult.describeLatencies());
   }
 
-}
\ No newline at end of file
+}
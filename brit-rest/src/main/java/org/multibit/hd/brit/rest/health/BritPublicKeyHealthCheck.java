@@ -10,6 +10,7 @@ package org.multibit.hd.brit.rest.health;
  *         
  */
 
+import com.google.common.base.Preconditions;
 import com.sun.jersey.api.client.Client;
 import com.yammer.metrics.core.HealthCheck;
 
@@ -17,15 +18,23 @@ import javax.ws.rs.core.MediaType;
 
 public class BritPublicKeyHealthCheck extends HealthCheck {
 
-  public BritPublicKeyHealthCheck() {
+  private final Client client;
+
+  /**
+   * @param client The shared HTTP client
+   */
+  public BritPublicKeyHealthCheck(Client client) {
     super("BRIT public key health check");
+
+    Preconditions.checkNotNull(client, "'client' must be present");
+
+    this.client = client;
   }
 
   @Override
   protected Result check() throws Exception {
 
-    // Send the encrypted request to the Matcher
-    Client client = new Client();
+    // Request the public key from the Matcher
     String actualResponse = client
       .resource("http://localhost:7070/brit/public-key")
       .accept(MediaType.TEXT_PLAIN_TYPE)
@@ -0,0 +1,187 @@
+package org.multibit.hd.brit.rest.health;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.sun.jersey.api.client.Client;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.hd.brit.core.dto.*;
+import org.multibit.hd.brit.core.payer.BasicPayer;
+import org.multibit.hd.brit.core.payer.PayerConfig;
+import org.multibit.hd.brit.core.payer.Payers;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import javax.ws.rs.core.MediaType;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Probe to provide the following to the Matcher health checks:</p>
+ * <ul>
+ * <li>A round trip through the public BRIT endpoint using a rolling pool of synthetic BRITWalletIds</li>
+ * <li>Reuse of the HTTP client and Matcher public key across checks (no scrypt, no disk access)</li>
+ * <li>The latency of each stage of the exchange</li>
+ * </ul>
+ * <p>Synthetic BRITWalletIds minted under the Matcher key are recognised so probe encounters are never persisted.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherProbe {
+
+  /**
+   * The number of synthetic BRITWalletIds to rotate through
+   */
+  public static final int POOL_SIZE = 16;
+
+  private final Client client;
+
+  private final String britUrl;
+
+  private volatile PGPPublicKey matcherPublicKey;
+
+  private final ImmutableList<BRITWalletId> britWalletIds;
+
+  private final AtomicInteger nextBritWalletId = new AtomicInteger();
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  /**
+   * @param client                 The shared HTTP client
+   * @param britUrl                The URL of the BRIT endpoint (e.g. "http://localhost:7070/brit")
+   * @param matcherPublicKey       The Matcher public key as served to Payers
+   * @param syntheticBRITWalletIds The synthetic BRITWalletIds recognised by the Matcher store
+   */
+  public MatcherProbe(Client client, String britUrl, PGPPublicKey matcherPublicKey, SyntheticBRITWalletIds syntheticBRITWalletIds) {
+
+    Preconditions.checkNotNull(client, "'client' must be present");
+    Preconditions.checkNotNull(britUrl, "'britUrl' must be present");
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+    Preconditions.checkNotNull(syntheticBRITWalletIds, "'syntheticBRITWalletIds' must be present");
+
+    this.client = client;
+    this.britUrl = britUrl;
+    this.matcherPublicKey = matcherPublicKey;
+
+    ImmutableList.Builder<BRITWalletId> builder = ImmutableList.builder();
+    for (int i = 0; i < POOL_SIZE; i++) {
+      builder.add(syntheticBRITWalletIds.newSyntheticBRITWalletId(i));
+    }
+    britWalletIds = builder.build();
+  }
+
+  /**
+   * @param matcherPublicKey The Matcher public key now served to Payers (e.g. after a key rotation)
+   */
+  public void setMatcherPublicKey(PGPPublicKey matcherPublicKey) {
+
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+
+    this.matcherPublicKey = matcherPublicKey;
+  }
+
+  /**
+   * @param version The PayerRequest version to use
+   *
+   * @return The decrypted Matcher response and the stage latencies
+   *
+   * @throws Exception If any stage fails or the response is malformed
+   */
+  public ProbeResult probe(int version) throws Exception {
+
+    long start = System.nanoTime();
+
+    BasicPayer payer = (BasicPayer) Payers.newBasicPayer(new PayerConfig(matcherPublicKey));
+    BRITWalletId britWalletId = britWalletIds.get((nextBritWalletId.getAndIncrement() & Integer.MAX_VALUE) % POOL_SIZE);
+
+    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionId);
+
+    // Create a first transaction date (in real life this would come from a wallet)
+    PayerRequest payerRequest = payer.newLegacyPayerRequest(version, britWalletId, sessionId, Optional.of(new Date()));
+
+    // Encrypt the PayerRequest with the Matcher PGP public key
+    EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
+    long encrypted = System.nanoTime();
+
+    // Send the encrypted request to the Matcher
+    byte[] actualResponse = client
+      .resource(britUrl)
+      .header("Content-Type", "application/octet-stream")
+      .accept(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+      .entity(encryptedPayerRequest.getPayload())
+      .post(byte[].class);
+    long exchanged = System.nanoTime();
+    if (actualResponse.length <= 20) {
+      throw new Exception("POST response is 204 NO CONTENT");
+    }
+
+    // Payer can decrypt the encryptedMatcherResponse because it knows the BRITWalletId and session id
+    MatcherResponse plainMatcherResponse = payer.decryptMatcherResponse(new EncryptedMatcherResponse(actualResponse), payerRequest);
+    long decrypted = System.nanoTime();
+    if (plainMatcherResponse == null) {
+      throw new Exception("Could not decrypt matcher response (null)");
+    }
+    if (plainMatcherResponse.getBitcoinAddresses() == null) {
+      throw new Exception("Matcher response does not contain Bitcoin addresses (null)");
+    }
+    if (plainMatcherResponse.getBitcoinAddresses().isEmpty()) {
+      throw new Exception("Matcher response does not contain Bitcoin addresses (empty)");
+    }
+    if (plainMatcherResponse.getVersion() != version) {
+      throw new Exception("Matcher response contained version: " + plainMatcherResponse.getVersion() + ". Expected " + version + ".");
+    }
+
+    return new ProbeResult(plainMatcherResponse, encrypted - start, exchanged - encrypted, decrypted - exchanged);
+  }
+
+  /**
+   * The outcome of a successful probe
+   */
+  public static class ProbeResult {
+
+    private final MatcherResponse matcherResponse;
+
+    private final long encryptNanos;
+
+    private final long exchangeNanos;
+
+    private final long decryptNanos;
+
+    private ProbeResult(MatcherResponse matcherResponse, long encryptNanos, long exchangeNanos, long decryptNanos) {
+      this.matcherResponse = matcherResponse;
+      this.encryptNanos = encryptNanos;
+      this.exchangeNanos = exchangeNanos;
+      this.decryptNanos = decryptNanos;
+    }
+
+    public MatcherResponse getMatcherResponse() {
+      return matcherResponse;
+    }
+
+    public long getEncryptNanos() {
+      return encryptNanos;
+    }
+
+    public long getExchangeNanos() {
+      return exchangeNanos;
+    }
+
+    public long getDecryptNanos() {
+      return decryptNanos;
+    }
+
+    /**
+     * @return The stage latencies in a form suitable for a health check message
+     */
+    public String describeLatencies() {
+      return String.format(
+        "encrypt=%dus exchange=%dus decrypt=%dus",
+        TimeUnit.NANOSECONDS.toMicros(encryptNanos),
+        TimeUnit.NANOSECONDS.toMicros(exchangeNanos),
+        TimeUnit.NANOSECONDS.toMicros(decryptNanos)
+      );
+    }
+  }
+}
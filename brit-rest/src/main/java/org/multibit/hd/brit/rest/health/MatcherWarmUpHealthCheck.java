@@ -0,0 +1,32 @@
+package org.multibit.hd.brit.rest.health;
+
+import com.google.common.base.Optional;
+import com.yammer.metrics.core.HealthCheck;
+import org.multibit.hd.brit.rest.warmup.Readiness;
+
+/**
+ * <p>HealthCheck to provide the following to application:</p>
+ * <ul>
+ * <li>Reports a failed Matcher warm-up (the instance stays out of rotation until restarted)</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class MatcherWarmUpHealthCheck extends HealthCheck {
+
+  public MatcherWarmUpHealthCheck() {
+    super("Matcher warm-up health check");
+  }
+
+  @Override
+  protected Result check() throws Exception {
+
+    Optional<String> failure = Readiness.INSTANCE.getFailure();
+    if (failure.isPresent()) {
+      return Result.unhealthy(failure.get());
+    }
+
+    // Still warming up or ready
+    return Result.healthy();
+  }
+}
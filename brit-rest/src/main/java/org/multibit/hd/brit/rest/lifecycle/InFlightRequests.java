@@ -0,0 +1,93 @@
+package org.multibit.hd.brit.rest.lifecycle;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>State to provide the following to resources and MatcherLifecycle:</p>
+ * <ul>
+ * <li>A count of the Payer requests currently inside the Matcher</li>
+ * <li>Refusal of new Payer requests once shutdown has started</li>
+ * <li>A wait for the requests already admitted to finish</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public enum InFlightRequests {
+
+  // Provide a global singleton for the application
+  INSTANCE;
+
+  private final Object monitor = new Object();
+
+  private int inFlight = 0;
+
+  private boolean shuttingDown = false;
+
+  /**
+   * @return True if the request may proceed (it must then call exit), false if shutdown has started
+   */
+  public boolean enter() {
+    synchronized (monitor) {
+      if (shuttingDown) {
+        return false;
+      }
+      inFlight++;
+      return true;
+    }
+  }
+
+  /**
+   * Mark an admitted request as finished
+   */
+  public void exit() {
+    synchronized (monitor) {
+      inFlight--;
+      if (inFlight == 0) {
+        monitor.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * @return The number of requests currently inside the Matcher
+   */
+  public int getInFlight() {
+    synchronized (monitor) {
+      return inFlight;
+    }
+  }
+
+  /**
+   * <p>Refuse new requests and wait for those already admitted</p>
+   *
+   * @param timeout The longest to wait
+   * @param unit    The unit of the timeout
+   *
+   * @return True if no requests remain in flight
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized (monitor) {
+      shuttingDown = true;
+      while (inFlight > 0) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+          return false;
+        }
+        monitor.wait(remainingMillis);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Admit requests again (e.g. on start up)
+   */
+  public InFlightRequests reset() {
+    synchronized (monitor) {
+      shuttingDown = false;
+      return INSTANCE;
+    }
+  }
+}
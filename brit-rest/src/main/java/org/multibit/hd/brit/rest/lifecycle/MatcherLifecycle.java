@@ -0,0 +1,81 @@
+package org.multibit.hd.brit.rest.lifecycle;
+
+import com.google.common.base.Preconditions;
+import com.yammer.dropwizard.lifecycle.Managed;
+import org.multibit.hd.brit.core.matcher.Matcher;
+import org.multibit.hd.brit.rest.warmup.Readiness;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Managed lifecycle to provide the following to BritService:</p>
+ * <ul>
+ * <li>An orderly shutdown of the Matcher: stop taking traffic, drain in-flight requests, then close the store</li>
+ * <li>The time taken by each shutdown step in the logs</li>
+ * </ul>
+ * <p>Closing the store writes out any queued encounters and syncs the encounter links to disk so that a restart
+ * replays everything that was acknowledged.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherLifecycle implements Managed {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherLifecycle.class);
+
+  /**
+   * The longest a shutdown waits for in-flight requests
+   */
+  public static final long DRAIN_TIMEOUT_SECONDS = 10;
+
+  private final Matcher matcher;
+
+  private volatile long lastShutdownMillis = -1;
+
+  /**
+   * @param matcher The live Matcher
+   */
+  public MatcherLifecycle(Matcher matcher) {
+
+    Preconditions.checkNotNull(matcher, "'matcher' must be present");
+
+    this.matcher = matcher;
+  }
+
+  @Override
+  public void start() throws Exception {
+
+    InFlightRequests.INSTANCE.reset();
+
+  }
+
+  @Override
+  public void stop() throws Exception {
+
+    long start = System.nanoTime();
+
+    // Load balancers stop sending traffic and new requests are refused
+    Readiness.INSTANCE.reset();
+    boolean drained = InFlightRequests.INSTANCE.shutdown(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    long drainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (!drained) {
+      log.warn("{} request(s) still in flight after {} ms", InFlightRequests.INSTANCE.getInFlight(), drainMillis);
+    }
+
+    // Write out queued encounters, sync and close the store files
+    long closeStart = System.nanoTime();
+    matcher.getMatcherStore().close();
+    long closeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - closeStart);
+
+    lastShutdownMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    log.info("Matcher stopped in {} ms (requests drained in {} ms, store closed in {} ms)", lastShutdownMillis, drainMillis, closeMillis);
+  }
+
+  /**
+   * @return The duration of the last shutdown in millis (-1 if there has not been one)
+   */
+  public long getLastShutdownMillis() {
+    return lastShutdownMillis;
+  }
+}
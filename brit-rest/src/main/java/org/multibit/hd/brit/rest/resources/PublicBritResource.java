@@ -4,6 +4,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 import com.yammer.dropwizard.jersey.caching.CacheControl;
 import com.yammer.metrics.annotation.Timed;
 import org.multibit.hd.brit.core.dto.EncryptedMatcherResponse;
@@ -12,16 +13,18 @@ import org.multibit.hd.brit.core.dto.MatcherResponse;
 import org.multibit.hd.brit.core.dto.PayerRequest;
 import org.multibit.hd.brit.core.matcher.Matcher;
 import org.multibit.hd.brit.rest.caches.MatcherResponseCache;
+import org.multibit.hd.brit.rest.lifecycle.InFlightRequests;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.*;
-import javax.ws.rs.core.Response;
-import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * <p>Resource to provide the following to application:</p>
@@ -41,9 +44,14 @@ public class PublicBritResource extends BaseResource {
    */
   private final static int MAX_PAYLOAD_LENGTH = 1500;
 
+  private static final String GZIP = "gzip";
+
   private final Matcher matcher;
 
-  private final String matcherPublicKey;
+  /**
+   * The Matcher public key encoded once for every request
+   */
+  private volatile PublicKeyEntity publicKeyEntity;
 
   /**
    * @param matcher The Matcher
@@ -51,14 +59,32 @@ public class PublicBritResource extends BaseResource {
   public PublicBritResource(Matcher matcher, String matcherPublicKey) throws NoSuchAlgorithmException, IOException {
 
     this.matcher = matcher;
-    this.matcherPublicKey = matcherPublicKey;
+    this.publicKeyEntity = new PublicKeyEntity(matcherPublicKey);
 
   }
 
+  /**
+   * @param matcherPublicKey The armored Matcher public key to serve from now on (e.g. after a key rotation)
+   */
+  public void setMatcherPublicKey(String matcherPublicKey) {
+
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+
+    try {
+      this.publicKeyEntity = new PublicKeyEntity(matcherPublicKey);
+    } catch (IOException e) {
+      // Compressing into memory should never fail
+      throw new IllegalStateException("Could not encode the Matcher public key", e);
+    }
+  }
+
   /**
    * Allow a Payer to compare or obtain the matcher public key
    *
-   * @return A localised view containing HTML
+   * @param request        The request (for the If-None-Match precondition)
+   * @param acceptEncoding The encodings the client accepts
+   *
+   * @return The armored Matcher public key, or 304 if the client already has it
    */
   @GET
   @Path("/public-key")
@@ -66,11 +92,30 @@ public class PublicBritResource extends BaseResource {
   @Produces("text/plain")
   @Timed
   @CacheControl(maxAge = 1, maxAgeUnit = TimeUnit.DAYS)
-  public Response getPublicKey() throws IOException {
+  public Response getPublicKey(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+
+    PublicKeyEntity entity = publicKeyEntity;
+    boolean gzip = entity.gzipped.isPresent() && acceptsGzip(acceptEncoding);
+    EntityTag entityTag = gzip ? entity.gzippedEntityTag : entity.entityTag;
+
+    // A client revalidating the key it already holds gets an empty 304
+    Response.ResponseBuilder notModified = request.evaluatePreconditions(entityTag);
+    if (notModified != null) {
+      return notModified
+        .tag(entityTag)
+        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+        .build();
+    }
 
-    return Response
-      .ok(matcherPublicKey)
-      .build();
+    Response.ResponseBuilder ok = Response
+      .ok(gzip ? entity.gzipped.get() : entity.identity)
+      .tag(entityTag)
+      .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (gzip) {
+      ok.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+    }
+
+    return ok.build();
 
   }
 
@@ -146,6 +191,11 @@ public class PublicBritResource extends BaseResource {
 
     EncryptedPayerRequest encryptedPayerRequest = new EncryptedPayerRequest(payload);
 
+    // Refuse new work once shutdown has started so the Matcher store can be closed cleanly
+    if (!InFlightRequests.INSTANCE.enter()) {
+      throw new WebApplicationException(Response.Status.SERVICE_UNAVAILABLE);
+    }
+
     final EncryptedMatcherResponse encryptedMatcherResponse;
     try {
       // The Matcher can decrypt the EncryptedPaymentRequest using its PGP secret key
@@ -169,10 +219,73 @@ public class PublicBritResource extends BaseResource {
     } catch (Exception e) {
       log.error(e.getMessage(), e);
       throw new WebApplicationException(Response.Status.BAD_REQUEST);
+    } finally {
+      InFlightRequests.INSTANCE.exit();
     }
 
     Preconditions.checkState(encryptedMatcherResponse.getPayload().length > 0, "'payload' must be present");
 
     return encryptedMatcherResponse;
   }
+
+  /**
+   * @param acceptEncoding The Accept-Encoding header (may be null)
+   *
+   * @return True if gzip is listed without a zero quality
+   */
+  static boolean acceptsGzip(String acceptEncoding) {
+
+    if (Strings.isNullOrEmpty(acceptEncoding)) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parameters = coding.trim().split(";");
+      if (!GZIP.equalsIgnoreCase(parameters[0].trim())) {
+        continue;
+      }
+      for (int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim().replace(" ", "");
+        if (parameter.matches("q=0(\\.0*)?")) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * The Matcher public key as bytes ready to write with a strong ETag for each encoding
+   */
+  private static final class PublicKeyEntity {
+
+    private final byte[] identity;
+
+    private final EntityTag entityTag;
+
+    /**
+     * Absent if gzip does not make the key smaller
+     */
+    private final Optional<byte[]> gzipped;
+
+    private final EntityTag gzippedEntityTag;
+
+    private PublicKeyEntity(String matcherPublicKey) throws IOException {
+
+      Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+
+      identity = matcherPublicKey.getBytes(Charsets.UTF_8);
+
+      // Computed once from the key bytes (each encoding is a different representation so needs its own tag)
+      String digest = Hashing.sha256().hashBytes(identity).toString();
+      entityTag = new EntityTag(digest);
+      gzippedEntityTag = new EntityTag(digest + "-" + GZIP);
+
+      ByteArrayOutputStream gzippedOut = new ByteArrayOutputStream(identity.length);
+      try (GZIPOutputStream gzipOut = new GZIPOutputStream(gzippedOut)) {
+        gzipOut.write(identity);
+      }
+      gzipped = gzippedOut.size() < identity.length ? Optional.of(gzippedOut.toByteArray()) : Optional.<byte[]>absent();
+    }
+  }
 }
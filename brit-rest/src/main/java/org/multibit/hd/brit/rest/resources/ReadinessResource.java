@@ -0,0 +1,39 @@
+package org.multibit.hd.brit.rest.resources;
+
+import com.yammer.dropwizard.jersey.caching.CacheControl;
+import org.multibit.hd.brit.rest.warmup.Readiness;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+/**
+ * <p>Resource to provide the following to load balancers:</p>
+ * <ul>
+ * <li>Readiness of this instance to take Payer traffic (503 until the warm-up completes or if it failed)</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+@Path("/ready")
+public class ReadinessResource extends BaseResource {
+
+  /**
+   * @return 200 "READY" when warm, 503 "WARM_UP_FAILED" if the warm-up failed, otherwise 503 "WARMING_UP"
+   */
+  @GET
+  @Produces("text/plain")
+  @CacheControl(noCache = true)
+  public Response getReadiness() {
+
+    if (Readiness.INSTANCE.isReady()) {
+      return Response.ok("READY").build();
+    }
+
+    return Response
+      .status(Response.Status.SERVICE_UNAVAILABLE)
+      .entity(Readiness.INSTANCE.getFailure().isPresent() ? "WARM_UP_FAILED" : "WARMING_UP")
+      .build();
+  }
+}
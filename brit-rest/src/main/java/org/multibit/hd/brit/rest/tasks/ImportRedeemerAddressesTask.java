@@ -0,0 +1,80 @@
+package org.multibit.hd.brit.rest.tasks;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMultimap;
+import com.yammer.dropwizard.tasks.Task;
+import org.bitcoinj.core.Address;
+import org.multibit.hd.brit.core.matcher.MatcherStore;
+import org.multibit.hd.brit.core.matcher.RedeemerAddressImporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * <p>Admin task to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Import of further Redeemer addresses into the running Matcher without a restart</li>
+ * </ul>
+ * <p>Copy the Redeemer export into the import directory then use
+ * <code>curl -X POST http://localhost:7071/tasks/import-redeemer-addresses?file=redeemer-3-1.txt</code></p>
+ *
+ * @since 0.0.1
+ */
+public class ImportRedeemerAddressesTask extends Task {
+
+  private static final Logger log = LoggerFactory.getLogger(ImportRedeemerAddressesTask.class);
+
+  private static final String FILE_PARAMETER = "file";
+
+  private final File importDirectory;
+
+  private final RedeemerAddressImporter importer;
+
+  /**
+   * @param importDirectory The directory containing the Redeemer address files
+   * @param matcherStore    The Matcher store to receive the imported addresses
+   */
+  public ImportRedeemerAddressesTask(File importDirectory, MatcherStore matcherStore) {
+    super("import-redeemer-addresses");
+
+    Preconditions.checkNotNull(importDirectory, "'importDirectory' must be present");
+
+    this.importDirectory = importDirectory;
+    this.importer = new RedeemerAddressImporter(matcherStore);
+  }
+
+  @Override
+  public void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+
+    Collection<String> fileNames = parameters.get(FILE_PARAMETER);
+    if (fileNames.isEmpty()) {
+      output.println("Missing '" + FILE_PARAMETER + "' parameter");
+      return;
+    }
+
+    for (String fileName : fileNames) {
+
+      // Only allow plain file names within the import directory
+      if (fileName.contains("/") || fileName.contains("\\") || fileName.startsWith(".")) {
+        output.println("Rejected '" + fileName + "'");
+        continue;
+      }
+
+      File redeemerAddressFile = new File(importDirectory, fileName);
+      if (!redeemerAddressFile.isFile()) {
+        output.println("Not found '" + fileName + "'");
+        continue;
+      }
+
+      Set<Address> added = importer.importAddresses(redeemerAddressFile);
+      log.info("Imported {} new addresses from '{}'", added.size(), fileName);
+      output.println("Imported " + added.size() + " new addresses from '" + fileName + "'");
+    }
+
+    output.flush();
+  }
+}
@@ -0,0 +1,253 @@
+package org.multibit.hd.brit.rest.tasks;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.Files;
+import com.yammer.dropwizard.tasks.Task;
+import org.bitcoinj.core.Address;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.matcher.BasicMatcherStore;
+import org.multibit.hd.brit.core.matcher.Matcher;
+import org.multibit.hd.brit.core.matcher.WeightedAddressSampler;
+import org.multibit.hd.brit.rest.health.MatcherProbe;
+import org.multibit.hd.brit.rest.resources.PublicBritResource;
+import org.multibit.hd.brit.rest.utils.MatcherKeySelfTest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Admin task to provide the following to Matcher operators:</p>
+ * <ul>
+ * <li>Rotation of the Matcher key pair in the running Matcher without a restart</li>
+ * <li>Replacement of the Bitcoin address universe in the running Matcher without a restart</li>
+ * </ul>
+ * <p>Copy the new <code>secring.gpg</code> and <code>matcher-key.asc</code> (and/or a new <code>all.txt</code>) into
+ * the reload directory then use
+ * <code>curl -X POST http://localhost:7071/tasks/reload-matcher-key -d password=... -d graceHours=168</code></p>
+ * <p>Everything staged is validated before anything changes: the key pair must pass the start up self-test, the
+ * address universe must not be empty and any configured Redeemer weights must match one of its Redeemer sections.
+ * The running Matcher unlocks and switches to the new key before the key files are installed into the live gpg
+ * directory (the replaced ones are kept with a ".previous" suffix) so a failed rotation leaves the files untouched
+ * and a restart uses the new key. The previous key keeps decrypting Payer requests for the grace period.</p>
+ * <p>The address universe keeps the "# redeemer: " sections of the staged all.txt, as on start up, so the Redeemer
+ * weights still apply. Only one reload runs at a time.</p>
+ *
+ * @since 0.0.1
+ */
+public class ReloadMatcherKeyTask extends Task {
+
+  private static final Logger log = LoggerFactory.getLogger(ReloadMatcherKeyTask.class);
+
+  public static final String SECRET_KEYRING_FILE_NAME = "secring.gpg";
+
+  public static final String PUBLIC_KEY_FILE_NAME = "matcher-key.asc";
+
+  /**
+   * The default time the previous key keeps decrypting so that Payers can fetch the new public key
+   */
+  public static final long DEFAULT_GRACE_PERIOD_HOURS = 7 * 24;
+
+  private static final String PASSWORD_PARAMETER = "password";
+
+  private static final String GRACE_HOURS_PARAMETER = "graceHours";
+
+  private static final String PREVIOUS_SUFFIX = ".previous";
+
+  private final Matcher matcher;
+
+  private final PublicBritResource publicBritResource;
+
+  private final MatcherProbe matcherProbe;
+
+  private final File reloadDirectory;
+
+  private final File gpgDirectory;
+
+  /**
+   * @param matcher            The running Matcher
+   * @param publicBritResource The resource serving the Matcher public key
+   * @param matcherProbe       The health check probe encrypting to the Matcher public key
+   * @param reloadDirectory    The directory containing the staged files
+   * @param gpgDirectory       The live gpg directory read on start up
+   */
+  public ReloadMatcherKeyTask(Matcher matcher, PublicBritResource publicBritResource, MatcherProbe matcherProbe, File reloadDirectory, File gpgDirectory) {
+    super("reload-matcher-key");
+
+    Preconditions.checkNotNull(matcher, "'matcher' must be present");
+    Preconditions.checkNotNull(publicBritResource, "'publicBritResource' must be present");
+    Preconditions.checkNotNull(matcherProbe, "'matcherProbe' must be present");
+    Preconditions.checkNotNull(reloadDirectory, "'reloadDirectory' must be present");
+    Preconditions.checkNotNull(gpgDirectory, "'gpgDirectory' must be present");
+
+    this.matcher = matcher;
+    this.publicBritResource = publicBritResource;
+    this.matcherProbe = matcherProbe;
+    this.reloadDirectory = reloadDirectory;
+    this.gpgDirectory = gpgDirectory;
+  }
+
+  @Override
+  public synchronized void execute(ImmutableMultimap<String, String> parameters, PrintWriter output) throws Exception {
+
+    File stagedSecretKeyringFile = new File(reloadDirectory, SECRET_KEYRING_FILE_NAME);
+    File stagedPublicKeyFile = new File(reloadDirectory, PUBLIC_KEY_FILE_NAME);
+    File stagedAddressesFile = new File(reloadDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+
+    boolean reloadKey = stagedSecretKeyringFile.isFile() || stagedPublicKeyFile.isFile();
+    boolean reloadAddresses = stagedAddressesFile.isFile();
+    if (!reloadKey && !reloadAddresses) {
+      output.println("Nothing staged in '" + reloadDirectory.getAbsolutePath() + "'");
+      output.flush();
+      return;
+    }
+
+    // Validate the new key pair
+    String armoredPublicKey = null;
+    PGPPublicKey matcherPublicKey = null;
+    char[] password = null;
+    long gracePeriodMillis = 0;
+    if (reloadKey) {
+      if (!stagedSecretKeyringFile.isFile() || !stagedPublicKeyFile.isFile()) {
+        output.println("Both '" + SECRET_KEYRING_FILE_NAME + "' and '" + PUBLIC_KEY_FILE_NAME + "' must be staged");
+        output.flush();
+        return;
+      }
+      String passwordParameter = Iterables.getFirst(parameters.get(PASSWORD_PARAMETER), null);
+      if (passwordParameter == null) {
+        output.println("Missing '" + PASSWORD_PARAMETER + "' parameter");
+        output.flush();
+        return;
+      }
+      password = passwordParameter.toCharArray();
+
+      String graceHoursParameter = Iterables.getFirst(parameters.get(GRACE_HOURS_PARAMETER), String.valueOf(DEFAULT_GRACE_PERIOD_HOURS));
+      Optional<Long> graceHours = parseGraceHours(graceHoursParameter);
+      if (!graceHours.isPresent()) {
+        output.println("'" + GRACE_HOURS_PARAMETER + "' must be a whole number of hours (zero or more) but was '" + graceHoursParameter + "'. Nothing changed.");
+        output.flush();
+        return;
+      }
+      gracePeriodMillis = TimeUnit.HOURS.toMillis(graceHours.get());
+
+      armoredPublicKey = Files.toString(stagedPublicKeyFile, Charsets.UTF_8);
+      matcherPublicKey = PGPUtils.readPublicKey(new ByteArrayInputStream(armoredPublicKey.getBytes(Charsets.UTF_8)));
+
+      Optional<String> failure = selfTest(matcherPublicKey, stagedSecretKeyringFile, password);
+      if (failure.isPresent()) {
+        log.warn("Staged Matcher key failed the self-test: {}", failure.get());
+        output.println("Self-test FAIL (" + failure.get() + "). Nothing changed.");
+        output.flush();
+        return;
+      }
+      output.println("Self-test OK");
+    }
+
+    // Validate the new address universe as it would be read on start up
+    Map<String, Set<Address>> bitcoinAddressesByRedeemer = null;
+    int addressCount = 0;
+    if (reloadAddresses) {
+      bitcoinAddressesByRedeemer = BasicMatcherStore.readBitcoinAddressesByRedeemer(stagedAddressesFile.getAbsolutePath());
+      for (Set<Address> bitcoinAddresses : bitcoinAddressesByRedeemer.values()) {
+        addressCount += bitcoinAddresses.size();
+      }
+      if (addressCount == 0) {
+        output.println("No valid addresses in '" + stagedAddressesFile.getName() + "'. Nothing changed.");
+        output.flush();
+        return;
+      }
+      Map<String, Double> redeemerWeights = matcher.getConfig().getRedeemerWeights();
+      if (!redeemerWeights.isEmpty() && !WeightedAddressSampler.hasWeightedRedeemer(bitcoinAddressesByRedeemer, redeemerWeights)) {
+        output.println("The Redeemer weights " + redeemerWeights.keySet() + " match no Redeemer section " + bitcoinAddressesByRedeemer.keySet() + " in '" + stagedAddressesFile.getName() + "'. Nothing changed.");
+        output.flush();
+        return;
+      }
+      output.println("Addresses OK (" + addressCount + " from " + bitcoinAddressesByRedeemer.size() + " Redeemers)");
+    }
+
+    // Swap everything in
+    if (reloadKey) {
+      // Unlock and rotate first so that a failure leaves the live files untouched (the keyring is not read again)
+      matcher.rotateConfig(matcher.getConfig().withSecretKeyring(stagedSecretKeyringFile, password), gracePeriodMillis);
+      publicBritResource.setMatcherPublicKey(armoredPublicKey);
+      matcherProbe.setMatcherPublicKey(matcherPublicKey);
+
+      install(stagedSecretKeyringFile, new File(gpgDirectory, SECRET_KEYRING_FILE_NAME));
+      install(stagedPublicKeyFile, new File(gpgDirectory, PUBLIC_KEY_FILE_NAME));
+
+      log.info("Matcher key reloaded. The previous key retires in {} hours", TimeUnit.MILLISECONDS.toHours(gracePeriodMillis));
+      output.println("Matcher key reloaded. The previous key retires in " + TimeUnit.MILLISECONDS.toHours(gracePeriodMillis) + " hours");
+      output.println("Requests by key: " + matcher.getRequestCountsByKeyId());
+    }
+    if (reloadAddresses) {
+      matcher.getMatcherStore().storeBitcoinAddressesByRedeemer(bitcoinAddressesByRedeemer);
+      delete(stagedAddressesFile);
+
+      log.info("Bitcoin address universe reloaded with {} addresses from Redeemers {}", addressCount, bitcoinAddressesByRedeemer.keySet());
+      output.println("Bitcoin address universe reloaded with " + addressCount + " addresses from Redeemers " + bitcoinAddressesByRedeemer.keySet());
+    }
+
+    output.flush();
+  }
+
+  /**
+   * @return The grace period in hours if the parameter is a whole number of hours (zero or more)
+   */
+  private static Optional<Long> parseGraceHours(String graceHoursParameter) {
+
+    try {
+      long graceHours = Long.parseLong(graceHoursParameter.trim());
+      return graceHours < 0 ? Optional.<Long>absent() : Optional.of(graceHours);
+    } catch (NumberFormatException e) {
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * @return The reason for failure if the key pair does not round trip
+   */
+  private Optional<String> selfTest(PGPPublicKey matcherPublicKey, File secretKeyringFile, char[] password) throws IOException {
+
+    File testCryptoFile = File.createTempFile("brit-self-test", ".txt");
+    try {
+      Files.write(MatcherKeySelfTest.EXPECTED_TEXT, testCryptoFile, Charsets.UTF_8);
+      String testCrypto = MatcherKeySelfTest.run(matcherPublicKey, secretKeyringFile, password, testCryptoFile);
+      if (!MatcherKeySelfTest.EXPECTED_TEXT.equals(testCrypto)) {
+        return Optional.of("unexpected decryption");
+      }
+      return Optional.absent();
+    } catch (Exception e) {
+      return Optional.of(e.getMessage());
+    } finally {
+      delete(testCryptoFile);
+    }
+  }
+
+  /**
+   * Move a staged file into place keeping the file it replaces
+   */
+  private void install(File stagedFile, File liveFile) throws IOException {
+
+    if (liveFile.exists()) {
+      Files.copy(liveFile, new File(liveFile.getPath() + PREVIOUS_SUFFIX));
+    }
+    Files.move(stagedFile, liveFile);
+  }
+
+  private void delete(File file) {
+    if (!file.delete()) {
+      log.warn("Could not delete '{}'", file.getAbsolutePath());
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package org.multibit.hd.brit.rest.utils;
+
+import com.google.common.base.Charsets;
+import org.multibit.commons.crypto.PGPUtils;
+import org.spongycastle.openpgp.PGPException;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.io.*;
+
+/**
+ * <p>Utility to provide the following to BritService and the admin tasks:</p>
+ * <ul>
+ * <li>A round trip that encrypts a test file with the Matcher public key and decrypts it with the secret keyring</li>
+ * </ul>
+ * <p>A pass proves the public key and secret keyring belong together and that the password is correct.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherKeySelfTest {
+
+  /**
+   * The content of the crypto test file
+   */
+  public static final String EXPECTED_TEXT = "OK";
+
+  /**
+   * Private constructor for utility classes
+   */
+  private MatcherKeySelfTest() {
+  }
+
+  /**
+   * @param matcherPublicKey         The Matcher public key
+   * @param matcherSecretKeyringFile The secret keyring expected to hold the matching secret key
+   * @param password                 The password for the secret keyring
+   * @param testCryptoFile           A file containing the expected text
+   *
+   * @return The decrypted content of the test file (the expected text if the keys match)
+   *
+   * @throws PGPException If the secret key cannot be unlocked (a checksum failure means the password is incorrect)
+   * @throws Exception    If the files cannot be read or the keys do not belong together
+   */
+  public static String run(PGPPublicKey matcherPublicKey, File matcherSecretKeyringFile, char[] password, File testCryptoFile) throws Exception {
+
+    // Attempt to encrypt the test file
+    ByteArrayOutputStream armoredOut = new ByteArrayOutputStream(1024);
+    PGPUtils.encryptFile(armoredOut, testCryptoFile, matcherPublicKey);
+
+    // Attempt to decrypt the test file
+    ByteArrayInputStream armoredIn = new ByteArrayInputStream(armoredOut.toByteArray());
+    ByteArrayOutputStream decryptedOut = new ByteArrayOutputStream(1024);
+    try (InputStream secretKeyringInputStream = new FileInputStream(matcherSecretKeyringFile)) {
+      PGPUtils.decryptFile(armoredIn, decryptedOut, secretKeyringInputStream, password);
+    }
+
+    return decryptedOut.toString(Charsets.UTF_8.name());
+  }
+}
@@ -0,0 +1,172 @@
+package org.multibit.hd.brit.rest.warmup;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.yammer.dropwizard.lifecycle.Managed;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Utils;
+import org.bitcoinj.params.MainNetParams;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.hd.brit.core.dto.*;
+import org.multibit.hd.brit.core.matcher.*;
+import org.multibit.hd.brit.core.payer.BasicPayer;
+import org.multibit.hd.brit.core.payer.PayerConfig;
+import org.multibit.hd.brit.core.payer.Payers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Managed lifecycle to provide the following to BritService:</p>
+ * <ul>
+ * <li>A warm-up phase that replays synthetic Payer requests through the full decrypt/process/encrypt path</li>
+ * <li>Marking the instance as ready once the warm-up has completed</li>
+ * <li>Reporting a failed warm-up through Readiness (and so the health checks) instead of taking Payer traffic</li>
+ * </ul>
+ * <p>The warm-up Matcher shares the live Matcher configuration (and so its PGP secret key) but uses a throwaway
+ * in-memory store so no synthetic wallets reach the live store.</p>
+ *
+ * @since 0.0.1
+ */
+public class MatcherWarmUp implements Managed {
+
+  private static final Logger log = LoggerFactory.getLogger(MatcherWarmUp.class);
+
+  private final Matcher liveMatcher;
+
+  private final PGPPublicKey matcherPublicKey;
+
+  private final int requestCount;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private Thread warmUpThread;
+
+  /**
+   * @param liveMatcher      The live Matcher providing the configuration and Bitcoin addresses
+   * @param matcherPublicKey The Matcher public key used by Payers
+   * @param requestCount     The number of synthetic requests to replay (zero for immediately ready)
+   */
+  public MatcherWarmUp(Matcher liveMatcher, PGPPublicKey matcherPublicKey, int requestCount) {
+
+    Preconditions.checkNotNull(liveMatcher, "'liveMatcher' must be present");
+    Preconditions.checkNotNull(matcherPublicKey, "'matcherPublicKey' must be present");
+    Preconditions.checkState(requestCount >= 0, "'requestCount' must not be negative");
+
+    this.liveMatcher = liveMatcher;
+    this.matcherPublicKey = matcherPublicKey;
+    this.requestCount = requestCount;
+  }
+
+  @Override
+  public void start() throws Exception {
+
+    Readiness.INSTANCE.reset();
+
+    // Warm up in the background so that the admin and health endpoints are available meanwhile
+    warmUpThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        warmUp();
+      }
+    }, "matcher-warm-up");
+    warmUpThread.setDaemon(true);
+    warmUpThread.start();
+  }
+
+  @Override
+  public void stop() throws Exception {
+    if (warmUpThread != null) {
+      warmUpThread.interrupt();
+    }
+  }
+
+  /**
+   * <p>Replay the synthetic requests then mark this instance as ready (or as failed if any round trip fails)</p>
+   *
+   * @return The number of requests that completed the round trip
+   */
+  public int warmUp() {
+
+    int completed = 0;
+    long start = System.currentTimeMillis();
+    try {
+
+      Matcher warmUpMatcher = Matchers.newBasicMatcher(liveMatcher.getConfig(), MatcherStores.newInMemoryMatcherStore(warmUpAddresses()));
+      BasicPayer payer = (BasicPayer) Payers.newBasicPayer(new PayerConfig(matcherPublicKey));
+
+      for (int i = 0; i < requestCount && !Thread.currentThread().isInterrupted(); i++) {
+
+        // Alternate the protocol versions so both response paths are compiled
+        int version = 1 + i % 2;
+        PayerRequest payerRequest = payer.newLegacyPayerRequest(version, newSyntheticBritWalletId(), newSessionKey(), Optional.of(new Date()));
+
+        EncryptedPayerRequest encryptedPayerRequest = payer.encryptPayerRequest(payerRequest);
+        PayerRequest decryptedPayerRequest = warmUpMatcher.decryptPayerRequest(encryptedPayerRequest);
+        MatcherResponse matcherResponse = warmUpMatcher.process(decryptedPayerRequest);
+        EncryptedMatcherResponse encryptedMatcherResponse = warmUpMatcher.encryptMatcherResponse(matcherResponse, decryptedPayerRequest);
+
+        // Verify the round trip so a broken crypto path is noticed early
+        Preconditions.checkNotNull(payer.decryptMatcherResponse(encryptedMatcherResponse, payerRequest), "'matcherResponse' must be present");
+        completed++;
+      }
+
+      log.info("Warm-up completed {} of {} requests in {} ms", completed, requestCount, System.currentTimeMillis() - start);
+
+    } catch (Exception e) {
+      // A broken round trip would fail Payers too so keep the instance out of rotation
+      log.error("Warm-up failed after " + completed + " requests", e);
+      Readiness.INSTANCE.markFailed("Warm-up failed after " + completed + " requests: " + e.getMessage());
+      return completed;
+    }
+
+    if (completed < requestCount) {
+      // Interrupted by a shutdown so this instance is going away
+      log.info("Warm-up interrupted after {} of {} requests", completed, requestCount);
+      return completed;
+    }
+
+    Readiness.INSTANCE.markReady();
+
+    return completed;
+  }
+
+  /**
+   * @return The live Bitcoin addresses if available, otherwise a synthetic set large enough to exercise the sampler
+   */
+  private Map<String, Set<Address>> warmUpAddresses() {
+
+    Map<String, Set<Address>> liveAddresses = liveMatcher.getMatcherStore().getBitcoinAddressesByRedeemer();
+    if (!liveAddresses.isEmpty()) {
+      return liveAddresses;
+    }
+
+    Set<Address> syntheticAddresses = Sets.newHashSet();
+    for (int i = 0; i < 2 * liveMatcher.getConfig().getNumberOfAddressesPerDay(); i++) {
+      byte[] hash160 = new byte[20];
+      ByteBuffer.wrap(hash160).putInt(16, i);
+      syntheticAddresses.add(new Address(MainNetParams.get(), hash160));
+    }
+    return ImmutableMap.of("warm-up", syntheticAddresses);
+  }
+
+  private BRITWalletId newSyntheticBritWalletId() {
+    byte[] britWalletId = new byte[20];
+    secureRandom.nextBytes(britWalletId);
+    return new BRITWalletId(Utils.HEX.encode(britWalletId));
+  }
+
+  private byte[] newSessionKey() {
+    byte[] sessionKey = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionKey);
+    return sessionKey;
+  }
+}
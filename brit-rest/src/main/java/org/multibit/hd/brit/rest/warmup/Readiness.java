@@ -0,0 +1,66 @@
+package org.multibit.hd.brit.rest.warmup;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>State to provide the following to resources:</p>
+ * <ul>
+ * <li>Global indication of whether this instance is warm enough to take Payer traffic</li>
+ * <li>The reason a warm-up failed so that it can be reported rather than hidden</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public enum Readiness {
+
+  // Provide a global singleton for the application
+  INSTANCE;
+
+  private volatile boolean ready = false;
+
+  private volatile Optional<String> failure = Optional.absent();
+
+  /**
+   * @return True if the warm-up has completed
+   */
+  public boolean isReady() {
+    return ready;
+  }
+
+  /**
+   * Indicate that the warm-up has completed
+   */
+  public void markReady() {
+    ready = true;
+  }
+
+  /**
+   * Indicate that the warm-up has failed so this instance must not take Payer traffic
+   *
+   * @param reason The reason for the failure
+   */
+  public void markFailed(String reason) {
+
+    Preconditions.checkNotNull(reason, "'reason' must be present");
+
+    ready = false;
+    failure = Optional.of(reason);
+  }
+
+  /**
+   * @return The reason the warm-up failed if it did
+   */
+  public Optional<String> getFailure() {
+    return failure;
+  }
+
+  /**
+   * Return to the not-ready state (e.g. before a fresh warm-up)
+   */
+  public Readiness reset() {
+    ready = false;
+    failure = Optional.absent();
+    return INSTANCE;
+  }
+}
@@ -0,0 +1,91 @@
+package org.multibit.hd.brit.rest.lifecycle;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.core.dto.PayerRequest;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.dto.WalletToEncounterDateLink;
+import org.multibit.hd.brit.core.matcher.*;
+import org.multibit.hd.brit.rest.resources.PublicBritResourceTest;
+import org.multibit.hd.brit.rest.warmup.Readiness;
+import org.multibit.hd.brit_rest.testing.FixtureUtils;
+
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MatcherLifecycleTest {
+
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds = SyntheticBRITWalletIds.withRandomKey();
+
+  private File matcherStoreDirectory;
+
+  private Matcher matcher;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File matcherSecretKeyFile = FixtureUtils.makeFile("", PublicBritResourceTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyFile, PublicBritResourceTest.TEST_DATA_PASSWORD);
+
+    matcherStoreDirectory = PublicBritResourceTest.createTemporaryDirectory();
+    matcher = Matchers.newBasicMatcher(matcherConfig, MatcherStores.newWriteBehindMatcherStore(MatcherStores.newBasicMatcherStore(matcherStoreDirectory)));
+
+    InFlightRequests.INSTANCE.reset();
+    Readiness.INSTANCE.markReady();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    InFlightRequests.INSTANCE.reset();
+    Readiness.INSTANCE.reset();
+  }
+
+  @Test
+  public void testStopDrainsRequestsAndPersistsEncounters() throws Exception {
+
+    final MatcherLifecycle testObject = new MatcherLifecycle(matcher);
+    testObject.start();
+
+    for (int i = 0; i < 20; i++) {
+      matcher.getMatcherStore().storeWalletToEncounterDateLink(new WalletToEncounterDateLink(
+        syntheticBRITWalletIds.newSyntheticBRITWalletId(i), 1_000L, PayerRequest.NOT_PRESENT_MILLIS
+      ));
+    }
+
+    // A request is still inside the Matcher when the service stops
+    assertThat(InFlightRequests.INSTANCE.enter()).isTrue();
+    Thread stopThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          testObject.stop();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    });
+    stopThread.start();
+
+    stopThread.join(300);
+    assertThat(stopThread.isAlive()).isTrue();
+    assertThat(Readiness.INSTANCE.isReady()).isFalse();
+    assertThat(InFlightRequests.INSTANCE.enter()).isFalse();
+
+    // Finishing the request lets the shutdown complete
+    InFlightRequests.INSTANCE.exit();
+    stopThread.join(5_000);
+    assertThat(stopThread.isAlive()).isFalse();
+    assertThat(testObject.getLastShutdownMillis()).isGreaterThanOrEqualTo(0);
+
+    // Every acknowledged encounter is on disk for the restart
+    File links = new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    assertThat(Files.readLines(links, Charsets.UTF_8)).hasSize(20);
+
+    MatcherStore restartedStore = MatcherStores.newBasicMatcherStore(matcherStoreDirectory);
+    assertThat(restartedStore.lookupWalletToEncounterDateLink(syntheticBRITWalletIds.newSyntheticBRITWalletId(19))).isNotNull();
+  }
+}
@@ -10,19 +10,18 @@ import org.multibit.hd.brit.core.dto.*;
 import org.multibit.hd.brit.core.payer.Payer;
 import org.multibit.hd.brit.core.payer.PayerConfig;
 import org.multibit.hd.brit.core.payer.Payers;
-import org.multibit.hd.brit.core.seed_phrase.Bip39SeedPhraseGenerator;
-import org.multibit.hd.brit.core.seed_phrase.SeedPhraseGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.openpgp.PGPPublicKey;
 
 import javax.ws.rs.core.MediaType;
+import java.io.File;
 import java.io.InputStream;
 import java.security.SecureRandom;
 import java.util.Date;
-import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
@@ -31,18 +30,36 @@ public class PublicBritResourceLoadTest {
 
   private static final Logger log = LoggerFactory.getLogger(PublicBritResourceLoadTest.class);
 
+  /**
+   * The synthetic traffic key file written by the BritService on startup
+   */
+  private static final String DEFAULT_KEY_FILE = "/var/brit/matcher/" + SyntheticBRITWalletIds.KEY_FILE_NAME;
+
   private SecureRandom secureRandom = new SecureRandom();
 
+  private final SyntheticBRITWalletIds syntheticBRITWalletIds;
+
+  private final AtomicInteger nextSyntheticIndex = new AtomicInteger();
+
+  /**
+   * @param syntheticBRITWalletIds The synthetic BRITWalletIds sharing the key of the Matcher under test
+   */
+  PublicBritResourceLoadTest(SyntheticBRITWalletIds syntheticBRITWalletIds) {
+    this.syntheticBRITWalletIds = syntheticBRITWalletIds;
+  }
+
   /**
    * Entry point to the load tester
    *
-   * @param args The command line arguments
+   * @param args The command line arguments (optionally the path to the synthetic traffic key file of the Matcher)
    *
    * @throws Exception If something goes wrong
    */
   public static void main(String[] args) throws Exception {
 
-    PublicBritResourceLoadTest loadTest = new PublicBritResourceLoadTest();
+    // Without the Matcher key the load test ids would be treated as real Payers and persisted
+    File keyFile = new File(args.length > 0 ? args[0] : DEFAULT_KEY_FILE);
+    PublicBritResourceLoadTest loadTest = new PublicBritResourceLoadTest(SyntheticBRITWalletIds.readKeyFile(keyFile));
 
     loadTest.start();
 
@@ -144,14 +161,10 @@ public class PublicBritResourceLoadTest {
     return sessionId;
   }
 
-  private BRITWalletId newBritWalletId() {
-
-    // Create a BRIT WalletId (in real life this would be using the Payer's wallet seed)
-    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
-    List<String> seedPhrase = seedGenerator.newSeedPhrase();
-    byte[] seed = seedGenerator.convertToSeed(seedPhrase);
+  BRITWalletId newBritWalletId() {
 
-    return new BRITWalletId(seed);
+    // Only recognised as synthetic (and so not persisted) by a Matcher using the same key file
+    return syntheticBRITWalletIds.newSyntheticBRITWalletId(nextSyntheticIndex.getAndIncrement());
   }
 
 
@@ -160,7 +173,7 @@ public class PublicBritResourceLoadTest {
    *
    * @throws Exception If something goes wrong
    */
-  private Payer newTestPayer() throws Exception {
+  Payer newTestPayer() throws Exception {
 
     // Load the example Matcher PGP public key
     InputStream matcherPublicKeyInputStream = PublicBritResource.class.getResourceAsStream("/matcher/gpg/matcher-key.asc");
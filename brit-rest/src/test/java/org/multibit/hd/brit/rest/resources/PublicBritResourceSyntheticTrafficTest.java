@@ -0,0 +1,113 @@
+package org.multibit.hd.brit.rest.resources;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.crypto.AESUtils;
+import org.multibit.hd.brit.core.dto.BRITWalletId;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.matcher.*;
+import org.multibit.hd.brit.core.payer.Payer;
+import org.multibit.hd.brit.rest.BritService;
+import org.multibit.hd.brit.rest.lifecycle.InFlightRequests;
+import org.multibit.hd.brit.rest.utils.StreamUtils;
+import org.multibit.hd.brit_rest.testing.FixtureUtils;
+
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class PublicBritResourceSyntheticTrafficTest {
+
+  private static final int LOAD_TEST_REQUESTS = 20;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private File britMatcherDirectory;
+
+  private File matcherStoreDirectory;
+
+  private MatcherStore matcherStore;
+
+  private PublicBritResource testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    britMatcherDirectory = PublicBritResourceTest.createTemporaryDirectory();
+    matcherStoreDirectory = new File(britMatcherDirectory, "store");
+    assertThat(matcherStoreDirectory.mkdir()).isTrue();
+
+    // The same key file and store chain as the BritService
+    SyntheticBRITWalletIds matcherIds = SyntheticBRITWalletIds.readOrCreateKeyFile(new File(britMatcherDirectory, SyntheticBRITWalletIds.KEY_FILE_NAME));
+    matcherStore = BritService.newMatcherStore(matcherStoreDirectory, matcherIds);
+
+    File matcherSecretKeyFile = FixtureUtils.makeFile("", PublicBritResourceTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    Matcher matcher = Matchers.newBasicMatcher(new MatcherConfig(matcherSecretKeyFile, PublicBritResourceTest.TEST_DATA_PASSWORD), matcherStore);
+
+    Set<Address> bitcoinAddresses = Sets.newHashSet();
+    NetworkParameters mainNet = NetworkParameters.fromID(NetworkParameters.ID_MAINNET);
+    bitcoinAddresses.add(new Address(mainNet, "1MkTpZN4TpLwJjZt9zHBXREJA8avUHXB3q"));
+    bitcoinAddresses.add(new Address(mainNet, "1WGmwv86m1fFNVDRQ2YagdAFCButd36SV"));
+    matcherStore.storeBitcoinAddressesForDate(bitcoinAddresses, new Date());
+
+    String matcherPublicKey = StreamUtils.toString(PublicBritResource.class.getResourceAsStream("/matcher/gpg/matcher-key.asc"));
+    testObject = new PublicBritResource(matcher, matcherPublicKey);
+
+    InFlightRequests.INSTANCE.reset();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    InFlightRequests.INSTANCE.reset();
+  }
+
+  @Test
+  public void testLoadTestEncountersAreNotPersisted() throws Exception {
+
+    // The load test reads the key file written by the Matcher, as it would from another process
+    PublicBritResourceLoadTest loadTest = new PublicBritResourceLoadTest(
+      SyntheticBRITWalletIds.readKeyFile(new File(britMatcherDirectory, SyntheticBRITWalletIds.KEY_FILE_NAME))
+    );
+    Payer payer = loadTest.newTestPayer();
+
+    for (int i = 0; i < LOAD_TEST_REQUESTS; i++) {
+      submit(payer, loadTest.newBritWalletId());
+    }
+
+    // A real Payer in the same run is recorded
+    byte[] realBritWalletId = new byte[20];
+    secureRandom.nextBytes(realBritWalletId);
+    submit(payer, new BRITWalletId(Utils.HEX.encode(realBritWalletId)));
+
+    // Closing drains the write behind queue so every persisted encounter is on disk
+    matcherStore.close();
+
+    assertThat(((SyntheticTrafficMatcherStore) matcherStore).getSyntheticStoreCount()).isEqualTo(LOAD_TEST_REQUESTS);
+
+    File links = new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    assertThat(Files.readLines(links, Charsets.UTF_8)).hasSize(1);
+  }
+
+  private void submit(Payer payer, BRITWalletId britWalletId) throws Exception {
+
+    byte[] sessionId = new byte[AESUtils.BLOCK_LENGTH];
+    secureRandom.nextBytes(sessionId);
+
+    byte[] payload = payer.encryptPayerRequest(payer.newPayerRequest(britWalletId, sessionId, Optional.of(new Date()))).getPayload();
+
+    Response response = testObject.submitEncryptedPayerRequest(payload);
+    assertThat(response.getStatus()).isEqualTo(Response.Status.CREATED.getStatusCode());
+  }
+}
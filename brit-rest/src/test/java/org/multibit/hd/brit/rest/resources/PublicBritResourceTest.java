@@ -3,6 +3,7 @@ package org.multibit.hd.brit.rest.resources;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.Sets;
+import com.sun.jersey.api.client.ClientResponse;
 import com.yammer.dropwizard.testing.ResourceTest;
 import org.bitcoinj.core.Address;
 import org.bitcoinj.core.NetworkParameters;
@@ -23,6 +24,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.openpgp.PGPPublicKey;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import java.io.File;
 import java.io.IOException;
@@ -31,6 +34,7 @@ import java.nio.file.Files;
 import java.security.SecureRandom;
 import java.util.Date;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 
@@ -49,6 +53,8 @@ public class PublicBritResourceTest extends ResourceTest {
    */
   public static final char[] TEST_DATA_PASSWORD = "password".toCharArray();
 
+  private PublicBritResource testObject;
+
   @Override
   protected void setUpResources() throws Exception {
 
@@ -56,7 +62,7 @@ public class PublicBritResourceTest extends ResourceTest {
 
     String matcherPublicKey = StreamUtils.toString(PublicBritResource.class.getResourceAsStream("/matcher/gpg/matcher-key.asc"));
 
-    PublicBritResource testObject = new PublicBritResource(matcher, matcherPublicKey);
+    testObject = new PublicBritResource(matcher, matcherPublicKey);
 
     // Configure resources
     addResource(testObject);
@@ -83,6 +89,71 @@ public class PublicBritResourceTest extends ResourceTest {
 
   }
 
+  @Test
+  public void GET_MatcherPublicKey_NotModified() throws Exception {
+
+    ClientResponse response = client()
+      .resource("/brit/public-key")
+      .header("Content-Type", "text/plain")
+      .accept(MediaType.TEXT_PLAIN_TYPE)
+      .get(ClientResponse.class);
+    assertThat(response.getStatus()).isEqualTo(200);
+    EntityTag entityTag = response.getEntityTag();
+    assertThat(entityTag).isNotNull();
+    assertThat(entityTag.isWeak()).isFalse();
+
+    // Revalidating the same key costs no body
+    ClientResponse revalidated = client()
+      .resource("/brit/public-key")
+      .header("Content-Type", "text/plain")
+      .header(HttpHeaders.IF_NONE_MATCH, entityTag.toString())
+      .accept(MediaType.TEXT_PLAIN_TYPE)
+      .get(ClientResponse.class);
+    assertThat(revalidated.getStatus()).isEqualTo(304);
+    assertThat(revalidated.getEntityTag()).isEqualTo(entityTag);
+    assertThat(revalidated.hasEntity()).isFalse();
+
+    // A new key is served in full with a new tag
+    testObject.setMatcherPublicKey("-----BEGIN PGP PUBLIC KEY BLOCK-----\nrotated\n-----END PGP PUBLIC KEY BLOCK-----\n");
+    ClientResponse rotated = client()
+      .resource("/brit/public-key")
+      .header("Content-Type", "text/plain")
+      .header(HttpHeaders.IF_NONE_MATCH, entityTag.toString())
+      .accept(MediaType.TEXT_PLAIN_TYPE)
+      .get(ClientResponse.class);
+    assertThat(rotated.getStatus()).isEqualTo(200);
+    assertThat(rotated.getEntityTag()).isNotEqualTo(entityTag);
+    assertThat(rotated.getEntity(String.class)).contains("rotated");
+
+  }
+
+  @Test
+  public void GET_MatcherPublicKey_Gzip() throws Exception {
+
+    ClientResponse response = client()
+      .resource("/brit/public-key")
+      .header("Content-Type", "text/plain")
+      .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate")
+      .accept(MediaType.TEXT_PLAIN_TYPE)
+      .get(ClientResponse.class);
+
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+
+    String actualResponse = StreamUtils.toString(new GZIPInputStream(response.getEntityInputStream()));
+    FixtureAsserts.assertStringMatchesStringFixture(
+      "Get Matcher public key (gzip)",
+      actualResponse,
+      "/matcher/gpg/matcher-key.asc"
+    );
+
+    // A refused encoding is not used
+    assertThat(PublicBritResource.acceptsGzip("gzip;q=0, identity")).isFalse();
+    assertThat(PublicBritResource.acceptsGzip("deflate, GZIP;q=0.5")).isTrue();
+    assertThat(PublicBritResource.acceptsGzip(null)).isFalse();
+
+  }
+
   @Test
   public void POST_EncryptedPayerRequest_Binary() throws Exception {
 
@@ -0,0 +1,162 @@
+package org.multibit.hd.brit.rest.tasks;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.sun.jersey.api.client.Client;
+import org.bitcoinj.core.Address;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.dto.SyntheticBRITWalletIds;
+import org.multibit.hd.brit.core.matcher.*;
+import org.multibit.hd.brit.rest.health.MatcherProbe;
+import org.multibit.hd.brit.rest.resources.PublicBritResource;
+import org.multibit.hd.brit.rest.resources.PublicBritResourceTest;
+import org.multibit.hd.brit_rest.testing.FixtureUtils;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class ReloadMatcherKeyTaskTest {
+
+  private File reloadDirectory;
+
+  private File gpgDirectory;
+
+  private Matcher matcher;
+
+  private ReloadMatcherKeyTask testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File fixtureGpgDirectory = FixtureUtils.makeFile("", PublicBritResourceTest.TEST_MATCHER_SECRET_KEYRING_FILE).getParentFile();
+    File fixtureAddressesFile = new File(fixtureGpgDirectory.getParentFile(), "store/" + BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+
+    // A live gpg directory and a reload directory with the same key pair staged
+    gpgDirectory = Files.createTempDir();
+    reloadDirectory = Files.createTempDir();
+    for (String name : new String[]{ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME, ReloadMatcherKeyTask.PUBLIC_KEY_FILE_NAME}) {
+      Files.copy(new File(fixtureGpgDirectory, name), new File(gpgDirectory, name));
+      Files.copy(new File(fixtureGpgDirectory, name), new File(reloadDirectory, name));
+    }
+    Files.copy(fixtureAddressesFile, new File(reloadDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES));
+
+    MatcherConfig matcherConfig = new MatcherConfig(new File(gpgDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME), PublicBritResourceTest.TEST_DATA_PASSWORD);
+    matcher = Matchers.newBasicMatcher(matcherConfig, MatcherStores.newInMemoryMatcherStore(new HashMap<String, Set<Address>>()));
+
+    String matcherPublicKey = Files.toString(new File(gpgDirectory, ReloadMatcherKeyTask.PUBLIC_KEY_FILE_NAME), Charsets.UTF_8);
+    MatcherProbe matcherProbe = new MatcherProbe(Client.create(), "http://localhost:7070/brit", PGPUtils.readPublicKey(PublicBritResource.class.getResourceAsStream("/matcher/gpg/matcher-key.asc")), SyntheticBRITWalletIds.withRandomKey());
+
+    testObject = new ReloadMatcherKeyTask(matcher, new PublicBritResource(matcher, matcherPublicKey), matcherProbe, reloadDirectory, gpgDirectory);
+  }
+
+  @Test
+  public void testFailedSelfTestChangesNothing() throws Exception {
+
+    MatcherConfig previousConfig = matcher.getConfig();
+
+    String output = execute(ImmutableMultimap.of("password", "wrong"));
+
+    assertThat(output).contains("Self-test FAIL");
+    assertThat(matcher.getConfig()).isSameAs(previousConfig);
+    assertThat(matcher.getMatcherStore().getAllBitcoinAddresses()).isEmpty();
+    assertThat(new File(reloadDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME).exists()).isTrue();
+    assertThat(new File(gpgDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME + ".previous").exists()).isFalse();
+  }
+
+  @Test
+  public void testReloadSwapsKeyAndAddresses() throws Exception {
+
+    MatcherConfig previousConfig = matcher.getConfig();
+
+    String output = execute(ImmutableMultimap.of("password", new String(PublicBritResourceTest.TEST_DATA_PASSWORD), "graceHours", "1"));
+
+    assertThat(output).contains("Self-test OK").contains("Matcher key reloaded").contains("address universe reloaded");
+    assertThat(matcher.getConfig()).isNotSameAs(previousConfig);
+    assertThat(matcher.getMatcherStore().getAllBitcoinAddresses()).isNotEmpty();
+
+    // Installed for the next restart with the replaced files kept
+    assertThat(new File(reloadDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME).exists()).isFalse();
+    assertThat(new File(gpgDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME).exists()).isTrue();
+    assertThat(new File(gpgDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME + ".previous").exists()).isTrue();
+    assertThat(new File(gpgDirectory, ReloadMatcherKeyTask.PUBLIC_KEY_FILE_NAME + ".previous").exists()).isTrue();
+
+    // Nothing left to reload
+    assertThat(execute(ImmutableMultimap.<String, String>of())).contains("Nothing staged");
+  }
+
+  @Test
+  public void testNonNumericGraceHoursChangesNothing() throws Exception {
+
+    MatcherConfig previousConfig = matcher.getConfig();
+
+    String output = execute(ImmutableMultimap.of("password", new String(PublicBritResourceTest.TEST_DATA_PASSWORD), "graceHours", "a week"));
+
+    assertThat(output).contains("'graceHours' must be a whole number of hours");
+    assertThat(matcher.getConfig()).isSameAs(previousConfig);
+    assertThat(matcher.getMatcherStore().getAllBitcoinAddresses()).isEmpty();
+    assertThat(new File(reloadDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME).exists()).isTrue();
+  }
+
+  @Test
+  public void testReloadKeepsRedeemerSections() throws Exception {
+
+    // Stage only a sectioned address universe
+    deleteStagedKey();
+    File stagedAddressesFile = new File(reloadDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES);
+    List<String> rawAddresses = Files.readLines(stagedAddressesFile, Charsets.UTF_8);
+    List<String> sectioned = Lists.newArrayList();
+    sectioned.add(BasicMatcherStore.REDEEMER_SECTION_PREFIX + "redeemer-1");
+    sectioned.addAll(rawAddresses.subList(0, 10));
+    sectioned.add(BasicMatcherStore.REDEEMER_SECTION_PREFIX + "redeemer-2");
+    sectioned.addAll(rawAddresses.subList(10, 30));
+    Files.write(Joiner.on("\n").join(sectioned) + "\n", stagedAddressesFile, Charsets.UTF_8);
+
+    matcher.getConfig().setRedeemerWeights(ImmutableMap.of("redeemer-2", 1.0));
+
+    String output = execute(ImmutableMultimap.<String, String>of());
+
+    assertThat(output).contains("address universe reloaded with 30 addresses");
+    Map<String, Set<Address>> bitcoinAddressesByRedeemer = matcher.getMatcherStore().getBitcoinAddressesByRedeemer();
+    assertThat(bitcoinAddressesByRedeemer.keySet()).containsOnly("redeemer-1", "redeemer-2");
+    assertThat(bitcoinAddressesByRedeemer.get("redeemer-1")).hasSize(10);
+    assertThat(bitcoinAddressesByRedeemer.get("redeemer-2")).hasSize(20);
+  }
+
+  @Test
+  public void testWeightsMatchingNoRedeemerChangesNothing() throws Exception {
+
+    deleteStagedKey();
+    matcher.getConfig().setRedeemerWeights(ImmutableMap.of("redeemer-x", 1.0));
+
+    String output = execute(ImmutableMultimap.<String, String>of());
+
+    assertThat(output).contains("match no Redeemer section");
+    assertThat(matcher.getMatcherStore().getAllBitcoinAddresses()).isEmpty();
+    assertThat(new File(reloadDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_ALL_BITCOIN_ADDRESSES).exists()).isTrue();
+  }
+
+  private void deleteStagedKey() {
+    assertThat(new File(reloadDirectory, ReloadMatcherKeyTask.SECRET_KEYRING_FILE_NAME).delete()).isTrue();
+    assertThat(new File(reloadDirectory, ReloadMatcherKeyTask.PUBLIC_KEY_FILE_NAME).delete()).isTrue();
+  }
+
+  private String execute(ImmutableMultimap<String, String> parameters) throws Exception {
+
+    StringWriter output = new StringWriter();
+    testObject.execute(parameters, new PrintWriter(output));
+    return output.toString();
+  }
+}
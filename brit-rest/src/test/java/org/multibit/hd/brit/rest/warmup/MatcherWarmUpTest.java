@@ -0,0 +1,82 @@
+package org.multibit.hd.brit.rest.warmup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.commons.crypto.PGPUtils;
+import org.multibit.hd.brit.core.matcher.*;
+import org.multibit.hd.brit.rest.health.MatcherWarmUpHealthCheck;
+import org.multibit.hd.brit.rest.resources.PublicBritResource;
+import org.multibit.hd.brit.rest.resources.PublicBritResourceTest;
+import org.multibit.hd.brit.rest.resources.ReadinessResource;
+import org.multibit.hd.brit_rest.testing.FixtureUtils;
+import org.spongycastle.openpgp.PGPPublicKey;
+
+import java.io.File;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+public class MatcherWarmUpTest {
+
+  private File matcherStoreDirectory;
+
+  private Matcher liveMatcher;
+
+  private PGPPublicKey matcherPublicKey;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File matcherSecretKeyFile = FixtureUtils.makeFile("", PublicBritResourceTest.TEST_MATCHER_SECRET_KEYRING_FILE);
+    MatcherConfig matcherConfig = new MatcherConfig(matcherSecretKeyFile, PublicBritResourceTest.TEST_DATA_PASSWORD);
+
+    matcherStoreDirectory = PublicBritResourceTest.createTemporaryDirectory();
+    liveMatcher = Matchers.newBasicMatcher(matcherConfig, MatcherStores.newBasicMatcherStore(matcherStoreDirectory));
+
+    matcherPublicKey = PGPUtils.readPublicKey(PublicBritResource.class.getResourceAsStream("/matcher/gpg/matcher-key.asc"));
+
+    Readiness.INSTANCE.reset();
+  }
+
+  @Test
+  public void testWarmUpMarksReady() throws Exception {
+
+    ReadinessResource readinessResource = new ReadinessResource();
+    assertThat(readinessResource.getReadiness().getStatus()).isEqualTo(503);
+
+    MatcherWarmUp testObject = new MatcherWarmUp(liveMatcher, matcherPublicKey, 4);
+    assertThat(testObject.warmUp()).isEqualTo(4);
+
+    assertThat(Readiness.INSTANCE.isReady()).isTrue();
+    assertThat(readinessResource.getReadiness().getStatus()).isEqualTo(200);
+
+    // Nothing from the warm-up reaches the live store
+    File links = new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_FILE_CONTAINING_WALLET_TO_ENCOUNTER_DATE_LINKS);
+    assertThat(links.length()).isEqualTo(0);
+    assertThat(new File(matcherStoreDirectory, BasicMatcherStore.NAME_OF_DIRECTORY_CONTAINING_BITCOIN_ADDRESSES_BY_DATE).exists()).isFalse();
+
+  }
+
+  @Test
+  public void testNoWarmUpIsImmediatelyReady() throws Exception {
+
+    assertThat(new MatcherWarmUp(liveMatcher, matcherPublicKey, 0).warmUp()).isEqualTo(0);
+    assertThat(Readiness.INSTANCE.isReady()).isTrue();
+
+  }
+
+  @Test
+  public void testFailedWarmUpIsNotReady() throws Exception {
+
+    // The secret keyring is missing so no round trip can succeed
+    MatcherConfig brokenConfig = new MatcherConfig(new File(matcherStoreDirectory, "missing.gpg"), PublicBritResourceTest.TEST_DATA_PASSWORD);
+    Matcher brokenMatcher = Matchers.newBasicMatcher(brokenConfig, MatcherStores.newBasicMatcherStore(matcherStoreDirectory));
+
+    assertThat(new MatcherWarmUp(brokenMatcher, matcherPublicKey, 4).warmUp()).isEqualTo(0);
+
+    assertThat(Readiness.INSTANCE.isReady()).isFalse();
+    assertThat(Readiness.INSTANCE.getFailure().isPresent()).isTrue();
+    assertThat(new ReadinessResource().getReadiness().getEntity()).isEqualTo("WARM_UP_FAILED");
+    assertThat(new MatcherWarmUpHealthCheck().execute().isHealthy()).isFalse();
+
+  }
+}